@@ -0,0 +1,56 @@
+#!/bin/sh
+
+#
+# Copyright (C) 2011 iWARES Solution Provider
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+
+#
+# @file	bench/build.sh
+# @author	Eric.Tsai
+#
+# Build the daemon, the load generator and, unless CVS points to an existing
+# executable, the CVS executable from ../jni/cvs-src for the host. Everything
+# goes to bench/out. "build.sh java" builds the control plane benchmark
+# instead: libcvsdsrv.so for the host JVM and the application classes with
+# the android stand-ins of bench/java, JAVA_HOME must point to a JDK.
+#
+
+BUILDPATH=$(cd $(dirname $0) && pwd)
+cd $BUILDPATH
+if [ "$1" = "clean" ]; then
+	rm -fr out
+	exit 0
+fi
+mkdir -p out || exit 1
+
+if [ "$1" = "java" ]; then
+	JAVA_HOME=${JAVA_HOME:-$(dirname $(dirname $(readlink -f $(which javac))))}
+	g++ -O2 -Wall -shared -fPIC -I../jni -Inative -I$JAVA_HOME/include -I$JAVA_HOME/include/linux \
+		-o out/libcvsdsrv.so ../jni/cvs*.cpp -lcrypt -lpthread -lz || exit 1
+	rm -fr out/classes && mkdir -p out/classes || exit 1
+	$JAVA_HOME/bin/javac -nowarn -d out/classes $(find java -name '*.java') \
+		../src/com/iwares/app/pocketcvs/CVSService.java \
+		../src/com/iwares/app/pocketcvs/CVSAgent.java || exit 1
+	exit 0
+fi
+
+if [ -z "$CVS" ] && [ ! -x out/cvs/src/cvs ]; then
+	mkdir -p out/cvs
+	(cd out/cvs && $BUILDPATH/../jni/cvs-src/configure && make) || exit 1
+fi
+
+DAEMON_SRC=$(ls ../jni/cvs*.cpp | grep -v cvsjni.cpp)
+g++ -O2 -Wall -I../jni -o out/cvsbenchd cvsbenchd.cpp $DAEMON_SRC -lcrypt -lpthread -lz || exit 1
+g++ -O2 -Wall -I../jni -o out/cvsbench cvsbench.cpp ../jni/cvsauth.cpp -lcrypt -lpthread || exit 1
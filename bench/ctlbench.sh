@@ -0,0 +1,38 @@
+#!/bin/sh
+
+#
+# Copyright (C) 2011 iWARES Solution Provider
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+
+#
+# @file	bench/ctlbench.sh
+# @author	Eric.Tsai
+#
+# Build and run the control plane benchmark, see
+# bench/java/com/iwares/app/pocketcvs/ControlPlaneBench.java. The arguments
+# are passed to it, e.g. "ctlbench.sh -n 5000 -c 200 -o result.csv". The
+# external storage and the private files of the service are kept in
+# out/ctl, which is removed first.
+#
+
+BENCHPATH=$(cd $(dirname $0) && pwd)
+OUT=$BENCHPATH/out
+
+$BENCHPATH/build.sh java || exit 1
+JAVA=${JAVA_HOME:+$JAVA_HOME/bin/}java
+
+rm -fr $OUT/ctl && mkdir -p $OUT/ctl/storage $OUT/ctl/data || exit 1
+exec $JAVA -Djava.library.path=$OUT -Dbench.storage=$OUT/ctl/storage -Dbench.data=$OUT/ctl/data \
+	-cp $OUT/classes com.iwares.app.pocketcvs.ControlPlaneBench "$@"
@@ -0,0 +1,553 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	bench/cvsbench.cpp
+ * @author	Eric.Tsai
+ *
+ * Load generator for a CVS pserver. Each simulated client is a thread with
+ * its own working copy, it runs a weighted random mix of operations for the
+ * specified duration:
+ *
+ *   login      a verification request sent directly, as "cvs login" does.
+ *   checkout   a fresh checkout of the module.
+ *   update     "cvs update" of the working copy.
+ *   commit     a change to the client's own file committed.
+ *   log        "cvs log" of the top directory of the working copy.
+ *
+ * All operations but login run the real CVS client. The count, the errors,
+ * the throughput and the latency percentiles of each operation are reported.
+ *
+ */
+
+#include "cvsauth.h"
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <unistd.h>
+#include <errno.h>
+#include <fcntl.h>
+#include <time.h>
+#include <netdb.h>
+#include <pthread.h>
+#include <sys/stat.h>
+#include <sys/wait.h>
+#include <sys/socket.h>
+#include <netinet/in.h>
+
+/** Operations. */
+enum {
+	OP_LOGIN = 0,
+	OP_CHECKOUT,
+	OP_UPDATE,
+	OP_COMMIT,
+	OP_LOG,
+	OP_COUNT
+};
+
+/** Names of the operations. */
+static const char *OP_NAMES[OP_COUNT] = { "login", "checkout", "update", "commit", "log" };
+
+/** Max count of simulated clients. */
+#define MAX_CLIENTS		256
+
+/** Max length of a path. */
+#define MAX_BENCH_PATH	512
+
+/** Latencies of an operation. */
+struct Samples {
+	/** Latencies in microseconds. */
+	long long *values;
+	/** Count and capacity of the latencies. */
+	int count, capacity;
+	/** Count of failed operations. */
+	int errors;
+};
+
+/** A simulated client. */
+struct Client {
+	/** Index of the client. */
+	int index;
+	/** Seed of the random mix. */
+	unsigned int seed;
+	/** Latencies of each operation. */
+	Samples samples[OP_COUNT];
+};
+
+/** Settings shared by all clients. */
+static struct {
+	const char *host;
+	int port;
+	const char *root;
+	char username[MAX_USERNAME];
+	char password[MAX_USERNAME];
+	const char *cvs;
+	const char *module;
+	const char *workPath;
+	int clients;
+	int duration;
+	int weights[OP_COUNT];
+	int totalWeight;
+	char cvsroot[MAX_BENCH_PATH];
+	char passfile[MAX_BENCH_PATH];
+	long long deadline;
+} s_config;
+
+/**
+ * Get the monotonic time.
+ *
+ * @return		Monotonic time in microseconds.
+ *
+ */
+static long long __uptimeMicros(void)
+{
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return (long long)ts.tv_sec * 1000000 + ts.tv_nsec / 1000;
+}
+
+/**
+ * Append a latency.
+ *
+ * @param	samples	The latencies of an operation.
+ * @param	value	The latency in microseconds.
+ *
+ */
+static void __addSample(Samples *samples, long long value)
+{
+	if (samples->count == samples->capacity) {
+		int capacity = samples->capacity ? samples->capacity * 2 : 256;
+		long long *values = (long long *)realloc(samples->values, capacity * sizeof(long long));
+		if (values == NULL)
+			return;
+		samples->values = values;
+		samples->capacity = capacity;
+	}
+	samples->values[samples->count++] = value;
+}
+
+/**
+ * Compare two latencies for qsort().
+ *
+ */
+static int __compareSamples(const void *a, const void *b)
+{
+	long long x = *(const long long *)a, y = *(const long long *)b;
+	return x < y ? -1 : x > y ? 1 : 0;
+}
+
+/**
+ * Get a percentile of the sorted latencies.
+ *
+ * @param	samples		The latencies, sorted.
+ * @param	percentile	The percentile, 0 to 100.
+ *
+ * @return				The latency in milliseconds.
+ *
+ */
+static double __percentile(const Samples *samples, double percentile)
+{
+	if (samples->count == 0)
+		return 0;
+	int index = (int)(samples->count * percentile / 100 + 0.999999) - 1;
+	if (index < 0)
+		index = 0;
+	if (index >= samples->count)
+		index = samples->count - 1;
+	return samples->values[index] / 1000.0;
+}
+
+/**
+ * Run the CVS client and wait for it.
+ *
+ * @param	client	The simulated client.
+ * @param	dir		Working directory of the CVS client.
+ * @param	args	Arguments after "cvs -q -d <root>", terminated by NULL.
+ *
+ * @return			Return true if the CVS client exits with 0, otherwise
+ * 					return false.
+ *
+ */
+static bool __runCVS(const Client *client, const char *dir, const char **args)
+{
+	const char *argv[32];
+	int argc = 0;
+	argv[argc++] = s_config.cvs;
+	argv[argc++] = "-q";
+	argv[argc++] = "-d";
+	argv[argc++] = s_config.cvsroot;
+	while (*args && argc < 31)
+		argv[argc++] = *args++;
+	argv[argc] = NULL;
+
+	char logfile[MAX_BENCH_PATH];
+	snprintf(logfile, sizeof(logfile), "%s/client%d.log", s_config.workPath, client->index);
+
+	pid_t pid = fork();
+	if (pid == 0) {
+		int log = open(logfile, O_WRONLY | O_CREAT | O_APPEND, 0644);
+		int null = open("/dev/null", O_RDWR);
+		dup2(null, STDIN_FILENO);
+		dup2(log >= 0 ? log : null, STDOUT_FILENO);
+		dup2(log >= 0 ? log : null, STDERR_FILENO);
+		if (chdir(dir) < 0)
+			_exit(126);
+		setenv("CVS_PASSFILE", s_config.passfile, 1);
+		setenv("HOME", s_config.workPath, 1);
+		execv(s_config.cvs, (char **)argv);
+		_exit(127);
+	}
+	int status = -1;
+	while (pid > 0 && waitpid(pid, &status, 0) < 0 && errno == EINTR)
+		continue;
+	return pid > 0 && WIFEXITED(status) && WEXITSTATUS(status) == 0;
+}
+
+/**
+ * Remove a directory tree.
+ *
+ * @param	path	Path of the tree.
+ *
+ */
+static void __removeTree(const char *path)
+{
+	pid_t pid = fork();
+	if (pid == 0) {
+		execlp("rm", "rm", "-rf", path, (char *)NULL);
+		_exit(127);
+	}
+	int status;
+	while (pid > 0 && waitpid(pid, &status, 0) < 0 && errno == EINTR)
+		continue;
+}
+
+/**
+ * Send a verification request and check the reply.
+ *
+ * @return		Return true if the server loves us, otherwise return false.
+ *
+ */
+static bool __login(void)
+{
+	char port[16], scrambled[MAX_USERNAME * 2 + 2], request[MAX_PREAMBLE];
+	snprintf(port, sizeof(port), "%d", s_config.port);
+	if (!CVSAuthenticator::scramble(s_config.password, scrambled, sizeof(scrambled)))
+		return false;
+	int size = snprintf(request, sizeof(request),
+		"BEGIN VERIFICATION REQUEST\n%s\n%s\n%s\nEND VERIFICATION REQUEST\n",
+		s_config.root, s_config.username, scrambled);
+
+	struct addrinfo hints, *addrs = NULL;
+	memset(&hints, 0, sizeof(hints));
+	hints.ai_socktype = SOCK_STREAM;
+	if (getaddrinfo(s_config.host, port, &hints, &addrs) != 0)
+		return false;
+	int fd = socket(addrs->ai_family, SOCK_STREAM, 0);
+	bool loved = false;
+	if (fd >= 0 && connect(fd, addrs->ai_addr, addrs->ai_addrlen) == 0 &&
+		send(fd, request, size, MSG_NOSIGNAL) == size) {
+		char reply[64];
+		int got = 0, count;
+		while (got < (int)sizeof(reply) - 1 && (count = recv(fd, reply + got, sizeof(reply) - 1 - got, 0)) > 0) {
+			got += count;
+			if (memchr(reply, '\n', got) != NULL)
+				break;
+		}
+		reply[got] = 0;
+		loved = strncmp(reply, "I LOVE YOU\n", 11) == 0;
+	}
+	if (fd >= 0)
+		close(fd);
+	freeaddrinfo(addrs);
+	return loved;
+}
+
+/**
+ * Run an operation.
+ *
+ * @param	client	The simulated client.
+ * @param	op		The operation.
+ *
+ * @return			Return true if success, otherwise return false.
+ *
+ */
+static bool __runOperation(Client *client, int op)
+{
+	char name[32], copy[MAX_BENCH_PATH], file[MAX_BENCH_PATH];
+	snprintf(name, sizeof(name), "c%d", client->index);
+	snprintf(copy, sizeof(copy), "%s/%s", s_config.workPath, name);
+	snprintf(file, sizeof(file), "bench-%d.txt", client->index);
+
+	switch (op) {
+	case OP_LOGIN:
+		return __login();
+	case OP_CHECKOUT: {
+		const char *args[] = { "checkout", "-d", name, s_config.module, NULL };
+		return __runCVS(client, s_config.workPath, args);
+	}
+	case OP_UPDATE: {
+		const char *args[] = { "update", "-d", NULL };
+		return __runCVS(client, copy, args);
+	}
+	case OP_COMMIT: {
+		char path[MAX_BENCH_PATH * 2];
+		snprintf(path, sizeof(path), "%s/%s", copy, file);
+		FILE *out = fopen(path, "a");
+		if (out == NULL)
+			return false;
+		fprintf(out, "change %lld\n", __uptimeMicros());
+		fclose(out);
+		const char *args[] = { "commit", "-m", "bench", file, NULL };
+		return __runCVS(client, copy, args);
+	}
+	case OP_LOG: {
+		const char *args[] = { "log", "-N", "-l", NULL };
+		return __runCVS(client, copy, args);
+	}
+	default:
+		return false;
+	}
+}
+
+/**
+ * Check out the working copy of a client and add its own file. It is not
+ * measured.
+ *
+ * @param	client	The simulated client.
+ *
+ * @return			Return true if success, otherwise return false.
+ *
+ */
+static bool __prepareClient(Client *client)
+{
+	char name[32], copy[MAX_BENCH_PATH], file[MAX_BENCH_PATH], path[MAX_BENCH_PATH * 2];
+	snprintf(name, sizeof(name), "c%d", client->index);
+	snprintf(copy, sizeof(copy), "%s/%s", s_config.workPath, name);
+	snprintf(file, sizeof(file), "bench-%d.txt", client->index);
+	snprintf(path, sizeof(path), "%s/%s", copy, file);
+
+	__removeTree(copy);
+	if (!__runOperation(client, OP_CHECKOUT))
+		return false;
+	if (access(path, F_OK) == 0)
+		return true;
+	FILE *out = fopen(path, "w");
+	if (out == NULL)
+		return false;
+	fprintf(out, "client %d\n", client->index);
+	fclose(out);
+	const char *add[] = { "add", file, NULL };
+	const char *commit[] = { "commit", "-m", "bench", file, NULL };
+	return __runCVS(client, copy, add) && __runCVS(client, copy, commit);
+}
+
+/**
+ * Run random operations until the deadline. A fresh checkout replaces the
+ * working copy, the old one is removed before the clock starts.
+ */
+static void* __clientThreadFunc(void *param)
+{
+	Client *client = (Client *)param;
+	char copy[MAX_BENCH_PATH];
+	snprintf(copy, sizeof(copy), "%s/c%d", s_config.workPath, client->index);
+
+	while (__uptimeMicros() < s_config.deadline) {
+		int pick = rand_r(&client->seed) % s_config.totalWeight, op = 0;
+		while (pick >= s_config.weights[op])
+			pick -= s_config.weights[op++];
+		if (op == OP_CHECKOUT)
+			__removeTree(copy);
+		long long started = __uptimeMicros();
+		bool done = __runOperation(client, op);
+		long long elapsed = __uptimeMicros() - started;
+		if (done)
+			__addSample(&client->samples[op], elapsed);
+		else
+			++client->samples[op].errors;
+	}
+	return NULL;
+}
+
+/**
+ * Parse the operation mix like "login=2,update=4".
+ *
+ * @param	mix		The mix.
+ *
+ * @return			Return true if the mix is valid, otherwise return false.
+ *
+ */
+static bool __parseMix(const char *mix)
+{
+	memset(s_config.weights, 0, sizeof(s_config.weights));
+	s_config.totalWeight = 0;
+	while (*mix) {
+		int length = strcspn(mix, "=");
+		int op = 0;
+		while (op < OP_COUNT && (strncmp(OP_NAMES[op], mix, length) != 0 || OP_NAMES[op][length] != 0))
+			++op;
+		if (op == OP_COUNT || mix[length] != '=')
+			return false;
+		int weight = atoi(mix + length + 1);
+		if (weight < 0)
+			return false;
+		s_config.weights[op] = weight;
+		s_config.totalWeight += weight;
+		mix += length + 1 + strcspn(mix + length + 1, ",");
+		if (*mix == ',')
+			++mix;
+	}
+	return s_config.totalWeight > 0;
+}
+
+/**
+ * Print the usage.
+ *
+ */
+static void __usage(void)
+{
+	fprintf(stderr,
+		"Usage: cvsbench -r <root> -x <cvs> [options]\n"
+		"  -H <host>            server host (127.0.0.1)\n"
+		"  -p <port>            server port (2401)\n"
+		"  -u <user:password>   account (bench:bench)\n"
+		"  -m <module>          module to check out (bench)\n"
+		"  -w <dir>             working directory (/tmp/cvsbench)\n"
+		"  -c <clients>         concurrent clients (4)\n"
+		"  -d <seconds>         duration (30)\n"
+		"  -M <mix>             operation weights\n"
+		"                       (login=2,checkout=1,update=4,commit=1,log=2)\n"
+		"  -o <file>            also write the results as CSV\n"
+		);
+}
+
+/**
+ * Prepare the clients, run them and report the results.
+ */
+int main(int argc, char **argv)
+{
+	const char *csvPath = NULL, *mix = "login=2,checkout=1,update=4,commit=1,log=2";
+	char account[MAX_USERNAME * 2] = "bench:bench";
+	s_config.host = "127.0.0.1";
+	s_config.port = 2401;
+	s_config.module = "bench";
+	s_config.workPath = "/tmp/cvsbench";
+	s_config.clients = 4;
+	s_config.duration = 30;
+
+	int option;
+	while ((option = getopt(argc, argv, "H:p:r:u:x:m:w:c:d:M:o:")) != -1) {
+		switch (option) {
+		case 'H': s_config.host = optarg; break;
+		case 'p': s_config.port = atoi(optarg); break;
+		case 'r': s_config.root = optarg; break;
+		case 'u': strncpy(account, optarg, sizeof(account) - 1); break;
+		case 'x': s_config.cvs = optarg; break;
+		case 'm': s_config.module = optarg; break;
+		case 'w': s_config.workPath = optarg; break;
+		case 'c': s_config.clients = atoi(optarg); break;
+		case 'd': s_config.duration = atoi(optarg); break;
+		case 'M': mix = optarg; break;
+		case 'o': csvPath = optarg; break;
+		default: __usage(); return 2;
+		}
+	}
+	char *password = strchr(account, ':');
+	if (s_config.root == NULL || s_config.cvs == NULL || password == NULL ||
+		s_config.clients < 1 || s_config.clients > MAX_CLIENTS || !__parseMix(mix)) {
+		__usage();
+		return 2;
+	}
+	*password++ = 0;
+	snprintf(s_config.username, sizeof(s_config.username), "%s", account);
+	snprintf(s_config.password, sizeof(s_config.password), "%s", password);
+
+	// The CVS client finds the password in its pass file.
+	mkdir(s_config.workPath, 0755);
+	snprintf(s_config.cvsroot, sizeof(s_config.cvsroot), ":pserver:%s@%s:%d%s",
+		s_config.username, s_config.host, s_config.port, s_config.root);
+	snprintf(s_config.passfile, sizeof(s_config.passfile), "%s/.cvspass", s_config.workPath);
+	char scrambled[MAX_USERNAME * 2 + 2];
+	CVSAuthenticator::scramble(s_config.password, scrambled, sizeof(scrambled));
+	FILE *passfile = fopen(s_config.passfile, "w");
+	if (passfile == NULL) {
+		fprintf(stderr, "cvsbench: cannot write %s\n", s_config.passfile);
+		return 1;
+	}
+	fprintf(passfile, "/1 %s %s\n", s_config.cvsroot, scrambled);
+	fclose(passfile);
+
+	static Client clients[MAX_CLIENTS];
+	for (int i = 0; i < s_config.clients; ++i) {
+		clients[i].index = i;
+		clients[i].seed = 2401 + i;
+		if (!__prepareClient(&clients[i])) {
+			fprintf(stderr, "cvsbench: cannot prepare client %d, see %s/client%d.log\n",
+				i, s_config.workPath, i);
+			return 1;
+		}
+	}
+
+	long long started = __uptimeMicros();
+	s_config.deadline = started + (long long)s_config.duration * 1000000;
+	pthread_t threads[MAX_CLIENTS];
+	for (int i = 0; i < s_config.clients; ++i)
+		pthread_create(&threads[i], NULL, __clientThreadFunc, &clients[i]);
+	for (int i = 0; i < s_config.clients; ++i)
+		pthread_join(threads[i], NULL);
+	double elapsed = (__uptimeMicros() - started) / 1000000.0;
+
+	// Merge the latencies of all clients.
+	Samples merged[OP_COUNT + 1];
+	memset(merged, 0, sizeof(merged));
+	for (int op = 0; op < OP_COUNT; ++op) {
+		for (int i = 0; i < s_config.clients; ++i) {
+			const Samples *samples = &clients[i].samples[op];
+			for (int j = 0; j < samples->count; ++j) {
+				__addSample(&merged[op], samples->values[j]);
+				__addSample(&merged[OP_COUNT], samples->values[j]);
+			}
+			merged[op].errors += samples->errors;
+			merged[OP_COUNT].errors += samples->errors;
+		}
+	}
+
+	FILE *csv = csvPath != NULL ? fopen(csvPath, "w") : NULL;
+	if (csv != NULL)
+		fprintf(csv, "op,count,errors,throughput,p50,p99,p999,max\n");
+	printf("%d clients, %.1f seconds\n", s_config.clients, elapsed);
+	printf("%-10s %8s %7s %9s %9s %9s %9s %9s\n",
+		"op", "count", "errors", "ops/s", "p50(ms)", "p99(ms)", "p999(ms)", "max(ms)");
+	for (int op = 0; op <= OP_COUNT; ++op) {
+		Samples *samples = &merged[op];
+		if (op < OP_COUNT && s_config.weights[op] == 0)
+			continue;
+		qsort(samples->values, samples->count, sizeof(long long), __compareSamples);
+		const char *name = op < OP_COUNT ? OP_NAMES[op] : "total";
+		double throughput = samples->count / elapsed;
+		double p50 = __percentile(samples, 50), p99 = __percentile(samples, 99);
+		double p999 = __percentile(samples, 99.9), max = __percentile(samples, 100);
+		printf("%-10s %8d %7d %9.2f %9.1f %9.1f %9.1f %9.1f\n",
+			name, samples->count, samples->errors, throughput, p50, p99, p999, max);
+		if (csv != NULL)
+			fprintf(csv, "%s,%d,%d,%.3f,%.3f,%.3f,%.3f,%.3f\n",
+				name, samples->count, samples->errors, throughput, p50, p99, p999, max);
+	}
+	if (csv != NULL)
+		fclose(csv);
+	return merged[OP_COUNT].errors == 0 ? 0 : 1;
+}
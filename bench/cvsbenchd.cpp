@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	bench/cvsbenchd.cpp
+ * @author	Eric.Tsai
+ *
+ * Run the native CVSService daemon on a Linux host, the same way CVSService
+ * runs it on a device, so it can be driven by cvsbench. The daemon listens on
+ * port 2401, or the addresses given with -a, until SIGINT or SIGTERM, then its
+ * counters are printed.
+ *
+ */
+
+#include "cvssrv.h"
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <unistd.h>
+#include <signal.h>
+
+/** Names of the counters, in the order of the STAT_* indexes. */
+static const char *STAT_NAMES[STAT_COUNT] = {
+	"accepted", "rejected", "active", "waiting", "finished", "bytesIn",
+	"bytesOut", "exitOk", "exitError", "exitSignaled", "authFailed",
+	"duration100ms", "duration1s", "duration10s", "duration1min",
+	"duration10min", "durationLonger",
+};
+
+/**
+ * Print the usage.
+ *
+ */
+static void __usage(void)
+{
+	fprintf(stderr,
+		"Usage: cvsbenchd -r <repo> -t <temp> -x <cvs> [options]\n"
+		"  -u <user:password>       account of the clients (bench:bench)\n"
+		"  -w <pool,idle,sessions>  worker pool (2,300,16)\n"
+		"  -s <max,queue,backlog>   session limits (8,16,16)\n"
+		"  -z <min,max,adaptive>    compression policy (0,9,0)\n"
+		"  -q <MB>                  temporary area quota (0)\n"
+		"  -l <lockdir>             lock area, none for the repository ()\n"
+		"  -b <session,total,relay> bandwidth in KB/s and relay mode (0,0,0)\n"
+		"  -a <addresses>           listening addresses (*:2401)\n"
+		"  -n <threads,nodelay,keepalive>\n"
+		"                           accept threads, TCP_NODELAY and keep-alive\n"
+		"                           idle seconds (0,0,0)\n"
+		"  -k <rcvbuf,sndbuf>       socket buffers in KB, 0 for default (0,0)\n"
+		);
+}
+
+/**
+ * Parse up to three comma separated integers.
+ *
+ * @param	text	The text.
+ * @param	values	Buffer to hold the values, left unchanged if missing.
+ *
+ */
+static void __parseTriple(const char *text, int *values)
+{
+	sscanf(text, "%d,%d,%d", &values[0], &values[1], &values[2]);
+}
+
+/**
+ * Set up the daemon, start it and wait for a signal.
+ */
+int main(int argc, char **argv)
+{
+	const char *repoPath = NULL, *tempPath = NULL, *execPath = NULL, *lockPath = "";
+	const char *addresses = "*:2401";
+	char account[MAX_USERNAME * 2] = "bench:bench";
+	int pool[3] = { 2, 300, 16 }, limits[3] = { 8, 16, 16 }, gzip[3] = { 0, 9, 0 };
+	int relay[3] = { 0, 0, 0 }, listener[3] = { 0, 0, 0 }, buffers[3] = { 0, 0, 0 };
+	int quota = 0;
+
+	int option;
+	while ((option = getopt(argc, argv, "r:t:x:u:w:s:z:q:l:b:a:n:k:")) != -1) {
+		switch (option) {
+		case 'r': repoPath = optarg; break;
+		case 't': tempPath = optarg; break;
+		case 'x': execPath = optarg; break;
+		case 'u': strncpy(account, optarg, sizeof(account) - 1); break;
+		case 'w': __parseTriple(optarg, pool); break;
+		case 's': __parseTriple(optarg, limits); break;
+		case 'z': __parseTriple(optarg, gzip); break;
+		case 'q': quota = atoi(optarg); break;
+		case 'l': lockPath = optarg; break;
+		case 'b': __parseTriple(optarg, relay); break;
+		case 'a': addresses = optarg; break;
+		case 'n': __parseTriple(optarg, listener); break;
+		case 'k': __parseTriple(optarg, buffers); break;
+		default: __usage(); return 2;
+		}
+	}
+	char *password = strchr(account, ':');
+	if (repoPath == NULL || tempPath == NULL || execPath == NULL || password == NULL) {
+		__usage();
+		return 2;
+	}
+	*password++ = 0;
+
+	// Block the signals before any thread is created, so they are only
+	// received by sigwait().
+	sigset_t signals;
+	sigemptyset(&signals);
+	sigaddset(&signals, SIGINT);
+	sigaddset(&signals, SIGTERM);
+	pthread_sigmask(SIG_BLOCK, &signals, NULL);
+	signal(SIGPIPE, SIG_IGN);
+
+	CVSService service(repoPath, tempPath, execPath);
+	CVSUserUpdate update = { account, password, ROLE_READ | ROLE_WRITE };
+	if (service.updateUsers(&update, 1) != 1) {
+		fprintf(stderr, "cvsbenchd: cannot create user %s in %s\n", account, repoPath);
+		return 1;
+	}
+	service.setWorkerPool(pool[0], pool[1], pool[2]);
+	service.setSessionLimits(limits[0], limits[1], limits[2]);
+	service.setCompression(gzip[0], gzip[1], gzip[2] != 0);
+	service.setRelay(relay[2] != 0, relay[0] * 1024, relay[1] * 1024);
+	service.setTempArea(tempPath, (unsigned long long)quota * 1024 * 1024);
+	if (!service.setLockArea(lockPath)) {
+		fprintf(stderr, "cvsbenchd: cannot use the lock area %s\n", lockPath);
+		return 1;
+	}
+	if (!service.setListeners(addresses, listener[0], listener[1] != 0, listener[2],
+		buffers[0] * 1024, buffers[1] * 1024)) {
+		fprintf(stderr, "cvsbenchd: cannot parse the addresses %s\n", addresses);
+		return 1;
+	}
+	if (!service.startDaemon()) {
+		fprintf(stderr, "cvsbenchd: cannot start the daemon\n");
+		return 1;
+	}
+	printf("ready\n");
+	fflush(stdout);
+
+	int signo;
+	sigwait(&signals, &signo);
+
+	unsigned long long counters[STAT_COUNT];
+	service.getStats(counters, STAT_COUNT);
+	int listening, acceptThreads;
+	service.getListenerState(&listening, &acceptThreads);
+	service.stopDaemon();
+	for (int i = 0; i < STAT_COUNT; ++i)
+		printf("%s=%llu\n", STAT_NAMES[i], counters[i]);
+	printf("listening=%d\nacceptThreads=%d\n", listening, acceptThreads);
+	return 0;
+}
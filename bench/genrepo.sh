@@ -0,0 +1,71 @@
+#!/bin/sh
+
+#
+# Copyright (C) 2011 iWARES Solution Provider
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+
+#
+# @file	bench/genrepo.sh
+# @author	Eric.Tsai
+#
+# Generate a repository with a "bench" module of <dirs> directories of <files>
+# files of <kb> KB each, and <revisions> revisions of every file.
+#
+# Usage: genrepo.sh <cvs> <repo> [dirs] [files] [kb] [revisions]
+#
+
+CVS=$1
+REPO=$2
+DIRS=${3:-10}
+FILES=${4:-20}
+KB=${5:-8}
+REVISIONS=${6:-5}
+
+if [ -z "$CVS" ] || [ -z "$REPO" ]; then
+	echo "Usage: genrepo.sh <cvs> <repo> [dirs] [files] [kb] [revisions]" >&2
+	exit 2
+fi
+
+WORK=$(mktemp -d) || exit 1
+trap 'rm -fr $WORK' EXIT
+
+rm -fr $REPO
+$CVS -d $REPO init || exit 1
+
+# The first revision is imported.
+mkdir $WORK/import
+d=0
+while [ $d -lt $DIRS ]; do
+	mkdir $WORK/import/dir$d
+	f=0
+	while [ $f -lt $FILES ]; do
+		head -c $((KB * 768)) /dev/urandom | base64 > $WORK/import/dir$d/file$f.txt
+		f=$((f + 1))
+	done
+	d=$((d + 1))
+done
+(cd $WORK/import && $CVS -Q -d $REPO import -m "initial" bench vendor start) || exit 1
+
+# The other revisions change a line of every file.
+(cd $WORK && $CVS -Q -d $REPO checkout bench) || exit 1
+r=1
+while [ $r -lt $REVISIONS ]; do
+	for file in $WORK/bench/dir*/file*.txt; do
+		sed -i "1s/.*/revision $r/" $file
+	done
+	(cd $WORK/bench && $CVS -Q commit -m "revision $r") || exit 1
+	r=$((r + 1))
+done
+echo "$REPO: $DIRS x $FILES files of $KB KB, $REVISIONS revisions"
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	bench/java/android/app/Service.java
+ * @author	Eric.Tsai
+ *
+ */
+
+package android.app;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.IBinder;
+
+/**
+ * Host stand-in of android.app.Service, the life cycle is driven by the
+ * caller.
+ *
+ * @author Eric.Tsai
+ *
+ */
+public abstract class Service extends Context {
+
+	public static final int START_STICKY = 1;
+
+	public static final int START_NOT_STICKY = 2;
+
+	public void onCreate() {
+	}
+
+	public int onStartCommand(Intent intent, int flags, int startId) {
+		return START_STICKY;
+	}
+
+	public abstract IBinder onBind(Intent intent);
+
+	public boolean onUnbind(Intent intent) {
+		return false;
+	}
+
+	public void onDestroy() {
+	}
+
+	public final void stopSelf() {
+	}
+
+}
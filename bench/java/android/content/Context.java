@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	bench/java/android/content/Context.java
+ * @author	Eric.Tsai
+ *
+ */
+
+package android.content;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.net.wifi.WifiManager;
+import android.os.PowerManager;
+
+/**
+ * Host stand-in of android.content.Context. The private files are under the
+ * directory in the bench.data system property and the shared preferences are
+ * kept in memory only, commit() and apply() cost the same.
+ *
+ * @author Eric.Tsai
+ *
+ */
+public abstract class Context {
+
+	public static final int MODE_PRIVATE = 0;
+
+	public static final int BIND_AUTO_CREATE = 1;
+
+	public static final String POWER_SERVICE = "power";
+
+	public static final String WIFI_SERVICE = "wifi";
+
+	private static final HashMap<String, Preferences> sPreferences = new HashMap<String, Preferences>();
+
+	private static final class Preferences implements SharedPreferences {
+
+		private final HashMap<String, Object> mMap = new HashMap<String, Object>();
+
+		private synchronized Object get(String key, Object defValue) {
+			Object o = mMap.get(key);
+			return o != null ? o : defValue;
+		}
+
+		public boolean contains(String key) {
+			return get(key, null) != null;
+		}
+
+		public boolean getBoolean(String key, boolean defValue) {
+			return (Boolean)get(key, defValue);
+		}
+
+		public int getInt(String key, int defValue) {
+			return (Integer)get(key, defValue);
+		}
+
+		public long getLong(String key, long defValue) {
+			return (Long)get(key, defValue);
+		}
+
+		public String getString(String key, String defValue) {
+			return (String)get(key, defValue);
+		}
+
+		public SharedPreferences.Editor edit() {
+			return new PreferencesEditor(this);
+		}
+
+	}
+
+	private static final class PreferencesEditor implements SharedPreferences.Editor {
+
+		private final Preferences mPreferences;
+
+		private final HashMap<String, Object> mChanges = new HashMap<String, Object>();
+
+		private boolean mClear = false;
+
+		PreferencesEditor(Preferences preferences) {
+			mPreferences = preferences;
+		}
+
+		public SharedPreferences.Editor putBoolean(String key, boolean value) {
+			mChanges.put(key, value);
+			return this;
+		}
+
+		public SharedPreferences.Editor putInt(String key, int value) {
+			mChanges.put(key, value);
+			return this;
+		}
+
+		public SharedPreferences.Editor putLong(String key, long value) {
+			mChanges.put(key, value);
+			return this;
+		}
+
+		public SharedPreferences.Editor putString(String key, String value) {
+			mChanges.put(key, value);
+			return this;
+		}
+
+		public SharedPreferences.Editor remove(String key) {
+			mChanges.put(key, null);
+			return this;
+		}
+
+		public SharedPreferences.Editor clear() {
+			mClear = true;
+			return this;
+		}
+
+		public boolean commit() {
+			synchronized (mPreferences) {
+				if (mClear)
+					mPreferences.mMap.clear();
+				for (Map.Entry<String, Object> e : mChanges.entrySet()) {
+					if (e.getValue() == null)
+						mPreferences.mMap.remove(e.getKey());
+					else
+						mPreferences.mMap.put(e.getKey(), e.getValue());
+				}
+			}
+			return true;
+		}
+
+		public void apply() {
+			commit();
+		}
+
+	}
+
+	public SharedPreferences getSharedPreferences(String name, int mode) {
+		synchronized (sPreferences) {
+			Preferences preferences = sPreferences.get(name);
+			if (preferences == null) {
+				preferences = new Preferences();
+				sPreferences.put(name, preferences);
+			}
+			return preferences;
+		}
+	}
+
+	public String getPackageName() {
+		return "com.iwares.app.pocketcvs";
+	}
+
+	private static File getDataDir() {
+		return new File(System.getProperty("bench.data", "/tmp/cvsbench/data"));
+	}
+
+	public File getDir(String name, int mode) {
+		File dir = new File(getDataDir(), "app_" + name);
+		dir.mkdirs();
+		return dir;
+	}
+
+	public File getCacheDir() {
+		File dir = new File(getDataDir(), "cache");
+		dir.mkdirs();
+		return dir;
+	}
+
+	public File getFilesDir() {
+		File dir = new File(getDataDir(), "files");
+		dir.mkdirs();
+		return dir;
+	}
+
+	public Object getSystemService(String name) {
+		if (POWER_SERVICE.equals(name))
+			return new PowerManager();
+		if (WIFI_SERVICE.equals(name))
+			return new WifiManager();
+		return null;
+	}
+
+	public ComponentName startService(Intent service) {
+		return null;
+	}
+
+	public boolean stopService(Intent service) {
+		return false;
+	}
+
+	public boolean bindService(Intent service, ServiceConnection conn, int flags) {
+		return false;
+	}
+
+	public void unbindService(ServiceConnection conn) {
+	}
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	bench/java/android/content/Intent.java
+ * @author	Eric.Tsai
+ *
+ */
+
+package android.content;
+
+import android.os.Bundle;
+
+/**
+ * Host stand-in of android.content.Intent.
+ *
+ * @author Eric.Tsai
+ *
+ */
+public class Intent {
+
+	private final String mAction;
+
+	private final Bundle mExtras = new Bundle();
+
+	public Intent() {
+		mAction = null;
+	}
+
+	public Intent(String action) {
+		mAction = action;
+	}
+
+	public String getAction() {
+		return mAction;
+	}
+
+	public Intent putExtra(String name, boolean value) {
+		mExtras.putBoolean(name, value);
+		return this;
+	}
+
+	public Intent putExtra(String name, int value) {
+		mExtras.putInt(name, value);
+		return this;
+	}
+
+	public Intent putExtra(String name, String value) {
+		mExtras.putString(name, value);
+		return this;
+	}
+
+	public boolean getBooleanExtra(String name, boolean defaultValue) {
+		return mExtras.getBoolean(name, defaultValue);
+	}
+
+	public int getIntExtra(String name, int defaultValue) {
+		return mExtras.getInt(name, defaultValue);
+	}
+
+	public String getStringExtra(String name) {
+		return mExtras.getString(name);
+	}
+
+	public Bundle getExtras() {
+		return mExtras;
+	}
+
+}
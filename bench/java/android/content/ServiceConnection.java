@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	bench/java/android/content/ServiceConnection.java
+ * @author	Eric.Tsai
+ *
+ */
+
+package android.content;
+
+import android.os.IBinder;
+
+/**
+ * Host stand-in of android.content.ServiceConnection.
+ *
+ * @author Eric.Tsai
+ *
+ */
+public interface ServiceConnection {
+
+	void onServiceConnected(ComponentName name, IBinder service);
+
+	void onServiceDisconnected(ComponentName name);
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	bench/java/android/net/wifi/WifiManager.java
+ * @author	Eric.Tsai
+ *
+ */
+
+package android.net.wifi;
+
+/**
+ * Host stand-in of android.net.wifi.WifiManager, the locks only remember
+ * whether they are held.
+ *
+ * @author Eric.Tsai
+ *
+ */
+public class WifiManager {
+
+	public static final int WIFI_MODE_FULL = 1;
+
+	public static final int WIFI_MODE_FULL_HIGH_PERF = 3;
+
+	public class WifiLock {
+
+		private boolean mHeld = false;
+
+		public synchronized void acquire() {
+			mHeld = true;
+		}
+
+		public synchronized void release() {
+			mHeld = false;
+		}
+
+		public synchronized boolean isHeld() {
+			return mHeld;
+		}
+
+		public void setReferenceCounted(boolean value) {
+		}
+
+	}
+
+	public WifiLock createWifiLock(int lockType, String tag) {
+		return new WifiLock();
+	}
+
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	bench/java/android/os/Build.java
+ * @author	Eric.Tsai
+ *
+ */
+
+package android.os;
+
+/**
+ * Host stand-in of android.os.Build, it claims the target API level.
+ *
+ * @author Eric.Tsai
+ *
+ */
+public class Build {
+
+	public static class VERSION {
+
+		public static final int SDK_INT = 17;
+
+	}
+
+	public static class VERSION_CODES {
+
+		public static final int GINGERBREAD = 9;
+
+		public static final int HONEYCOMB_MR1 = 12;
+
+	}
+
+}
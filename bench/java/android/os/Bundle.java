@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	bench/java/android/os/Bundle.java
+ * @author	Eric.Tsai
+ *
+ */
+
+package android.os;
+
+import java.util.HashMap;
+import java.util.Set;
+
+/**
+ * Host stand-in of android.os.Bundle, backed by a HashMap.
+ *
+ * @author Eric.Tsai
+ *
+ */
+public final class Bundle {
+
+	private final HashMap<String, Object> mMap = new HashMap<String, Object>();
+
+	public Bundle() {
+	}
+
+	public Bundle(Bundle b) {
+		mMap.putAll(b.mMap);
+	}
+
+	public int size() {
+		return mMap.size();
+	}
+
+	public boolean containsKey(String key) {
+		return mMap.containsKey(key);
+	}
+
+	public Set<String> keySet() {
+		return mMap.keySet();
+	}
+
+	public Object get(String key) {
+		return mMap.get(key);
+	}
+
+	public void remove(String key) {
+		mMap.remove(key);
+	}
+
+	private <T> T get(String key, Class<T> type) {
+		Object o = mMap.get(key);
+		return type.isInstance(o) ? type.cast(o) : null;
+	}
+
+	public void putBoolean(String key, boolean value) {
+		mMap.put(key, value);
+	}
+
+	public boolean getBoolean(String key) {
+		return getBoolean(key, false);
+	}
+
+	public boolean getBoolean(String key, boolean defaultValue) {
+		Boolean o = get(key, Boolean.class);
+		return o != null ? o : defaultValue;
+	}
+
+	public void putInt(String key, int value) {
+		mMap.put(key, value);
+	}
+
+	public int getInt(String key) {
+		return getInt(key, 0);
+	}
+
+	public int getInt(String key, int defaultValue) {
+		Integer o = get(key, Integer.class);
+		return o != null ? o : defaultValue;
+	}
+
+	public void putLong(String key, long value) {
+		mMap.put(key, value);
+	}
+
+	public long getLong(String key) {
+		return getLong(key, 0);
+	}
+
+	public long getLong(String key, long defaultValue) {
+		Long o = get(key, Long.class);
+		return o != null ? o : defaultValue;
+	}
+
+	public void putString(String key, String value) {
+		mMap.put(key, value);
+	}
+
+	public String getString(String key) {
+		return get(key, String.class);
+	}
+
+	public void putBundle(String key, Bundle value) {
+		mMap.put(key, value);
+	}
+
+	public Bundle getBundle(String key) {
+		return get(key, Bundle.class);
+	}
+
+	public void putBooleanArray(String key, boolean[] value) {
+		mMap.put(key, value);
+	}
+
+	public boolean[] getBooleanArray(String key) {
+		return get(key, boolean[].class);
+	}
+
+	public void putIntArray(String key, int[] value) {
+		mMap.put(key, value);
+	}
+
+	public int[] getIntArray(String key) {
+		return get(key, int[].class);
+	}
+
+	public void putLongArray(String key, long[] value) {
+		mMap.put(key, value);
+	}
+
+	public long[] getLongArray(String key) {
+		return get(key, long[].class);
+	}
+
+	public void putStringArray(String key, String[] value) {
+		mMap.put(key, value);
+	}
+
+	public String[] getStringArray(String key) {
+		return get(key, String[].class);
+	}
+
+	@Override
+	public String toString() {
+		return "Bundle[" + mMap.keySet() + "]";
+	}
+
+}
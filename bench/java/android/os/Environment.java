@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	bench/java/android/os/Environment.java
+ * @author	Eric.Tsai
+ *
+ */
+
+package android.os;
+
+import java.io.File;
+
+/**
+ * Host stand-in of android.os.Environment, the external storage is the
+ * directory in the bench.storage system property.
+ *
+ * @author Eric.Tsai
+ *
+ */
+public class Environment {
+
+	public static File getExternalStorageDirectory() {
+		return new File(System.getProperty("bench.storage", "/tmp/cvsbench/storage"));
+	}
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	bench/java/android/os/Handler.java
+ * @author	Eric.Tsai
+ *
+ */
+
+package android.os;
+
+/**
+ * Host stand-in of android.os.Handler. A handler created on a thread without
+ * a looper is bound to the main looper, which is where the services and the
+ * activities of an application are run.
+ *
+ * @author Eric.Tsai
+ *
+ */
+public class Handler {
+
+	private final Looper mLooper;
+
+	public Handler() {
+		Looper looper = Looper.myLooper();
+		mLooper = looper != null ? looper : Looper.getMainLooper();
+	}
+
+	public Handler(Looper looper) {
+		mLooper = looper;
+	}
+
+	public void handleMessage(Message msg) {
+	}
+
+	public void dispatchMessage(Message msg) {
+		handleMessage(msg);
+	}
+
+	public final Looper getLooper() {
+		return mLooper;
+	}
+
+	public final Message obtainMessage(int what) {
+		return Message.obtain(this, what);
+	}
+
+	public final Message obtainMessage(int what, int arg1, int arg2, Object obj) {
+		return Message.obtain(this, what, arg1, arg2, obj);
+	}
+
+	public final boolean sendMessage(Message msg) {
+		return sendMessageDelayed(msg, 0);
+	}
+
+	public final boolean sendMessageDelayed(Message msg, long delayMillis) {
+		msg.target = this;
+		return mLooper.enqueue(msg, System.nanoTime() / 1000000 + Math.max(delayMillis, 0));
+	}
+
+	public final boolean sendEmptyMessage(int what) {
+		return sendMessage(obtainMessage(what));
+	}
+
+	public final boolean sendEmptyMessageDelayed(int what, long delayMillis) {
+		return sendMessageDelayed(obtainMessage(what), delayMillis);
+	}
+
+	public final boolean post(Runnable r) {
+		return postDelayed(r, 0);
+	}
+
+	public final boolean postDelayed(Runnable r, long delayMillis) {
+		Message msg = Message.obtain();
+		msg.callback = r;
+		return sendMessageDelayed(msg, delayMillis);
+	}
+
+	public final void removeMessages(int what) {
+		mLooper.remove(this, what, null);
+	}
+
+	public final void removeCallbacks(Runnable r) {
+		mLooper.remove(this, 0, r);
+	}
+
+	public final boolean hasMessages(int what) {
+		return mLooper.has(this, what, null);
+	}
+
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	bench/java/android/os/HandlerThread.java
+ * @author	Eric.Tsai
+ *
+ */
+
+package android.os;
+
+/**
+ * Host stand-in of android.os.HandlerThread.
+ *
+ * @author Eric.Tsai
+ *
+ */
+public class HandlerThread extends Thread {
+
+	private Looper mLooper = null;
+
+	public HandlerThread(String name) {
+		super(name);
+	}
+
+	@Override
+	public void run() {
+		Looper.prepare();
+		synchronized (this) {
+			mLooper = Looper.myLooper();
+			notifyAll();
+		}
+		Looper.loop();
+	}
+
+	public synchronized Looper getLooper() {
+		while (isAlive() && mLooper == null) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				return null;
+			}
+		}
+		return mLooper;
+	}
+
+	public boolean quit() {
+		Looper looper = getLooper();
+		if (looper == null)
+			return false;
+		looper.quit();
+		return true;
+	}
+
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	bench/java/android/os/Looper.java
+ * @author	Eric.Tsai
+ *
+ */
+
+package android.os;
+
+/**
+ * Host stand-in of android.os.Looper. The message queue is a single list
+ * ordered by the dispatch time, guarded by the monitor of the looper.
+ *
+ * @author Eric.Tsai
+ *
+ */
+public final class Looper {
+
+	private static final ThreadLocal<Looper> sThreadLocal = new ThreadLocal<Looper>();
+
+	private static Looper sMainLooper = null;
+
+	private final Thread mThread;
+
+	private Message mMessages = null;
+
+	private boolean mQuitting = false;
+
+	private Looper() {
+		mThread = Thread.currentThread();
+	}
+
+	public static void prepare() {
+		if (sThreadLocal.get() != null)
+			throw new RuntimeException("Only one Looper may be created per thread");
+		sThreadLocal.set(new Looper());
+	}
+
+	public static void prepareMainLooper() {
+		prepare();
+		synchronized (Looper.class) {
+			sMainLooper = myLooper();
+			Looper.class.notifyAll();
+		}
+	}
+
+	/**
+	 * Get the main looper, waiting for another thread to prepare it.
+	 *
+	 * @return	The main looper.
+	 */
+	public static Looper getMainLooper() {
+		synchronized (Looper.class) {
+			while (sMainLooper == null) {
+				try {
+					Looper.class.wait();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			}
+			return sMainLooper;
+		}
+	}
+
+	public static Looper myLooper() {
+		return sThreadLocal.get();
+	}
+
+	public Thread getThread() {
+		return mThread;
+	}
+
+	public static void loop() {
+		Looper me = myLooper();
+		if (me == null)
+			throw new RuntimeException("No Looper; Looper.prepare() wasn't called on this thread.");
+		Message msg;
+		while ((msg = me.next()) != null) {
+			if (msg.callback != null)
+				msg.callback.run();
+			else
+				msg.target.dispatchMessage(msg);
+		}
+	}
+
+	public void quit() {
+		synchronized (this) {
+			mQuitting = true;
+			notifyAll();
+		}
+	}
+
+	private synchronized Message next() {
+		for (;;) {
+			if (mQuitting)
+				return null;
+			long now = System.nanoTime() / 1000000;
+			if (mMessages != null && mMessages.when <= now) {
+				Message msg = mMessages;
+				mMessages = msg.next;
+				msg.next = null;
+				return msg;
+			}
+			try {
+				if (mMessages == null)
+					wait();
+				else
+					wait(mMessages.when - now);
+			} catch (InterruptedException e) {
+				return null;
+			}
+		}
+	}
+
+	synchronized boolean enqueue(Message msg, long when) {
+		if (mQuitting)
+			return false;
+		msg.when = when;
+		Message prev = null, p = mMessages;
+		while (p != null && p.when <= when) {
+			prev = p;
+			p = p.next;
+		}
+		msg.next = p;
+		if (prev == null)
+			mMessages = msg;
+		else
+			prev.next = msg;
+		notifyAll();
+		return true;
+	}
+
+	synchronized boolean has(Handler h, int what, Runnable r) {
+		for (Message p = mMessages; p != null; p = p.next) {
+			if (p.target == h && (r != null ? p.callback == r : p.callback == null && p.what == what))
+				return true;
+		}
+		return false;
+	}
+
+	synchronized void remove(Handler h, int what, Runnable r) {
+		Message prev = null, p = mMessages;
+		while (p != null) {
+			Message next = p.next;
+			if (p.target == h && (r != null ? p.callback == r : p.callback == null && p.what == what)) {
+				if (prev == null)
+					mMessages = next;
+				else
+					prev.next = next;
+			} else {
+				prev = p;
+			}
+			p = next;
+		}
+	}
+
+}
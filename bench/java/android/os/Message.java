@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	bench/java/android/os/Message.java
+ * @author	Eric.Tsai
+ *
+ */
+
+package android.os;
+
+/**
+ * Host stand-in of android.os.Message, only what CVSService and CVSAgent use.
+ *
+ * @author Eric.Tsai
+ *
+ */
+public final class Message {
+
+	public int what;
+
+	public int arg1;
+
+	public int arg2;
+
+	public Object obj;
+
+	public Messenger replyTo;
+
+	/** Time to dispatch, in milliseconds of System.nanoTime(). */
+	long when;
+
+	Handler target;
+
+	Runnable callback;
+
+	Message next;
+
+	public static Message obtain() {
+		return new Message();
+	}
+
+	public static Message obtain(Handler h, int what, int arg1, int arg2, Object obj) {
+		Message m = new Message();
+		m.target = h;
+		m.what = what;
+		m.arg1 = arg1;
+		m.arg2 = arg2;
+		m.obj = obj;
+		return m;
+	}
+
+	public static Message obtain(Handler h, int what) {
+		return obtain(h, what, 0, 0, null);
+	}
+
+	public static Message obtain(Message orig) {
+		Message m = obtain(orig.target, orig.what, orig.arg1, orig.arg2, orig.obj);
+		m.replyTo = orig.replyTo;
+		return m;
+	}
+
+	public Handler getTarget() {
+		return target;
+	}
+
+	public void sendToTarget() {
+		target.sendMessage(this);
+	}
+
+	@Override
+	public String toString() {
+		return "{ what=" + what + " arg1=" + arg1 + " arg2=" + arg2 + " obj=" + obj + " }";
+	}
+
+}
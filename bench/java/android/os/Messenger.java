@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	bench/java/android/os/Messenger.java
+ * @author	Eric.Tsai
+ *
+ */
+
+package android.os;
+
+/**
+ * Host stand-in of android.os.Messenger. There is a single process, so the
+ * binder only carries the target handler and send() is a sendMessage().
+ *
+ * @author Eric.Tsai
+ *
+ */
+public final class Messenger {
+
+	private static final class HandlerBinder implements IBinder {
+
+		final Handler mHandler;
+
+		HandlerBinder(Handler handler) {
+			mHandler = handler;
+		}
+
+	}
+
+	private final HandlerBinder mBinder;
+
+	public Messenger(Handler target) {
+		mBinder = new HandlerBinder(target);
+	}
+
+	public Messenger(IBinder target) {
+		mBinder = (HandlerBinder)target;
+	}
+
+	public void send(Message message) throws RemoteException {
+		if (!mBinder.mHandler.sendMessage(message))
+			throw new RemoteException();
+	}
+
+	public IBinder getBinder() {
+		return mBinder;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof Messenger && ((Messenger)other).mBinder == mBinder;
+	}
+
+	@Override
+	public int hashCode() {
+		return mBinder.hashCode();
+	}
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	bench/java/android/os/PowerManager.java
+ * @author	Eric.Tsai
+ *
+ */
+
+package android.os;
+
+/**
+ * Host stand-in of android.os.PowerManager, the locks only remember
+ * whether they are held.
+ *
+ * @author Eric.Tsai
+ *
+ */
+public class PowerManager {
+
+	public static final int PARTIAL_WAKE_LOCK = 1;
+
+	public class WakeLock {
+
+		private boolean mHeld = false;
+
+		public synchronized void acquire() {
+			mHeld = true;
+		}
+
+		public synchronized void release() {
+			mHeld = false;
+		}
+
+		public synchronized boolean isHeld() {
+			return mHeld;
+		}
+
+		public void setReferenceCounted(boolean value) {
+		}
+
+	}
+
+	public WakeLock newWakeLock(int levelAndFlags, String tag) {
+		return new WakeLock();
+	}
+
+}
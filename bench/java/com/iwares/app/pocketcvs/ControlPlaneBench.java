@@ -0,0 +1,441 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	bench/java/com/iwares/app/pocketcvs/ControlPlaneBench.java
+ * @author	Eric.Tsai
+ *
+ * Measure the control plane of CVSService on a desktop JVM: the load of the
+ * class and the native library, onCreate()/onDestroy(), the round trip of
+ * each CVSAgent request through the Messenger, of a burst of status polls
+ * from several clients, the start/stop cycle of the daemon and the push of
+ * the new status to a subscriber. The android classes are the stand-ins in
+ * bench/java/android, the service and the agent are the ones of the
+ * application, run on a main looper thread like on a device. Run it with
+ * bench/ctlbench.sh.
+ *
+ */
+
+package com.iwares.app.pocketcvs;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import android.os.Bundle;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.Message;
+
+/**
+ * The control plane benchmark.
+ *
+ * @author Eric.Tsai
+ *
+ */
+public class ControlPlaneBench {
+
+	/** Milliseconds to wait for a reply before the request counts as an error. */
+	private static final long REPLY_TIMEOUT = 10000;
+
+	/** Count of clients polling the daemon status at once. */
+	private static final int POLLERS = 8;
+
+	/**
+	 * Latencies of an operation, in nanoseconds.
+	 *
+	 * @author Eric.Tsai
+	 *
+	 */
+	private static class Samples {
+
+		final String mName;
+
+		long[] mValues = new long[64];
+
+		int mCount = 0, mErrors = 0;
+
+		Samples(String name) {
+			mName = name;
+		}
+
+		void add(long value) {
+			if (mCount == mValues.length)
+				mValues = Arrays.copyOf(mValues, mCount * 2);
+			mValues[mCount++] = value;
+		}
+
+		/**
+		 * Get a percentile, the samples must be sorted.
+		 *
+		 * @param percentile	The percentile, 0 to 100.
+		 * @return				The latency in milliseconds.
+		 */
+		double percentile(double percentile) {
+			if (mCount == 0)
+				return 0;
+			int index = (int)Math.ceil(mCount * percentile / 100) - 1;
+			return mValues[Math.max(index, 0)] / 1000000.0;
+		}
+
+	}
+
+	/**
+	 * A request of the CVSAgent.
+	 *
+	 * @author Eric.Tsai
+	 *
+	 */
+	private interface Request {
+
+		boolean post(CVSAgent agent);
+
+	}
+
+	/**
+	 * The agent releases a permit for every reply of the service.
+	 *
+	 * @author Eric.Tsai
+	 *
+	 */
+	private static class BenchAgent extends CVSAgent {
+
+		final Semaphore mReplies = new Semaphore(0);
+
+		/** Released when the subscription of the connection is answered. */
+		final Semaphore mSubscribed = new Semaphore(0);
+
+		/** When the last message is received, in nanoseconds. */
+		volatile long mReceived = 0;
+
+		BenchAgent() {
+			super(new CVSAgent.SimpleCallback());
+		}
+
+		@Override
+		public void handleMessage(Message msg) {
+			super.handleMessage(msg);
+			mReceived = System.nanoTime();
+			mReplies.release();
+			if (msg.what == CVSService.MSG_SUBSCRIBE)
+				mSubscribed.release();
+		}
+
+		/**
+		 * Connect to the service and wait until it is ready. The service
+		 * answers the subscription after the init states, so nothing of the
+		 * connection is left to be counted as a reply then.
+		 */
+		void connect(IBinder service) throws InterruptedException {
+			onServiceConnected(null, service);
+			mSubscribed.acquire();
+			mReplies.drainPermits();
+		}
+
+		/**
+		 * Post a request and wait for its reply.
+		 *
+		 * @return	The round trip in nanoseconds, or -1 if it failed.
+		 */
+		long roundTrip(Request request) throws InterruptedException {
+			long start = System.nanoTime();
+			if (!request.post(this))
+				return -1;
+			if (!mReplies.tryAcquire(REPLY_TIMEOUT, TimeUnit.MILLISECONDS))
+				return -1;
+			return System.nanoTime() - start;
+		}
+
+	}
+
+	/** Handler of the main looper, the life cycle of the service runs on it. */
+	private static Handler sMainHandler;
+
+	/**
+	 * Run a task on the main looper thread and wait for it.
+	 *
+	 * @return	The time taken by the task itself, in nanoseconds.
+	 */
+	private static long runOnMain(final Runnable task) throws InterruptedException {
+		final long[] elapsed = new long[1];
+		final Semaphore done = new Semaphore(0);
+		sMainHandler.post(new Runnable() {
+			public void run() {
+				long start = System.nanoTime();
+				task.run();
+				elapsed[0] = System.nanoTime() - start;
+				done.release();
+			}
+		});
+		done.acquire();
+		return elapsed[0];
+	}
+
+	private static void usage() {
+		System.err.println(
+			"Usage: ControlPlaneBench [options]\n" +
+			"  -n <count>    round trips of each request (1000)\n" +
+			"  -c <count>    start/stop and create/destroy cycles (100)\n" +
+			"  -W <count>    warm-up rounds, not measured (100)\n" +
+			"  -o <file>     write the results as CSV\n"
+			);
+	}
+
+	private static CVSService sService;
+
+	public static void main(String[] args) throws Exception {
+		int rounds = 1000, cycles = 100, warmup = 100;
+		String csvPath = null;
+		try {
+			for (int i = 0; i < args.length; ++i) {
+				if (args[i].equals("-n"))
+					rounds = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-c"))
+					cycles = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-W"))
+					warmup = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-o"))
+					csvPath = args[++i];
+				else
+					throw new IllegalArgumentException(args[i]);
+			}
+		} catch (RuntimeException e) {
+			usage();
+			System.exit(2);
+		}
+
+		// The service expects an initialized repository on the external storage.
+		new File(Environment.getExternalStorageDirectory(), ".cvsrepo/CVSROOT").mkdirs();
+
+		Thread mainThread = new Thread("main") {
+			@Override
+			public void run() {
+				Looper.prepareMainLooper();
+				Looper.loop();
+			}
+		};
+		mainThread.setDaemon(true);
+		mainThread.start();
+		sMainHandler = new Handler(Looper.getMainLooper());
+
+		ArrayList<Samples> results = new ArrayList<Samples>();
+
+		// Cold start, the class initializer loads libcvsdsrv.so.
+		Samples load = new Samples("load");
+		Samples create = new Samples("onCreate");
+		Samples destroy = new Samples("onDestroy");
+		results.add(load);
+		results.add(create);
+		results.add(destroy);
+		load.add(runOnMain(new Runnable() {
+			public void run() {
+				sService = new CVSService();
+			}
+		}));
+		Runnable onCreate = new Runnable() {
+			public void run() {
+				sService.onCreate();
+			}
+		};
+		Runnable onDestroy = new Runnable() {
+			public void run() {
+				sService.onDestroy();
+			}
+		};
+		create.add(runOnMain(onCreate));
+		runOnMain(onDestroy);
+		for (int i = 0; i < cycles; ++i) {
+			sService = new CVSService();
+			create.add(runOnMain(onCreate));
+			destroy.add(runOnMain(onDestroy));
+		}
+
+		// Round trips of the requests, the daemon is stopped.
+		sService = new CVSService();
+		runOnMain(onCreate);
+		final BenchAgent agent = new BenchAgent();
+		agent.connect(sService.onBind(null));
+
+		// The agent measures request and reply only, so it must not get pushes.
+		final Request unsubscribe = new Request() { public boolean post(CVSAgent a) {
+			return a.requstUnsubscribe(); } };
+		agent.roundTrip(unsubscribe);
+
+		final String[] benchUser = { "bench" };
+		final String[] benchPassword = { "bench" };
+		final int[] benchRole = { CVSService.ROLE_READ | CVSService.ROLE_WRITE };
+		Object[][] requests = {
+			{ "status", new Request() { public boolean post(CVSAgent a) {
+				return a.postMessage(CVSService.MSG_DAEMON_STATUS, 0, 0, null); } } },
+			{ "getLimits", new Request() { public boolean post(CVSAgent a) {
+				return a.requstSessionLimits(); } } },
+			{ "setLimits", new Request() { public boolean post(CVSAgent a) {
+				return a.requstSetSessionLimits(8, 16, 16); } } },
+			{ "getGzip", new Request() { public boolean post(CVSAgent a) {
+				return a.requstCompression(); } } },
+			{ "setGzip", new Request() { public boolean post(CVSAgent a) {
+				return a.requstSetCompression(0, 9, false); } } },
+			{ "setPool", new Request() { public boolean post(CVSAgent a) {
+				return a.requstSetWorkerPool(2, 300, 16); } } },
+			{ "getStats", new Request() { public boolean post(CVSAgent a) {
+				return a.requstStats(); } } },
+			{ "sessions", new Request() { public boolean post(CVSAgent a) {
+				return a.requstSessions(); } } },
+			{ "getUsers", new Request() { public boolean post(CVSAgent a) {
+				return a.requstUsers(); } } },
+			{ "setUsers", new Request() { public boolean post(CVSAgent a) {
+				return a.requstUpdateUsers(benchUser, benchPassword, benchRole); } } },
+			{ "module", new Request() { public boolean post(CVSAgent a) {
+				return a.requstModuleState("CVSROOT", 0, false); } } },
+			{ "tempUsage", new Request() { public boolean post(CVSAgent a) {
+				return a.requstTempUsage(); } } },
+			{ "getRoots", new Request() { public boolean post(CVSAgent a) {
+				return a.requstRoots(); } } },
+			{ "backupStatus", new Request() { public boolean post(CVSAgent a) {
+				return a.requstBackupStatus(); } } },
+			{ "getRelay", new Request() { public boolean post(CVSAgent a) {
+				return a.requstRelay(); } } },
+			{ "getPowerMode", new Request() { public boolean post(CVSAgent a) {
+				return a.requstPowerMode(); } } },
+			{ "getListeners", new Request() { public boolean post(CVSAgent a) {
+				return a.requstListeners(); } } },
+			{ "verifyStatus", new Request() { public boolean post(CVSAgent a) {
+				return a.requstVerifyStatus(); } } },
+			{ "housekeeping", new Request() { public boolean post(CVSAgent a) {
+				return a.requstHousekeeping(); } } },
+			{ "initState", new Request() { public boolean post(CVSAgent a) {
+				return a.requstInitState(); } } },
+			{ "subscribe", new Request() { public boolean post(CVSAgent a) {
+				return a.requstSubscribe(true); } } },
+			{ "unsubscribe", unsubscribe },
+		};
+		for (Object[] entry : requests) {
+			Samples samples = new Samples((String)entry[0]);
+			Request request = (Request)entry[1];
+			for (int i = 0; i < warmup + rounds; ++i) {
+				long value = agent.roundTrip(request);
+				if (i < warmup)
+					continue;
+				if (value < 0)
+					++samples.mErrors;
+				else
+					samples.add(value);
+			}
+			results.add(samples);
+		}
+
+		// Status polls of several clients at once, the service coalesces them.
+		BenchAgent[] pollers = new BenchAgent[POLLERS];
+		for (int i = 0; i < POLLERS; ++i) {
+			pollers[i] = new BenchAgent();
+			pollers[i].connect(sService.onBind(null));
+		}
+		Samples burst = new Samples("statusX" + POLLERS);
+		for (int i = 0; i < warmup + rounds; ++i) {
+			long begin = System.nanoTime();
+			boolean failed = false;
+			for (BenchAgent poller : pollers)
+				failed |= !poller.postMessage(CVSService.MSG_DAEMON_STATUS, 0, 0, null);
+			for (BenchAgent poller : pollers)
+				failed |= !poller.mReplies.tryAcquire(REPLY_TIMEOUT, TimeUnit.MILLISECONDS);
+			if (i < warmup)
+				continue;
+			if (failed)
+				++burst.mErrors;
+			else
+				burst.add(System.nanoTime() - begin);
+		}
+		results.add(burst);
+		for (BenchAgent poller : pollers)
+			poller.roundTrip(unsubscribe);
+
+		// A subscriber watches the daemon status while it is cycled.
+		BenchAgent watcher = new BenchAgent();
+		watcher.connect(sService.onBind(null));
+
+		// Start/stop cycles of the daemon.
+		Samples start = new Samples("start");
+		Samples stop = new Samples("stop");
+		Samples pushed = new Samples("pushed");
+		results.add(start);
+		results.add(stop);
+		results.add(pushed);
+		Request startDaemon = new Request() { public boolean post(CVSAgent a) {
+			return a.requstStartDaemon(); } };
+		Request stopDaemon = new Request() { public boolean post(CVSAgent a) {
+			return a.requstStopDaemon(); } };
+		for (int i = 0; i < cycles; ++i) {
+			long begin = System.nanoTime();
+			long value = agent.roundTrip(startDaemon);
+			if (value < 0 || agent.mStatus != CVSAgent.STATUS_RUNNING)
+				++start.mErrors;
+			else
+				start.add(value);
+			if (!watcher.mReplies.tryAcquire(REPLY_TIMEOUT, TimeUnit.MILLISECONDS)
+				|| watcher.mStatus != CVSAgent.STATUS_RUNNING)
+				++pushed.mErrors;
+			else
+				pushed.add(watcher.mReceived - begin);
+			begin = System.nanoTime();
+			value = agent.roundTrip(stopDaemon);
+			if (value < 0 || agent.mStatus != CVSAgent.STATUS_STOPPED)
+				++stop.mErrors;
+			else
+				stop.add(value);
+			if (!watcher.mReplies.tryAcquire(REPLY_TIMEOUT, TimeUnit.MILLISECONDS)
+				|| watcher.mStatus != CVSAgent.STATUS_STOPPED)
+				++pushed.mErrors;
+			else
+				pushed.add(watcher.mReceived - begin);
+		}
+		runOnMain(onDestroy);
+
+		report(results, csvPath);
+		int errors = 0;
+		for (Samples samples : results)
+			errors += samples.mErrors;
+		System.exit(errors == 0 ? 0 : 1);
+	}
+
+	private static void report(ArrayList<Samples> results, String csvPath) throws IOException {
+		FileWriter csv = csvPath != null ? new FileWriter(csvPath) : null;
+		if (csv != null)
+			csv.write("op,count,errors,p50,p90,p99,p999,max\n");
+		System.out.printf("%-12s %8s %7s %9s %9s %9s %9s %9s\n",
+			"op", "count", "errors", "p50(ms)", "p90(ms)", "p99(ms)", "p999(ms)", "max(ms)");
+		for (Samples samples : results) {
+			Arrays.sort(samples.mValues, 0, samples.mCount);
+			double p50 = samples.percentile(50), p90 = samples.percentile(90);
+			double p99 = samples.percentile(99), p999 = samples.percentile(99.9);
+			double max = samples.percentile(100);
+			System.out.printf("%-12s %8d %7d %9.3f %9.3f %9.3f %9.3f %9.3f\n",
+				samples.mName, samples.mCount, samples.mErrors, p50, p90, p99, p999, max);
+			if (csv != null)
+				csv.write(String.format("%s,%d,%d,%.4f,%.4f,%.4f,%.4f,%.4f\n",
+					samples.mName, samples.mCount, samples.mErrors, p50, p90, p99, p999, max));
+		}
+		if (csv != null)
+			csv.close();
+	}
+
+}
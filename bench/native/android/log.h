@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	bench/native/android/log.h
+ * @author	Eric.Tsai
+ *
+ * Host stand-in of the NDK log header, used to build cvsjni.cpp into a
+ * library for a desktop JVM. The logs are dropped.
+ *
+ */
+
+#ifndef __ANDROID_LOG_H__
+#define __ANDROID_LOG_H__
+
+enum {
+	ANDROID_LOG_UNKNOWN = 0,
+	ANDROID_LOG_DEFAULT,
+	ANDROID_LOG_VERBOSE,
+	ANDROID_LOG_DEBUG,
+	ANDROID_LOG_INFO,
+	ANDROID_LOG_WARN,
+	ANDROID_LOG_ERROR,
+	ANDROID_LOG_FATAL,
+	ANDROID_LOG_SILENT,
+};
+
+static inline int __android_log_print(int prio, const char *tag, const char *fmt, ...)
+{
+	return 0;
+}
+
+#endif // __ANDROID_LOG_H__
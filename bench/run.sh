@@ -0,0 +1,56 @@
+#!/bin/sh
+
+#
+# Copyright (C) 2011 iWARES Solution Provider
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+
+#
+# @file	bench/run.sh
+# @author	Eric.Tsai
+#
+# Build everything, generate the repository if it does not exist, run the
+# daemon on port 2401 and drive it with cvsbench. The arguments are passed to
+# cvsbench, e.g. "run.sh -c 16 -d 60 -o result.csv". The daemon is configured
+# with the DAEMON_ARGS environment variable, e.g. DAEMON_ARGS="-s 4,8,16".
+# The repository is generated with GENREPO_ARGS, "<dirs> <files> <kb>
+# <revisions>", and is kept in out/repo for the next runs.
+#
+
+BENCHPATH=$(cd $(dirname $0) && pwd)
+OUT=$BENCHPATH/out
+
+$BENCHPATH/build.sh || exit 1
+CVS=${CVS:-$OUT/cvs/src/cvs}
+
+if [ ! -d $OUT/repo/CVSROOT ]; then
+	$BENCHPATH/genrepo.sh $CVS $OUT/repo $GENREPO_ARGS || exit 1
+fi
+
+mkdir -p $OUT/temp
+$OUT/cvsbenchd -r $OUT/repo -t $OUT/temp -x $CVS $DAEMON_ARGS > $OUT/daemon.txt &
+DAEMON=$!
+trap 'kill $DAEMON 2>/dev/null' EXIT
+while ! grep -q ready $OUT/daemon.txt 2>/dev/null; do
+	kill -0 $DAEMON 2>/dev/null || { cat $OUT/daemon.txt; exit 1; }
+	sleep 0.1
+done
+
+$OUT/cvsbench -r $OUT/repo -x $CVS -w $OUT/work "$@"
+RESULT=$?
+
+kill -TERM $DAEMON
+wait $DAEMON
+grep -v ready $OUT/daemon.txt
+exit $RESULT
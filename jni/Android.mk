@@ -147,6 +147,7 @@ LOCAL_SRC_FILES := \
 	$(CVS_SRC_PATH)/src/wrapper.c \
 	$(CVS_SRC_PATH)/src/zlib.c \
 	fakers.c \
+	gzpolicy.c \
 
 LOCAL_STATIC_LIBRARIES := crypt
 
@@ -155,6 +156,10 @@ LOCAL_C_INCLUDES := ./ $(CVS_SRC_PATH)/src/ $(CVS_SRC_PATH)/lib/ \
 
 LOCAL_CFLAGS := -DHAVE_CONFIG_H -O2
 
+# The compression policy of the daemon is applied by gzpolicy.c.
+LOCAL_LDFLAGS := -Wl,--wrap=deflateInit_ -Wl,--wrap=deflateInit2_ \
+	-Wl,--wrap=deflate -Wl,--wrap=deflateEnd
+
 include $(BUILD_EXECUTABLE)
 
 
@@ -165,11 +170,25 @@ LOCAL_MODULE := cvsdsrv
 
 LOCAL_SRC_FILES := \
 	cvssrv.cpp \
+	cvsroot.cpp \
+	cvsbackup.cpp \
+	cvsrelay.cpp \
+	cvslisten.cpp \
+	cvsverify.cpp \
+	cvshouse.cpp \
+	cvsalog.cpp \
+	cvspool.cpp \
+	cvsstat.cpp \
+	cvsauth.cpp \
+	cvsuser.cpp \
+	cvsindex.cpp \
+	cvstemp.cpp \
+	cvssess.cpp \
 	cvsjni.cpp \
 
 LOCAL_STATIC_LIBRARIES := crypt
 
-LOCAL_LDLIBS := -llog
+LOCAL_LDLIBS := -llog -lz
 
 LOCAL_C_INCLUDES := ./
 
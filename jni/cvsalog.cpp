@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	jni/cvsalog.cpp
+ * @author	Eric.Tsai
+ *
+ */
+
+#include "cvsalog.h"
+
+#include <string.h>
+#include <fcntl.h>
+#include <unistd.h>
+#include <sys/mman.h>
+#include <sys/stat.h>
+
+/**
+ * Start with no log.
+ */
+CVSAccessLog::CVSAccessLog()
+{
+	m_header = NULL;
+	m_records = NULL;
+	m_capacity = 0;
+	m_size = 0;
+}
+
+/**
+ * Unmap the file.
+ */
+CVSAccessLog::~CVSAccessLog()
+{
+	close();
+}
+
+/**
+ * The descriptor is closed once the file is mapped, the workers close all
+ * their inherited descriptors but keep the mapping. A new log is cleared by
+ * truncating it, and its magic number is written last, so a reader never
+ * sees a half set up header.
+ */
+bool CVSAccessLog::open(const char *path, int capacity)
+{
+	close();
+	if (capacity <= 0)
+		return false;
+
+	int fd = ::open(path, O_RDWR | O_CREAT, 0600);
+	if (fd < 0)
+		return false;
+	size_t size = sizeof(CVSAccessHeader) + sizeof(CVSAccessRecord) * capacity;
+	struct stat statbuf;
+	bool isKept = fstat(fd, &statbuf) == 0 && statbuf.st_size == (off_t)size;
+	if (!isKept && (ftruncate(fd, 0) < 0 || ftruncate(fd, size) < 0)) {
+		::close(fd);
+		return false;
+	}
+	void *mapping = mmap(NULL, size, PROT_READ | PROT_WRITE, MAP_SHARED, fd, 0);
+	::close(fd);
+	if (mapping == MAP_FAILED)
+		return false;
+
+	CVSAccessHeader *header = (CVSAccessHeader *)mapping;
+	if (header->magic != ACCESS_LOG_MAGIC || header->version != ACCESS_LOG_VERSION ||
+		header->recordSize != sizeof(CVSAccessRecord) || header->capacity != (unsigned int)capacity) {
+		memset(mapping, 0, size);
+		header->version = ACCESS_LOG_VERSION;
+		header->recordSize = sizeof(CVSAccessRecord);
+		header->capacity = capacity;
+		__sync_synchronize();
+		header->magic = ACCESS_LOG_MAGIC;
+	}
+
+	m_header = header;
+	m_records = (CVSAccessRecord *)(header + 1);
+	m_capacity = capacity;
+	m_size = size;
+	return true;
+}
+
+/**
+ * Just unmap the file.
+ */
+void CVSAccessLog::close(void)
+{
+	if (m_header == NULL)
+		return;
+	munmap(m_header, m_size);
+	m_header = NULL;
+	m_records = NULL;
+}
+
+/**
+ * Two writers only meet at a record if one of them is a whole ring behind,
+ * the reader drops the record then as its mark does not match.
+ */
+void CVSAccessLog::append(const CVSAccessRecord *record)
+{
+	if (m_header == NULL)
+		return;
+	unsigned int seq = __sync_fetch_and_add(&m_header->head, 1);
+	CVSAccessRecord *slot = &m_records[seq % m_capacity];
+	slot->seq = 0;
+	__sync_synchronize();
+	memcpy((char *)slot + sizeof(slot->seq), (const char *)record + sizeof(record->seq),
+		sizeof(CVSAccessRecord) - sizeof(record->seq));
+	__sync_synchronize();
+	slot->seq = seq + 1;
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	jni/cvsalog.h
+ * @author	Eric.Tsai
+ *
+ */
+
+#ifndef __CVSACCESSLOG_H__
+#define __CVSACCESSLOG_H__
+
+#include <sys/types.h>
+
+/** Magic number of an access log file, "CVAL". */
+#define ACCESS_LOG_MAGIC		0x4c415643
+
+/** Layout version of an access log file. */
+#define ACCESS_LOG_VERSION		1
+
+/** Size of the address field of a record. */
+#define ACCESS_ADDRESS_SIZE		64
+
+/** Size of the user field of a record. */
+#define ACCESS_USER_SIZE		64
+
+/** Size of the repository field of a record. */
+#define ACCESS_ROOT_SIZE		80
+
+/** Record type - a session is finished. */
+#define ACCESS_SESSION			1
+
+/** Record type - the user name or the password is wrong. */
+#define ACCESS_AUTH_FAILED		2
+
+/** Record type - the client is turned away by the admission control. */
+#define ACCESS_REJECTED			3
+
+/** Record type - the client does not speak pserver, asks for a repository
+ * not served or does not finish its preamble in time. */
+#define ACCESS_BAD_REQUEST		4
+
+/**
+ * \struct CVSAccessHeader
+ *
+ * Header of an access log file, 64 bytes. The fields are in the byte order of
+ * the device.
+ *
+ */
+struct CVSAccessHeader {
+	/** ACCESS_LOG_MAGIC, written last when the file is created. */
+	unsigned int magic;
+	/** ACCESS_LOG_VERSION. */
+	unsigned int version;
+	/** Size of a record. */
+	unsigned int recordSize;
+	/** Count of records in the ring. */
+	unsigned int capacity;
+	/** Sequence number of the next record, the record is at this number
+	 * modulo the capacity. */
+	volatile unsigned int head;
+	/** Reserved, 0. */
+	unsigned int reserved[11];
+};
+
+/**
+ * \struct CVSAccessRecord
+ *
+ * A record of the access log, 256 bytes. The layout is the same on all the
+ * ABIs, and is read by AccessLog.java.
+ *
+ */
+struct CVSAccessRecord {
+	/** Sequence number of the record plus 1, 0 while it is written. */
+	volatile unsigned int seq;
+	/** One of the ACCESS_* record types. */
+	unsigned int type;
+	/** Wall clock time in milliseconds when the session is started or the
+	 * client is turned away. */
+	unsigned long long time;
+	/** Bytes received from the client, 0 if unknown. */
+	unsigned long long bytesIn;
+	/** Bytes sent to the client, 0 if unknown. */
+	unsigned long long bytesOut;
+	/** Duration of the session in milliseconds. */
+	unsigned int duration;
+	/** Exit status of the CVS process, -1 if there is none. */
+	int status;
+	/** PID of the CVS process, 0 if there is none. */
+	int pid;
+	/** Reserved, 0. */
+	unsigned int reserved;
+	/** Address of the client. */
+	char address[ACCESS_ADDRESS_SIZE];
+	/** User name sent by the client, empty if unknown. */
+	char user[ACCESS_USER_SIZE];
+	/** Repository asked for by the client, empty if unknown. */
+	char root[ACCESS_ROOT_SIZE];
+};
+
+/**
+ * \class CVSAccessLog
+ *
+ * CVSAccessLog keeps the access log in a ring of fixed size records in a file
+ * mapped into the memory. The mapping is shared with the worker processes
+ * forked afterwards, the daemon thread writes the records of the turned away
+ * clients and the workers write the ones of the sessions.
+ *
+ * A writer takes a sequence number with an atomic add to the header, so the
+ * writers never wait for each other, and marks the record with it once the
+ * record is written. A reader copies a record and checks the mark before and
+ * after, a record overwritten under the reader is dropped. Nothing is ever
+ * written to the file by write() or synced, the kernel writes the pages back
+ * as it likes.
+ *
+ */
+class CVSAccessLog {
+public:
+	/**
+	 * Constructor.
+	 *
+	 */
+	CVSAccessLog();
+	/**
+	 * Destructor, the log is closed.
+	 *
+	 */
+	~CVSAccessLog();
+private:
+	/** Hidden copy constructor. */
+	CVSAccessLog(const CVSAccessLog &other);
+	/** Hidden assign operator. */
+	CVSAccessLog& operator =(const CVSAccessLog &other);
+public:
+	/**
+	 * Map the access log file, it is created, or cleared if its layout is not
+	 * the expected one. The records of a log with the same layout are kept.
+	 *
+	 * @param	path		Path of the log file.
+	 * @param	capacity	Count of records in the ring.
+	 *
+	 * @return				Return true if success, otherwise return false.
+	 *
+	 */
+	bool open(const char *path, int capacity);
+	/**
+	 * Unmap the access log file, the processes forked before keep their
+	 * mapping.
+	 *
+	 */
+	void close(void);
+	/**
+	 * Append a record. It does nothing if the log is not open.
+	 *
+	 * @param	record	The record, its seq field is ignored.
+	 *
+	 */
+	void append(const CVSAccessRecord *record);
+private:
+	/** The mapped header, NULL if the log is not open. */
+	CVSAccessHeader *m_header;
+	/** The mapped records. */
+	CVSAccessRecord *m_records;
+	/** Count of records in the ring. */
+	unsigned int m_capacity;
+	/** Size of the mapping. */
+	size_t m_size;
+};
+
+#endif//__CVSACCESSLOG_H__
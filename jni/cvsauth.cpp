@@ -0,0 +1,378 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	jni/cvsauth.cpp
+ * @author	Eric.Tsai
+ *
+ */
+
+#include "cvsauth.h"
+
+#include <stdio.h>
+#include <string.h>
+#include <sys/stat.h>
+#include <pthread.h>
+
+/** External crypt function.*/
+extern "C" char* crypt (const char *__key, const char *__salt);
+
+/** Mutex to serialize the crypt() calls. */
+static pthread_mutex_t s_cryptMutex = PTHREAD_MUTEX_INITIALIZER;
+
+/** Opening line of an authentication request. */
+static const char AUTH_BEGIN[] = "BEGIN AUTH REQUEST";
+
+/** Closing line of an authentication request. */
+static const char AUTH_END[] = "END AUTH REQUEST";
+
+/** Opening line of a verification request. */
+static const char VERIFY_BEGIN[] = "BEGIN VERIFICATION REQUEST";
+
+/** Closing line of a verification request. */
+static const char VERIFY_END[] = "END VERIFICATION REQUEST";
+
+/**
+ * Substitution table of the CVS password scrambling, the same as the one in
+ * src/scramble.c of CVS. It is its own inverse.
+ */
+static const unsigned char SHIFTS[256] = {
+	  0,  1,  2,  3,  4,  5,  6,  7,  8,  9, 10, 11, 12, 13, 14, 15,
+	 16, 17, 18, 19, 20, 21, 22, 23, 24, 25, 26, 27, 28, 29, 30, 31,
+	114,120, 53, 79, 96,109, 72,108, 70, 64, 76, 67,116, 74, 68, 87,
+	111, 52, 75,119, 49, 34, 82, 81, 95, 65,112, 86,118,110,122,105,
+	 41, 57, 83, 43, 46,102, 40, 89, 38,103, 45, 50, 42,123, 91, 35,
+	125, 55, 54, 66,124,126, 59, 47, 92, 71,115, 78, 88,107,106, 56,
+	 36,121,117,104,101,100, 69, 73, 99, 63, 94, 93, 39, 37, 61, 48,
+	 58,113, 32, 90, 44, 98, 60, 51, 33, 97, 62, 77, 84, 80, 85,223,
+	225,216,187,166,229,189,222,188,141,249,148,200,184,136,248,190,
+	199,170,181,204,138,232,218,183,255,234,220,247,213,203,226,193,
+	174,172,228,252,217,201,131,230,197,211,145,238,161,179,160,212,
+	207,221,254,173,202,146,224,151,140,196,205,130,135,133,143,246,
+	192,159,244,239,185,168,215,144,139,165,180,157,147,186,214,176,
+	227,231,219,169,175,156,206,198,129,164,150,210,154,177,134,127,
+	182,128,158,208,162,132,167,209,149,241,153,251,237,236,171,195,
+	243,233,253,240,194,250,191,155,142,137,245,235,163,242,178,152,
+};
+
+/**
+ * Copy the next line of the specified data.
+ *
+ * @param	data	Start of the line.
+ * @param	end		End of the data.
+ * @param	line	Buffer to hold the line without the '\n', truncated if it
+ * 					is too long.
+ * @param	max		Size of the buffer.
+ *
+ * @return			Start of the following line, or NULL if the line is not
+ * 					terminated yet.
+ *
+ */
+static const char* __nextLine(const char *data, const char *end, char *line, int max)
+{
+	const char *newline = (const char *)memchr(data, '\n', end - data);
+	if (newline == NULL)
+		return NULL;
+	int length = newline - data;
+	if (length > max - 1)
+		length = max - 1;
+	memcpy(line, data, length);
+	line[length] = 0;
+	return newline + 1;
+}
+
+/**
+ * Check whether the specified data may become the specified line.
+ *
+ * @param	data	Data received so far.
+ * @param	size	Size of the data.
+ * @param	line	The expected line.
+ *
+ * @return			Return true if the data is a prefix of the line,
+ * 					otherwise return false.
+ *
+ */
+static bool __isPrefix(const char *data, int size, const char *line)
+{
+	return size <= (int)strlen(line) && memcmp(data, line, size) == 0;
+}
+
+/**
+ * Descramble a password sent by a CVS client.
+ *
+ * @param	scrambled	The scrambled password, starts with the method 'A'.
+ * @param	password	Buffer to hold the password, at least as large as the
+ * 						scrambled one.
+ *
+ * @return				Return true if the scrambling method is known,
+ * 						otherwise return false.
+ *
+ */
+static bool __descramble(const char *scrambled, char *password)
+{
+	if (scrambled[0] != 'A')
+		return false;
+	for (++scrambled; *scrambled; ++scrambled)
+		*password++ = SHIFTS[(unsigned char)*scrambled];
+	*password = 0;
+	return true;
+}
+
+/**
+ * FNV-1a digest of a password hash and a password.
+ *
+ * @param	hash		The password hash.
+ * @param	password	The password.
+ *
+ * @return				The digest.
+ *
+ */
+static unsigned long long __digest(const char *hash, const char *password)
+{
+	unsigned long long digest = 14695981039346656037ULL;
+	for (; *hash; ++hash)
+		digest = (digest ^ (unsigned char)*hash) * 1099511628211ULL;
+	digest = (digest ^ ':') * 1099511628211ULL;
+	for (; *password; ++password)
+		digest = (digest ^ (unsigned char)*password) * 1099511628211ULL;
+	return digest;
+}
+
+/**
+ * Start with no accounts, they are loaded by the first check.
+ */
+CVSAuthenticator::CVSAuthenticator()
+{
+	m_repoPath[0] = 0;
+	memset(m_accounts, 0, sizeof(m_accounts));
+	memset(m_credentials, 0, sizeof(m_credentials));
+	m_accountCount = 0;
+	m_nextCredential = 0;
+	m_generation = 0;
+	m_loadedGeneration = -1;
+	m_mtime = 0;
+	m_size = 0;
+	m_inode = 0;
+}
+
+/**
+ * Save the path without the trailing slashes, the same way CVS compares the
+ * requested root.
+ */
+void CVSAuthenticator::setRepository(const char *repoPath)
+{
+	strncpy(m_repoPath, repoPath, sizeof(m_repoPath) - 1);
+	m_repoPath[sizeof(m_repoPath) - 1] = 0;
+	for (int length = strlen(m_repoPath); length > 1 && m_repoPath[length - 1] == '/';)
+		m_repoPath[--length] = 0;
+	invalidate();
+}
+
+/**
+ * Just move to a new generation, the daemon thread notices it by the next
+ * check.
+ */
+void CVSAuthenticator::invalidate(void)
+{
+	++m_generation;
+}
+
+/**
+ * The preamble is five lines: the opening line, the repository, the user name,
+ * the scrambled password and the closing line. Data which can never become a
+ * valid opening line is rejected before the rest arrives.
+ */
+int CVSAuthenticator::check(const char *data, int size, char *reply, int max, char *user)
+{
+	const char *end = data + size;
+	user[0] = 0;
+	char begin[MAX_PREAMBLE], root[MAX_PREAMBLE], username[MAX_PREAMBLE];
+	char scrambled[MAX_PREAMBLE], password[MAX_PREAMBLE], last[MAX_PREAMBLE];
+
+	const char *line = __nextLine(data, end, begin, sizeof(begin));
+	if (line == NULL) {
+		if (__isPrefix(data, size, AUTH_BEGIN) || __isPrefix(data, size, VERIFY_BEGIN))
+			return AUTH_INCOMPLETE;
+		snprintf(reply, max, "cvs [pserver aborted]: bad auth protocol start: %.*s\n", size < 64 ? size : 64, data);
+		return AUTH_BAD_PROTOCOL;
+	}
+
+	const char *expected = NULL;
+	if (strcmp(begin, AUTH_BEGIN) == 0) {
+		expected = AUTH_END;
+	} else if (strcmp(begin, VERIFY_BEGIN) == 0) {
+		expected = VERIFY_END;
+	} else {
+		snprintf(reply, max, "cvs [pserver aborted]: bad auth protocol start: %.64s\n", begin);
+		return AUTH_BAD_PROTOCOL;
+	}
+
+	if ((line = __nextLine(line, end, root, sizeof(root))) == NULL ||
+		(line = __nextLine(line, end, username, sizeof(username))) == NULL ||
+		(line = __nextLine(line, end, scrambled, sizeof(scrambled))) == NULL ||
+		(line = __nextLine(line, end, last, sizeof(last))) == NULL) {
+		if (size < MAX_PREAMBLE)
+			return AUTH_INCOMPLETE;
+		snprintf(reply, max, "cvs [pserver aborted]: bad auth protocol end\n");
+		return AUTH_BAD_PROTOCOL;
+	}
+
+	if (strcmp(last, expected) != 0) {
+		snprintf(reply, max, "cvs [pserver aborted]: bad auth protocol end: %.64s\n", last);
+		return AUTH_BAD_PROTOCOL;
+	}
+	strncpy(user, username, MAX_USERNAME - 1);
+	user[MAX_USERNAME - 1] = 0;
+
+	for (int length = strlen(root); length > 1 && root[length - 1] == '/';)
+		root[--length] = 0;
+	if (strcmp(root, m_repoPath) != 0) {
+		snprintf(reply, max, "error 0 %.200s: no such repository\n", root);
+		return AUTH_BAD_ROOT;
+	}
+
+	if (!__descramble(scrambled, password)) {
+		snprintf(reply, max, "cvs [pserver aborted]: descramble: unknown scrambling method\n");
+		return AUTH_BAD_PROTOCOL;
+	}
+
+	reload();
+	bool verified = verify(username, password);
+	memset(password, 0, sizeof(password));
+	if (!verified) {
+		snprintf(reply, max, "I HATE YOU\n");
+		return AUTH_FAILED;
+	}
+	return AUTH_OK;
+}
+
+/**
+ * The file is parsed again only if it is invalidated or its inode, size or
+ * modification time is changed. The cache is dropped together.
+ */
+void CVSAuthenticator::reload(void)
+{
+	char filename[sizeof(m_repoPath) + 16];
+	snprintf(filename, sizeof(filename), "%s/CVSROOT/passwd", m_repoPath);
+
+	struct stat statbuf;
+	memset(&statbuf, 0, sizeof(statbuf));
+	stat(filename, &statbuf);
+
+	int generation = m_generation;
+	if (generation == m_loadedGeneration && statbuf.st_mtime == m_mtime &&
+		statbuf.st_size == m_size && statbuf.st_ino == m_inode)
+		return;
+	m_loadedGeneration = generation;
+	m_mtime = statbuf.st_mtime;
+	m_size = statbuf.st_size;
+	m_inode = statbuf.st_ino;
+
+	memset(m_credentials, 0, sizeof(m_credentials));
+	m_nextCredential = 0;
+	m_accountCount = 0;
+
+	FILE *fp = fopen(filename, "r");
+	if (fp == NULL)
+		return;
+
+	// Each line is "user:hash:system-user", the hash may be empty.
+	char line[MAX_USERNAME + MAX_HASH + 256];
+	while (m_accountCount < MAX_ACCOUNTS && fgets(line, sizeof(line), fp) != NULL) {
+		line[strcspn(line, "\r\n")] = 0;
+		char *hash = strchr(line, ':');
+		if (hash != NULL) {
+			*hash++ = 0;
+			hash[strcspn(hash, ":")] = 0;
+		}
+		if (line[0] == 0 || strlen(line) >= MAX_USERNAME || (hash != NULL && strlen(hash) >= MAX_HASH))
+			continue;
+		Account &account = m_accounts[m_accountCount++];
+		strcpy(account.username, line);
+		strcpy(account.hash, hash != NULL ? hash : "");
+	}
+	fclose(fp);
+}
+
+/**
+ * An empty hash accepts any password, like CVS does. Otherwise the digest is
+ * looked up in the cache before the expensive crypt() call. A digest collision
+ * only costs a CVS process, which does the real check again.
+ */
+bool CVSAuthenticator::verify(const char *username, const char *password)
+{
+	const Account *account = NULL;
+	for (int i = 0; i < m_accountCount; ++i) {
+		if (strcmp(m_accounts[i].username, username) == 0) {
+			account = &m_accounts[i];
+			break;
+		}
+	}
+	if (account == NULL)
+		return false;
+	if (account->hash[0] == 0)
+		return true;
+
+	unsigned long long digest = __digest(account->hash, password);
+	for (int i = 0; i < MAX_CREDENTIALS; ++i) {
+		const Credential &credential = m_credentials[i];
+		if (credential.digest == digest && strcmp(credential.username, username) == 0 &&
+			strcmp(credential.hash, account->hash) == 0)
+			return true;
+	}
+
+	char result[MAX_HASH];
+	if (!hashPassword(password, account->hash, result, sizeof(result)) ||
+		strcmp(result, account->hash) != 0)
+		return false;
+
+	Credential &credential = m_credentials[m_nextCredential];
+	m_nextCredential = (m_nextCredential + 1) % MAX_CREDENTIALS;
+	strcpy(credential.username, account->username);
+	strcpy(credential.hash, account->hash);
+	credential.digest = digest;
+	return true;
+}
+
+/**
+ * Copy the result of crypt() while the mutex is held.
+ */
+bool CVSAuthenticator::hashPassword(const char *password, const char *salt, char *hash, int max)
+{
+	pthread_mutex_lock(&s_cryptMutex);
+	const char *result = crypt(password, salt);
+	bool copied = result != NULL && (int)strlen(result) < max;
+	if (copied)
+		strcpy(hash, result);
+	pthread_mutex_unlock(&s_cryptMutex);
+	return copied;
+}
+
+/**
+ * The table is its own inverse, so scrambling is descrambling with the method
+ * prepended.
+ */
+bool CVSAuthenticator::scramble(const char *password, char *scrambled, int max)
+{
+	if ((int)strlen(password) + 2 > max)
+		return false;
+	*scrambled++ = 'A';
+	for (; *password; ++password)
+		*scrambled++ = SHIFTS[(unsigned char)*password];
+	*scrambled = 0;
+	return true;
+}
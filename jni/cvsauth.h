@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	jni/cvsauth.h
+ * @author	Eric.Tsai
+ *
+ */
+
+#ifndef __CVSAUTHENTICATOR_H__
+#define __CVSAUTHENTICATOR_H__
+
+#include <sys/types.h>
+
+/** Max length of the pserver authentication preamble. */
+#define MAX_PREAMBLE		1024
+
+/** Max count of accounts loaded from CVSROOT/passwd. */
+#define MAX_ACCOUNTS		256
+
+/** Max count of verified credentials kept in the cache. */
+#define MAX_CREDENTIALS		16
+
+/** Max length of a user name. */
+#define MAX_USERNAME		64
+
+/** Max length of a password hash. */
+#define MAX_HASH			64
+
+/** Authentication result - the preamble is not completely received. */
+#define AUTH_INCOMPLETE		0
+
+/** Authentication result - the credentials are valid. */
+#define AUTH_OK				1
+
+/** Authentication result - the user name or the password is wrong. */
+#define AUTH_FAILED			2
+
+/** Authentication result - the client does not speak pserver. */
+#define AUTH_BAD_PROTOCOL	3
+
+/** Authentication result - the requested repository is not served. */
+#define AUTH_BAD_ROOT		4
+
+/**
+ * \class CVSAuthenticator
+ *
+ * CVSAuthenticator checks the pserver authentication preamble against the
+ * CVSROOT/passwd file of the repository, so clients with bad credentials are
+ * rejected by the daemon thread without spawning a CVS process. Credentials
+ * accepted by crypt() are cached, the CVS process still does its own check.
+ *
+ */
+class CVSAuthenticator {
+public:
+	/**
+	 * Constructor.
+	 *
+	 */
+	CVSAuthenticator();
+private:
+	/** Hidden copy constructor. */
+	CVSAuthenticator(const CVSAuthenticator &other);
+	/** Hidden assign operator. */
+	CVSAuthenticator& operator =(const CVSAuthenticator &other);
+public:
+	/**
+	 * Set the repository whose CVSROOT/passwd file is used.
+	 *
+	 * @param	repoPath	Path of the CVS repository.
+	 *
+	 */
+	void setRepository(const char *repoPath);
+	/**
+	 * Drop the loaded accounts and the cached credentials, they are loaded
+	 * again by the next check. It can be called from any thread.
+	 *
+	 */
+	void invalidate(void);
+	/**
+	 * Check the authentication preamble received from a client.
+	 *
+	 * @param	data	Data received from the client so far.
+	 * @param	size	Size of the data.
+	 * @param	reply	Buffer to hold the text to send to the client if the
+	 * 					check fails.
+	 * @param	max		Size of the reply buffer.
+	 * @param	user	Buffer to hold the user name sent by the client, its
+	 * 					size must be MAX_USERNAME. It is left empty unless the
+	 * 					preamble is complete.
+	 *
+	 * @return			One of the AUTH_* results.
+	 *
+	 */
+	int check(const char *data, int size, char *reply, int max, char *user);
+	/**
+	 * Hash a password with crypt(). The result of crypt() is a static
+	 * buffer, so the calls from all threads are serialized here.
+	 *
+	 * @param	password	The password.
+	 * @param	salt		The salt, or a hash whose salt is used.
+	 * @param	hash		Buffer to hold the hash.
+	 * @param	max			Size of the buffer.
+	 *
+	 * @return				Return true if success, otherwise return false.
+	 *
+	 */
+	static bool hashPassword(const char *password, const char *salt, char *hash, int max);
+	/**
+	 * Scramble a password the way a CVS client does before it sends the
+	 * password or saves it to ~/.cvspass.
+	 *
+	 * @param	password	The password.
+	 * @param	scrambled	Buffer to hold the scrambled password.
+	 * @param	max			Size of the buffer.
+	 *
+	 * @return				Return true if success, otherwise return false.
+	 *
+	 */
+	static bool scramble(const char *password, char *scrambled, int max);
+private:
+	/**
+	 * Load CVSROOT/passwd again if it is changed or invalidated.
+	 *
+	 */
+	void reload(void);
+	/**
+	 * Verify the password of the specified user.
+	 *
+	 * @param	username	The user name.
+	 * @param	password	The descrambled password.
+	 *
+	 * @return				Return true if the password is right, otherwise
+	 * 						return false.
+	 *
+	 */
+	bool verify(const char *username, const char *password);
+private:
+	/** An account loaded from CVSROOT/passwd. */
+	struct Account {
+		/** User name. */
+		char username[MAX_USERNAME];
+		/** Password hash made by crypt(), empty for no password. */
+		char hash[MAX_HASH];
+	};
+	/** A credential accepted by crypt(). */
+	struct Credential {
+		/** User name. */
+		char username[MAX_USERNAME];
+		/** Password hash the credential is verified against. */
+		char hash[MAX_HASH];
+		/** Digest of the hash and the password. */
+		unsigned long long digest;
+	};
+	/** Path of the CVS repository. */
+	char m_repoPath[256];
+	/** Accounts loaded from CVSROOT/passwd. */
+	Account m_accounts[MAX_ACCOUNTS];
+	/** Count of accounts. */
+	int m_accountCount;
+	/** Cached credentials. */
+	Credential m_credentials[MAX_CREDENTIALS];
+	/** Index of the next cache slot to use. */
+	int m_nextCredential;
+	/** Generation increased by invalidate(). */
+	volatile int m_generation;
+	/** Generation of the loaded accounts. */
+	int m_loadedGeneration;
+	/** Modification time of the loaded CVSROOT/passwd. */
+	time_t m_mtime;
+	/** Size of the loaded CVSROOT/passwd. */
+	off_t m_size;
+	/** Inode of the loaded CVSROOT/passwd. */
+	ino_t m_inode;
+};
+
+#endif//__CVSAUTHENTICATOR_H__
@@ -0,0 +1,425 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	jni/cvsbackup.cpp
+ * @author	Eric.Tsai
+ *
+ */
+
+#include "cvsbackup.h"
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <errno.h>
+#include <fcntl.h>
+#include <unistd.h>
+#include <dirent.h>
+#include <utime.h>
+#include <limits.h>
+
+/**
+ * Create a directory and its missing parents.
+ *
+ * @param	path	Path of the directory.
+ *
+ * @return			Return true if the directory exists, otherwise return
+ * 					false.
+ *
+ */
+static bool __makeDirectories(const char *path)
+{
+	char buffer[MAX_TEMP_PATH];
+	strncpy(buffer, path, sizeof(buffer) - 1);
+	buffer[sizeof(buffer) - 1] = 0;
+	for (char *p = buffer + 1; *p; ++p) {
+		if (*p != '/')
+			continue;
+		*p = 0;
+		mkdir(buffer, 0700);
+		*p = '/';
+	}
+	struct stat statbuf;
+	return (mkdir(buffer, 0700) == 0 || errno == EEXIST) &&
+		stat(buffer, &statbuf) == 0 && S_ISDIR(statbuf.st_mode);
+}
+
+/**
+ * Remove a file or a directory tree.
+ *
+ * @param	path	Path of the file or the directory.
+ *
+ * @return			Count of files and directories removed.
+ *
+ */
+static unsigned int __removeTree(const char *path)
+{
+	struct stat statbuf;
+	if (lstat(path, &statbuf) < 0)
+		return 0;
+	if (!S_ISDIR(statbuf.st_mode))
+		return unlink(path) == 0 ? 1 : 0;
+	unsigned int removed = 0;
+	DIR *dir = opendir(path);
+	if (dir != NULL) {
+		struct dirent *dirent;
+		while ((dirent = readdir(dir)) != NULL) {
+			if (strcmp(dirent->d_name, ".") == 0 || strcmp(dirent->d_name, "..") == 0)
+				continue;
+			char child[PATH_MAX];
+			if (snprintf(child, sizeof(child), "%s/%s", path, dirent->d_name) < (int)sizeof(child))
+				removed += __removeTree(child);
+		}
+		closedir(dir);
+	}
+	return rmdir(path) == 0 ? removed + 1 : removed;
+}
+
+/**
+ * Check whether an entry of the repository is left out of the backup: the
+ * temporary RCS files of CVS and its lock files.
+ *
+ * @param	name	Name of the entry.
+ *
+ * @return			Return true if the entry is left out.
+ *
+ */
+static bool __isTransient(const char *name)
+{
+	return name[0] == ',' || strncmp(name, "#cvs.", 5) == 0;
+}
+
+/**
+ * Get the name of the mirror of a repository. It is the whole path with '%'
+ * and '/' escaped as "%25" and "%2F", so two repositories with the same last
+ * component never share a mirror.
+ *
+ * @param	path	Path of the repository.
+ * @param	name	Buffer to hold the name, at least NAME_MAX + 1.
+ *
+ * @return			Return true if the name fits.
+ *
+ */
+static bool __mirrorName(const char *path, char *name)
+{
+	while (*path == '/')
+		++path;
+	int length = 0;
+	for (; *path != 0; ++path) {
+		const char *escaped = *path == '/' ? "%2F" : *path == '%' ? "%25" : NULL;
+		int size = escaped != NULL ? 3 : 1;
+		if (length + size > NAME_MAX)
+			return false;
+		if (escaped != NULL)
+			memcpy(name + length, escaped, size);
+		else
+			name[length] = *path;
+		length += size;
+	}
+	name[length] = 0;
+	return length > 0;
+}
+
+/**
+ * Append a name to a path held in a PATH_MAX buffer.
+ *
+ * @param	path	The buffer.
+ * @param	length	Length of the path.
+ * @param	name	The name.
+ *
+ * @return			Return true if the name fits.
+ *
+ */
+static bool __appendName(char *path, int length, const char *name)
+{
+	return snprintf(path + length, PATH_MAX - length, "/%s", name) < PATH_MAX - length;
+}
+
+/**
+ * Start with no backup.
+ */
+CVSBackup::CVSBackup()
+{
+	m_destPath[0] = 0;
+	m_count = 0;
+	memset(&m_status, 0, sizeof(m_status));
+	memset(&m_progress, 0, sizeof(m_progress));
+	m_isJoinable = false;
+	m_isCancelled = false;
+	pthread_mutex_init(&m_mutex, NULL);
+}
+
+/**
+ * Cancel the backup before the fields go away.
+ */
+CVSBackup::~CVSBackup()
+{
+	cancel();
+	pthread_mutex_destroy(&m_mutex);
+}
+
+/**
+ * The thread of the last backup is joined first, it has exited already if
+ * the status says it is not running.
+ */
+bool CVSBackup::start(const char *destPath, const char (*repoPaths)[MAX_TEMP_PATH], int count)
+{
+	pthread_mutex_lock(&m_mutex);
+	bool running = m_status.isRunning;
+	pthread_mutex_unlock(&m_mutex);
+	if (running || count <= 0 || strlen(destPath) >= sizeof(m_destPath))
+		return false;
+	if (m_isJoinable) {
+		pthread_join(m_thread, NULL);
+		m_isJoinable = false;
+	}
+
+	strcpy(m_destPath, destPath);
+	m_count = count < MAX_BACKUP_ROOTS ? count : MAX_BACKUP_ROOTS;
+	memcpy(m_repoPaths, repoPaths, m_count * sizeof(m_repoPaths[0]));
+	m_isCancelled = false;
+	memset(&m_progress, 0, sizeof(m_progress));
+	m_progress.isRunning = true;
+	m_progress.started = time(NULL);
+	publish();
+
+	m_isJoinable = pthread_create(&m_thread, NULL, backupThreadFunc, this) == 0;
+	if (!m_isJoinable) {
+		m_progress.isRunning = false;
+		m_progress.isFailed = true;
+		m_progress.finished = time(NULL);
+		publish();
+	}
+	return m_isJoinable;
+}
+
+/**
+ * Just copy the published status.
+ */
+void CVSBackup::getStatus(CVSBackupStatus *status)
+{
+	pthread_mutex_lock(&m_mutex);
+	*status = m_status;
+	pthread_mutex_unlock(&m_mutex);
+}
+
+/**
+ * The backup thread checks the flag between two entries.
+ */
+void CVSBackup::cancel(void)
+{
+	m_isCancelled = true;
+	if (m_isJoinable)
+		pthread_join(m_thread, NULL);
+	m_isJoinable = false;
+}
+
+/**
+ * The modification time of the mirror is set after its entries are synced,
+ * to the time read before the directory is listed, so a change made during
+ * the scan is found by the next backup. A directory changed within the last
+ * seconds is not stamped at all, as the times only have a resolution of one
+ * second.
+ */
+bool CVSBackup::syncDirectory(char *src, char *dst, bool always)
+{
+	struct stat srcStat, dstStat;
+	if (stat(src, &srcStat) < 0 || !S_ISDIR(srcStat.st_mode))
+		return false;
+	bool exists = lstat(dst, &dstStat) == 0;
+	if (exists && !S_ISDIR(dstStat.st_mode)) {
+		m_progress.removed += __removeTree(dst);
+		exists = false;
+	}
+	if (!exists && mkdir(dst, 0700) < 0)
+		return false;
+	++m_progress.directories;
+
+	int srcLength = strlen(src), dstLength = strlen(dst);
+	bool result = true;
+	bool changed = always || !exists || dstStat.st_mtime != srcStat.st_mtime;
+	if (!changed) {
+		// Nothing is added or removed, the subdirectories are listed from
+		// the mirror which is usually faster to read.
+		++m_progress.skipped;
+		DIR *dir = opendir(dst);
+		if (dir == NULL)
+			return false;
+		struct dirent *dirent;
+		while (!m_isCancelled && (dirent = readdir(dir)) != NULL) {
+			const char *name = dirent->d_name;
+			if (strcmp(name, ".") == 0 || strcmp(name, "..") == 0)
+				continue;
+			if (!__appendName(src, srcLength, name) || !__appendName(dst, dstLength, name))
+				continue;
+			struct stat statbuf;
+			if (lstat(dst, &statbuf) == 0 && S_ISDIR(statbuf.st_mode) && !syncDirectory(src, dst, false))
+				result = false;
+		}
+		closedir(dir);
+		src[srcLength] = dst[dstLength] = 0;
+		return result && !m_isCancelled;
+	}
+
+	// Copy the new and changed entries.
+	DIR *dir = opendir(src);
+	if (dir == NULL)
+		return false;
+	struct dirent *dirent;
+	while (!m_isCancelled && (dirent = readdir(dir)) != NULL) {
+		const char *name = dirent->d_name;
+		if (strcmp(name, ".") == 0 || strcmp(name, "..") == 0 || __isTransient(name))
+			continue;
+		if (!__appendName(src, srcLength, name) || !__appendName(dst, dstLength, name)) {
+			result = false;
+			continue;
+		}
+		struct stat statbuf;
+		if (lstat(src, &statbuf) < 0)
+			continue;
+		if (S_ISDIR(statbuf.st_mode)) {
+			if (!syncDirectory(src, dst, false))
+				result = false;
+			src[srcLength] = dst[dstLength] = 0;
+			continue;
+		}
+		if (!S_ISREG(statbuf.st_mode))
+			continue;
+		++m_progress.files;
+		struct stat copyStat;
+		if (lstat(dst, &copyStat) == 0 && S_ISREG(copyStat.st_mode) &&
+			copyStat.st_size == statbuf.st_size && copyStat.st_mtime == statbuf.st_mtime)
+			continue;
+		if (!copyFile(src, dst, &statbuf))
+			result = false;
+	}
+	closedir(dir);
+
+	// Remove what is gone from the repository.
+	src[srcLength] = dst[dstLength] = 0;
+	dir = opendir(dst);
+	if (dir == NULL)
+		return false;
+	while (!m_isCancelled && (dirent = readdir(dir)) != NULL) {
+		const char *name = dirent->d_name;
+		if (strcmp(name, ".") == 0 || strcmp(name, "..") == 0)
+			continue;
+		if (!__appendName(src, srcLength, name) || !__appendName(dst, dstLength, name))
+			continue;
+		struct stat statbuf;
+		if (__isTransient(name) || (lstat(src, &statbuf) < 0 && errno == ENOENT))
+			m_progress.removed += __removeTree(dst);
+	}
+	closedir(dir);
+	src[srcLength] = dst[dstLength] = 0;
+	publish();
+
+	if (!result || m_isCancelled)
+		return false;
+	if (srcStat.st_mtime < time(NULL) - 1) {
+		struct utimbuf times = { srcStat.st_mtime, srcStat.st_mtime };
+		utime(dst, &times);
+	}
+	return true;
+}
+
+/**
+ * The copy is written to a temporary file named the way CVS names its own,
+ * and renamed over the old copy once it is synced, so the mirror never holds
+ * a half copied file.
+ */
+bool CVSBackup::copyFile(const char *src, const char *dst, const struct stat *statbuf)
+{
+	char tempname[PATH_MAX];
+	const char *name = strrchr(dst, '/') + 1;
+	if (snprintf(tempname, sizeof(tempname), "%.*s,%s", (int)(name - dst), dst, name) >= (int)sizeof(tempname))
+		return false;
+
+	int in = open(src, O_RDONLY);
+	if (in < 0)
+		return errno == ENOENT;
+	int out = open(tempname, O_WRONLY | O_CREAT | O_TRUNC, statbuf->st_mode & 0777);
+	bool result = out >= 0;
+	unsigned long long bytes = 0;
+	ssize_t size;
+	while (result && !m_isCancelled && (size = read(in, m_buffer, sizeof(m_buffer))) != 0) {
+		if (size < 0) {
+			result = errno == EINTR;
+			continue;
+		}
+		result = write(out, m_buffer, size) == size;
+		bytes += size;
+	}
+	close(in);
+	if (out >= 0 && (fsync(out) < 0 || close(out) < 0))
+		result = false;
+	if (result && !m_isCancelled) {
+		struct utimbuf times = { statbuf->st_mtime, statbuf->st_mtime };
+		result = utime(tempname, &times) == 0 && rename(tempname, dst) == 0;
+	}
+	if (!result || m_isCancelled) {
+		unlink(tempname);
+		return false;
+	}
+	++m_progress.copied;
+	m_progress.bytes += bytes;
+	return true;
+}
+
+/**
+ * Called by the backup thread and by start() before the thread is created.
+ */
+void CVSBackup::publish(void)
+{
+	pthread_mutex_lock(&m_mutex);
+	m_status = m_progress;
+	pthread_mutex_unlock(&m_mutex);
+}
+
+/**
+ * Mirror the repositories one after another. The CVSROOT directory goes
+ * first and is always scanned, it is skipped as unchanged by the walk of the
+ * repository then.
+ */
+void* CVSBackup::backupThreadFunc(void *param)
+{
+	CVSBackup *backup = (CVSBackup *)param;
+	bool result = __makeDirectories(backup->m_destPath);
+	for (int i = 0; result && i < backup->m_count; ++i) {
+		char src[PATH_MAX], dst[PATH_MAX], name[NAME_MAX + 1];
+		if (!__mirrorName(backup->m_repoPaths[i], name)) {
+			result = false;
+			break;
+		}
+		snprintf(src, sizeof(src), "%s", backup->m_repoPaths[i]);
+		snprintf(dst, sizeof(dst), "%s/%s", backup->m_destPath, name);
+		int srcLength = strlen(src), dstLength = strlen(dst);
+		if (mkdir(dst, 0700) < 0 && errno != EEXIST)
+			result = false;
+		else if (__appendName(src, srcLength, "CVSROOT") && __appendName(dst, dstLength, "CVSROOT"))
+			result = backup->syncDirectory(src, dst, true);
+		src[srcLength] = dst[dstLength] = 0;
+		if (result && !backup->syncDirectory(src, dst, false))
+			result = false;
+	}
+	backup->m_progress.isRunning = false;
+	backup->m_progress.isFailed = !result || backup->m_isCancelled;
+	backup->m_progress.finished = time(NULL);
+	backup->publish();
+	return NULL;
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	jni/cvsbackup.h
+ * @author	Eric.Tsai
+ *
+ */
+
+#ifndef __CVSBACKUP_H__
+#define __CVSBACKUP_H__
+
+#include <sys/types.h>
+#include <sys/stat.h>
+#include <time.h>
+#include <pthread.h>
+
+#include "cvstemp.h"
+
+/** Max count of repositories backed up by one run. */
+#define MAX_BACKUP_ROOTS	8
+
+/** Size of the buffer files are copied through. */
+#define BACKUP_BUFFER_SIZE	65536
+
+/**
+ * \struct CVSBackupStatus
+ *
+ * Progress of the running backup, or the result of the last one.
+ *
+ */
+struct CVSBackupStatus {
+	/** Whether a backup is running. */
+	bool isRunning;
+	/** Whether the last backup has failed or has been cancelled. */
+	bool isFailed;
+	/** Wall clock time the last backup is started, 0 if never started. */
+	time_t started;
+	/** Wall clock time the last backup is finished, 0 if running. */
+	time_t finished;
+	/** Count of directories scanned. */
+	unsigned int directories;
+	/** Count of unchanged directories whose files are not scanned. */
+	unsigned int skipped;
+	/** Count of files compared with their copies. */
+	unsigned int files;
+	/** Count of files copied. */
+	unsigned int copied;
+	/** Count of files and directories removed from the mirror. */
+	unsigned int removed;
+	/** Bytes copied. */
+	unsigned long long bytes;
+};
+
+/**
+ * \class CVSBackup
+ *
+ * CVSBackup mirrors the repositories into a backup directory on a thread of
+ * its own. The mirror itself is the change index: a copied file gets the size
+ * and the modification time of the original, and a mirrored directory gets
+ * the modification time of the original once all its entries are copied.
+ *
+ * CVS never rewrites a RCS file in place, it writes a new one and renames it,
+ * so every change of a RCS file changes the modification time of its
+ * directory. The files of the directories whose time has not changed are not
+ * even listed, only CVSROOT is always scanned, as CVS appends to its history
+ * and val-tags files. A RCS file being renamed is copied as either version,
+ * never half written, so a backup can run beside the sessions.
+ *
+ */
+class CVSBackup {
+public:
+	/**
+	 * Constructor.
+	 *
+	 */
+	CVSBackup();
+	/**
+	 * Destructor, a running backup is cancelled.
+	 *
+	 */
+	~CVSBackup();
+private:
+	/** Hidden copy constructor. */
+	CVSBackup(const CVSBackup &other);
+	/** Hidden assign operator. */
+	CVSBackup& operator =(const CVSBackup &other);
+public:
+	/**
+	 * Start a backup of the repositories. Each one is mirrored into a
+	 * directory of the backup directory named after its whole path, with
+	 * '%' and '/' escaped as "%25" and "%2F".
+	 *
+	 * @param	destPath	Path of the backup directory, created if it does
+	 * 						not exist.
+	 * @param	repoPaths	Paths of the repositories.
+	 * @param	count		Count of the repositories.
+	 *
+	 * @return				Return true if the backup is started, otherwise
+	 * 						return false, a backup is running already.
+	 *
+	 */
+	bool start(const char *destPath, const char (*repoPaths)[MAX_TEMP_PATH], int count);
+	/**
+	 * Get the progress of the running backup or the result of the last one.
+	 *
+	 * @param	status	Buffer to hold the status.
+	 *
+	 */
+	void getStatus(CVSBackupStatus *status);
+	/**
+	 * Cancel the running backup and wait for its thread to exit. The mirror
+	 * is left consistent, the next backup continues from it.
+	 *
+	 */
+	void cancel(void);
+private:
+	/**
+	 * Mirror a directory and the changed parts of its subdirectories.
+	 *
+	 * @param	src		Buffer holding the path of the directory, at least
+	 * 					PATH_MAX. The names of the entries are appended to it.
+	 * @param	dst		Buffer holding the path of the mirror, the same way.
+	 * @param	always	Whether to scan the files even if the directory is not
+	 * 					changed.
+	 *
+	 * @return			Return true if success, otherwise return false.
+	 *
+	 */
+	bool syncDirectory(char *src, char *dst, bool always);
+	/**
+	 * Copy a file with the mode and the modification time of the original.
+	 *
+	 * @param	src		Path of the original file.
+	 * @param	dst		Path of the copy.
+	 * @param	statbuf	Status of the original file.
+	 *
+	 * @return			Return true if success, otherwise return false.
+	 *
+	 */
+	bool copyFile(const char *src, const char *dst, const struct stat *statbuf);
+	/**
+	 * Publish the progress of the backup thread.
+	 *
+	 */
+	void publish(void);
+	/** Backup thread function. */
+	static void* backupThreadFunc(void *param);
+private:
+	/** Path of the backup directory. */
+	char m_destPath[MAX_TEMP_PATH];
+	/** Paths of the repositories. */
+	char m_repoPaths[MAX_BACKUP_ROOTS][MAX_TEMP_PATH];
+	/** Count of the repositories. */
+	int m_count;
+	/** Status read by the other threads. */
+	CVSBackupStatus m_status;
+	/** Status kept by the backup thread. */
+	CVSBackupStatus m_progress;
+	/** Buffer files are copied through. */
+	char m_buffer[BACKUP_BUFFER_SIZE];
+	/** Mutex to protect the status. */
+	pthread_mutex_t m_mutex;
+	/** The backup thread. */
+	pthread_t m_thread;
+	/** Whether the backup thread has to be joined. */
+	bool m_isJoinable;
+	/** Whether the backup thread should exit. */
+	volatile bool m_isCancelled;
+};
+
+#endif//__CVSBACKUP_H__
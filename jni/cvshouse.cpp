@@ -0,0 +1,350 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	jni/cvshouse.cpp
+ * @author	Eric.Tsai
+ *
+ */
+
+#include "cvshouse.h"
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <errno.h>
+#include <fcntl.h>
+#include <unistd.h>
+#include <limits.h>
+#include <sys/stat.h>
+#include <zlib.h>
+
+/** Milliseconds between two looks at the lock sweep. */
+#define SWEEP_POLL_INTERVAL	20
+
+/** Times a moved file is compressed before it is left for the next rotation. */
+#define ROTATE_TRIES		3
+
+/** Milliseconds the commands still appending to a moved file are given. */
+#define ROTATE_SETTLE_INTERVAL	100
+
+/** Names of the files rotated, in the order of the tasks. */
+static const char *ROTATED_FILES[] = { "CVSROOT/history", "CVSROOT/val-tags" };
+
+/**
+ * Compress a file with gzip.
+ *
+ * @param	from	Path of the file.
+ * @param	to		Path of the compressed file.
+ *
+ * @return			Size of the compressed file, -1 if failed.
+ *
+ */
+static long long __compressFile(const char *from, const char *to)
+{
+	int in = open(from, O_RDONLY);
+	if (in < 0)
+		return -1;
+	gzFile out = gzopen(to, "wb");
+	bool result = out != NULL;
+	char buffer[32768];
+	ssize_t size;
+	while (result && (size = read(in, buffer, sizeof(buffer))) > 0)
+		result = gzwrite(out, buffer, size) == size;
+	close(in);
+	if (out != NULL && gzclose(out) != Z_OK)
+		result = false;
+	struct stat statbuf;
+	if (!result || stat(to, &statbuf) < 0) {
+		unlink(to);
+		return -1;
+	}
+	return statbuf.st_size;
+}
+
+/**
+ * Get the monotonic time in milliseconds.
+ */
+static long long __now(void)
+{
+	struct timespec now;
+	clock_gettime(CLOCK_MONOTONIC, &now);
+	return (long long)now.tv_sec * 1000 + now.tv_nsec / 1000000;
+}
+
+CVSHousekeeper::CVSHousekeeper()
+{
+	m_count = 0;
+	m_lockPath[0] = 0;
+	m_rotateSize = 0;
+	m_generations = 0;
+	memset(&m_status, 0, sizeof(m_status));
+	pthread_mutex_init(&m_mutex, NULL);
+	m_isJoinable = false;
+	m_isBusy = false;
+	m_isCancelled = false;
+}
+
+/**
+ * Cancel the housekeeping before the fields go away.
+ */
+CVSHousekeeper::~CVSHousekeeper()
+{
+	cancel();
+	pthread_mutex_destroy(&m_mutex);
+}
+
+/**
+ * The thread of the last housekeeping is joined first, it has exited already
+ * if the status says it is not running. The counters of the tasks are kept
+ * across the runs.
+ */
+bool CVSHousekeeper::start(const char (*repoPaths)[MAX_TEMP_PATH], const char (*tempPaths)[MAX_TEMP_PATH], int count,
+	const char *lockPath, long long rotateSize, int generations)
+{
+	pthread_mutex_lock(&m_mutex);
+	bool running = m_status.isRunning;
+	pthread_mutex_unlock(&m_mutex);
+	if (running || m_isBusy || count <= 0 || strlen(lockPath) >= sizeof(m_lockPath))
+		return false;
+	if (m_isJoinable) {
+		pthread_join(m_thread, NULL);
+		m_isJoinable = false;
+	}
+
+	m_count = count < MAX_HOUSEKEEPING_ROOTS ? count : MAX_HOUSEKEEPING_ROOTS;
+	memcpy(m_repoPaths, repoPaths, m_count * sizeof(m_repoPaths[0]));
+	memcpy(m_tempPaths, tempPaths, m_count * sizeof(m_tempPaths[0]));
+	strcpy(m_lockPath, lockPath);
+	m_rotateSize = rotateSize;
+	m_generations = generations;
+	m_isCancelled = false;
+	pthread_mutex_lock(&m_mutex);
+	m_status.isRunning = true;
+	m_status.isDeferred = false;
+	m_status.started = time(NULL);
+	m_status.finished = 0;
+	pthread_mutex_unlock(&m_mutex);
+
+	m_isJoinable = pthread_create(&m_thread, NULL, housekeepingThreadFunc, this) == 0;
+	if (!m_isJoinable) {
+		pthread_mutex_lock(&m_mutex);
+		m_status.isRunning = false;
+		m_status.isDeferred = true;
+		m_status.finished = time(NULL);
+		pthread_mutex_unlock(&m_mutex);
+	}
+	return m_isJoinable;
+}
+
+/**
+ * Just set the flags, the housekeeping thread checks it between two files and
+ * the lock sweeper before each removal.
+ */
+void CVSHousekeeper::setBusy(bool busy)
+{
+	m_isBusy = busy;
+	m_lockSweeper.setBusy(busy);
+}
+
+/**
+ * Just copy the status.
+ */
+void CVSHousekeeper::getStatus(CVSHousekeepingStatus *status)
+{
+	pthread_mutex_lock(&m_mutex);
+	*status = m_status;
+	pthread_mutex_unlock(&m_mutex);
+}
+
+/**
+ * The housekeeping thread checks the flag between two files, and while the
+ * lock sweep runs.
+ */
+void CVSHousekeeper::cancel(void)
+{
+	m_isCancelled = true;
+	if (m_isJoinable)
+		pthread_join(m_thread, NULL);
+	m_isJoinable = false;
+}
+
+/**
+ * The locks are swept by a verifier which skips the RCS files, it walks the
+ * trees on a thread per core and is cancelled as soon as the sessions come
+ * back.
+ */
+int CVSHousekeeper::runTask(int task)
+{
+	int items = 0;
+	switch (task) {
+	case HOUSEKEEPING_HISTORY:
+	case HOUSEKEEPING_VAL_TAGS:
+		for (int i = 0; i < m_count; ++i) {
+			char path[PATH_MAX];
+			if (isInterrupted())
+				return -1;
+			snprintf(path, sizeof(path), "%s/%s", m_repoPaths[i], ROTATED_FILES[task]);
+			if (rotate(path))
+				++items;
+		}
+		break;
+	case HOUSEKEEPING_LOCKS: {
+		char paths[MAX_VERIFY_TREES][MAX_TEMP_PATH];
+		int count = 0;
+		for (; count < m_count && count < MAX_VERIFY_TREES - 1; ++count)
+			strcpy(paths[count], m_repoPaths[count]);
+		if (m_lockPath[0] != 0)
+			strcpy(paths[count++], m_lockPath);
+		if (!m_lockSweeper.start(paths, count, true, true))
+			return -1;
+		CVSVerifyStatus status;
+		for (;;) {
+			m_lockSweeper.getStatus(&status);
+			if (!status.isRunning)
+				break;
+			if (isInterrupted()) {
+				m_lockSweeper.cancel();
+				return -1;
+			}
+			usleep(SWEEP_POLL_INTERVAL * 1000);
+		}
+		m_lockSweeper.cancel();
+		items = status.repaired;
+		break;
+	}
+	case HOUSEKEEPING_TEMPS:
+		for (int i = 0; i < m_count; ++i) {
+			if (isInterrupted())
+				return -1;
+			if (m_tempPaths[i][0] != 0)
+				items += CVSTempArea::removeOrphans(m_tempPaths[i]);
+		}
+		break;
+	}
+	return items;
+}
+
+/**
+ * CVS only logs to CVSROOT/history if it exists, so the empty file is created
+ * before the moved one is compressed. A command which has opened the file
+ * before the move still appends to the moved one, so it is compressed again
+ * until its size holds, and kept as it is if it never does. Such a moved file
+ * is compressed by the next rotation before the file is moved again.
+ */
+bool CVSHousekeeper::rotate(const char *path)
+{
+	char from[PATH_MAX], to[PATH_MAX], moved[PATH_MAX];
+	struct stat statbuf;
+	snprintf(moved, sizeof(moved), "%s.1", path);
+	bool isLeftover = lstat(moved, &statbuf) == 0 && S_ISREG(statbuf.st_mode);
+	if (!isLeftover) {
+		if (stat(path, &statbuf) < 0 || !S_ISREG(statbuf.st_mode) || statbuf.st_size < m_rotateSize)
+			return false;
+		if (rename(path, moved) < 0)
+			return false;
+		int fd = open(path, O_WRONLY | O_CREAT | O_EXCL, statbuf.st_mode & 07777);
+		if (fd >= 0) {
+			fchmod(fd, statbuf.st_mode & 07777);
+			close(fd);
+		}
+	}
+
+	if (m_generations <= 0) {
+		unlink(moved);
+		pthread_mutex_lock(&m_mutex);
+		m_status.saved += statbuf.st_size;
+		pthread_mutex_unlock(&m_mutex);
+		return true;
+	}
+
+	// Drop the oldest generation and shift the others.
+	snprintf(to, sizeof(to), "%s.%d.gz", path, m_generations);
+	unlink(to);
+	for (int i = m_generations - 1; i > 0; --i) {
+		snprintf(from, sizeof(from), "%s.%d.gz", path, i);
+		snprintf(to, sizeof(to), "%s.%d.gz", path, i + 1);
+		rename(from, to);
+	}
+
+	snprintf(to, sizeof(to), "%s.1.gz", path);
+	for (int tries = 0; tries < ROTATE_TRIES; ++tries) {
+		if (tries > 0)
+			usleep(ROTATE_SETTLE_INTERVAL * 1000);
+		struct stat before, after;
+		if (stat(moved, &before) < 0)
+			return true;
+		long long compressed = __compressFile(moved, to);
+		if (compressed < 0)
+			return true;
+		if (stat(moved, &after) == 0 && after.st_size == before.st_size) {
+			unlink(moved);
+			pthread_mutex_lock(&m_mutex);
+			m_status.saved += after.st_size - compressed;
+			pthread_mutex_unlock(&m_mutex);
+			return true;
+		}
+	}
+
+	// Shift the generations back, the moved file takes the first one later.
+	unlink(to);
+	for (int i = 1; i < m_generations; ++i) {
+		snprintf(from, sizeof(from), "%s.%d.gz", path, i + 1);
+		snprintf(to, sizeof(to), "%s.%d.gz", path, i);
+		rename(from, to);
+	}
+	return true;
+}
+
+/**
+ * Just check the flags.
+ */
+bool CVSHousekeeper::isInterrupted(void)
+{
+	return m_isCancelled || m_isBusy;
+}
+
+/**
+ * A task stopped in the middle is not counted, the whole housekeeping is
+ * deferred and starts over next time.
+ */
+void* CVSHousekeeper::housekeepingThreadFunc(void *param)
+{
+	CVSHousekeeper *keeper = (CVSHousekeeper *)param;
+	bool deferred = false;
+	for (int task = 0; !deferred && task < HOUSEKEEPING_TASKS; ++task) {
+		long long begin = __now();
+		int items = keeper->runTask(task);
+		long long millis = __now() - begin;
+		deferred = items < 0;
+		if (deferred)
+			break;
+		pthread_mutex_lock(&keeper->m_mutex);
+		CVSHousekeepingTask *status = &keeper->m_status.tasks[task];
+		++status->runs;
+		status->items = items;
+		status->lastMillis = (unsigned int)millis;
+		status->totalMillis += millis;
+		pthread_mutex_unlock(&keeper->m_mutex);
+	}
+	pthread_mutex_lock(&keeper->m_mutex);
+	keeper->m_status.isRunning = false;
+	keeper->m_status.isDeferred = deferred;
+	keeper->m_status.finished = time(NULL);
+	pthread_mutex_unlock(&keeper->m_mutex);
+	return NULL;
+}
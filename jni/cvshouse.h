@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	jni/cvshouse.h
+ * @author	Eric.Tsai
+ *
+ */
+
+#ifndef __CVSHOUSEKEEPER_H__
+#define __CVSHOUSEKEEPER_H__
+
+#include <sys/types.h>
+#include <time.h>
+#include <pthread.h>
+
+#include "cvstemp.h"
+#include "cvsverify.h"
+
+/** Max count of repositories kept by one run. */
+#define MAX_HOUSEKEEPING_ROOTS	8
+
+/** Task - rotate and compress CVSROOT/history. */
+#define HOUSEKEEPING_HISTORY	0
+
+/** Task - rotate and compress CVSROOT/val-tags. */
+#define HOUSEKEEPING_VAL_TAGS	1
+
+/** Task - remove the stale locks and temporary RCS files. */
+#define HOUSEKEEPING_LOCKS		2
+
+/** Task - remove the orphaned cvs-serv directories. */
+#define HOUSEKEEPING_TEMPS		3
+
+/** Count of the tasks. */
+#define HOUSEKEEPING_TASKS		4
+
+/**
+ * \struct CVSHousekeepingTask
+ *
+ * What a housekeeping task has done and how long it took.
+ *
+ */
+struct CVSHousekeepingTask {
+	/** Count of runs finished. */
+	unsigned int runs;
+	/** Count of files rotated, or locks and directories removed, by the last run. */
+	unsigned int items;
+	/** Milliseconds the last run took. */
+	unsigned int lastMillis;
+	/** Milliseconds all the runs took. */
+	unsigned long long totalMillis;
+};
+
+/**
+ * \struct CVSHousekeepingStatus
+ *
+ * Progress of the running housekeeping, or the result of the last one.
+ *
+ */
+struct CVSHousekeepingStatus {
+	/** Whether the housekeeping is running. */
+	bool isRunning;
+	/** Whether the last one has stopped early, for the sessions. */
+	bool isDeferred;
+	/** Wall clock time the last housekeeping is started, 0 if never. */
+	time_t started;
+	/** Wall clock time the last housekeeping is finished, 0 if running. */
+	time_t finished;
+	/** Bytes saved by the compression of the rotated files. */
+	unsigned long long saved;
+	/** The tasks. */
+	CVSHousekeepingTask tasks[HOUSEKEEPING_TASKS];
+};
+
+/**
+ * \class CVSHousekeeper
+ *
+ * CVSHousekeeper keeps the repositories from degrading over the months. The
+ * cvs binary appends to CVSROOT/history on every command and to
+ * CVSROOT/val-tags on every new tag, and never trims them, so "cvs history"
+ * and the tag checks read more and more. Once over a size, the file is moved
+ * aside, replaced by an empty one and compressed, a few generations are
+ * kept. The stale locks, the temporary RCS files and the orphaned cvs-serv
+ * directories are removed too.
+ *
+ * The tasks run in order on a thread of their own and each one is timed. The
+ * daemon thread tells when the sessions come back, the housekeeping stops at
+ * the next file and is deferred to the next idle period.
+ *
+ */
+class CVSHousekeeper {
+public:
+	/**
+	 * Constructor.
+	 *
+	 */
+	CVSHousekeeper();
+	/**
+	 * Destructor, a running housekeeping is cancelled.
+	 *
+	 */
+	~CVSHousekeeper();
+private:
+	/** Hidden copy constructor. */
+	CVSHousekeeper(const CVSHousekeeper &other);
+	/** Hidden assign operator. */
+	CVSHousekeeper& operator =(const CVSHousekeeper &other);
+public:
+	/**
+	 * Start the housekeeping of some repositories.
+	 *
+	 * @param	repoPaths	Paths of the repositories.
+	 * @param	tempPaths	Paths of their temporary areas.
+	 * @param	count		Count of the repositories.
+	 * @param	lockPath	Path of the lock area, empty if the locks are in
+	 * 						the repositories.
+	 * @param	rotateSize	Size in bytes over which a file is rotated.
+	 * @param	generations	Count of compressed generations kept, 0 to drop
+	 * 						the rotated content.
+	 *
+	 * @return				Return true if the housekeeping is started,
+	 * 						otherwise return false, one is running already or
+	 * 						the daemon is busy.
+	 *
+	 */
+	bool start(const char (*repoPaths)[MAX_TEMP_PATH], const char (*tempPaths)[MAX_TEMP_PATH], int count,
+		const char *lockPath, long long rotateSize, int generations);
+	/**
+	 * Tell whether the daemon is busy, the housekeeping stops then. Called by
+	 * the daemon thread.
+	 *
+	 * @param	busy	Whether any client is being served.
+	 *
+	 */
+	void setBusy(bool busy);
+	/**
+	 * Get the progress of the running housekeeping or the result of the last
+	 * one, with the timing of each task.
+	 *
+	 * @param	status	Buffer to hold the status.
+	 *
+	 */
+	void getStatus(CVSHousekeepingStatus *status);
+	/**
+	 * Cancel the running housekeeping and wait for its thread to exit.
+	 *
+	 */
+	void cancel(void);
+private:
+	/**
+	 * Run a task over the repositories.
+	 *
+	 * @param	task	One of the HOUSEKEEPING_* tasks.
+	 *
+	 * @return			Count of items handled, -1 if it has been stopped.
+	 *
+	 */
+	int runTask(int task);
+	/**
+	 * Rotate a file if it is over the size, or finish the rotation of a moved
+	 * file the last one has left.
+	 *
+	 * @param	path	Path of the file.
+	 *
+	 * @return			Return true if it is rotated, otherwise return false.
+	 *
+	 */
+	bool rotate(const char *path);
+	/**
+	 * Check whether the housekeeping should stop.
+	 *
+	 * @return		Return true if it is cancelled or the daemon is busy.
+	 *
+	 */
+	bool isInterrupted(void);
+	/** Housekeeping thread function. */
+	static void* housekeepingThreadFunc(void *param);
+private:
+	/** Paths of the repositories. */
+	char m_repoPaths[MAX_HOUSEKEEPING_ROOTS][MAX_TEMP_PATH];
+	/** Paths of the temporary areas. */
+	char m_tempPaths[MAX_HOUSEKEEPING_ROOTS][MAX_TEMP_PATH];
+	/** Count of the repositories. */
+	int m_count;
+	/** Path of the lock area, empty if none. */
+	char m_lockPath[MAX_TEMP_PATH];
+	/** Size over which a file is rotated. */
+	long long m_rotateSize;
+	/** Count of generations kept. */
+	int m_generations;
+	/** Sweeps the locks, the RCS files are not parsed. */
+	CVSVerifier m_lockSweeper;
+	/** Status read by the other threads. */
+	CVSHousekeepingStatus m_status;
+	/** Mutex to protect the status. */
+	pthread_mutex_t m_mutex;
+	/** The housekeeping thread. */
+	pthread_t m_thread;
+	/** Whether the housekeeping thread has to be joined. */
+	bool m_isJoinable;
+	/** Whether the daemon is busy. */
+	volatile bool m_isBusy;
+	/** Whether the housekeeping thread should exit. */
+	volatile bool m_isCancelled;
+};
+
+#endif//__CVSHOUSEKEEPER_H__
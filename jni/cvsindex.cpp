@@ -0,0 +1,493 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	jni/cvsindex.cpp
+ * @author	Eric.Tsai
+ *
+ */
+
+#include "cvsindex.h"
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <ctype.h>
+#include <dirent.h>
+#include <sys/stat.h>
+
+/** Token type - end of file. */
+#define TOKEN_EOF		0
+
+/** Token type - an id, a number or a keyword. */
+#define TOKEN_WORD		'w'
+
+/** Token type - a string, its content is skipped. */
+#define TOKEN_STRING	'@'
+
+/**
+ * Read the next token of an RCS file.
+ *
+ * @param	fp		The RCS file.
+ * @param	word	Buffer to hold the word, truncated if it is too long.
+ * @param	max		Size of the buffer.
+ *
+ * @return			TOKEN_EOF, TOKEN_WORD, TOKEN_STRING, ';' or ':'.
+ *
+ */
+static int __nextToken(FILE *fp, char *word, int max)
+{
+	int c;
+	while ((c = getc(fp)) != EOF && isspace(c))
+		continue;
+	if (c == EOF)
+		return TOKEN_EOF;
+	if (c == ';' || c == ':')
+		return c;
+	if (c == '@') {
+		// "@@" inside a string is an escaped '@'.
+		while ((c = getc(fp)) != EOF) {
+			if (c == '@' && (c = getc(fp)) != '@') {
+				if (c != EOF)
+					ungetc(c, fp);
+				break;
+			}
+		}
+		return TOKEN_STRING;
+	}
+	int length = 0;
+	do {
+		if (length < max - 1)
+			word[length++] = c;
+	} while ((c = getc(fp)) != EOF && !isspace(c) && c != ';' && c != ':' && c != '@');
+	if (c != EOF)
+		ungetc(c, fp);
+	word[length] = 0;
+	return TOKEN_WORD;
+}
+
+/**
+ * Check whether a revision is on a branch, like 1.2.2.1.
+ *
+ * @param	revision	The revision.
+ *
+ * @return				Return true if the revision is on a branch, otherwise
+ * 						return false.
+ *
+ */
+static bool __isBranchRevision(const char *revision)
+{
+	int dots = 0;
+	for (; *revision; ++revision)
+		dots += *revision == '.';
+	return dots >= 3;
+}
+
+/**
+ * Get the monotonic time in seconds.
+ *
+ * @return		Seconds since an unspecified point.
+ *
+ */
+static long __uptimeSeconds(void)
+{
+	struct timespec now;
+	clock_gettime(CLOCK_MONOTONIC, &now);
+	return now.tv_sec;
+}
+
+/**
+ * Make the prefix shared by the paths of the RCS files of a module.
+ *
+ * @param	module	Path of the module, an empty string for the whole
+ * 					repository.
+ * @param	prefix	Buffer to hold the prefix.
+ * @param	max		Size of the buffer.
+ *
+ * @return			Length of the prefix.
+ *
+ */
+static int __modulePrefix(const char *module, char *prefix, int max)
+{
+	int length = strlen(module);
+	while (length > 0 && module[length - 1] == '/')
+		--length;
+	if (length > max - 2)
+		length = max - 2;
+	memcpy(prefix, module, length);
+	if (length > 0)
+		prefix[length++] = '/';
+	prefix[length] = 0;
+	return length;
+}
+
+/**
+ * Compare two entries or two directories by path, for qsort().
+ */
+static int __comparePath(const void *a, const void *b)
+{
+	return strcmp(*(char * const *)a, *(char * const *)b);
+}
+
+/**
+ * Start with an empty index, the first query scans the repository.
+ */
+CVSHeadIndex::CVSHeadIndex()
+{
+	m_repoPath[0] = 0;
+	m_entries = NULL;
+	m_count = 0;
+	m_dirs = NULL;
+	m_dirCount = 0;
+	m_newEntries = NULL;
+	m_newCount = m_newCapacity = 0;
+	m_newDirs = NULL;
+	m_newDirCount = m_newDirCapacity = 0;
+	m_generation = 0;
+	m_scannedGeneration = -1;
+	m_scanned = 0;
+	m_scannedTime = 0;
+	pthread_mutex_init(&m_mutex, NULL);
+}
+
+/**
+ * Free the entries and the directories.
+ */
+CVSHeadIndex::~CVSHeadIndex()
+{
+	for (int i = 0; i < m_count; ++i)
+		free(m_entries[i].path);
+	for (int i = 0; i < m_dirCount; ++i)
+		free(m_dirs[i].path);
+	free(m_entries);
+	free(m_dirs);
+	pthread_mutex_destroy(&m_mutex);
+}
+
+/**
+ * Just save the path, the repository is scanned by the first query.
+ */
+void CVSHeadIndex::setRepository(const char *repoPath)
+{
+	pthread_mutex_lock(&m_mutex);
+	strncpy(m_repoPath, repoPath, sizeof(m_repoPath) - 1);
+	m_repoPath[sizeof(m_repoPath) - 1] = 0;
+	pthread_mutex_unlock(&m_mutex);
+	invalidate();
+}
+
+/**
+ * Just move to a new generation.
+ */
+void CVSHeadIndex::invalidate(void)
+{
+	++m_generation;
+}
+
+/**
+ * The entries of a module are contiguous in the sorted index, they all start
+ * with "module/".
+ */
+void CVSHeadIndex::getModuleState(const char *module, CVSModuleState *state)
+{
+	char prefix[MAX_RCS_PATH];
+	int length = __modulePrefix(module, prefix, sizeof(prefix));
+
+	memset(state, 0, sizeof(*state));
+	state->digest = 14695981039346656037ULL;
+
+	pthread_mutex_lock(&m_mutex);
+	refresh();
+	for (int i = lowerBound(prefix); i < m_count && strncmp(m_entries[i].path, prefix, length) == 0; ++i) {
+		const Entry &entry = m_entries[i];
+		++state->files;
+		if (entry.mtime > state->modified)
+			state->modified = entry.mtime;
+		const char *fields[3] = { entry.path, entry.head, entry.branches };
+		for (int j = 0; j < 3; ++j) {
+			for (const char *p = fields[j]; *p; ++p)
+				state->digest = (state->digest ^ (unsigned char)*p) * 1099511628211ULL;
+			state->digest = (state->digest ^ '\n') * 1099511628211ULL;
+		}
+	}
+	pthread_mutex_unlock(&m_mutex);
+}
+
+/**
+ * Copy the entries of the module range.
+ */
+int CVSHeadIndex::getHeads(const char *module, CVSHeadEntry *entries, int max)
+{
+	char prefix[MAX_RCS_PATH];
+	int length = __modulePrefix(module, prefix, sizeof(prefix));
+
+	int count = 0;
+	pthread_mutex_lock(&m_mutex);
+	refresh();
+	for (int i = lowerBound(prefix); i < m_count && count < max && strncmp(m_entries[i].path, prefix, length) == 0; ++i) {
+		const Entry &entry = m_entries[i];
+		CVSHeadEntry &copy = entries[count++];
+		strncpy(copy.path, entry.path, MAX_RCS_PATH - 1);
+		copy.path[MAX_RCS_PATH - 1] = 0;
+		strcpy(copy.head, entry.head);
+		strcpy(copy.branches, entry.branches);
+		copy.mtime = entry.mtime;
+	}
+	pthread_mutex_unlock(&m_mutex);
+	return count;
+}
+
+/**
+ * A new index is built next to the current one, so unchanged directories can
+ * take their entries from it, and then replaces it.
+ */
+void CVSHeadIndex::refresh(void)
+{
+	long now = __uptimeSeconds();
+	int generation = m_generation;
+	if (generation == m_scannedGeneration && now - m_scanned < SCAN_INTERVAL)
+		return;
+
+	time_t started = time(NULL);
+	m_newEntries = NULL;
+	m_newCount = m_newCapacity = 0;
+	m_newDirs = NULL;
+	m_newDirCount = m_newDirCapacity = 0;
+	scan("");
+	if (m_newCount > 0)
+		qsort(m_newEntries, m_newCount, sizeof(Entry), __comparePath);
+	if (m_newDirCount > 0)
+		qsort(m_newDirs, m_newDirCount, sizeof(Directory), __comparePath);
+
+	for (int i = 0; i < m_count; ++i)
+		free(m_entries[i].path);
+	for (int i = 0; i < m_dirCount; ++i)
+		free(m_dirs[i].path);
+	free(m_entries);
+	free(m_dirs);
+	m_entries = m_newEntries;
+	m_count = m_newCount;
+	m_dirs = m_newDirs;
+	m_dirCount = m_newDirCount;
+	m_newEntries = NULL;
+	m_newDirs = NULL;
+
+	m_scannedGeneration = generation;
+	m_scanned = now;
+	m_scannedTime = started;
+}
+
+/**
+ * CVS replaces an RCS file by renaming a new one over it, which changes the
+ * modification time of the directory. The files of a directory whose time is
+ * unchanged are taken from the current index without even a stat(). A time in
+ * the second of the last scan proves nothing, such a directory is read again.
+ */
+void CVSHeadIndex::scan(const char *path)
+{
+	char dirname[sizeof(m_repoPath) + MAX_RCS_PATH + 2];
+	snprintf(dirname, sizeof(dirname), path[0] ? "%s/%s" : "%s", m_repoPath, path);
+
+	struct stat statbuf;
+	if (stat(dirname, &statbuf) < 0 || !S_ISDIR(statbuf.st_mode))
+		return;
+	Directory *old = findDirectory(path);
+	bool unchanged = old != NULL && old->mtime == statbuf.st_mtime && statbuf.st_mtime < m_scannedTime;
+	Directory directory = { strdup(path), statbuf.st_mtime };
+	if (directory.path == NULL)
+		return;
+	addDirectory(directory);
+
+	DIR *dir = opendir(dirname);
+	if (dir == NULL)
+		return;
+	struct dirent *dirent;
+	while ((dirent = readdir(dir)) != NULL) {
+		const char *name = dirent->d_name;
+
+		// Skip the administrative files, locks and temporary files of CVS.
+		if (strcmp(name, ".") == 0 || strcmp(name, "..") == 0 ||
+			(path[0] == 0 && strcmp(name, "CVSROOT") == 0) ||
+			name[0] == '#' || name[0] == ',')
+			continue;
+
+		char child[MAX_RCS_PATH];
+		if (snprintf(child, sizeof(child), path[0] ? "%s/%s" : "%s%s", path, name) >= (int)sizeof(child))
+			continue;
+		char filename[sizeof(dirname) + MAX_RCS_PATH];
+		snprintf(filename, sizeof(filename), "%s/%s", m_repoPath, child);
+
+		bool isDir = dirent->d_type == DT_DIR;
+		if (dirent->d_type == DT_UNKNOWN)
+			isDir = stat(filename, &statbuf) == 0 && S_ISDIR(statbuf.st_mode);
+		if (isDir) {
+			scan(child);
+			continue;
+		}
+
+		int length = strlen(name);
+		if (length < 3 || strcmp(name + length - 2, ",v") != 0)
+			continue;
+
+		int index = lowerBound(child);
+		const Entry *current = index < m_count && strcmp(m_entries[index].path, child) == 0 ? &m_entries[index] : NULL;
+		Entry entry;
+		if (unchanged && current != NULL) {
+			entry = *current;
+		} else if (stat(filename, &statbuf) < 0) {
+			continue;
+		} else if (current != NULL && current->mtime == statbuf.st_mtime &&
+			current->size == statbuf.st_size && statbuf.st_mtime < m_scannedTime) {
+			entry = *current;
+		} else {
+			memset(&entry, 0, sizeof(entry));
+			entry.mtime = statbuf.st_mtime;
+			entry.size = statbuf.st_size;
+			if (!parse(filename, &entry))
+				continue;
+		}
+		if ((entry.path = strdup(child)) == NULL)
+			continue;
+		addEntry(entry);
+	}
+	closedir(dir);
+}
+
+/**
+ * Grow the array by doubling.
+ */
+void CVSHeadIndex::addEntry(const Entry &entry)
+{
+	if (m_newCount == m_newCapacity) {
+		int capacity = m_newCapacity > 0 ? m_newCapacity * 2 : 64;
+		Entry *entries = (Entry *)realloc(m_newEntries, capacity * sizeof(Entry));
+		if (entries == NULL) {
+			free(entry.path);
+			return;
+		}
+		m_newEntries = entries;
+		m_newCapacity = capacity;
+	}
+	m_newEntries[m_newCount++] = entry;
+}
+
+/**
+ * Grow the array by doubling.
+ */
+void CVSHeadIndex::addDirectory(const Directory &directory)
+{
+	if (m_newDirCount == m_newDirCapacity) {
+		int capacity = m_newDirCapacity > 0 ? m_newDirCapacity * 2 : 16;
+		Directory *dirs = (Directory *)realloc(m_newDirs, capacity * sizeof(Directory));
+		if (dirs == NULL) {
+			free(directory.path);
+			return;
+		}
+		m_newDirs = dirs;
+		m_newDirCapacity = capacity;
+	}
+	m_newDirs[m_newDirCount++] = directory;
+}
+
+/**
+ * Plain binary search over the sorted paths.
+ */
+int CVSHeadIndex::lowerBound(const char *path)
+{
+	int low = 0, high = m_count;
+	while (low < high) {
+		int middle = (low + high) / 2;
+		if (strcmp(m_entries[middle].path, path) < 0)
+			low = middle + 1;
+		else
+			high = middle;
+	}
+	return low;
+}
+
+/**
+ * Plain binary search over the sorted paths.
+ */
+CVSHeadIndex::Directory* CVSHeadIndex::findDirectory(const char *path)
+{
+	int low = 0, high = m_dirCount;
+	while (low < high) {
+		int middle = (low + high) / 2;
+		int result = strcmp(m_dirs[middle].path, path);
+		if (result == 0)
+			return &m_dirs[middle];
+		if (result < 0)
+			low = middle + 1;
+		else
+			high = middle;
+	}
+	return NULL;
+}
+
+/**
+ * An RCS file is a list of phrases "keyword values ;". A bare revision number
+ * starts a delta. The "next" of a branch delta points to the newer revision,
+ * so a branch delta without "next" is the head of its branch.
+ */
+bool CVSHeadIndex::parse(const char *filename, Entry *entry)
+{
+	FILE *fp = fopen(filename, "r");
+	if (fp == NULL)
+		return false;
+
+	char word[64], keyword[16], first[MAX_REVISION], delta[MAX_REVISION];
+	bool finished = false;
+	delta[0] = 0;
+	entry->head[0] = 0;
+	entry->branches[0] = 0;
+
+	for (int token; !finished && (token = __nextToken(fp, word, sizeof(word))) != TOKEN_EOF;) {
+		if (token != TOKEN_WORD)
+			continue;
+		if (strcmp(word, "desc") == 0) {
+			finished = true;
+			break;
+		}
+		if (isdigit((unsigned char)word[0])) {
+			strncpy(delta, word, MAX_REVISION - 1);
+			delta[MAX_REVISION - 1] = 0;
+			continue;
+		}
+
+		// Read the values of the phrase up to the ';'.
+		strncpy(keyword, word, sizeof(keyword) - 1);
+		keyword[sizeof(keyword) - 1] = 0;
+		first[0] = 0;
+		while ((token = __nextToken(fp, word, sizeof(word))) != TOKEN_EOF && token != ';') {
+			if (token == TOKEN_WORD && first[0] == 0) {
+				strncpy(first, word, MAX_REVISION - 1);
+				first[MAX_REVISION - 1] = 0;
+			}
+		}
+
+		if (strcmp(keyword, "head") == 0 && delta[0] == 0) {
+			strcpy(entry->head, first);
+		} else if (strcmp(keyword, "next") == 0 && first[0] == 0 && __isBranchRevision(delta)) {
+			int length = strlen(entry->branches);
+			if (length + (int)strlen(delta) + 2 <= MAX_BRANCHES)
+				sprintf(entry->branches + length, length ? " %s" : "%s", delta);
+		}
+	}
+
+	fclose(fp);
+	return finished;
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	jni/cvsindex.h
+ * @author	Eric.Tsai
+ *
+ */
+
+#ifndef __CVSHEADINDEX_H__
+#define __CVSHEADINDEX_H__
+
+#include <sys/types.h>
+#include <time.h>
+#include <pthread.h>
+
+/** Max length of a revision number. */
+#define MAX_REVISION	32
+
+/** Max length of the space separated branch heads of a file. */
+#define MAX_BRANCHES	128
+
+/** Max length of a path relative to the repository. */
+#define MAX_RCS_PATH	512
+
+/** Seconds after which a query scans the repository for changes. */
+#define SCAN_INTERVAL	30
+
+/**
+ * \struct CVSModuleState
+ *
+ * Summary of the RCS files of a module.
+ *
+ */
+struct CVSModuleState {
+	/** Count of RCS files. */
+	int files;
+	/** Latest modification time of the RCS files. */
+	time_t modified;
+	/** Digest of the paths, the head revisions and the branch heads. */
+	unsigned long long digest;
+};
+
+/**
+ * \struct CVSHeadEntry
+ *
+ * Head revisions of an RCS file.
+ *
+ */
+struct CVSHeadEntry {
+	/** Path of the RCS file relative to the repository. */
+	char path[MAX_RCS_PATH];
+	/** Head revision of the trunk. */
+	char head[MAX_REVISION];
+	/** Space separated head revisions of the branches. */
+	char branches[MAX_BRANCHES];
+	/** Modification time of the RCS file. */
+	time_t mtime;
+};
+
+/**
+ * \class CVSHeadIndex
+ *
+ * CVSHeadIndex maps each RCS file of the repository to its head revisions.
+ * Only the administrative part of an RCS file is parsed, and only files in
+ * directories whose modification time is changed are looked at again, so
+ * answering "nothing changed" for a module costs no RCS file access at all.
+ *
+ */
+class CVSHeadIndex {
+public:
+	/**
+	 * Constructor.
+	 *
+	 */
+	CVSHeadIndex();
+	/**
+	 * Destructor.
+	 *
+	 */
+	~CVSHeadIndex();
+private:
+	/** Hidden copy constructor. */
+	CVSHeadIndex(const CVSHeadIndex &other);
+	/** Hidden assign operator. */
+	CVSHeadIndex& operator =(const CVSHeadIndex &other);
+public:
+	/**
+	 * Set the repository to index.
+	 *
+	 * @param	repoPath	Path of the CVS repository.
+	 *
+	 */
+	void setRepository(const char *repoPath);
+	/**
+	 * Make the next query scan the repository. It is called when a session
+	 * which may have committed is finished, and can be called from any
+	 * thread.
+	 *
+	 */
+	void invalidate(void);
+	/**
+	 * Get the summary of a module.
+	 *
+	 * @param	module	Path of the module relative to the repository, an
+	 * 					empty string for the whole repository.
+	 * @param	state	Buffer to hold the summary.
+	 *
+	 */
+	void getModuleState(const char *module, CVSModuleState *state);
+	/**
+	 * Get the head revisions of the RCS files of a module.
+	 *
+	 * @param	module	Path of the module relative to the repository, an
+	 * 					empty string for the whole repository.
+	 * @param	entries	Buffer to hold the head revisions, sorted by path.
+	 * @param	max		Max count of entries to get.
+	 *
+	 * @return			Count of entries got.
+	 *
+	 */
+	int getHeads(const char *module, CVSHeadEntry *entries, int max);
+private:
+	/** An indexed RCS file. */
+	struct Entry {
+		/** Path relative to the repository, owned by the entry. */
+		char *path;
+		/** Head revision of the trunk. */
+		char head[MAX_REVISION];
+		/** Space separated head revisions of the branches. */
+		char branches[MAX_BRANCHES];
+		/** Modification time of the file. */
+		time_t mtime;
+		/** Size of the file. */
+		off_t size;
+	};
+	/** A scanned directory. */
+	struct Directory {
+		/** Path relative to the repository, owned by the directory. */
+		char *path;
+		/** Modification time of the directory. */
+		time_t mtime;
+	};
+	/**
+	 * Scan the repository if it is invalidated or the last scan is too old.
+	 *
+	 */
+	void refresh(void);
+	/**
+	 * Scan a directory and its sub directories into the new index.
+	 *
+	 * @param	path	Path of the directory relative to the repository,
+	 * 					empty for the repository itself.
+	 *
+	 */
+	void scan(const char *path);
+	/**
+	 * Append an entry to the new index.
+	 *
+	 * @param	entry	The entry, the path is taken over.
+	 *
+	 */
+	void addEntry(const Entry &entry);
+	/**
+	 * Append a directory to the new index.
+	 *
+	 * @param	directory	The directory, the path is taken over.
+	 *
+	 */
+	void addDirectory(const Directory &directory);
+	/**
+	 * Find the first entry whose path is not less than the specified one.
+	 *
+	 * @param	path	The path.
+	 *
+	 * @return			Index of the entry.
+	 *
+	 */
+	int lowerBound(const char *path);
+	/**
+	 * Find a directory of the current index.
+	 *
+	 * @param	path	Path of the directory.
+	 *
+	 * @return			The directory, or NULL if not found.
+	 *
+	 */
+	Directory* findDirectory(const char *path);
+	/**
+	 * Parse the head revisions of an RCS file, the deltas are read up to the
+	 * description and the delta texts are never touched.
+	 *
+	 * @param	filename	Path of the RCS file.
+	 * @param	entry		Entry to hold the head revisions.
+	 *
+	 * @return				Return true if success, otherwise return false.
+	 *
+	 */
+	static bool parse(const char *filename, Entry *entry);
+private:
+	/** Path of the CVS repository. */
+	char m_repoPath[256];
+	/** Entries sorted by path. */
+	Entry *m_entries;
+	/** Count of entries. */
+	int m_count;
+	/** Directories sorted by path. */
+	Directory *m_dirs;
+	/** Count of directories. */
+	int m_dirCount;
+	/** Entries of the index being built. */
+	Entry *m_newEntries;
+	/** Count and capacity of the entries being built. */
+	int m_newCount, m_newCapacity;
+	/** Directories of the index being built. */
+	Directory *m_newDirs;
+	/** Count and capacity of the directories being built. */
+	int m_newDirCount, m_newDirCapacity;
+	/** Generation increased by invalidate(). */
+	volatile int m_generation;
+	/** Generation of the last scan. */
+	int m_scannedGeneration;
+	/** Monotonic time in seconds of the last scan. */
+	long m_scanned;
+	/**
+	 * Wall clock time when the last scan started. Anything modified in or
+	 * after that second may have changed again within the same second.
+	 */
+	time_t m_scannedTime;
+	/** Mutex to protect the index. */
+	pthread_mutex_t m_mutex;
+};
+
+#endif//__CVSHEADINDEX_H__
@@ -35,6 +35,14 @@
 #define LOG_E(...)	((void)__android_log_print(ANDROID_LOG_ERROR,	LOG_TAG, __VA_ARGS__))
 
 #include <stdlib.h>
+#include <stdint.h>
+
+/**
+ * Count of numeric fields of a session copied by getSessions(). The order must
+ * be the same with the SESSION_* constants of the
+ * com.iwares.app.pocketcvs.CVSService class.
+ */
+#define SESSION_FIELD_COUNT		10
 
 /** CVS executable path. */
 static const char *CVS_EXEC_PATH = "/data/data/com.iwares.app.pocketcvs/lib/libcvsexec.so";
@@ -119,9 +127,9 @@ jboolean Java_com_iwares_app_pocketcvs_CVSService_nativeOnCreate(
 		return JNI_FALSE;
 	}
 	CVSService *service = new CVSService(repoPath, tempPath, CVS_EXEC_PATH);
-	LOG_I("Created native CVSService object 0x%08x", service);
-	jfieldID field = __Java_internal_GetFieldID(env, thiz, "mNativePtr", "I");
-	env->SetIntField(thiz, field, (int)service);
+	LOG_I("Created native CVSService object %p", service);
+	jfieldID field = __Java_internal_GetFieldID(env, thiz, "mNativePtr", "J");
+	env->SetLongField(thiz, field, (jlong)(intptr_t)service);
 	return JNI_TRUE;
 }
 
@@ -136,6 +144,13 @@ jboolean Java_com_iwares_app_pocketcvs_CVSService_setUserPassword(
 	jstring pstr
 	)
 {
+	jfieldID field = __Java_internal_GetFieldID(env, thiz, "mNativePtr", "J");
+	CVSService *service = (CVSService*)(intptr_t)env->GetLongField(thiz, field);
+	if (NULL == service) {
+		LOG_W("setUserPassword return JNI_FALSE: Native CVSService object is NULL.");
+		return JNI_FALSE;
+	}
+
 	// Convert Java strings to C strings.
 	char username[32], password[32];
 	if (__Java_internal_ASCIIJStringToCString(username, 32, env, ustr)[0] == 0) {
@@ -147,8 +162,6 @@ jboolean Java_com_iwares_app_pocketcvs_CVSService_setUserPassword(
 		return JNI_FALSE;
 	}
 
-	jfieldID field = __Java_internal_GetFieldID(env, thiz, "mNativePtr", "I");
-	CVSService *service = (CVSService*)env->GetIntField(thiz, field);
 	if (!service->setUserPassword(username, password)) {
 		LOG_W("setUserPassword return JNI_FALSE: CVSService::setUserPassword return false.");
 		return JNI_FALSE;
@@ -157,6 +170,924 @@ jboolean Java_com_iwares_app_pocketcvs_CVSService_setUserPassword(
 	return JNI_TRUE;
 }
 
+/**
+ * Convert the Java arrays to a batch of CVSUserUpdate and call the
+ * updateUsers() method of the binded C++ CVSService object. An element which
+ * can not be converted is passed as an invalid change and skipped.
+ *
+ */
+jint Java_com_iwares_app_pocketcvs_CVSService_updateUsers(
+	JNIEnv* env, jobject thiz,
+	jobjectArray usernames,
+	jobjectArray passwords,
+	jintArray roles
+	)
+{
+	jfieldID field = __Java_internal_GetFieldID(env, thiz, "mNativePtr", "J");
+	CVSService *service = (CVSService*)(intptr_t)env->GetLongField(thiz, field);
+	if (NULL == service) {
+		LOG_W("updateUsers return -1: Native CVSService object is NULL.");
+		return -1;
+	}
+
+	int count = env->GetArrayLength(usernames);
+	if (count > env->GetArrayLength(passwords))
+		count = env->GetArrayLength(passwords);
+	if (count > env->GetArrayLength(roles))
+		count = env->GetArrayLength(roles);
+	if (count > MAX_ACCOUNTS)
+		count = MAX_ACCOUNTS;
+
+	// One buffer for the converted strings and the changes.
+	char (*strings)[2][MAX_USERNAME] = (char (*)[2][MAX_USERNAME])malloc(count * sizeof(*strings) + 1);
+	CVSUserUpdate *updates = (CVSUserUpdate *)malloc(count * sizeof(CVSUserUpdate) + 1);
+	if (strings == NULL || updates == NULL) {
+		free(strings);
+		free(updates);
+		LOG_W("updateUsers return -1: Out of memory.");
+		return -1;
+	}
+	jint *values = env->GetIntArrayElements(roles, NULL);
+	for (int i = 0; i < count; ++i) {
+		jstring ustr = (jstring)env->GetObjectArrayElement(usernames, i);
+		jstring pstr = (jstring)env->GetObjectArrayElement(passwords, i);
+		strings[i][0][0] = strings[i][1][0] = 0;
+		if (ustr != NULL)
+			__Java_internal_ASCIIJStringToCString(strings[i][0], MAX_USERNAME, env, ustr);
+		if (pstr != NULL)
+			__Java_internal_ASCIIJStringToCString(strings[i][1], MAX_USERNAME, env, pstr);
+		updates[i].username = strings[i][0];
+		updates[i].password = pstr != NULL ? strings[i][1] : NULL;
+		updates[i].roles = values[i];
+		// A password with non-ASCII characters must not become no password.
+		if (pstr != NULL && strings[i][1][0] == 0 && env->GetStringLength(pstr) != 0)
+			updates[i].username = "";
+		if (ustr != NULL)
+			env->DeleteLocalRef(ustr);
+		if (pstr != NULL)
+			env->DeleteLocalRef(pstr);
+	}
+	env->ReleaseIntArrayElements(roles, values, JNI_ABORT);
+
+	int result = service->updateUsers(updates, count);
+	free(strings);
+	free(updates);
+	LOG_I("updateUsers(%d users) return %d", count, result);
+	return result;
+}
+
+/**
+ * Get the binded C++ CVSService object from the Java CVSService object, call
+ * the getUsers() method and copy the users to the Java arrays.
+ *
+ */
+jint Java_com_iwares_app_pocketcvs_CVSService_getUsers(
+	JNIEnv* env, jobject thiz,
+	jobjectArray usernames,
+	jintArray roles
+	)
+{
+	jfieldID field = __Java_internal_GetFieldID(env, thiz, "mNativePtr", "J");
+	CVSService *service = (CVSService*)(intptr_t)env->GetLongField(thiz, field);
+	if (NULL == service) {
+		LOG_W("getUsers return 0: Native CVSService object is NULL.");
+		return 0;
+	}
+	int max = env->GetArrayLength(usernames);
+	if (max > env->GetArrayLength(roles))
+		max = env->GetArrayLength(roles);
+	if (max > MAX_ACCOUNTS)
+		max = MAX_ACCOUNTS;
+	char (*names)[MAX_USERNAME] = (char (*)[MAX_USERNAME])malloc(max * MAX_USERNAME + 1);
+	int *values = (int *)malloc(max * sizeof(int) + 1);
+	int count = 0;
+	if (names != NULL && values != NULL)
+		count = service->getUsers(names, values, max);
+	for (int i = 0; i < count; ++i) {
+		jstring username = env->NewStringUTF(names[i]);
+		env->SetObjectArrayElement(usernames, i, username);
+		env->DeleteLocalRef(username);
+		jint role = values[i];
+		env->SetIntArrayRegion(roles, i, 1, &role);
+	}
+	free(names);
+	free(values);
+	return count;
+}
+
+/**
+ * Get the binded C++ CVSService object from the Java CVSService object and call
+ * the setWorkerPool() method.
+ *
+ */
+jboolean Java_com_iwares_app_pocketcvs_CVSService_setWorkerPool(
+	JNIEnv* env, jobject thiz,
+	jint poolSize,
+	jint idleTimeout,
+	jint maxSessions
+	)
+{
+	jfieldID field = __Java_internal_GetFieldID(env, thiz, "mNativePtr", "J");
+	CVSService *service = (CVSService*)(intptr_t)env->GetLongField(thiz, field);
+	if (NULL == service) {
+		LOG_W("setWorkerPool return JNI_FALSE: Native CVSService object is NULL.");
+		return JNI_FALSE;
+	}
+	service->setWorkerPool(poolSize, idleTimeout, maxSessions);
+	LOG_I("setWorkerPool(%d, %d, %d) return JNI_TRUE", poolSize, idleTimeout, maxSessions);
+	return JNI_TRUE;
+}
+
+/**
+ * Get the binded C++ CVSService object from the Java CVSService object and call
+ * the setSessionLimits() method.
+ *
+ */
+jboolean Java_com_iwares_app_pocketcvs_CVSService_setSessionLimits(
+	JNIEnv* env, jobject thiz,
+	jint maxSessions,
+	jint maxQueue,
+	jint backlog
+	)
+{
+	jfieldID field = __Java_internal_GetFieldID(env, thiz, "mNativePtr", "J");
+	CVSService *service = (CVSService*)(intptr_t)env->GetLongField(thiz, field);
+	if (NULL == service) {
+		LOG_W("setSessionLimits return JNI_FALSE: Native CVSService object is NULL.");
+		return JNI_FALSE;
+	}
+	service->setSessionLimits(maxSessions, maxQueue, backlog);
+	LOG_I("setSessionLimits(%d, %d, %d) return JNI_TRUE", maxSessions, maxQueue, backlog);
+	return JNI_TRUE;
+}
+
+/**
+ * Get the binded C++ CVSService object from the Java CVSService object and call
+ * the setCompression() method.
+ *
+ */
+jboolean Java_com_iwares_app_pocketcvs_CVSService_setCompression(
+	JNIEnv* env, jobject thiz,
+	jint minLevel,
+	jint maxLevel,
+	jboolean adaptive
+	)
+{
+	jfieldID field = __Java_internal_GetFieldID(env, thiz, "mNativePtr", "J");
+	CVSService *service = (CVSService*)(intptr_t)env->GetLongField(thiz, field);
+	if (NULL == service) {
+		LOG_W("setCompression return JNI_FALSE: Native CVSService object is NULL.");
+		return JNI_FALSE;
+	}
+	service->setCompression(minLevel, maxLevel, adaptive == JNI_TRUE);
+	LOG_I("setCompression(%d, %d, %d) return JNI_TRUE", minLevel, maxLevel, adaptive);
+	return JNI_TRUE;
+}
+
+/**
+ * Get the binded C++ CVSService object from the Java CVSService object and call
+ * the setRelay() method.
+ *
+ */
+jboolean Java_com_iwares_app_pocketcvs_CVSService_setRelay(
+	JNIEnv* env, jobject thiz,
+	jboolean enabled,
+	jint sessionRate,
+	jint totalRate
+	)
+{
+	jfieldID field = __Java_internal_GetFieldID(env, thiz, "mNativePtr", "J");
+	CVSService *service = (CVSService*)(intptr_t)env->GetLongField(thiz, field);
+	if (NULL == service) {
+		LOG_W("setRelay return JNI_FALSE: Native CVSService object is NULL.");
+		return JNI_FALSE;
+	}
+	service->setRelay(enabled == JNI_TRUE, sessionRate, totalRate);
+	LOG_I("setRelay(%d, %d, %d) return JNI_TRUE", enabled, sessionRate, totalRate);
+	return JNI_TRUE;
+}
+
+/**
+ * Get the binded C++ CVSService object from the Java CVSService object and call
+ * the setListeners() method.
+ *
+ */
+jboolean Java_com_iwares_app_pocketcvs_CVSService_setListeners(
+	JNIEnv* env, jobject thiz,
+	jstring addresses,
+	jint threads,
+	jboolean noDelay,
+	jint keepAlive,
+	jint receiveBuffer,
+	jint sendBuffer
+	)
+{
+	jfieldID field = __Java_internal_GetFieldID(env, thiz, "mNativePtr", "J");
+	CVSService *service = (CVSService*)(intptr_t)env->GetLongField(thiz, field);
+	if (NULL == service) {
+		LOG_W("setListeners return JNI_FALSE: Native CVSService object is NULL.");
+		return JNI_FALSE;
+	}
+	char spec[MAX_LISTEN_SPEC];
+	if (__Java_internal_ASCIIJStringToCString(spec, MAX_LISTEN_SPEC, env, addresses)[0] == 0) {
+		LOG_W("setListeners return JNI_FALSE: Cannot convert addresses Java String to C string.");
+		return JNI_FALSE;
+	}
+	if (!service->setListeners(spec, threads, noDelay == JNI_TRUE, keepAlive, receiveBuffer, sendBuffer)) {
+		LOG_W("setListeners return JNI_FALSE: CVSService::setListeners return false.");
+		return JNI_FALSE;
+	}
+	LOG_I("setListeners(%s, %d, %d, %d, %d, %d) return JNI_TRUE", spec, threads, noDelay, keepAlive, receiveBuffer, sendBuffer);
+	return JNI_TRUE;
+}
+
+/**
+ * Get the binded C++ CVSService object from the Java CVSService object, call
+ * the getListenerState() method and copy the counts to the Java int array.
+ *
+ */
+jboolean Java_com_iwares_app_pocketcvs_CVSService_getListenerState(
+	JNIEnv* env, jobject thiz,
+	jintArray state
+	)
+{
+	jfieldID field = __Java_internal_GetFieldID(env, thiz, "mNativePtr", "J");
+	CVSService *service = (CVSService*)(intptr_t)env->GetLongField(thiz, field);
+	if (NULL == service) {
+		LOG_W("getListenerState return JNI_FALSE: Native CVSService object is NULL.");
+		return JNI_FALSE;
+	}
+	if (env->GetArrayLength(state) < 2) {
+		LOG_W("getListenerState return JNI_FALSE: Array is too small.");
+		return JNI_FALSE;
+	}
+	int addresses, threads;
+	service->getListenerState(&addresses, &threads);
+	jint values[2] = { addresses, threads };
+	env->SetIntArrayRegion(state, 0, 2, values);
+	return JNI_TRUE;
+}
+
+/**
+ * Get the binded C++ CVSService object from the Java CVSService object, call
+ * the getStats() method and copy the counters to the Java long array.
+ *
+ */
+jboolean Java_com_iwares_app_pocketcvs_CVSService_getStats(
+	JNIEnv* env, jobject thiz,
+	jlongArray stats
+	)
+{
+	jfieldID field = __Java_internal_GetFieldID(env, thiz, "mNativePtr", "J");
+	CVSService *service = (CVSService*)(intptr_t)env->GetLongField(thiz, field);
+	if (NULL == service) {
+		LOG_W("getStats return JNI_FALSE: Native CVSService object is NULL.");
+		return JNI_FALSE;
+	}
+	unsigned long long counters[STAT_COUNT];
+	int count = env->GetArrayLength(stats);
+	if (count > STAT_COUNT)
+		count = STAT_COUNT;
+	service->getStats(counters, count);
+	jlong values[STAT_COUNT];
+	for (int i = 0; i < count; ++i)
+		values[i] = (jlong)counters[i];
+	env->SetLongArrayRegion(stats, 0, count, values);
+	return JNI_TRUE;
+}
+
+/**
+ * Get the binded C++ CVSService object from the Java CVSService object and
+ * call the waitActivity() method. The calling thread blocks in it.
+ *
+ */
+jint Java_com_iwares_app_pocketcvs_CVSService_waitActivity(
+	JNIEnv* env, jobject thiz,
+	jboolean isBusy,
+	jint timeout
+	)
+{
+	jfieldID field = __Java_internal_GetFieldID(env, thiz, "mNativePtr", "J");
+	CVSService *service = (CVSService*)(intptr_t)env->GetLongField(thiz, field);
+	if (NULL == service) {
+		LOG_W("waitActivity return -1: Native CVSService object is NULL.");
+		return -1;
+	}
+	return service->waitActivity(isBusy == JNI_TRUE, timeout);
+}
+
+/**
+ * Get the binded C++ CVSService object from the Java CVSService object and
+ * call the cancelActivity() method.
+ *
+ */
+void Java_com_iwares_app_pocketcvs_CVSService_cancelActivity(
+	JNIEnv* env, jobject thiz
+	)
+{
+	jfieldID field = __Java_internal_GetFieldID(env, thiz, "mNativePtr", "J");
+	CVSService *service = (CVSService*)(intptr_t)env->GetLongField(thiz, field);
+	if (NULL == service) {
+		LOG_W("cancelActivity: Native CVSService object is NULL.");
+		return;
+	}
+	service->cancelActivity();
+	LOG_I("cancelActivity return");
+}
+
+/**
+ * Get the binded C++ CVSService object from the Java CVSService object, call
+ * the getSessions() method and copy the sessions to the Java arrays.
+ *
+ */
+jint Java_com_iwares_app_pocketcvs_CVSService_getSessions(
+	JNIEnv* env, jobject thiz,
+	jlongArray values,
+	jobjectArray addresses
+	)
+{
+	jfieldID field = __Java_internal_GetFieldID(env, thiz, "mNativePtr", "J");
+	CVSService *service = (CVSService*)(intptr_t)env->GetLongField(thiz, field);
+	if (NULL == service) {
+		LOG_W("getSessions return 0: Native CVSService object is NULL.");
+		return 0;
+	}
+	int max = env->GetArrayLength(addresses);
+	if (max > env->GetArrayLength(values) / SESSION_FIELD_COUNT)
+		max = env->GetArrayLength(values) / SESSION_FIELD_COUNT;
+	if (max > MAX_SESSIONS)
+		max = MAX_SESSIONS;
+	CVSSession sessions[MAX_SESSIONS];
+	int count = service->getSessions(sessions, max);
+	for (int i = 0; i < count; ++i) {
+		const CVSSession &session = sessions[i];
+		jlong fields[SESSION_FIELD_COUNT] = {
+			session.pid,
+			(jlong)session.started * 1000,
+			session.active ? 1 : 0,
+			session.status,
+			session.duration,
+			session.userTime,
+			session.systemTime,
+			session.maxRss,
+			session.inBlocks,
+			session.outBlocks,
+		};
+		env->SetLongArrayRegion(values, i * SESSION_FIELD_COUNT, SESSION_FIELD_COUNT, fields);
+		jstring address = env->NewStringUTF(session.address);
+		env->SetObjectArrayElement(addresses, i, address);
+		env->DeleteLocalRef(address);
+	}
+	return count;
+}
+
+/**
+ * Get the binded C++ CVSService object from the Java CVSService object and call
+ * the killSession() method.
+ *
+ */
+jboolean Java_com_iwares_app_pocketcvs_CVSService_killSession(
+	JNIEnv* env, jobject thiz,
+	jint pid
+	)
+{
+	jfieldID field = __Java_internal_GetFieldID(env, thiz, "mNativePtr", "J");
+	CVSService *service = (CVSService*)(intptr_t)env->GetLongField(thiz, field);
+	if (NULL == service) {
+		LOG_W("killSession return JNI_FALSE: Native CVSService object is NULL.");
+		return JNI_FALSE;
+	}
+	if (!service->killSession(pid)) {
+		LOG_W("killSession return JNI_FALSE: No active session with PID %d.", pid);
+		return JNI_FALSE;
+	}
+	LOG_I("killSession(%d) return JNI_TRUE", pid);
+	return JNI_TRUE;
+}
+
+/**
+ * Get the binded C++ CVSService object from the Java CVSService object and call
+ * the setTempArea() method.
+ *
+ */
+jboolean Java_com_iwares_app_pocketcvs_CVSService_setTempArea(
+	JNIEnv* env, jobject thiz,
+	jstring path,
+	jlong quota
+	)
+{
+	jfieldID field = __Java_internal_GetFieldID(env, thiz, "mNativePtr", "J");
+	CVSService *service = (CVSService*)(intptr_t)env->GetLongField(thiz, field);
+	if (NULL == service) {
+		LOG_W("setTempArea return JNI_FALSE: Native CVSService object is NULL.");
+		return JNI_FALSE;
+	}
+	char tempPath[MAX_TEMP_PATH];
+	if (__Java_internal_ASCIIJStringToCString(tempPath, MAX_TEMP_PATH, env, path)[0] == 0) {
+		LOG_W("setTempArea return JNI_FALSE: Cannot convert path Java String to C string.");
+		return JNI_FALSE;
+	}
+	if (!service->setTempArea(tempPath, quota > 0 ? quota : 0)) {
+		LOG_W("setTempArea return JNI_FALSE: CVSService::setTempArea return false.");
+		return JNI_FALSE;
+	}
+	LOG_I("setTempArea return JNI_TRUE");
+	return JNI_TRUE;
+}
+
+/**
+ * Get the binded C++ CVSService object from the Java CVSService object, call
+ * the getTempUsage() method and copy the usage to the Java array.
+ *
+ */
+jboolean Java_com_iwares_app_pocketcvs_CVSService_getTempUsage(
+	JNIEnv* env, jobject thiz,
+	jlongArray usage
+	)
+{
+	jfieldID field = __Java_internal_GetFieldID(env, thiz, "mNativePtr", "J");
+	CVSService *service = (CVSService*)(intptr_t)env->GetLongField(thiz, field);
+	if (NULL == service) {
+		LOG_W("getTempUsage return JNI_FALSE: Native CVSService object is NULL.");
+		return JNI_FALSE;
+	}
+	if (env->GetArrayLength(usage) < 5) {
+		LOG_W("getTempUsage return JNI_FALSE: Array is too small.");
+		return JNI_FALSE;
+	}
+	CVSTempUsage temp;
+	service->getTempUsage(&temp);
+	jlong values[5] = {
+		(jlong)temp.used, (jlong)temp.quota, temp.sessions, temp.removed, (jlong)temp.swept * 1000
+	};
+	env->SetLongArrayRegion(usage, 0, 5, values);
+	return JNI_TRUE;
+}
+
+/**
+ * Get the binded C++ CVSService object from the Java CVSService object, call
+ * the getModuleState() method and copy the summary to the Java array.
+ *
+ */
+jboolean Java_com_iwares_app_pocketcvs_CVSService_getModuleState(
+	JNIEnv* env, jobject thiz,
+	jstring module,
+	jlongArray state
+	)
+{
+	jfieldID field = __Java_internal_GetFieldID(env, thiz, "mNativePtr", "J");
+	CVSService *service = (CVSService*)(intptr_t)env->GetLongField(thiz, field);
+	if (NULL == service) {
+		LOG_W("getModuleState return JNI_FALSE: Native CVSService object is NULL.");
+		return JNI_FALSE;
+	}
+	char path[MAX_RCS_PATH];
+	if (__Java_internal_ASCIIJStringToCString(path, MAX_RCS_PATH, env, module)[0] == 0 &&
+		env->GetStringLength(module) != 0) {
+		LOG_W("getModuleState return JNI_FALSE: Cannot convert module Java String to C string.");
+		return JNI_FALSE;
+	}
+	if (env->GetArrayLength(state) < 3) {
+		LOG_W("getModuleState return JNI_FALSE: Array is too small.");
+		return JNI_FALSE;
+	}
+	CVSModuleState summary;
+	service->getModuleState(path, &summary);
+	jlong values[3] = { summary.files, (jlong)summary.modified * 1000, (jlong)summary.digest };
+	env->SetLongArrayRegion(state, 0, 3, values);
+	return JNI_TRUE;
+}
+
+/**
+ * Get the binded C++ CVSService object from the Java CVSService object, call
+ * the getHeads() method and copy the head revisions to the Java arrays.
+ *
+ */
+jint Java_com_iwares_app_pocketcvs_CVSService_getHeads(
+	JNIEnv* env, jobject thiz,
+	jstring module,
+	jobjectArray paths,
+	jobjectArray heads,
+	jobjectArray branches
+	)
+{
+	jfieldID field = __Java_internal_GetFieldID(env, thiz, "mNativePtr", "J");
+	CVSService *service = (CVSService*)(intptr_t)env->GetLongField(thiz, field);
+	if (NULL == service) {
+		LOG_W("getHeads return 0: Native CVSService object is NULL.");
+		return 0;
+	}
+	char path[MAX_RCS_PATH];
+	if (__Java_internal_ASCIIJStringToCString(path, MAX_RCS_PATH, env, module)[0] == 0 &&
+		env->GetStringLength(module) != 0) {
+		LOG_W("getHeads return 0: Cannot convert module Java String to C string.");
+		return 0;
+	}
+	int max = env->GetArrayLength(paths);
+	if (max > env->GetArrayLength(heads))
+		max = env->GetArrayLength(heads);
+	if (max > env->GetArrayLength(branches))
+		max = env->GetArrayLength(branches);
+	CVSHeadEntry *entries = (CVSHeadEntry *)malloc(max * sizeof(CVSHeadEntry) + 1);
+	if (entries == NULL) {
+		LOG_W("getHeads return 0: Out of memory.");
+		return 0;
+	}
+	int count = service->getHeads(path, entries, max);
+	for (int i = 0; i < count; ++i) {
+		jstring string = env->NewStringUTF(entries[i].path);
+		env->SetObjectArrayElement(paths, i, string);
+		env->DeleteLocalRef(string);
+		string = env->NewStringUTF(entries[i].head);
+		env->SetObjectArrayElement(heads, i, string);
+		env->DeleteLocalRef(string);
+		string = env->NewStringUTF(entries[i].branches);
+		env->SetObjectArrayElement(branches, i, string);
+		env->DeleteLocalRef(string);
+	}
+	free(entries);
+	return count;
+}
+
+/**
+ * Get the binded C++ CVSService object from the Java CVSService object and call
+ * the setLockArea() method.
+ *
+ */
+jboolean Java_com_iwares_app_pocketcvs_CVSService_setLockArea(
+	JNIEnv* env, jobject thiz,
+	jstring path
+	)
+{
+	jfieldID field = __Java_internal_GetFieldID(env, thiz, "mNativePtr", "J");
+	CVSService *service = (CVSService*)(intptr_t)env->GetLongField(thiz, field);
+	if (NULL == service) {
+		LOG_W("setLockArea return JNI_FALSE: Native CVSService object is NULL.");
+		return JNI_FALSE;
+	}
+	char lockPath[MAX_TEMP_PATH];
+	if (__Java_internal_ASCIIJStringToCString(lockPath, MAX_TEMP_PATH, env, path)[0] == 0 &&
+		env->GetStringLength(path) != 0) {
+		LOG_W("setLockArea return JNI_FALSE: Cannot convert path Java String to C string.");
+		return JNI_FALSE;
+	}
+	if (!service->setLockArea(lockPath)) {
+		LOG_W("setLockArea return JNI_FALSE: CVSService::setLockArea return false.");
+		return JNI_FALSE;
+	}
+	LOG_I("setLockArea return JNI_TRUE");
+	return JNI_TRUE;
+}
+
+/**
+ * Get the binded C++ CVSService object from the Java CVSService object and call
+ * the openAccessLog() method.
+ *
+ */
+jboolean Java_com_iwares_app_pocketcvs_CVSService_openAccessLog(
+	JNIEnv* env, jobject thiz,
+	jstring path,
+	jint capacity
+	)
+{
+	jfieldID field = __Java_internal_GetFieldID(env, thiz, "mNativePtr", "J");
+	CVSService *service = (CVSService*)(intptr_t)env->GetLongField(thiz, field);
+	if (NULL == service) {
+		LOG_W("openAccessLog return JNI_FALSE: Native CVSService object is NULL.");
+		return JNI_FALSE;
+	}
+	char logPath[MAX_TEMP_PATH];
+	if (__Java_internal_ASCIIJStringToCString(logPath, MAX_TEMP_PATH, env, path)[0] == 0) {
+		LOG_W("openAccessLog return JNI_FALSE: Cannot convert path Java String to C string.");
+		return JNI_FALSE;
+	}
+	if (!service->openAccessLog(logPath, capacity)) {
+		LOG_W("openAccessLog return JNI_FALSE: CVSService::openAccessLog return false.");
+		return JNI_FALSE;
+	}
+	LOG_I("openAccessLog(%s, %d) return JNI_TRUE", logPath, capacity);
+	return JNI_TRUE;
+}
+
+/**
+ * Get the binded C++ CVSService object from the Java CVSService object and call
+ * the addRoot() method.
+ *
+ */
+jboolean Java_com_iwares_app_pocketcvs_CVSService_addRoot(
+	JNIEnv* env, jobject thiz,
+	jstring path,
+	jstring tempPath,
+	jint maxSessions
+	)
+{
+	jfieldID field = __Java_internal_GetFieldID(env, thiz, "mNativePtr", "J");
+	CVSService *service = (CVSService*)(intptr_t)env->GetLongField(thiz, field);
+	if (NULL == service) {
+		LOG_W("addRoot return JNI_FALSE: Native CVSService object is NULL.");
+		return JNI_FALSE;
+	}
+	char repoPath[MAX_TEMP_PATH], temp[MAX_TEMP_PATH];
+	if (__Java_internal_ASCIIJStringToCString(repoPath, MAX_TEMP_PATH, env, path)[0] == 0 ||
+		__Java_internal_ASCIIJStringToCString(temp, MAX_TEMP_PATH, env, tempPath)[0] == 0) {
+		LOG_W("addRoot return JNI_FALSE: Cannot convert path Java String to C string.");
+		return JNI_FALSE;
+	}
+	if (!service->addRoot(repoPath, temp, maxSessions)) {
+		LOG_W("addRoot return JNI_FALSE: CVSService::addRoot return false.");
+		return JNI_FALSE;
+	}
+	LOG_I("addRoot return JNI_TRUE");
+	return JNI_TRUE;
+}
+
+/**
+ * Get the binded C++ CVSService object from the Java CVSService object and call
+ * the removeRoot() method.
+ *
+ */
+jboolean Java_com_iwares_app_pocketcvs_CVSService_removeRoot(
+	JNIEnv* env, jobject thiz,
+	jstring path
+	)
+{
+	jfieldID field = __Java_internal_GetFieldID(env, thiz, "mNativePtr", "J");
+	CVSService *service = (CVSService*)(intptr_t)env->GetLongField(thiz, field);
+	if (NULL == service) {
+		LOG_W("removeRoot return JNI_FALSE: Native CVSService object is NULL.");
+		return JNI_FALSE;
+	}
+	char repoPath[MAX_TEMP_PATH];
+	if (__Java_internal_ASCIIJStringToCString(repoPath, MAX_TEMP_PATH, env, path)[0] == 0) {
+		LOG_W("removeRoot return JNI_FALSE: Cannot convert path Java String to C string.");
+		return JNI_FALSE;
+	}
+	if (!service->removeRoot(repoPath)) {
+		LOG_W("removeRoot return JNI_FALSE: CVSService::removeRoot return false.");
+		return JNI_FALSE;
+	}
+	LOG_I("removeRoot return JNI_TRUE");
+	return JNI_TRUE;
+}
+
+/**
+ * Get the binded C++ CVSService object from the Java CVSService object, call
+ * the getRoots() method and copy the repositories to the Java arrays.
+ *
+ */
+jint Java_com_iwares_app_pocketcvs_CVSService_getRoots(
+	JNIEnv* env, jobject thiz,
+	jobjectArray paths,
+	jlongArray values
+	)
+{
+	jfieldID field = __Java_internal_GetFieldID(env, thiz, "mNativePtr", "J");
+	CVSService *service = (CVSService*)(intptr_t)env->GetLongField(thiz, field);
+	if (NULL == service) {
+		LOG_W("getRoots return 0: Native CVSService object is NULL.");
+		return 0;
+	}
+	int max = env->GetArrayLength(paths);
+	if (max > env->GetArrayLength(values) / (1 + STAT_COUNT))
+		max = env->GetArrayLength(values) / (1 + STAT_COUNT);
+	if (max > MAX_ROOTS)
+		max = MAX_ROOTS;
+	CVSRootInfo roots[MAX_ROOTS];
+	int count = service->getRoots(roots, max);
+	for (int i = 0; i < count; ++i) {
+		jstring string = env->NewStringUTF(roots[i].path);
+		env->SetObjectArrayElement(paths, i, string);
+		env->DeleteLocalRef(string);
+		jlong row[1 + STAT_COUNT];
+		row[0] = roots[i].maxSessions;
+		for (int j = 0; j < STAT_COUNT; ++j)
+			row[1 + j] = (jlong)roots[i].counters[j];
+		env->SetLongArrayRegion(values, i * (1 + STAT_COUNT), 1 + STAT_COUNT, row);
+	}
+	return count;
+}
+
+/**
+ * Get the binded C++ CVSService object from the Java CVSService object and call
+ * the startBackup() method.
+ *
+ */
+jboolean Java_com_iwares_app_pocketcvs_CVSService_startBackup(
+	JNIEnv* env, jobject thiz,
+	jstring path
+	)
+{
+	jfieldID field = __Java_internal_GetFieldID(env, thiz, "mNativePtr", "J");
+	CVSService *service = (CVSService*)(intptr_t)env->GetLongField(thiz, field);
+	if (NULL == service) {
+		LOG_W("startBackup return JNI_FALSE: Native CVSService object is NULL.");
+		return JNI_FALSE;
+	}
+	char destPath[MAX_TEMP_PATH];
+	if (__Java_internal_ASCIIJStringToCString(destPath, MAX_TEMP_PATH, env, path)[0] == 0) {
+		LOG_W("startBackup return JNI_FALSE: Cannot convert path Java String to C string.");
+		return JNI_FALSE;
+	}
+	if (!service->startBackup(destPath)) {
+		LOG_W("startBackup return JNI_FALSE: CVSService::startBackup return false.");
+		return JNI_FALSE;
+	}
+	LOG_I("startBackup return JNI_TRUE");
+	return JNI_TRUE;
+}
+
+/**
+ * Get the binded C++ CVSService object from the Java CVSService object, call
+ * the getBackupStatus() method and copy the status to the Java array.
+ *
+ */
+jboolean Java_com_iwares_app_pocketcvs_CVSService_getBackupStatus(
+	JNIEnv* env, jobject thiz,
+	jlongArray status
+	)
+{
+	jfieldID field = __Java_internal_GetFieldID(env, thiz, "mNativePtr", "J");
+	CVSService *service = (CVSService*)(intptr_t)env->GetLongField(thiz, field);
+	if (NULL == service) {
+		LOG_W("getBackupStatus return JNI_FALSE: Native CVSService object is NULL.");
+		return JNI_FALSE;
+	}
+	if (env->GetArrayLength(status) < 10) {
+		LOG_W("getBackupStatus return JNI_FALSE: Array is too small.");
+		return JNI_FALSE;
+	}
+	CVSBackupStatus backup;
+	service->getBackupStatus(&backup);
+	jlong values[10] = {
+		backup.isRunning, backup.isFailed, (jlong)backup.started * 1000, (jlong)backup.finished * 1000,
+		backup.directories, backup.skipped, backup.files, backup.copied, backup.removed,
+		(jlong)backup.bytes
+	};
+	env->SetLongArrayRegion(status, 0, 10, values);
+	return JNI_TRUE;
+}
+
+/**
+ * Get the binded C++ CVSService object from the Java CVSService object and call
+ * the startVerify() method.
+ *
+ */
+jboolean Java_com_iwares_app_pocketcvs_CVSService_startVerify(
+	JNIEnv* env, jobject thiz,
+	jboolean repair
+	)
+{
+	jfieldID field = __Java_internal_GetFieldID(env, thiz, "mNativePtr", "J");
+	CVSService *service = (CVSService*)(intptr_t)env->GetLongField(thiz, field);
+	if (NULL == service) {
+		LOG_W("startVerify return JNI_FALSE: Native CVSService object is NULL.");
+		return JNI_FALSE;
+	}
+	if (!service->startVerify(repair == JNI_TRUE)) {
+		LOG_W("startVerify return JNI_FALSE: CVSService::startVerify return false.");
+		return JNI_FALSE;
+	}
+	LOG_I("startVerify return JNI_TRUE");
+	return JNI_TRUE;
+}
+
+/**
+ * Get the binded C++ CVSService object from the Java CVSService object, call
+ * the getVerifyStatus() method and copy the status to the Java array.
+ *
+ */
+jboolean Java_com_iwares_app_pocketcvs_CVSService_getVerifyStatus(
+	JNIEnv* env, jobject thiz,
+	jlongArray status
+	)
+{
+	jfieldID field = __Java_internal_GetFieldID(env, thiz, "mNativePtr", "J");
+	CVSService *service = (CVSService*)(intptr_t)env->GetLongField(thiz, field);
+	if (NULL == service) {
+		LOG_W("getVerifyStatus return JNI_FALSE: Native CVSService object is NULL.");
+		return JNI_FALSE;
+	}
+	if (env->GetArrayLength(status) < 12) {
+		LOG_W("getVerifyStatus return JNI_FALSE: Array is too small.");
+		return JNI_FALSE;
+	}
+	CVSVerifyStatus verify;
+	service->getVerifyStatus(&verify);
+	jlong values[12] = {
+		verify.isRunning, verify.isFailed, (jlong)verify.started * 1000, (jlong)verify.finished * 1000,
+		verify.threads, verify.directories, verify.files, verify.corrupt, verify.locks, verify.temps,
+		verify.repaired, (jlong)verify.bytes
+	};
+	env->SetLongArrayRegion(status, 0, 12, values);
+	return JNI_TRUE;
+}
+
+/**
+ * Get the binded C++ CVSService object from the Java CVSService object, call
+ * the getVerifyIssues() method and copy the issues to the Java arrays.
+ *
+ */
+jint Java_com_iwares_app_pocketcvs_CVSService_getVerifyIssues(
+	JNIEnv* env, jobject thiz,
+	jobjectArray paths,
+	jintArray kinds,
+	jbooleanArray repaired
+	)
+{
+	jfieldID field = __Java_internal_GetFieldID(env, thiz, "mNativePtr", "J");
+	CVSService *service = (CVSService*)(intptr_t)env->GetLongField(thiz, field);
+	if (NULL == service) {
+		LOG_W("getVerifyIssues return 0: Native CVSService object is NULL.");
+		return 0;
+	}
+	int max = env->GetArrayLength(paths);
+	if (max > env->GetArrayLength(kinds))
+		max = env->GetArrayLength(kinds);
+	if (max > env->GetArrayLength(repaired))
+		max = env->GetArrayLength(repaired);
+	if (max > MAX_VERIFY_ISSUES)
+		max = MAX_VERIFY_ISSUES;
+	CVSVerifyIssue *issues = (CVSVerifyIssue *)malloc(max * sizeof(CVSVerifyIssue) + 1);
+	if (issues == NULL) {
+		LOG_W("getVerifyIssues return 0: Out of memory.");
+		return 0;
+	}
+	int count = service->getVerifyIssues(issues, max);
+	for (int i = 0; i < count; ++i) {
+		jstring string = env->NewStringUTF(issues[i].path);
+		env->SetObjectArrayElement(paths, i, string);
+		env->DeleteLocalRef(string);
+		jint kind = issues[i].kind;
+		env->SetIntArrayRegion(kinds, i, 1, &kind);
+		jboolean removed = issues[i].isRepaired ? JNI_TRUE : JNI_FALSE;
+		env->SetBooleanArrayRegion(repaired, i, 1, &removed);
+	}
+	free(issues);
+	return count;
+}
+
+/**
+ * Get the binded C++ CVSService object from the Java CVSService object and call
+ * the startHousekeeping() method.
+ *
+ */
+jboolean Java_com_iwares_app_pocketcvs_CVSService_startHousekeeping(
+	JNIEnv* env, jobject thiz,
+	jlong rotateSize,
+	jint generations
+	)
+{
+	jfieldID field = __Java_internal_GetFieldID(env, thiz, "mNativePtr", "J");
+	CVSService *service = (CVSService*)(intptr_t)env->GetLongField(thiz, field);
+	if (NULL == service) {
+		LOG_W("startHousekeeping return JNI_FALSE: Native CVSService object is NULL.");
+		return JNI_FALSE;
+	}
+	if (!service->startHousekeeping(rotateSize, generations)) {
+		LOG_W("startHousekeeping return JNI_FALSE: CVSService::startHousekeeping return false.");
+		return JNI_FALSE;
+	}
+	LOG_I("startHousekeeping return JNI_TRUE");
+	return JNI_TRUE;
+}
+
+/**
+ * Get the binded C++ CVSService object from the Java CVSService object, call
+ * the getHousekeepingStatus() method and copy the status to the Java array.
+ *
+ */
+jboolean Java_com_iwares_app_pocketcvs_CVSService_getHousekeepingStatus(
+	JNIEnv* env, jobject thiz,
+	jlongArray status
+	)
+{
+	jfieldID field = __Java_internal_GetFieldID(env, thiz, "mNativePtr", "J");
+	CVSService *service = (CVSService*)(intptr_t)env->GetLongField(thiz, field);
+	if (NULL == service) {
+		LOG_W("getHousekeepingStatus return JNI_FALSE: Native CVSService object is NULL.");
+		return JNI_FALSE;
+	}
+	if (env->GetArrayLength(status) < 5 + HOUSEKEEPING_TASKS * 4) {
+		LOG_W("getHousekeepingStatus return JNI_FALSE: Array is too small.");
+		return JNI_FALSE;
+	}
+	CVSHousekeepingStatus housekeeping;
+	service->getHousekeepingStatus(&housekeeping);
+	jlong values[5 + HOUSEKEEPING_TASKS * 4] = {
+		housekeeping.isRunning, housekeeping.isDeferred, (jlong)housekeeping.started * 1000,
+		(jlong)housekeeping.finished * 1000, (jlong)housekeeping.saved
+	};
+	for (int i = 0; i < HOUSEKEEPING_TASKS; ++i) {
+		const CVSHousekeepingTask *task = &housekeeping.tasks[i];
+		values[5 + i * 4] = task->runs;
+		values[6 + i * 4] = task->items;
+		values[7 + i * 4] = task->lastMillis;
+		values[8 + i * 4] = (jlong)task->totalMillis;
+	}
+	env->SetLongArrayRegion(status, 0, 5 + HOUSEKEEPING_TASKS * 4, values);
+	return JNI_TRUE;
+}
+
 /**
  * Get the binded C++ CVSService object from the Java CVSService object and call
  * the startDaemon() method.
@@ -166,8 +1097,8 @@ jboolean Java_com_iwares_app_pocketcvs_CVSService_startDaemon(
 	JNIEnv* env, jobject thiz
 	)
 {
-	jfieldID field = __Java_internal_GetFieldID(env, thiz, "mNativePtr", "I");
-	CVSService *service = (CVSService*)env->GetIntField(thiz, field);
+	jfieldID field = __Java_internal_GetFieldID(env, thiz, "mNativePtr", "J");
+	CVSService *service = (CVSService*)(intptr_t)env->GetLongField(thiz, field);
 	if (NULL == service) {
 		LOG_W("startDaemon return JNI_FALSE: Native CVSService object is NULL.");
 		return JNI_FALSE;
@@ -180,6 +1111,26 @@ jboolean Java_com_iwares_app_pocketcvs_CVSService_startDaemon(
 	return JNI_TRUE;
 }
 
+/**
+ * Get the binded C++ CVSService object from the Java CVSService object and call
+ * the isInitialized() method.
+ *
+ */
+jboolean Java_com_iwares_app_pocketcvs_CVSService_isInitialized(
+	JNIEnv* env, jobject thiz
+	)
+{
+	jfieldID field = __Java_internal_GetFieldID(env, thiz, "mNativePtr", "J");
+	CVSService *service = (CVSService*)(intptr_t)env->GetLongField(thiz, field);
+	if (NULL == service) {
+		LOG_W("isInitialized return JNI_FALSE: Native CVSService object is NULL.");
+		return JNI_FALSE;
+	}
+	bool result = service->isInitialized();
+	LOG_I("isInitialized return %s", result ? "JNI_TRUE" : "JNI_FALSE");
+	return result ? JNI_TRUE : JNI_FALSE;
+}
+
 /**
  * Get the binded C++ CVSService object from the Java CVSService object and call
  * the isDaemonRunning() method.
@@ -189,8 +1140,8 @@ jboolean Java_com_iwares_app_pocketcvs_CVSService_isDaemonRunning(
 	JNIEnv* env, jobject thiz
 	)
 {
-	jfieldID field = __Java_internal_GetFieldID(env, thiz, "mNativePtr", "I");
-	CVSService *service = (CVSService*)env->GetIntField(thiz, field);
+	jfieldID field = __Java_internal_GetFieldID(env, thiz, "mNativePtr", "J");
+	CVSService *service = (CVSService*)(intptr_t)env->GetLongField(thiz, field);
 	if (NULL == service) {
 		LOG_W("isDaemonRunning return JNI_FALSE: Native CVSService object is NULL.");
 		return JNI_FALSE;
@@ -209,8 +1160,8 @@ jboolean Java_com_iwares_app_pocketcvs_CVSService_stopDaemon(
 	JNIEnv* env, jobject thiz
 	)
 {
-	jfieldID field = __Java_internal_GetFieldID(env, thiz, "mNativePtr", "I");
-	CVSService *service = (CVSService*)env->GetIntField(thiz, field);
+	jfieldID field = __Java_internal_GetFieldID(env, thiz, "mNativePtr", "J");
+	CVSService *service = (CVSService*)(intptr_t)env->GetLongField(thiz, field);
 	if (NULL == service) {
 		LOG_W("stopDaemon return JNI_FALSE: Native CVSService object is NULL.");
 		return JNI_FALSE;
@@ -232,9 +1183,10 @@ void Java_com_iwares_app_pocketcvs_CVSService_nativeOnDestroy(
 	JNIEnv* env, jobject thiz
 	)
 {
-	jfieldID field = __Java_internal_GetFieldID(env, thiz, "mNativePtr", "I");
-	CVSService *service = (CVSService*)env->GetIntField(thiz, field);
-	LOG_I("Destroy native CVSService object 0x%08x", service);
+	jfieldID field = __Java_internal_GetFieldID(env, thiz, "mNativePtr", "J");
+	CVSService *service = (CVSService*)(intptr_t)env->GetLongField(thiz, field);
+	LOG_I("Destroy native CVSService object %p", service);
 	delete service;
+	env->SetLongField(thiz, field, 0);
 }
 
@@ -64,6 +64,552 @@ JNIEXPORT jboolean Java_com_iwares_app_pocketcvs_CVSService_setUserPassword(
 	jstring pstr
 	);
 
+/**
+ * Native function for updateUsers() method of the
+ * com.iwares.app.pocketcvs.CVSService class
+ *
+ * @param	env			The Java environment object pointer.
+ * @param	thiz		The CVSService Java object.
+ * @param	usernames	Java string array of the user names.
+ * @param	passwords	Java string array of the new passwords, a null element
+ * 						keeps the password of an existing user.
+ * @param	roles		Java int array of the new roles, ROLE_REMOVE to remove
+ * 						the user.
+ *
+ * @return			Count of changes applied, or -1 if failed.
+ *
+ */
+JNIEXPORT jint Java_com_iwares_app_pocketcvs_CVSService_updateUsers(
+	JNIEnv* env, jobject thiz,
+	jobjectArray usernames,
+	jobjectArray passwords,
+	jintArray roles
+	);
+
+/**
+ * Native function for getUsers() method of the
+ * com.iwares.app.pocketcvs.CVSService class
+ *
+ * @param	env			The Java environment object pointer.
+ * @param	thiz		The CVSService Java object.
+ * @param	usernames	Java string array to hold the user names.
+ * @param	roles		Java int array to hold the roles.
+ *
+ * @return			Count of users copied.
+ *
+ */
+JNIEXPORT jint Java_com_iwares_app_pocketcvs_CVSService_getUsers(
+	JNIEnv* env, jobject thiz,
+	jobjectArray usernames,
+	jintArray roles
+	);
+
+/**
+ * Native function for setWorkerPool() method of the
+ * com.iwares.app.pocketcvs.CVSService class
+ *
+ * @param	env			The Java environment object pointer.
+ * @param	thiz		The CVSService Java object.
+ * @param	poolSize	Count of idle workers kept ready.
+ * @param	idleTimeout	Seconds an idle worker waits before it exits.
+ * @param	maxSessions	Count of sessions served by a worker before it is
+ * 						replaced.
+ *
+ * @return			JNI_TRUE if success, otherwise JNI_FALSE.
+ *
+ */
+JNIEXPORT jboolean Java_com_iwares_app_pocketcvs_CVSService_setWorkerPool(
+	JNIEnv* env, jobject thiz,
+	jint poolSize,
+	jint idleTimeout,
+	jint maxSessions
+	);
+
+/**
+ * Native function for setSessionLimits() method of the
+ * com.iwares.app.pocketcvs.CVSService class
+ *
+ * @param	env			The Java environment object pointer.
+ * @param	thiz		The CVSService Java object.
+ * @param	maxSessions	Max count of concurrent sessions.
+ * @param	maxQueue	Max count of clients waiting for a session slot.
+ * @param	backlog		Backlog of the listening socket.
+ *
+ * @return			JNI_TRUE if success, otherwise JNI_FALSE.
+ *
+ */
+JNIEXPORT jboolean Java_com_iwares_app_pocketcvs_CVSService_setSessionLimits(
+	JNIEnv* env, jobject thiz,
+	jint maxSessions,
+	jint maxQueue,
+	jint backlog
+	);
+
+/**
+ * Native function for setCompression() method of the
+ * com.iwares.app.pocketcvs.CVSService class
+ *
+ * @param	env			The Java environment object pointer.
+ * @param	thiz		The CVSService Java object.
+ * @param	minLevel	Lowest gzip-stream level.
+ * @param	maxLevel	Highest gzip-stream level.
+ * @param	adaptive	Whether the level of a session is adaptive.
+ *
+ * @return			JNI_TRUE if success, otherwise JNI_FALSE.
+ *
+ */
+JNIEXPORT jboolean Java_com_iwares_app_pocketcvs_CVSService_setCompression(
+	JNIEnv* env, jobject thiz,
+	jint minLevel,
+	jint maxLevel,
+	jboolean adaptive
+	);
+
+/**
+ * Native function for setRelay() method of the
+ * com.iwares.app.pocketcvs.CVSService class
+ *
+ * @param	env			The Java environment object pointer.
+ * @param	thiz		The CVSService Java object.
+ * @param	enabled		Whether to relay the new sessions.
+ * @param	sessionRate	Bytes per second of each session, 0 for no limit.
+ * @param	totalRate	Bytes per second of all the sessions, 0 for no limit.
+ *
+ * @return			JNI_TRUE if success, otherwise JNI_FALSE.
+ *
+ */
+JNIEXPORT jboolean Java_com_iwares_app_pocketcvs_CVSService_setRelay(
+	JNIEnv* env, jobject thiz,
+	jboolean enabled,
+	jint sessionRate,
+	jint totalRate
+	);
+
+/**
+ * Native function for setListeners() method of the
+ * com.iwares.app.pocketcvs.CVSService class
+ *
+ * @param	env				The Java environment object pointer.
+ * @param	thiz			The CVSService Java object.
+ * @param	addresses		Listening addresses separated by spaces or commas.
+ * @param	threads			Count of accept threads, 0 to accept on the daemon
+ * 							thread.
+ * @param	noDelay			Whether to set TCP_NODELAY.
+ * @param	keepAlive		Idle seconds before the keep-alive probes, 0 for
+ * 							no keep-alive.
+ * @param	receiveBuffer	SO_RCVBUF in bytes, 0 for the system default.
+ * @param	sendBuffer		SO_SNDBUF in bytes, 0 for the system default.
+ *
+ * @return			JNI_TRUE if success, otherwise JNI_FALSE.
+ *
+ */
+JNIEXPORT jboolean Java_com_iwares_app_pocketcvs_CVSService_setListeners(
+	JNIEnv* env, jobject thiz,
+	jstring addresses,
+	jint threads,
+	jboolean noDelay,
+	jint keepAlive,
+	jint receiveBuffer,
+	jint sendBuffer
+	);
+
+/**
+ * Native function for getListenerState() method of the
+ * com.iwares.app.pocketcvs.CVSService class
+ *
+ * @param	env		The Java environment object pointer.
+ * @param	thiz	The CVSService Java object.
+ * @param	state	Java int array to hold the count of addresses listened on
+ * 					and the count of accept threads.
+ *
+ * @return			JNI_TRUE if success, otherwise JNI_FALSE.
+ *
+ */
+JNIEXPORT jboolean Java_com_iwares_app_pocketcvs_CVSService_getListenerState(
+	JNIEnv* env, jobject thiz,
+	jintArray state
+	);
+
+/**
+ * Native function for getStats() method of the
+ * com.iwares.app.pocketcvs.CVSService class
+ *
+ * @param	env		The Java environment object pointer.
+ * @param	thiz	The CVSService Java object.
+ * @param	stats	Java long array to hold the counters.
+ *
+ * @return			JNI_TRUE if success, otherwise JNI_FALSE.
+ *
+ */
+JNIEXPORT jboolean Java_com_iwares_app_pocketcvs_CVSService_getStats(
+	JNIEnv* env, jobject thiz,
+	jlongArray stats
+	);
+
+/**
+ * Native function for waitActivity() method of the
+ * com.iwares.app.pocketcvs.CVSService class
+ *
+ * @param	env		The Java environment object pointer.
+ * @param	thiz	The CVSService Java object.
+ * @param	isBusy	Whether the CVS daemon is known to be busy.
+ * @param	timeout	Milliseconds to wait, -1 to wait for ever.
+ *
+ * @return			Count of the busy clients, or -1 if the waiting is
+ * 					cancelled.
+ *
+ */
+JNIEXPORT jint Java_com_iwares_app_pocketcvs_CVSService_waitActivity(
+	JNIEnv* env, jobject thiz,
+	jboolean isBusy,
+	jint timeout
+	);
+
+/**
+ * Native function for cancelActivity() method of the
+ * com.iwares.app.pocketcvs.CVSService class
+ *
+ * @param	env		The Java environment object pointer.
+ * @param	thiz	The CVSService Java object.
+ *
+ */
+JNIEXPORT void Java_com_iwares_app_pocketcvs_CVSService_cancelActivity(
+	JNIEnv* env, jobject thiz
+	);
+
+/**
+ * Native function for getSessions() method of the
+ * com.iwares.app.pocketcvs.CVSService class
+ *
+ * @param	env			The Java environment object pointer.
+ * @param	thiz		The CVSService Java object.
+ * @param	values		Java long array to hold the numeric fields of the
+ * 						sessions, SESSION_FIELD_COUNT fields per session.
+ * @param	addresses	Java string array to hold the client addresses.
+ *
+ * @return			Count of sessions copied.
+ *
+ */
+JNIEXPORT jint Java_com_iwares_app_pocketcvs_CVSService_getSessions(
+	JNIEnv* env, jobject thiz,
+	jlongArray values,
+	jobjectArray addresses
+	);
+
+/**
+ * Native function for killSession() method of the
+ * com.iwares.app.pocketcvs.CVSService class
+ *
+ * @param	env		The Java environment object pointer.
+ * @param	thiz	The CVSService Java object.
+ * @param	pid		PID of the CVS process to kill.
+ *
+ * @return			JNI_TRUE if success, otherwise JNI_FALSE.
+ *
+ */
+JNIEXPORT jboolean Java_com_iwares_app_pocketcvs_CVSService_killSession(
+	JNIEnv* env, jobject thiz,
+	jint pid
+	);
+
+/**
+ * Native function for setTempArea() method of the
+ * com.iwares.app.pocketcvs.CVSService class
+ *
+ * @param	env		The Java environment object pointer.
+ * @param	thiz	The CVSService Java object.
+ * @param	path	Path of the temporary directory.
+ * @param	quota	Quota in bytes, 0 for no quota.
+ *
+ * @return			JNI_TRUE if success, otherwise JNI_FALSE.
+ *
+ */
+JNIEXPORT jboolean Java_com_iwares_app_pocketcvs_CVSService_setTempArea(
+	JNIEnv* env, jobject thiz,
+	jstring path,
+	jlong quota
+	);
+
+/**
+ * Native function for getTempUsage() method of the
+ * com.iwares.app.pocketcvs.CVSService class
+ *
+ * @param	env		The Java environment object pointer.
+ * @param	thiz	The CVSService Java object.
+ * @param	usage	Java long array to hold the bytes used, the quota, the count
+ * 					of session directories, the count of removed orphans and
+ * 					the time of the last sweep in milliseconds.
+ *
+ * @return			JNI_TRUE if success, otherwise JNI_FALSE.
+ *
+ */
+JNIEXPORT jboolean Java_com_iwares_app_pocketcvs_CVSService_getTempUsage(
+	JNIEnv* env, jobject thiz,
+	jlongArray usage
+	);
+
+/**
+ * Native function for getModuleState() method of the
+ * com.iwares.app.pocketcvs.CVSService class
+ *
+ * @param	env		The Java environment object pointer.
+ * @param	thiz	The CVSService Java object.
+ * @param	module	Path of the module relative to the repository.
+ * @param	state	Java long array to hold the count of files, the latest
+ * 					modification time in milliseconds and the digest.
+ *
+ * @return			JNI_TRUE if success, otherwise JNI_FALSE.
+ *
+ */
+JNIEXPORT jboolean Java_com_iwares_app_pocketcvs_CVSService_getModuleState(
+	JNIEnv* env, jobject thiz,
+	jstring module,
+	jlongArray state
+	);
+
+/**
+ * Native function for getHeads() method of the
+ * com.iwares.app.pocketcvs.CVSService class
+ *
+ * @param	env			The Java environment object pointer.
+ * @param	thiz		The CVSService Java object.
+ * @param	module		Path of the module relative to the repository.
+ * @param	paths		Java string array to hold the paths of the RCS files.
+ * @param	heads		Java string array to hold the head revisions.
+ * @param	branches	Java string array to hold the branch heads.
+ *
+ * @return			Count of RCS files copied.
+ *
+ */
+JNIEXPORT jint Java_com_iwares_app_pocketcvs_CVSService_getHeads(
+	JNIEnv* env, jobject thiz,
+	jstring module,
+	jobjectArray paths,
+	jobjectArray heads,
+	jobjectArray branches
+	);
+
+/**
+ * Native function for setLockArea() method of the
+ * com.iwares.app.pocketcvs.CVSService class
+ *
+ * @param	env		The Java environment object pointer.
+ * @param	thiz	The CVSService Java object.
+ * @param	path	Path of the lock area, an empty string to keep the locks in
+ * 					the repositories.
+ *
+ * @return			JNI_TRUE if success, otherwise JNI_FALSE.
+ *
+ */
+JNIEXPORT jboolean Java_com_iwares_app_pocketcvs_CVSService_setLockArea(
+	JNIEnv* env, jobject thiz,
+	jstring path
+	);
+
+/**
+ * Native function for openAccessLog() method of the
+ * com.iwares.app.pocketcvs.CVSService class
+ *
+ * @param	env			The Java environment object pointer.
+ * @param	thiz		The CVSService Java object.
+ * @param	path		Path of the log file.
+ * @param	capacity	Count of records kept.
+ *
+ * @return			JNI_TRUE if success, otherwise JNI_FALSE.
+ *
+ */
+JNIEXPORT jboolean Java_com_iwares_app_pocketcvs_CVSService_openAccessLog(
+	JNIEnv* env, jobject thiz,
+	jstring path,
+	jint capacity
+	);
+
+/**
+ * Native function for addRoot() method of the
+ * com.iwares.app.pocketcvs.CVSService class
+ *
+ * @param	env			The Java environment object pointer.
+ * @param	thiz		The CVSService Java object.
+ * @param	path		Path of the repository.
+ * @param	tempPath	Path of the temporary directory of the repository.
+ * @param	maxSessions	Most sessions of the repository at once, 0 for no cap.
+ *
+ * @return			JNI_TRUE if success, otherwise JNI_FALSE.
+ *
+ */
+JNIEXPORT jboolean Java_com_iwares_app_pocketcvs_CVSService_addRoot(
+	JNIEnv* env, jobject thiz,
+	jstring path,
+	jstring tempPath,
+	jint maxSessions
+	);
+
+/**
+ * Native function for removeRoot() method of the
+ * com.iwares.app.pocketcvs.CVSService class
+ *
+ * @param	env		The Java environment object pointer.
+ * @param	thiz	The CVSService Java object.
+ * @param	path	Path of the repository.
+ *
+ * @return			JNI_TRUE if success, otherwise JNI_FALSE.
+ *
+ */
+JNIEXPORT jboolean Java_com_iwares_app_pocketcvs_CVSService_removeRoot(
+	JNIEnv* env, jobject thiz,
+	jstring path
+	);
+
+/**
+ * Native function for getRoots() method of the
+ * com.iwares.app.pocketcvs.CVSService class
+ *
+ * @param	env		The Java environment object pointer.
+ * @param	thiz	The CVSService Java object.
+ * @param	paths	Java string array to hold the paths of the repositories.
+ * @param	values	Java long array to hold the session cap followed by the
+ * 					STAT_COUNT counters of each repository.
+ *
+ * @return			Count of repositories copied.
+ *
+ */
+JNIEXPORT jint Java_com_iwares_app_pocketcvs_CVSService_getRoots(
+	JNIEnv* env, jobject thiz,
+	jobjectArray paths,
+	jlongArray values
+	);
+
+/**
+ * Native function for startBackup() method of the
+ * com.iwares.app.pocketcvs.CVSService class
+ *
+ * @param	env		The Java environment object pointer.
+ * @param	thiz	The CVSService Java object.
+ * @param	path	Path of the backup directory.
+ *
+ * @return			JNI_TRUE if success, otherwise JNI_FALSE.
+ *
+ */
+JNIEXPORT jboolean Java_com_iwares_app_pocketcvs_CVSService_startBackup(
+	JNIEnv* env, jobject thiz,
+	jstring path
+	);
+
+/**
+ * Native function for getBackupStatus() method of the
+ * com.iwares.app.pocketcvs.CVSService class
+ *
+ * @param	env		The Java environment object pointer.
+ * @param	thiz	The CVSService Java object.
+ * @param	status	Java long array to hold whether a backup is running, whether
+ * 					the last one has failed, the start and finish time in
+ * 					milliseconds, the count of directories scanned and skipped,
+ * 					of files compared, copied and removed, and the bytes
+ * 					copied.
+ *
+ * @return			JNI_TRUE if success, otherwise JNI_FALSE.
+ *
+ */
+JNIEXPORT jboolean Java_com_iwares_app_pocketcvs_CVSService_getBackupStatus(
+	JNIEnv* env, jobject thiz,
+	jlongArray status
+	);
+
+/**
+ * Native function for startVerify() method of the
+ * com.iwares.app.pocketcvs.CVSService class
+ *
+ * @param	env		The Java environment object pointer.
+ * @param	thiz	The CVSService Java object.
+ * @param	repair	Whether to remove the stale locks and temporary files.
+ *
+ * @return			JNI_TRUE if success, otherwise JNI_FALSE.
+ *
+ */
+JNIEXPORT jboolean Java_com_iwares_app_pocketcvs_CVSService_startVerify(
+	JNIEnv* env, jobject thiz,
+	jboolean repair
+	);
+
+/**
+ * Native function for getVerifyStatus() method of the
+ * com.iwares.app.pocketcvs.CVSService class
+ *
+ * @param	env		The Java environment object pointer.
+ * @param	thiz	The CVSService Java object.
+ * @param	status	Java long array to hold whether a verification is running,
+ * 					whether the last one has been cancelled, the start and
+ * 					finish time in milliseconds, the count of threads, of
+ * 					directories and files checked, of corrupt files, stale
+ * 					locks, stale temporary files and files removed, and the
+ * 					bytes read.
+ *
+ * @return			JNI_TRUE if success, otherwise JNI_FALSE.
+ *
+ */
+JNIEXPORT jboolean Java_com_iwares_app_pocketcvs_CVSService_getVerifyStatus(
+	JNIEnv* env, jobject thiz,
+	jlongArray status
+	);
+
+/**
+ * Native function for getVerifyIssues() method of the
+ * com.iwares.app.pocketcvs.CVSService class
+ *
+ * @param	env			The Java environment object pointer.
+ * @param	thiz		The CVSService Java object.
+ * @param	paths		Java string array to hold the paths.
+ * @param	kinds		Java int array to hold the kinds of the issues.
+ * @param	repaired	Java boolean array to hold whether they are removed.
+ *
+ * @return			Count of issues copied.
+ *
+ */
+JNIEXPORT jint Java_com_iwares_app_pocketcvs_CVSService_getVerifyIssues(
+	JNIEnv* env, jobject thiz,
+	jobjectArray paths,
+	jintArray kinds,
+	jbooleanArray repaired
+	);
+
+/**
+ * Native function for startHousekeeping() method of the
+ * com.iwares.app.pocketcvs.CVSService class
+ *
+ * @param	env			The Java environment object pointer.
+ * @param	thiz		The CVSService Java object.
+ * @param	rotateSize	Size in bytes over which a file is rotated.
+ * @param	generations	Count of compressed generations kept.
+ *
+ * @return			JNI_TRUE if success, otherwise JNI_FALSE.
+ *
+ */
+JNIEXPORT jboolean Java_com_iwares_app_pocketcvs_CVSService_startHousekeeping(
+	JNIEnv* env, jobject thiz,
+	jlong rotateSize,
+	jint generations
+	);
+
+/**
+ * Native function for getHousekeepingStatus() method of the
+ * com.iwares.app.pocketcvs.CVSService class
+ *
+ * @param	env		The Java environment object pointer.
+ * @param	thiz	The CVSService Java object.
+ * @param	status	Java long array to hold whether the housekeeping is
+ * 					running, whether the last one has been deferred, the start
+ * 					and finish time in milliseconds, the bytes saved, and for
+ * 					each task the count of runs, the items of the last run,
+ * 					the milliseconds of the last run and of all the runs.
+ *
+ * @return			JNI_TRUE if success, otherwise JNI_FALSE.
+ *
+ */
+JNIEXPORT jboolean Java_com_iwares_app_pocketcvs_CVSService_getHousekeepingStatus(
+	JNIEnv* env, jobject thiz,
+	jlongArray status
+	);
+
 /**
  * Native function for startDaemon() method of the
  * com.iwares.app.pocketcvs.CVSService class
@@ -78,6 +624,20 @@ JNIEXPORT jboolean Java_com_iwares_app_pocketcvs_CVSService_startDaemon(
 	JNIEnv* env, jobject thiz
 	);
 
+/**
+ * Native function for isInitialized() method of the
+ * com.iwares.app.pocketcvs.CVSService class
+ *
+ * @param	env		The Java environment object pointer.
+ * @param	thiz	The CVSService Java object.
+ *
+ * @return			JNI_TRUE if the repository is usable, otherwise JNI_FALSE.
+ *
+ */
+JNIEXPORT jboolean Java_com_iwares_app_pocketcvs_CVSService_isInitialized(
+	JNIEnv* env, jobject thiz
+	);
+
 /**
  * Native function for isDaemonRunning() method of the
  * com.iwares.app.pocketcvs.CVSService class
@@ -0,0 +1,473 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	jni/cvslisten.cpp
+ * @author	Eric.Tsai
+ *
+ */
+
+#include "cvslisten.h"
+
+#include <stdlib.h>
+#include <string.h>
+#include <errno.h>
+#include <fcntl.h>
+#include <unistd.h>
+#include <sys/epoll.h>
+#include <netinet/in.h>
+#include <netinet/tcp.h>
+#include <arpa/inet.h>
+
+#ifndef SO_REUSEPORT
+#define SO_REUSEPORT	15
+#endif
+
+#ifndef TCP_KEEPIDLE
+#define TCP_KEEPIDLE	4
+#endif
+
+/** Max count of events handled by one wait of an accept thread. */
+static const int MAX_EVENTS = MAX_LISTEN_ADDRESSES + 1;
+
+/** Max count of clients accepted from a socket in one round. */
+static const int MAX_ACCEPTS = 64;
+
+/** Addresses listened on by default. */
+static const char DEFAULT_ADDRESSES[] = "*:2401";
+
+/**
+ * Set an integer socket option.
+ *
+ * @param	fd		The socket.
+ * @param	level	Level of the option.
+ * @param	name	Name of the option.
+ * @param	value	Value of the option.
+ *
+ * @return			Return true if success, otherwise return false.
+ *
+ */
+static bool __setOption(int fd, int level, int name, int value)
+{
+	return setsockopt(fd, level, name, (char *)&value, sizeof(value)) == 0;
+}
+
+/**
+ * Get the port of an address.
+ *
+ * @param	addr	The address.
+ *
+ * @return			The port in host byte order.
+ *
+ */
+static int __getPort(const struct sockaddr_storage *addr)
+{
+	if (addr->ss_family == AF_INET6)
+		return ntohs(((const struct sockaddr_in6 *)addr)->sin6_port);
+	return ntohs(((const struct sockaddr_in *)addr)->sin_port);
+}
+
+/**
+ * Parse one address of the list, "*" stands for the IPv4 and the IPv6
+ * wildcards.
+ *
+ * @param	token	The address, not '\0' terminated.
+ * @param	length	Length of the address.
+ * @param	addrs	Buffer of the addresses, the parsed ones are appended.
+ * @param	count	Count of the addresses in the buffer, updated.
+ *
+ * @return			Return true if success, otherwise return false.
+ *
+ */
+static bool __parseAddress(const char *token, int length, struct sockaddr_storage *addrs, int *count)
+{
+	char buffer[64];
+	if (length >= (int)sizeof(buffer))
+		return false;
+	memcpy(buffer, token, length);
+	buffer[length] = 0;
+
+	// Split the host and the port, a bare port stands for every address.
+	char *host = buffer, *port = strrchr(buffer, ':');
+	if (buffer[0] == '[') {
+		char *bracket = strchr(buffer, ']');
+		if (bracket == NULL || bracket[1] != ':')
+			return false;
+		*bracket = 0;
+		host = buffer + 1;
+		port = bracket + 1;
+	}
+	if (port == NULL) {
+		host = (char *)"*";
+		port = buffer;
+	} else {
+		*port++ = 0;
+	}
+	char *end;
+	long number = strtol(port, &end, 10);
+	if (*port == 0 || *end != 0 || number < 1 || number > 65535)
+		return false;
+
+	bool any = host[0] == 0 || strcmp(host, "*") == 0;
+	if (*count + (any ? 2 : 1) > MAX_LISTEN_ADDRESSES)
+		return false;
+	struct sockaddr_in ipv4;
+	memset(&ipv4, 0, sizeof(ipv4));
+	ipv4.sin_family = AF_INET;
+	ipv4.sin_port = htons((unsigned short)number);
+	struct sockaddr_in6 ipv6;
+	memset(&ipv6, 0, sizeof(ipv6));
+	ipv6.sin6_family = AF_INET6;
+	ipv6.sin6_port = htons((unsigned short)number);
+	bool isIPv4 = any || inet_pton(AF_INET, host, &ipv4.sin_addr) == 1;
+	bool isIPv6 = any || (!isIPv4 && inet_pton(AF_INET6, host, &ipv6.sin6_addr) == 1);
+	if (!isIPv4 && !isIPv6)
+		return false;
+	if (isIPv4) {
+		memset(&addrs[*count], 0, sizeof(addrs[*count]));
+		memcpy(&addrs[(*count)++], &ipv4, sizeof(ipv4));
+	}
+	if (isIPv6) {
+		memset(&addrs[*count], 0, sizeof(addrs[*count]));
+		memcpy(&addrs[(*count)++], &ipv6, sizeof(ipv6));
+	}
+	return true;
+}
+
+/**
+ * Start with the default addresses, no accept threads and the socket options
+ * of the system.
+ */
+CVSListener::CVSListener()
+{
+	m_addressCount = 0;
+	__parseAddress(DEFAULT_ADDRESSES, sizeof(DEFAULT_ADDRESSES) - 1, m_addresses, &m_addressCount);
+	m_threadCount = 0;
+	m_noDelay = false;
+	m_keepAlive = 0;
+	m_receiveBuffer = 0;
+	m_sendBuffer = 0;
+	pthread_mutex_init(&m_mutex, NULL);
+	for (int i = 0; i < MAX_LISTEN_ADDRESSES; ++i)
+		m_sockets[i] = -1;
+	m_runningCount = 0;
+	m_listeningCount = 0;
+	m_handoffPipe[0] = m_handoffPipe[1] = -1;
+	m_stopPipe[0] = m_stopPipe[1] = -1;
+}
+
+/**
+ * Stop the threads before the fields go away.
+ */
+CVSListener::~CVSListener()
+{
+	stop();
+	pthread_mutex_destroy(&m_mutex);
+}
+
+/**
+ * The whole list is parsed before anything is changed.
+ */
+bool CVSListener::configure(const char *addresses, int threads, bool noDelay, int keepAlive, int receiveBuffer, int sendBuffer)
+{
+	struct sockaddr_storage addrs[MAX_LISTEN_ADDRESSES];
+	int count = 0;
+	for (const char *p = addresses; *p != 0;) {
+		int length = strcspn(p, " ,\t\n");
+		if (length > 0 && !__parseAddress(p, length, addrs, &count))
+			return false;
+		p += length;
+		if (*p != 0)
+			++p;
+	}
+	if (count == 0)
+		return false;
+
+	pthread_mutex_lock(&m_mutex);
+	memcpy(m_addresses, addrs, sizeof(addrs[0]) * count);
+	m_addressCount = count;
+	m_threadCount = threads < 0 ? 0 : threads > MAX_ACCEPT_THREADS ? MAX_ACCEPT_THREADS : threads;
+	m_noDelay = noDelay;
+	m_keepAlive = keepAlive > 0 ? keepAlive : 0;
+	m_receiveBuffer = receiveBuffer > 0 ? receiveBuffer : 0;
+	m_sendBuffer = sendBuffer > 0 ? sendBuffer : 0;
+	pthread_mutex_unlock(&m_mutex);
+	return true;
+}
+
+/**
+ * The accept threads fall back to the daemon thread if they can not be
+ * started at all.
+ */
+int CVSListener::start(int epfd, int backlog)
+{
+	pthread_mutex_lock(&m_mutex);
+	struct epoll_event event;
+	memset(&event, 0, sizeof(event));
+	event.events = EPOLLIN;
+
+	// The client sockets are handed off in whole batches, which are smaller
+	// than PIPE_BUF so the writes are atomic. A full pipe must not block an
+	// accept thread which is told to exit, the batch is dropped then.
+	int threads = m_threadCount, listening = 0;
+	if (threads > 0 && pipe(m_handoffPipe) == 0) {
+		fcntl(m_handoffPipe[0], F_SETFL, O_NONBLOCK);
+		fcntl(m_handoffPipe[1], F_SETFL, O_NONBLOCK);
+		fcntl(m_handoffPipe[0], F_SETFD, FD_CLOEXEC);
+		fcntl(m_handoffPipe[1], F_SETFD, FD_CLOEXEC);
+		if (pipe(m_stopPipe) == 0) {
+			fcntl(m_stopPipe[0], F_SETFD, FD_CLOEXEC);
+			fcntl(m_stopPipe[1], F_SETFD, FD_CLOEXEC);
+		} else {
+			m_stopPipe[0] = m_stopPipe[1] = -1;
+			threads = 0;
+		}
+	} else {
+		m_handoffPipe[0] = m_handoffPipe[1] = -1;
+		threads = 0;
+	}
+
+	for (int i = 0; i < threads; ++i) {
+		Acceptor *acceptor = &m_acceptors[i];
+		acceptor->owner = this;
+		int count = openSockets(acceptor->sockets, backlog, threads > 1);
+		if (count < 0) {
+			// No SO_REUSEPORT, a single thread owns the only sockets.
+			count = openSockets(acceptor->sockets, backlog, false);
+			threads = 1;
+		}
+		if (i == 0)
+			listening = count;
+		acceptor->epoll = epoll_create(MAX_EVENTS);
+		for (int j = 0; j < m_addressCount; ++j) {
+			if (acceptor->sockets[j] < 0)
+				continue;
+			event.data.fd = acceptor->sockets[j];
+			epoll_ctl(acceptor->epoll, EPOLL_CTL_ADD, acceptor->sockets[j], &event);
+		}
+		event.data.fd = m_stopPipe[0];
+		epoll_ctl(acceptor->epoll, EPOLL_CTL_ADD, m_stopPipe[0], &event);
+		if (acceptor->epoll < 0 || pthread_create(&acceptor->thread, NULL, acceptThreadFunc, acceptor) != 0) {
+			closeSockets(acceptor->sockets);
+			if (acceptor->epoll >= 0)
+				::close(acceptor->epoll);
+			break;
+		}
+		++m_runningCount;
+	}
+
+	if (m_runningCount > 0) {
+		event.data.fd = m_handoffPipe[0];
+		epoll_ctl(epfd, EPOLL_CTL_ADD, m_handoffPipe[0], &event);
+	} else {
+		for (int i = 0; i < 2; ++i) {
+			if (m_handoffPipe[i] >= 0)
+				::close(m_handoffPipe[i]);
+			if (m_stopPipe[i] >= 0)
+				::close(m_stopPipe[i]);
+			m_handoffPipe[i] = m_stopPipe[i] = -1;
+		}
+		listening = openSockets(m_sockets, backlog, false);
+		for (int i = 0; i < m_addressCount; ++i) {
+			if (m_sockets[i] < 0)
+				continue;
+			event.data.fd = m_sockets[i];
+			epoll_ctl(epfd, EPOLL_CTL_ADD, m_sockets[i], &event);
+		}
+	}
+	m_listeningCount = listening;
+	pthread_mutex_unlock(&m_mutex);
+	return listening;
+}
+
+/**
+ * Only the daemon thread calls it, while the listener is started.
+ */
+bool CVSListener::owns(int fd)
+{
+	if (m_runningCount > 0)
+		return fd == m_handoffPipe[0];
+	for (int i = 0; i < MAX_LISTEN_ADDRESSES; ++i) {
+		if (m_sockets[i] == fd)
+			return true;
+	}
+	return false;
+}
+
+/**
+ * The accept threads write whole batches to the pipe, so it never holds a
+ * part of a client socket.
+ */
+int CVSListener::accept(int fd, int *clients, int max)
+{
+	if (fd == m_handoffPipe[0]) {
+		ssize_t bytes = read(fd, clients, sizeof(int) * max);
+		return bytes > 0 ? (int)(bytes / sizeof(int)) : 0;
+	}
+
+	int count = 0;
+	while (count < max) {
+		int client = ::accept(fd, NULL, NULL);
+		if (client < 0)
+			break;
+		// The client socket must not inherit O_NONBLOCK.
+		fcntl(client, F_SETFL, fcntl(client, F_GETFL) & ~O_NONBLOCK);
+		clients[count++] = client;
+	}
+	return count;
+}
+
+/**
+ * The stop pipe is never read, so it wakes up every accept thread.
+ */
+void CVSListener::stop(void)
+{
+	if (m_runningCount > 0) {
+		write(m_stopPipe[1], "x", 1);
+		for (int i = 0; i < m_runningCount; ++i) {
+			pthread_join(m_acceptors[i].thread, NULL);
+			closeSockets(m_acceptors[i].sockets);
+			::close(m_acceptors[i].epoll);
+		}
+		m_runningCount = 0;
+
+		// Nobody is going to serve the clients handed off but not taken.
+		int client;
+		while (read(m_handoffPipe[0], &client, sizeof(client)) == sizeof(client))
+			::close(client);
+		for (int i = 0; i < 2; ++i) {
+			::close(m_handoffPipe[i]);
+			::close(m_stopPipe[i]);
+			m_handoffPipe[i] = m_stopPipe[i] = -1;
+		}
+	}
+	closeSockets(m_sockets);
+	m_listeningCount = 0;
+}
+
+/**
+ * Just copy the counts.
+ */
+void CVSListener::getState(int *addresses, int *threads)
+{
+	*addresses = m_listeningCount;
+	*threads = m_runningCount;
+}
+
+/**
+ * An address which can not be listened on is skipped, so a device without
+ * IPv6 still serves the IPv4 clients. The dual-stack IPv6 wildcard would
+ * take the port from the IPv4 sockets, it is IPv6 only if they are listed.
+ */
+int CVSListener::openSockets(int *sockets, int backlog, bool shared)
+{
+	int count = 0;
+	for (int i = 0; i < MAX_LISTEN_ADDRESSES; ++i)
+		sockets[i] = -1;
+	for (int i = 0; i < m_addressCount; ++i) {
+		const struct sockaddr_storage *addr = &m_addresses[i];
+		int fd = socket(addr->ss_family, SOCK_STREAM, 0);
+		if (fd < 0)
+			continue;
+		fcntl(fd, F_SETFD, FD_CLOEXEC);
+		__setOption(fd, SOL_SOCKET, SO_REUSEADDR, 1);
+		if (shared && !__setOption(fd, SOL_SOCKET, SO_REUSEPORT, 1)) {
+			::close(fd);
+			closeSockets(sockets);
+			return -1;
+		}
+
+		socklen_t length = sizeof(struct sockaddr_in);
+		if (addr->ss_family == AF_INET6) {
+			const struct sockaddr_in6 *in6 = (const struct sockaddr_in6 *)addr;
+			bool v6only = !IN6_IS_ADDR_UNSPECIFIED(&in6->sin6_addr);
+			for (int j = 0; !v6only && j < m_addressCount; ++j)
+				v6only = m_addresses[j].ss_family == AF_INET && __getPort(&m_addresses[j]) == __getPort(addr);
+			__setOption(fd, IPPROTO_IPV6, IPV6_V6ONLY, v6only ? 1 : 0);
+			length = sizeof(struct sockaddr_in6);
+		}
+
+		// The accepted sockets inherit the options, and the buffer sizes must
+		// be set before listen() for the window scale to follow them.
+		if (m_noDelay)
+			__setOption(fd, IPPROTO_TCP, TCP_NODELAY, 1);
+		if (m_keepAlive > 0) {
+			__setOption(fd, SOL_SOCKET, SO_KEEPALIVE, 1);
+			__setOption(fd, IPPROTO_TCP, TCP_KEEPIDLE, m_keepAlive);
+		}
+		if (m_receiveBuffer > 0)
+			__setOption(fd, SOL_SOCKET, SO_RCVBUF, m_receiveBuffer);
+		if (m_sendBuffer > 0)
+			__setOption(fd, SOL_SOCKET, SO_SNDBUF, m_sendBuffer);
+
+		if (bind(fd, (const struct sockaddr *)addr, length) < 0 || listen(fd, backlog) < 0) {
+			::close(fd);
+			continue;
+		}
+
+		// Accept clients in batch until the backlog is drained.
+		fcntl(fd, F_SETFL, fcntl(fd, F_GETFL) | O_NONBLOCK);
+		sockets[i] = fd;
+		++count;
+	}
+	return count;
+}
+
+/**
+ * Close the sockets and mark them closed.
+ */
+void CVSListener::closeSockets(int *sockets)
+{
+	for (int i = 0; i < MAX_LISTEN_ADDRESSES; ++i) {
+		if (sockets[i] >= 0)
+			::close(sockets[i]);
+		sockets[i] = -1;
+	}
+}
+
+/**
+ * Accept the clients of the thread's sockets and hand them off, until a byte
+ * is written to the stop pipe.
+ */
+void* CVSListener::acceptThreadFunc(void *param)
+{
+	Acceptor *acceptor = (Acceptor *)param;
+	CVSListener *listener = acceptor->owner;
+
+	for (;;) {
+		struct epoll_event events[MAX_EVENTS];
+		int count = epoll_wait(acceptor->epoll, events, MAX_EVENTS, -1);
+		if (count < 0 && errno != EINTR)
+			break;
+		for (int i = 0; i < count; ++i) {
+			int fd = events[i].data.fd;
+			if (fd == listener->m_stopPipe[0])
+				return NULL;
+
+			// Leave the rest of a huge burst to the next round, so the
+			// other sockets of the thread get their turns.
+			int clients[MAX_ACCEPTS];
+			int accepted = listener->accept(fd, clients, MAX_ACCEPTS);
+			ssize_t bytes = sizeof(int) * accepted;
+			if (accepted > 0 && write(listener->m_handoffPipe[1], clients, bytes) != bytes) {
+				for (int j = 0; j < accepted; ++j)
+					::close(clients[j]);
+			}
+		}
+	}
+	return NULL;
+}
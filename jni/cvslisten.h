@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	jni/cvslisten.h
+ * @author	Eric.Tsai
+ *
+ */
+
+#ifndef __CVSLISTENER_H__
+#define __CVSLISTENER_H__
+
+#include <sys/types.h>
+#include <sys/socket.h>
+#include <pthread.h>
+
+/** Max count of addresses the daemon listens on. */
+#define MAX_LISTEN_ADDRESSES	8
+
+/** Max count of accept threads. */
+#define MAX_ACCEPT_THREADS		8
+
+/** Max length of the address list, with the terminating '\0'. */
+#define MAX_LISTEN_SPEC			256
+
+/**
+ * \class CVSListener
+ *
+ * CVSListener owns the listening sockets of the daemon. It listens on a list
+ * of IPv4 and IPv6 addresses, the IPv6 wildcard takes the IPv4 clients too
+ * unless an IPv4 address of the same port is listed.
+ *
+ * With no accept threads the daemon thread accepts the clients itself, as it
+ * always did. With accept threads, each thread has its own sockets bound to
+ * every address with SO_REUSEPORT, so the kernel spreads the connections over
+ * the threads and the cores. The threads accept in batches and hand the
+ * client sockets to the daemon thread through a pipe, the daemon thread still
+ * owns the authentication, the admission and the counters. Kernels without
+ * SO_REUSEPORT get a single accept thread.
+ *
+ * The socket options are set on the listening sockets, the accepted sockets
+ * inherit them.
+ *
+ */
+class CVSListener {
+public:
+	/**
+	 * Constructor, listens on port 2401 of every address by default.
+	 *
+	 */
+	CVSListener();
+	/**
+	 * Destructor, the sockets are closed.
+	 *
+	 */
+	~CVSListener();
+private:
+	/** Hidden copy constructor. */
+	CVSListener(const CVSListener &other);
+	/** Hidden assign operator. */
+	CVSListener& operator =(const CVSListener &other);
+public:
+	/**
+	 * Set the addresses, the threads and the socket options. It takes effect
+	 * when the daemon is started next time.
+	 *
+	 * @param	addresses		Addresses separated by spaces or commas, each
+	 * 							one "a.b.c.d:port", "[ipv6]:port", or "*:port"
+	 * 							or just "port" for every address.
+	 * @param	threads			Count of accept threads, 0 to accept on the
+	 * 							daemon thread.
+	 * @param	noDelay			Whether to set TCP_NODELAY.
+	 * @param	keepAlive		Idle seconds before the keep-alive probes, 0
+	 * 							for no keep-alive.
+	 * @param	receiveBuffer	SO_RCVBUF in bytes, 0 for the system default.
+	 * @param	sendBuffer		SO_SNDBUF in bytes, 0 for the system default.
+	 *
+	 * @return					Return true if the addresses are valid,
+	 * 							otherwise return false and nothing is changed.
+	 *
+	 */
+	bool configure(const char *addresses, int threads, bool noDelay, int keepAlive, int receiveBuffer, int sendBuffer);
+	/**
+	 * Open the listening sockets and start the accept threads. Called by the
+	 * daemon thread.
+	 *
+	 * @param	epfd	Epoll instance of the daemon thread, the descriptors it
+	 * 					has to watch are added with themselves as the data.
+	 * @param	backlog	Backlog of each listening socket.
+	 *
+	 * @return			Count of addresses listened on.
+	 *
+	 */
+	int start(int epfd, int backlog);
+	/**
+	 * Check whether a descriptor watched by the daemon thread is a listening
+	 * socket or the hand-off pipe.
+	 *
+	 * @param	fd	The descriptor.
+	 *
+	 * @return		Return true if it is one of the listener's.
+	 *
+	 */
+	bool owns(int fd);
+	/**
+	 * Take the clients ready on a descriptor owned by the listener, in
+	 * blocking mode. Called by the daemon thread.
+	 *
+	 * @param	fd		The descriptor reported by epoll.
+	 * @param	clients	Buffer to hold the client sockets.
+	 * @param	max		Max count of clients to take, the rest are left to the
+	 * 					next round.
+	 *
+	 * @return			Count of clients taken.
+	 *
+	 */
+	int accept(int fd, int *clients, int max);
+	/**
+	 * Stop the accept threads and close the sockets, the clients not taken
+	 * yet are closed. Called by the daemon thread.
+	 *
+	 */
+	void stop(void);
+	/**
+	 * Get what is running now.
+	 *
+	 * @param	addresses	Buffer to hold the count of addresses listened on.
+	 * @param	threads		Buffer to hold the count of accept threads.
+	 *
+	 */
+	void getState(int *addresses, int *threads);
+private:
+	/** An accept thread and its sockets. */
+	struct Acceptor {
+		/** The listener. */
+		CVSListener *owner;
+		/** The thread. */
+		pthread_t thread;
+		/** The epoll instance of the thread. */
+		int epoll;
+		/** The sockets, -1 for an address which can not be listened on. */
+		int sockets[MAX_LISTEN_ADDRESSES];
+	};
+	/**
+	 * Open the listening sockets of a thread, or of the daemon thread.
+	 *
+	 * @param	sockets	Buffer to hold a socket for each address.
+	 * @param	backlog	Backlog of each socket.
+	 * @param	shared	Whether the sockets share their ports with the other
+	 * 					threads by SO_REUSEPORT.
+	 *
+	 * @return			Count of sockets listening, -1 if SO_REUSEPORT is not
+	 * 					supported.
+	 *
+	 */
+	int openSockets(int *sockets, int backlog, bool shared);
+	/**
+	 * Close the listening sockets of a thread.
+	 *
+	 * @param	sockets	The sockets.
+	 *
+	 */
+	void closeSockets(int *sockets);
+	/** Accept thread function. */
+	static void* acceptThreadFunc(void *param);
+private:
+	/** The addresses. */
+	struct sockaddr_storage m_addresses[MAX_LISTEN_ADDRESSES];
+	/** Count of the addresses. */
+	int m_addressCount;
+	/** Count of the accept threads configured. */
+	int m_threadCount;
+	/** Whether to set TCP_NODELAY. */
+	bool m_noDelay;
+	/** Idle seconds before the keep-alive probes, 0 for no keep-alive. */
+	int m_keepAlive;
+	/** SO_RCVBUF and SO_SNDBUF, 0 for the system default. */
+	int m_receiveBuffer, m_sendBuffer;
+	/** Guards the configuration, it is copied when the daemon starts. */
+	pthread_mutex_t m_mutex;
+	/** Sockets accepted on by the daemon thread. */
+	int m_sockets[MAX_LISTEN_ADDRESSES];
+	/** The accept threads running. */
+	Acceptor m_acceptors[MAX_ACCEPT_THREADS];
+	/** Count of the accept threads running. */
+	volatile int m_runningCount;
+	/** Count of the addresses listened on. */
+	volatile int m_listeningCount;
+	/** Client sockets from the accept threads to the daemon thread. */
+	int m_handoffPipe[2];
+	/** Written when the accept threads have to exit. */
+	int m_stopPipe[2];
+};
+
+#endif /* __CVSLISTENER_H__ */
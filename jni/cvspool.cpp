@@ -0,0 +1,590 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	jni/cvspool.cpp
+ * @author	Eric.Tsai
+ *
+ */
+
+#include "cvspool.h"
+
+#include <stdlib.h>
+#include <string.h>
+#include <assert.h>
+#include <unistd.h>
+#include <errno.h>
+#include <fcntl.h>
+#include <poll.h>
+#include <signal.h>
+#include <sys/wait.h>
+#include <sys/time.h>
+#include <sys/resource.h>
+#include <sys/epoll.h>
+#include <sys/socket.h>
+#include <netinet/in.h>
+#include <netinet/tcp.h>
+#include <time.h>
+
+/** Max count of arguments passed to the CVS executable. */
+#define MAX_ARGS	32
+
+/** Max count of environment variables passed to a CVS process. */
+#define MAX_ENVS	64
+
+/**
+ * Send the specified report to the daemon thread.
+ *
+ * @param	channel	UNIX socket connected to the daemon.
+ * @param	report	The report to send.
+ *
+ */
+static void __sendReport(int channel, CVSReport *report)
+{
+	report->worker = getpid();
+	send(channel, report, sizeof(CVSReport), 0);
+}
+
+/**
+ * Send a report of the specified type without resource usage.
+ *
+ * @param	channel	UNIX socket connected to the daemon.
+ * @param	type	Type of the report.
+ * @param	pid		PID of the session process.
+ *
+ */
+static void __sendReport(int channel, int type, pid_t pid)
+{
+	CVSReport report;
+	memset(&report, 0, sizeof(report));
+	report.type = type;
+	report.pid = pid;
+	__sendReport(channel, &report);
+}
+
+/**
+ * Convert the specified time value to milliseconds.
+ *
+ * @param	tv		The time value.
+ *
+ * @return			Milliseconds.
+ *
+ */
+static inline unsigned int __toMillis(const struct timeval &tv)
+{
+	return (unsigned int)(tv.tv_sec * 1000 + tv.tv_usec / 1000);
+}
+
+/**
+ * Get the milliseconds of the monotonic clock.
+ *
+ * @return		Current milliseconds.
+ *
+ */
+static unsigned long long __uptimeMillis(void)
+{
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return (unsigned long long)ts.tv_sec * 1000 + ts.tv_nsec / 1000000;
+}
+
+/**
+ * Get the byte counters of the specified TCP socket. The counters are the
+ * tcpi_bytes_acked and tcpi_bytes_received fields of TCP_INFO, which are not
+ * declared by the NDK headers and are only filled by Linux 4.2 or later, so
+ * they are read by their offsets and left 0 on older kernels.
+ *
+ * @param	client		The client socket.
+ * @param	bytesIn		Buffer to hold the count of received bytes.
+ * @param	bytesOut	Buffer to hold the count of sent bytes.
+ *
+ */
+static void __getSocketBytes(int client, unsigned long long *bytesIn, unsigned long long *bytesOut)
+{
+	// 8 bytes of flags, 24 32-bit fields and 2 64-bit pacing rates are before
+	// the byte counters.
+	static const size_t OFFSET_BYTES_ACKED = 8 + 24 * 4 + 2 * 8;
+	static const size_t OFFSET_BYTES_RECEIVED = OFFSET_BYTES_ACKED + 8;
+
+	unsigned char info[OFFSET_BYTES_RECEIVED + 8];
+	socklen_t size = sizeof(info);
+
+	*bytesIn = *bytesOut = 0;
+	memset(info, 0, sizeof(info));
+	if (getsockopt(client, IPPROTO_TCP, TCP_INFO, info, &size) < 0 || size < sizeof(info))
+		return;
+	memcpy(bytesOut, info + OFFSET_BYTES_ACKED, 8);
+	memcpy(bytesIn, info + OFFSET_BYTES_RECEIVED, 8);
+}
+
+/**
+ * Receive a client socket and the packed argument list from the daemon thread.
+ *
+ * @param	channel	UNIX socket connected to the daemon.
+ * @param	args	Buffer to hold the packed argument list, its size must be
+ * 					MAX_ARGS_SIZE.
+ * @param	watch	Buffer to hold the pipe watched for the end of the
+ * 					session, -1 if none is sent.
+ *
+ * @return			The client socket, -1 if the channel is closed or broken.
+ *
+ */
+static int __recvClient(int channel, char *args, int *watch)
+{
+	struct msghdr msg;
+	struct iovec iov;
+	char control[CMSG_SPACE(sizeof(int) * 2)];
+
+	// The fields left out by the daemon read as empty strings.
+	memset(args, 0, MAX_ARGS_SIZE);
+
+	memset(&msg, 0, sizeof(msg));
+	iov.iov_base = args;
+	iov.iov_len = MAX_ARGS_SIZE;
+	msg.msg_iov = &iov;
+	msg.msg_iovlen = 1;
+	msg.msg_control = control;
+	msg.msg_controllen = sizeof(control);
+
+	ssize_t size;
+	while ((size = recvmsg(channel, &msg, 0)) < 0 && errno == EINTR)
+		continue;
+	if (size <= 0)
+		return -1;
+
+	struct cmsghdr *cmsg = CMSG_FIRSTHDR(&msg);
+	if (cmsg == NULL || cmsg->cmsg_level != SOL_SOCKET || cmsg->cmsg_type != SCM_RIGHTS)
+		return -1;
+
+	// Make sure the packed argument list is terminated.
+	args[MAX_ARGS_SIZE - 2] = args[MAX_ARGS_SIZE - 1] = 0;
+
+	int client;
+	memcpy(&client, CMSG_DATA(cmsg), sizeof(int));
+	*watch = -1;
+	if (cmsg->cmsg_len >= CMSG_LEN(sizeof(int) * 2)) {
+		memcpy(watch, CMSG_DATA(cmsg) + sizeof(int), sizeof(int));
+		fcntl(*watch, F_SETFD, FD_CLOEXEC);
+	}
+	return client;
+}
+
+/**
+ * Clear the pool, the configuration is set to the defaults.
+ */
+CVSWorkerPool::CVSWorkerPool()
+{
+	m_count = 0;
+	m_epoll = -1;
+	m_poolSize = 2;
+	m_idleTimeout = 300;
+	m_maxSessions = 16;
+	m_log = NULL;
+}
+
+/**
+ * Close the channels of all workers.
+ */
+CVSWorkerPool::~CVSWorkerPool()
+{
+	shutdown();
+}
+
+/**
+ * Just save the configuration, it takes effect on new workers.
+ */
+void CVSWorkerPool::configure(int poolSize, int idleTimeout, int maxSessions)
+{
+	m_poolSize = poolSize < 0 ? 0 : poolSize > MAX_WORKERS ? MAX_WORKERS : poolSize;
+	m_idleTimeout = idleTimeout < 1 ? 1 : idleTimeout;
+	m_maxSessions = maxSessions < 1 ? 1 : maxSessions;
+}
+
+/**
+ * Just save the log, the workers started later write to it.
+ */
+void CVSWorkerPool::setAccessLog(CVSAccessLog *log)
+{
+	m_log = log;
+}
+
+/**
+ * Send the client socket to the first idle worker with SCM_RIGHTS. If the
+ * worker is gone, forget it and try the next one.
+ */
+pid_t CVSWorkerPool::dispatch(int client, int watch, const char *args, int size)
+{
+	assert(client >= 0);
+	assert(size <= MAX_ARGS_SIZE);
+
+	for (;;) {
+		int index = -1;
+		for (int i = 0; i < m_count; ++i) {
+			if (m_workers[i].state != STATE_IDLE)
+				continue;
+			index = i;
+			break;
+		}
+
+		// No idle worker, start a new one.
+		if (index < 0 && (index = spawn()) < 0)
+			break;
+
+		struct msghdr msg;
+		struct iovec iov;
+		char control[CMSG_SPACE(sizeof(int) * 2)];
+		int fds[2] = { client, watch };
+		int count = watch >= 0 ? 2 : 1;
+
+		memset(&msg, 0, sizeof(msg));
+		iov.iov_base = (void *)args;
+		iov.iov_len = size;
+		msg.msg_iov = &iov;
+		msg.msg_iovlen = 1;
+		msg.msg_control = control;
+		msg.msg_controllen = CMSG_SPACE(sizeof(int) * count);
+
+		struct cmsghdr *cmsg = CMSG_FIRSTHDR(&msg);
+		cmsg->cmsg_level = SOL_SOCKET;
+		cmsg->cmsg_type = SCM_RIGHTS;
+		cmsg->cmsg_len = CMSG_LEN(sizeof(int) * count);
+		memcpy(CMSG_DATA(cmsg), fds, sizeof(int) * count);
+
+		if (sendmsg(m_workers[index].channel, &msg, MSG_NOSIGNAL) < 0) {
+			remove(index);
+			continue;
+		}
+
+		m_workers[index].state = STATE_BUSY;
+		m_workers[index].serving = true;
+		close(client);
+		if (watch >= 0)
+			close(watch);
+		return m_workers[index].pid;
+	}
+	return -1;
+}
+
+/**
+ * Count workers serving a client. A worker which got a client just as its
+ * idle timeout fired is retiring, but serves the client all the same.
+ */
+int CVSWorkerPool::busyCount(void)
+{
+	int busy = 0;
+	for (int i = 0; i < m_count; ++i) {
+		if (m_workers[i].serving)
+			++busy;
+	}
+	return busy;
+}
+
+/**
+ * Count idle workers and spawn the missing ones.
+ */
+void CVSWorkerPool::fill(void)
+{
+	int idle = 0;
+	for (int i = 0; i < m_count; ++i) {
+		if (m_workers[i].state == STATE_IDLE)
+			++idle;
+	}
+	for (; idle < m_poolSize; ++idle) {
+		if (spawn() < 0)
+			break;
+	}
+}
+
+/**
+ * Just save the epoll file descriptor.
+ */
+void CVSWorkerPool::attach(int epfd)
+{
+	m_epoll = epfd;
+}
+
+/**
+ * Read one report from the channel. A closed channel means the worker has
+ * exited.
+ */
+bool CVSWorkerPool::process(int fd, CVSReport *report)
+{
+	report->type = 0;
+
+	int index = -1;
+	for (int i = 0; i < m_count; ++i) {
+		if (m_workers[i].channel != fd)
+			continue;
+		index = i;
+		break;
+	}
+	if (index < 0)
+		return false;
+
+	ssize_t size = recv(fd, report, sizeof(CVSReport), MSG_DONTWAIT);
+	if (size < 0 && (errno == EAGAIN || errno == EINTR))
+		return true;
+	if (size < (ssize_t)sizeof(CVSReport)) {
+		memset(report, 0, sizeof(CVSReport));
+		report->type = REPORT_EXITED;
+		report->worker = m_workers[index].pid;
+		remove(index);
+		return true;
+	}
+
+	switch (report->type) {
+	case REPORT_DONE:
+		m_workers[index].serving = false;
+		if (m_workers[index].state == STATE_BUSY)
+			m_workers[index].state = STATE_IDLE;
+		break;
+	case REPORT_RETIRE:
+		// Let the worker see the end of the channel after it has read all
+		// clients which are already sent.
+		m_workers[index].state = STATE_RETIRING;
+		::shutdown(fd, SHUT_WR);
+		break;
+	default:
+		break;
+	}
+	return true;
+}
+
+/**
+ * Close all channels and forget all workers.
+ */
+void CVSWorkerPool::shutdown(void)
+{
+	while (m_count > 0)
+		remove(m_count - 1);
+}
+
+/**
+ * Create a socket pair and fork. The child closes every inherited file
+ * descriptor except its end of the channel and enters workerMain().
+ */
+int CVSWorkerPool::spawn(void)
+{
+	if (m_count >= MAX_WORKERS)
+		return -1;
+
+	int channels[2];
+	if (socketpair(AF_UNIX, SOCK_SEQPACKET, 0, channels) < 0)
+		return -1;
+
+	int idleTimeout = m_idleTimeout, maxSessions = m_maxSessions;
+	pid_t pid = fork();
+
+	// Child side.
+	if (0 == pid) {
+		int maxfd = (int)sysconf(_SC_OPEN_MAX);
+		for (int fd = STDERR_FILENO + 1; fd < maxfd; ++fd) {
+			if (fd != channels[1])
+				close(fd);
+		}
+		workerMain(channels[1], idleTimeout, maxSessions, m_log);
+	}
+
+	close(channels[1]);
+
+	if (pid < 0) {
+		close(channels[0]);
+		return -1;
+	}
+
+	fcntl(channels[0], F_SETFD, FD_CLOEXEC);
+
+	if (m_epoll >= 0) {
+		struct epoll_event event;
+		memset(&event, 0, sizeof(event));
+		event.events = EPOLLIN;
+		event.data.fd = channels[0];
+		epoll_ctl(m_epoll, EPOLL_CTL_ADD, channels[0], &event);
+	}
+
+	Worker &worker = m_workers[m_count];
+	worker.pid = pid;
+	worker.channel = channels[0];
+	worker.state = STATE_IDLE;
+	worker.serving = false;
+	return m_count++;
+}
+
+/**
+ * Remove the channel from epoll, close it and move the last worker to the
+ * freed slot.
+ */
+void CVSWorkerPool::remove(int index)
+{
+	assert(index >= 0 && index < m_count);
+	if (m_epoll >= 0)
+		epoll_ctl(m_epoll, EPOLL_CTL_DEL, m_workers[index].channel, NULL);
+	close(m_workers[index].channel);
+	m_workers[index] = m_workers[--m_count];
+}
+
+/**
+ * Wait for client sockets and serve them one by one. Each session runs in a
+ * vfork()ed child, which is cheap because the page tables of the worker are
+ * not copied. When the worker is idle for too long or has served enough
+ * sessions, it asks the daemon to retire it and exits at the end of channel.
+ */
+void CVSWorkerPool::workerMain(int channel, int idleTimeout, int maxSessions, CVSAccessLog *log)
+{
+	// Sessions are waited by the worker itself.
+	signal(SIGCHLD, SIG_DFL);
+	signal(SIGPIPE, SIG_IGN);
+
+	// Do not leak the channel to the CVS executable.
+	fcntl(channel, F_SETFD, FD_CLOEXEC);
+
+	bool retiring = false;
+	int sessions = 0;
+
+	for (;;) {
+		struct pollfd pfd = { channel, POLLIN, 0 };
+		int result = poll(&pfd, 1, retiring ? -1 : idleTimeout * 1000);
+		if (result < 0 && errno == EINTR)
+			continue;
+		if (result < 0)
+			break;
+
+		// Idle for too long.
+		if (result == 0) {
+			__sendReport(channel, REPORT_RETIRE, 0);
+			retiring = true;
+			continue;
+		}
+
+		char args[MAX_ARGS_SIZE];
+		int watch;
+		int client = __recvClient(channel, args, &watch);
+		if (client < 0)
+			break;
+
+		// Unpack the argument list, the first one is the executable path.
+		char *argv[MAX_ARGS + 1];
+		int argc = 0;
+		char *arg = args;
+		for (; *arg && argc < MAX_ARGS; arg += strlen(arg) + 1)
+			argv[argc++] = arg;
+		argv[argc] = NULL;
+
+		// The environment variables of the session follow the argument list,
+		// they come before the inherited ones so they win. The array is built
+		// before vfork() because the child must not touch the heap.
+		char *envp[MAX_ENVS + 1];
+		int envc = 0;
+		char *env = arg;
+		if (*arg == 0 && arg < args + MAX_ARGS_SIZE - 1) {
+			for (env = arg + 1; *env && envc < MAX_ENVS; env += strlen(env) + 1)
+				envp[envc++] = env;
+		}
+		for (char **inherited = environ; *inherited && envc < MAX_ENVS; ++inherited)
+			envp[envc++] = *inherited;
+		envp[envc] = NULL;
+
+		// The address, the user and the repository of the session follow
+		// the environment variables, they are only written to the access log.
+		const char *fields[3] = { "", "", "" };
+		for (int i = 0; i < 3 && *env == 0 && env < args + MAX_ARGS_SIZE - 2; ++i) {
+			fields[i] = ++env;
+			env += strlen(env);
+		}
+
+		unsigned long long started = __uptimeMillis();
+		struct timeval now;
+		gettimeofday(&now, NULL);
+		pid_t pid = argc > 1 ? vfork() : -1;
+
+		// Session side.
+		if (0 == pid) {
+			dup2(client, STDIN_FILENO);
+			dup2(client, STDOUT_FILENO);
+			dup2(client, STDERR_FILENO);
+			if (client > STDERR_FILENO)
+				close(client);
+			execve(argv[0], argv + 1, envp);
+			_exit(1);
+		}
+
+		if (pid > 0)
+			__sendReport(channel, REPORT_STARTED, pid);
+
+		CVSReport report;
+		memset(&report, 0, sizeof(report));
+		report.type = REPORT_DONE;
+		report.pid = pid;
+		report.status = -1;
+		if (pid > 0) {
+			struct rusage usage;
+			memset(&usage, 0, sizeof(usage));
+			while (wait4(pid, &report.status, 0, &usage) < 0 && errno == EINTR)
+				continue;
+			report.userTime = __toMillis(usage.ru_utime);
+			report.systemTime = __toMillis(usage.ru_stime);
+			report.maxRss = (unsigned int)usage.ru_maxrss;
+			report.inBlocks = (unsigned int)usage.ru_inblock;
+			report.outBlocks = (unsigned int)usage.ru_oublock;
+		}
+		report.duration = (unsigned int)(__uptimeMillis() - started);
+
+		// The socket is kept open until the session is finished, so its byte
+		// counters can be read.
+		__getSocketBytes(client, &report.bytesIn, &report.bytesOut);
+		close(client);
+
+		// A relayed session is over once the relay has sent all its bytes
+		// to the client, it writes its counters to the pipe then.
+		if (watch >= 0) {
+			unsigned long long counters[2];
+			ssize_t size;
+			while ((size = read(watch, counters, sizeof(counters))) < 0 && errno == EINTR)
+				continue;
+			if (size == (ssize_t)sizeof(counters)) {
+				report.bytesIn = counters[0];
+				report.bytesOut = counters[1];
+			}
+			close(watch);
+		}
+
+		if (log != NULL) {
+			CVSAccessRecord record;
+			memset(&record, 0, sizeof(record));
+			record.type = ACCESS_SESSION;
+			record.time = (unsigned long long)now.tv_sec * 1000 + now.tv_usec / 1000;
+			record.bytesIn = report.bytesIn;
+			record.bytesOut = report.bytesOut;
+			record.duration = report.duration;
+			record.status = report.status;
+			record.pid = pid > 0 ? pid : 0;
+			strncpy(record.address, fields[0], sizeof(record.address) - 1);
+			strncpy(record.user, fields[1], sizeof(record.user) - 1);
+			strncpy(record.root, fields[2], sizeof(record.root) - 1);
+			log->append(&record);
+		}
+
+		__sendReport(channel, &report);
+
+		if (!retiring && ++sessions >= maxSessions) {
+			__sendReport(channel, REPORT_RETIRE, 0);
+			retiring = true;
+		}
+	}
+
+	_exit(0);
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	jni/cvspool.h
+ * @author	Eric.Tsai
+ *
+ */
+
+#ifndef __CVSWORKERPOOL_H__
+#define __CVSWORKERPOOL_H__
+
+#include <sys/types.h>
+
+#include "cvsalog.h"
+
+/** Max count of worker processes managed by a CVSWorkerPool. */
+#define MAX_WORKERS		32
+
+/** Max length of the packed argument list sent to a worker. */
+#define MAX_ARGS_SIZE	1024
+
+/** Report type - a session is finished, the worker is idle again. */
+#define REPORT_DONE		1
+
+/** Report type - the worker is going to exit, send no more clients. */
+#define REPORT_RETIRE	2
+
+/** Report type - the CVS process of a session is started. */
+#define REPORT_STARTED	3
+
+/** Report type - the worker has exited, made up by the pool itself. */
+#define REPORT_EXITED	4
+
+/**
+ * \struct CVSReport
+ *
+ * Message sent from a worker process to the daemon thread.
+ *
+ */
+struct CVSReport {
+	/** Type of the report. */
+	int type;
+	/** PID of the worker. */
+	pid_t worker;
+	/** PID of the session process. */
+	pid_t pid;
+	/** Exit status of the session process. */
+	int status;
+	/** Duration of the session in milliseconds. */
+	unsigned int duration;
+	/** Bytes received from the client, 0 if unknown. */
+	unsigned long long bytesIn;
+	/** Bytes sent to the client, 0 if unknown. */
+	unsigned long long bytesOut;
+	/** User CPU time of the session process in milliseconds. */
+	unsigned int userTime;
+	/** System CPU time of the session process in milliseconds. */
+	unsigned int systemTime;
+	/** Max resident set size of the session process in kilobytes. */
+	unsigned int maxRss;
+	/** Count of block input operations of the session process. */
+	unsigned int inBlocks;
+	/** Count of block output operations of the session process. */
+	unsigned int outBlocks;
+};
+
+/**
+ * \class CVSWorkerPool
+ *
+ * CVSWorkerPool keeps a set of pre-forked worker processes. Each worker waits
+ * on a UNIX socket for a client socket sent by the daemon thread, spawns the
+ * CVS executable for it and reports back when the session is finished.
+ *
+ */
+class CVSWorkerPool {
+public:
+	/**
+	 * Constructor.
+	 *
+	 */
+	CVSWorkerPool();
+	/**
+	 * Destructor.
+	 *
+	 */
+	~CVSWorkerPool();
+private:
+	/** Hidden copy constructor. */
+	CVSWorkerPool(const CVSWorkerPool &other);
+	/** Hidden assign operator. */
+	CVSWorkerPool& operator =(const CVSWorkerPool &other);
+public:
+	/**
+	 * Change the configuration of the pool. Workers which are already started
+	 * keep their old limits until they are replaced.
+	 *
+	 * @param	poolSize	Count of idle workers kept ready, 0 to disable
+	 * 						pre-forking.
+	 * @param	idleTimeout	Seconds an idle worker waits before it exits.
+	 * @param	maxSessions	Count of sessions served by a worker before it is
+	 * 						replaced.
+	 *
+	 */
+	void configure(int poolSize, int idleTimeout, int maxSessions);
+	/**
+	 * Set the access log the workers write the records of the sessions to.
+	 * The log must stay open as long as the workers started from now on.
+	 *
+	 * @param	log		The access log, NULL for none.
+	 *
+	 */
+	void setAccessLog(CVSAccessLog *log);
+	/**
+	 * Hand the specified client socket to an idle worker, a new worker will be
+	 * started if there is no idle one. The client socket and the watched pipe
+	 * are closed on the caller side once dispatched, they are left open
+	 * otherwise so the caller can tell the client why.
+	 *
+	 * @param	client	The socket of the CVS client.
+	 * @param	watch	Read end of a pipe, the worker reports the end of the
+	 * 					session only after the write end is closed. -1 if the
+	 * 					session ends with the CVS process.
+	 * @param	args	Packed argument list of the CVS executable, each
+	 * 					argument is terminated by a '\0' and the list is
+	 * 					terminated by an empty argument. It is followed by
+	 * 					the NAME=VALUE environment variables of the session
+	 * 					packed the same way, and then by the address, the
+	 * 					user and the repository of the access log record.
+	 * @param	size	Size of the packed argument list.
+	 *
+	 * @return			Return the PID of the worker if the client is
+	 * 					dispatched, otherwise return -1.
+	 *
+	 */
+	pid_t dispatch(int client, int watch, const char *args, int size);
+	/**
+	 * Get the count of workers which are serving clients, the retiring
+	 * ones included.
+	 *
+	 * @return		The count of busy workers.
+	 *
+	 */
+	int busyCount(void);
+	/**
+	 * Start new workers until the count of idle workers reaches the pool size.
+	 *
+	 */
+	void fill(void);
+	/**
+	 * Set the epoll instance which channels of new workers are added to.
+	 *
+	 * @param	epfd	The epoll file descriptor of the daemon loop, -1 for
+	 * 					none.
+	 *
+	 */
+	void attach(int epfd);
+	/**
+	 * Process a report message from the worker owning the specified channel.
+	 *
+	 * @param	fd		The readable file descriptor returned by epoll.
+	 * @param	report	Buffer to hold the report, its type is set to 0 if
+	 * 					no report is read, or REPORT_EXITED if the worker
+	 * 					has exited.
+	 *
+	 * @return			Return true if the file descriptor is a channel of a
+	 * 					worker, otherwise return false.
+	 *
+	 */
+	bool process(int fd, CVSReport *report);
+	/**
+	 * Close channels of all workers. Idle workers exit at once and busy
+	 * workers exit after their current sessions are finished.
+	 *
+	 */
+	void shutdown(void);
+private:
+	/**
+	 * Fork a new worker process.
+	 *
+	 * @return		Return the index of the new worker if success, otherwise
+	 * 				return -1.
+	 *
+	 */
+	int spawn(void);
+	/**
+	 * Forget the worker at the specified index and close its channel.
+	 *
+	 * @param	index	Index of the worker.
+	 *
+	 */
+	void remove(int index);
+	/**
+	 * Main loop of a worker process, never returns.
+	 *
+	 * @param	channel		UNIX socket connected to the daemon.
+	 * @param	idleTimeout	Seconds to wait for a client before exit.
+	 * @param	maxSessions	Count of sessions to serve before exit.
+	 * @param	log			Access log of the sessions, NULL for none.
+	 *
+	 */
+	static void workerMain(int channel, int idleTimeout, int maxSessions, CVSAccessLog *log);
+private:
+	/** Worker state - waiting for a client. */
+	static const int STATE_IDLE = 0;
+	/** Worker state - serving a client. */
+	static const int STATE_BUSY = 1;
+	/** Worker state - going to exit, no more clients should be sent. */
+	static const int STATE_RETIRING = 2;
+	/** Information of a worker process. */
+	struct Worker {
+		/** PID of the worker process. */
+		pid_t pid;
+		/** UNIX socket connected to the worker. */
+		int channel;
+		/** Current state of the worker. */
+		int state;
+		/**
+		 * Whether a client is sent and its REPORT_DONE is not read yet. It
+		 * stays set when the worker retires while serving the client.
+		 */
+		bool serving;
+	};
+	/** All workers. */
+	Worker m_workers[MAX_WORKERS];
+	/** Count of workers. */
+	int m_count;
+	/** The epoll instance of the daemon loop. */
+	int m_epoll;
+	/** Count of idle workers kept ready. */
+	volatile int m_poolSize;
+	/** Seconds an idle worker waits before it exits. */
+	volatile int m_idleTimeout;
+	/** Count of sessions served by a worker before it is replaced. */
+	volatile int m_maxSessions;
+	/** Access log of the sessions. */
+	CVSAccessLog *m_log;
+};
+
+#endif//__CVSWORKERPOOL_H__
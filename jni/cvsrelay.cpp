@@ -0,0 +1,554 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	jni/cvsrelay.cpp
+ * @author	Eric.Tsai
+ *
+ */
+
+#include "cvsrelay.h"
+
+#include <stdlib.h>
+#include <string.h>
+#include <errno.h>
+#include <fcntl.h>
+#include <unistd.h>
+#include <time.h>
+#include <signal.h>
+#include <sys/epoll.h>
+#include <sys/socket.h>
+#include <sys/syscall.h>
+
+#ifndef SPLICE_F_MOVE
+#define SPLICE_F_MOVE		1
+#endif
+
+#ifndef SPLICE_F_NONBLOCK
+#define SPLICE_F_NONBLOCK	2
+#endif
+
+/** Most rounds of the sessions between two waits. */
+static const int MAX_ROUNDS = 8;
+
+/** Max count of events handled by one wait. */
+static const int MAX_EVENTS = 64;
+
+/** Epoll data of the wake up pipe, the sockets are 2 * index + 1 for the peer. */
+static const unsigned long long WAKE_DATA = MAX_RELAYS * 2;
+
+/** Watched events of a socket taken out of the epoll set. */
+static const unsigned int DETACHED = ~0U;
+
+/**
+ * Splice between a file descriptor and a pipe. The NDK headers do not declare
+ * splice(), so the system call is made directly.
+ *
+ * @param	in		The file descriptor read from.
+ * @param	out		The file descriptor written to.
+ * @param	size	Max count of bytes to move.
+ *
+ * @return			Count of bytes moved, 0 at the end of the input, -1 if
+ * 					failed.
+ *
+ */
+static ssize_t __splice(int in, int out, size_t size)
+{
+	return syscall(__NR_splice, in, NULL, out, NULL, size, SPLICE_F_MOVE | SPLICE_F_NONBLOCK);
+}
+
+/**
+ * Get the milliseconds of the monotonic clock.
+ *
+ * @return		The milliseconds.
+ *
+ */
+static unsigned long long __uptimeMillis(void)
+{
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return (unsigned long long)ts.tv_sec * 1000 + ts.tv_nsec / 1000000;
+}
+
+/**
+ * Get the size of a token bucket, a quarter of a second of its rate but no
+ * less than a quantum.
+ *
+ * @param	rate	Bytes per second.
+ *
+ * @return			The size in thousandths of a byte.
+ *
+ */
+static long long __bucketSize(int rate)
+{
+	return (rate / 4 > RELAY_QUANTUM ? rate / 4 : RELAY_QUANTUM) * 1000LL;
+}
+
+/**
+ * Change the events watched on a socket. A socket taken out of the epoll set
+ * is added back.
+ *
+ * @param	epfd	The epoll instance.
+ * @param	fd		The socket.
+ * @param	current	The events watched now, updated.
+ * @param	wanted	The events to watch.
+ * @param	data	Epoll data of the socket.
+ *
+ */
+static void __watchSocket(int epfd, int fd, unsigned int *current, unsigned int wanted, unsigned long long data)
+{
+	if (*current == wanted || (*current == DETACHED && wanted == 0))
+		return;
+	struct epoll_event event;
+	memset(&event, 0, sizeof(event));
+	event.events = wanted;
+	event.data.u64 = data;
+	epoll_ctl(epfd, *current == DETACHED ? EPOLL_CTL_ADD : EPOLL_CTL_MOD, fd, &event);
+	*current = wanted;
+}
+
+/**
+ * Start with no sessions and no limits.
+ */
+CVSRelay::CVSRelay()
+{
+	memset(m_sessions, 0, sizeof(m_sessions));
+	m_serial = 0;
+	m_cursor = 0;
+	m_sessionRate = 0;
+	m_totalRate = 0;
+	m_tokens = 0;
+	m_refilled = __uptimeMillis();
+	m_epoll = -1;
+	m_wakePipe[0] = m_wakePipe[1] = -1;
+	pthread_mutex_init(&m_mutex, NULL);
+	m_isRunning = false;
+	m_isStopping = false;
+}
+
+/**
+ * Stop the thread before the fields go away.
+ */
+CVSRelay::~CVSRelay()
+{
+	stop();
+	pthread_mutex_destroy(&m_mutex);
+}
+
+/**
+ * The buckets are filled up, so the new limits apply from now on.
+ */
+void CVSRelay::configure(int sessionRate, int totalRate)
+{
+	pthread_mutex_lock(&m_mutex);
+	m_sessionRate = sessionRate > 0 ? sessionRate : 0;
+	m_totalRate = totalRate > 0 ? totalRate : 0;
+	m_tokens = __bucketSize(m_totalRate);
+	for (int i = 0; i < MAX_RELAYS; ++i)
+		m_sessions[i].tokens = __bucketSize(m_sessionRate);
+	pthread_mutex_unlock(&m_mutex);
+	if (m_wakePipe[1] >= 0)
+		write(m_wakePipe[1], "", 1);
+}
+
+/**
+ * A finished session which is never collected gives its slot to the new one,
+ * the oldest one first.
+ */
+bool CVSRelay::add(int client, int peer, int watch, pid_t worker)
+{
+	pthread_mutex_lock(&m_mutex);
+
+	// The thread, its epoll instance and the wake up pipe are kept once they
+	// are created.
+	if (!m_isRunning) {
+		if (m_epoll < 0)
+			m_epoll = epoll_create(MAX_EVENTS);
+		if (m_wakePipe[0] < 0 && pipe(m_wakePipe) == 0) {
+			fcntl(m_wakePipe[0], F_SETFL, O_NONBLOCK);
+			fcntl(m_wakePipe[1], F_SETFL, O_NONBLOCK);
+			fcntl(m_wakePipe[0], F_SETFD, FD_CLOEXEC);
+			fcntl(m_wakePipe[1], F_SETFD, FD_CLOEXEC);
+			struct epoll_event event;
+			memset(&event, 0, sizeof(event));
+			event.events = EPOLLIN;
+			event.data.u64 = WAKE_DATA;
+			epoll_ctl(m_epoll, EPOLL_CTL_ADD, m_wakePipe[0], &event);
+		}
+		m_isStopping = false;
+		m_isRunning = m_epoll >= 0 && m_wakePipe[0] >= 0 &&
+			pthread_create(&m_thread, NULL, relayThreadFunc, this) == 0;
+	}
+
+	int index = -1;
+	for (int i = 0; m_isRunning && i < MAX_RELAYS; ++i) {
+		const Session &session = m_sessions[i];
+		if (!session.isUsed) {
+			index = i;
+			break;
+		}
+		if (!session.isActive && (index < 0 || session.serial - m_sessions[index].serial > 0x80000000U))
+			index = i;
+	}
+	if (index < 0) {
+		pthread_mutex_unlock(&m_mutex);
+		::close(client);
+		::close(peer);
+		::close(watch);
+		return false;
+	}
+
+	Session *session = &m_sessions[index];
+	memset(session, 0, sizeof(Session));
+	session->isUsed = true;
+	session->isActive = true;
+	session->worker = worker;
+	session->client = client;
+	session->peer = peer;
+	session->watch = watch;
+	session->clientEvents = session->peerEvents = DETACHED;
+	session->tokens = __bucketSize(m_sessionRate);
+	session->serial = m_serial++;
+
+	// Without a pipe the bytes of the direction are copied.
+	Direction *dirs[2] = { &session->up, &session->down };
+	for (int i = 0; i < 2; ++i) {
+		if (pipe(dirs[i]->pipe) == 0) {
+			fcntl(dirs[i]->pipe[0], F_SETFD, FD_CLOEXEC);
+			fcntl(dirs[i]->pipe[1], F_SETFD, FD_CLOEXEC);
+		} else {
+			dirs[i]->pipe[0] = dirs[i]->pipe[1] = -1;
+			dirs[i]->buffer = (char *)malloc(RELAY_QUANTUM);
+		}
+	}
+	fcntl(client, F_SETFL, fcntl(client, F_GETFL) | O_NONBLOCK);
+	fcntl(peer, F_SETFL, fcntl(peer, F_GETFL) | O_NONBLOCK);
+	fcntl(peer, F_SETFD, FD_CLOEXEC);
+	fcntl(watch, F_SETFD, FD_CLOEXEC);
+	__watchSocket(m_epoll, client, &session->clientEvents, EPOLLIN, index * 2);
+	__watchSocket(m_epoll, peer, &session->peerEvents, EPOLLIN, index * 2 + 1);
+	pthread_mutex_unlock(&m_mutex);
+
+	write(m_wakePipe[1], "", 1);
+	return true;
+}
+
+/**
+ * A session still moving bytes is left to the relay thread, which forgets it
+ * once it is finished.
+ */
+bool CVSRelay::finish(pid_t worker, unsigned long long *bytesIn, unsigned long long *bytesOut)
+{
+	pthread_mutex_lock(&m_mutex);
+	bool result = false;
+	for (int i = 0; i < MAX_RELAYS; ++i) {
+		Session &session = m_sessions[i];
+		if (!session.isUsed || session.isOrphan || session.worker != worker)
+			continue;
+		*bytesIn = session.up.bytes;
+		*bytesOut = session.down.bytes;
+		if (session.isActive)
+			session.isOrphan = true;
+		else
+			session.isUsed = false;
+		result = true;
+		break;
+	}
+	pthread_mutex_unlock(&m_mutex);
+	return result;
+}
+
+/**
+ * The relayed sessions are cut, their CVS processes see the end of the
+ * socket pair.
+ */
+void CVSRelay::stop(void)
+{
+	pthread_mutex_lock(&m_mutex);
+	bool running = m_isRunning;
+	m_isStopping = true;
+	pthread_mutex_unlock(&m_mutex);
+	if (running) {
+		write(m_wakePipe[1], "", 1);
+		pthread_join(m_thread, NULL);
+	}
+
+	pthread_mutex_lock(&m_mutex);
+	m_isRunning = false;
+	for (int i = 0; i < MAX_RELAYS; ++i) {
+		if (m_sessions[i].isUsed && m_sessions[i].isActive)
+			release(&m_sessions[i]);
+		m_sessions[i].isUsed = false;
+	}
+	if (m_epoll >= 0)
+		::close(m_epoll);
+	if (m_wakePipe[0] >= 0) {
+		::close(m_wakePipe[0]);
+		::close(m_wakePipe[1]);
+	}
+	m_epoll = m_wakePipe[0] = m_wakePipe[1] = -1;
+	pthread_mutex_unlock(&m_mutex);
+}
+
+/**
+ * The source is only read when the pending bytes are all written, so the
+ * bytes read are what the buckets allow at that time. The tokens are taken
+ * for the bytes written.
+ */
+bool CVSRelay::pump(Session *session, Direction *dir, int src, int dst)
+{
+	bool moved = false;
+	if (dir->pending == 0 && !dir->isEof) {
+		int allowed = allowance(session);
+		ssize_t size = 0;
+		if (allowed > 0) {
+			size = dir->buffer != NULL ? read(src, dir->buffer, allowed) : __splice(src, dir->pipe[1], allowed);
+			if (size < 0 && dir->buffer == NULL && (errno == EINVAL || errno == ENOSYS)) {
+				// The kernel can not splice this socket.
+				dir->buffer = (char *)malloc(RELAY_QUANTUM);
+				if (dir->buffer == NULL)
+					settle(session, true);
+				return true;
+			}
+			if (size < 0 && errno != EAGAIN && errno != EINTR) {
+				settle(session, true);
+				return true;
+			}
+		}
+		if (allowed > 0 && size >= 0) {
+			dir->offset = 0;
+			dir->pending = size;
+			dir->isEof = size == 0;
+			moved = true;
+		}
+	}
+
+	if (dir->pending > 0) {
+		ssize_t size = dir->buffer != NULL ?
+			send(dst, dir->buffer + dir->offset, dir->pending, MSG_NOSIGNAL) :
+			__splice(dir->pipe[0], dst, dir->pending);
+		if (size < 0 && errno != EAGAIN && errno != EINTR) {
+			settle(session, true);
+			return true;
+		}
+		if (size > 0) {
+			dir->offset += size;
+			dir->pending -= size;
+			dir->bytes += size;
+			if (m_sessionRate > 0)
+				session->tokens -= size * 1000LL;
+			if (m_totalRate > 0)
+				m_tokens -= size * 1000LL;
+			moved = true;
+		}
+	}
+	return moved;
+}
+
+/**
+ * The end of the client is passed to the CVS process, the session is finished
+ * with the end of the CVS process once its bytes are all sent.
+ */
+void CVSRelay::settle(Session *session, bool broken)
+{
+	if (!broken) {
+		if (session->up.isEof && session->up.pending == 0 && !session->up.isShut) {
+			shutdown(session->peer, SHUT_WR);
+			session->up.isShut = true;
+		}
+		if (!session->down.isEof || session->down.pending > 0)
+			return;
+		shutdown(session->client, SHUT_WR);
+	}
+	release(session);
+	if (session->isOrphan)
+		session->isUsed = false;
+}
+
+/**
+ * Closing the sockets takes them out of the epoll set too. The worker reads
+ * the counters from the watched pipe and reports the session.
+ */
+void CVSRelay::release(Session *session)
+{
+	unsigned long long counters[2] = { session->up.bytes, session->down.bytes };
+	write(session->watch, counters, sizeof(counters));
+	::close(session->client);
+	::close(session->peer);
+	::close(session->watch);
+	Direction *dirs[2] = { &session->up, &session->down };
+	for (int i = 0; i < 2; ++i) {
+		if (dirs[i]->pipe[0] >= 0) {
+			::close(dirs[i]->pipe[0]);
+			::close(dirs[i]->pipe[1]);
+		}
+		free(dirs[i]->buffer);
+		dirs[i]->buffer = NULL;
+	}
+	session->isActive = false;
+}
+
+/**
+ * A limit of 0 gives a whole quantum.
+ */
+int CVSRelay::allowance(Session *session)
+{
+	long long allowed = RELAY_QUANTUM;
+	if (m_sessionRate > 0 && session->tokens / 1000 < allowed)
+		allowed = session->tokens / 1000;
+	if (m_totalRate > 0 && m_tokens / 1000 < allowed)
+		allowed = m_tokens / 1000;
+	return allowed > 0 ? (int)allowed : 0;
+}
+
+/**
+ * The buckets never hold more than their size.
+ */
+void CVSRelay::refill(void)
+{
+	unsigned long long now = __uptimeMillis();
+	long long elapsed = (long long)(now - m_refilled);
+	if (elapsed <= 0)
+		return;
+	m_refilled = now;
+	if (m_totalRate > 0) {
+		m_tokens += m_totalRate * elapsed;
+		if (m_tokens > __bucketSize(m_totalRate))
+			m_tokens = __bucketSize(m_totalRate);
+	}
+	if (m_sessionRate > 0) {
+		long long size = __bucketSize(m_sessionRate);
+		for (int i = 0; i < MAX_RELAYS; ++i) {
+			Session &session = m_sessions[i];
+			if (!session.isActive)
+				continue;
+			session.tokens += m_sessionRate * elapsed;
+			if (session.tokens > size)
+				session.tokens = size;
+		}
+	}
+}
+
+/**
+ * A throttled session does not watch its sources, so epoll does not wake the
+ * thread for bytes it can not move. It waits for a quarter of a quantum of
+ * tokens instead.
+ */
+int CVSRelay::watch(Session *session)
+{
+	bool throttled = allowance(session) <= 0;
+	bool upReads = !throttled && session->up.pending == 0 && !session->up.isEof;
+	bool downReads = !throttled && session->down.pending == 0 && !session->down.isEof;
+	unsigned int index = session - m_sessions;
+	unsigned int clientEvents = 0, peerEvents = 0;
+	if (upReads)
+		clientEvents |= EPOLLIN;
+	if (session->down.pending > 0)
+		clientEvents |= EPOLLOUT;
+	if (downReads)
+		peerEvents |= EPOLLIN;
+	if (session->up.pending > 0)
+		peerEvents |= EPOLLOUT;
+	__watchSocket(m_epoll, session->client, &session->clientEvents, clientEvents, index * 2);
+	__watchSocket(m_epoll, session->peer, &session->peerEvents, peerEvents, index * 2 + 1);
+	if (!throttled)
+		return -1;
+
+	long long needed = RELAY_QUANTUM / 4 * 1000LL;
+	int wait = 1;
+	if (m_sessionRate > 0 && session->tokens < needed)
+		wait = (int)((needed - session->tokens) / m_sessionRate);
+	if (m_totalRate > 0 && m_tokens < needed && (needed - m_tokens) / m_totalRate > wait)
+		wait = (int)((needed - m_tokens) / m_totalRate);
+	return wait < 1 ? 1 : wait > 1000 ? 1000 : wait;
+}
+
+/**
+ * Serve the sessions round-robin until nothing moves, then wait for the
+ * sockets or the tokens. The first session of the rounds moves on each time,
+ * so none is always served first.
+ */
+void* CVSRelay::relayThreadFunc(void *param)
+{
+	CVSRelay *relay = (CVSRelay *)param;
+
+	// A splice to a closed socket raises SIGPIPE, it can not be suppressed by
+	// MSG_NOSIGNAL, so the signal is blocked and EPIPE is returned instead.
+	sigset_t signals;
+	sigemptyset(&signals);
+	sigaddset(&signals, SIGPIPE);
+	pthread_sigmask(SIG_BLOCK, &signals, NULL);
+
+	pthread_mutex_lock(&relay->m_mutex);
+	while (!relay->m_isStopping) {
+		for (int round = 0; round < MAX_ROUNDS; ++round) {
+			relay->refill();
+			bool moved = false;
+			for (int i = 0; i < MAX_RELAYS; ++i) {
+				Session *session = &relay->m_sessions[(relay->m_cursor + i) % MAX_RELAYS];
+				if (!session->isActive)
+					continue;
+				if (relay->pump(session, &session->up, session->client, session->peer))
+					moved = true;
+				if (session->isActive && relay->pump(session, &session->down, session->peer, session->client))
+					moved = true;
+				if (session->isActive)
+					relay->settle(session, false);
+			}
+			relay->m_cursor = (relay->m_cursor + 1) % MAX_RELAYS;
+			if (!moved)
+				break;
+		}
+
+		int timeout = -1;
+		for (int i = 0; i < MAX_RELAYS; ++i) {
+			Session *session = &relay->m_sessions[i];
+			if (!session->isActive)
+				continue;
+			int wait = relay->watch(session);
+			if (wait >= 0 && (timeout < 0 || wait < timeout))
+				timeout = wait;
+		}
+		pthread_mutex_unlock(&relay->m_mutex);
+
+		struct epoll_event events[MAX_EVENTS];
+		int count = epoll_wait(relay->m_epoll, events, MAX_EVENTS, timeout);
+
+		pthread_mutex_lock(&relay->m_mutex);
+		for (int i = 0; i < count; ++i) {
+			unsigned long long data = events[i].data.u64;
+			if (data == WAKE_DATA) {
+				char bytes[16];
+				while (read(relay->m_wakePipe[0], bytes, sizeof(bytes)) > 0)
+					continue;
+				continue;
+			}
+
+			// A hung up socket is reported even if no event is watched, it
+			// is taken out until the session watches it again.
+			Session *session = &relay->m_sessions[data / 2];
+			int fd = data % 2 ? session->peer : session->client;
+			unsigned int *current = data % 2 ? &session->peerEvents : &session->clientEvents;
+			if (session->isActive && *current == 0 && (events[i].events & (EPOLLHUP | EPOLLERR))) {
+				epoll_ctl(relay->m_epoll, EPOLL_CTL_DEL, fd, NULL);
+				*current = DETACHED;
+			}
+		}
+	}
+	pthread_mutex_unlock(&relay->m_mutex);
+	return NULL;
+}
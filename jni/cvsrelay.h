@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	jni/cvsrelay.h
+ * @author	Eric.Tsai
+ *
+ */
+
+#ifndef __CVSRELAY_H__
+#define __CVSRELAY_H__
+
+#include <sys/types.h>
+#include <pthread.h>
+
+#include "cvspool.h"
+
+/** Max count of relayed sessions, running or waiting to be collected. */
+#define MAX_RELAYS			(MAX_WORKERS * 2)
+
+/** Most bytes moved for a session in one round of the relay. */
+#define RELAY_QUANTUM		16384
+
+/**
+ * \class CVSRelay
+ *
+ * CVSRelay moves the bytes between the client sockets and the CVS processes
+ * on a thread of its own, so the bandwidth of the sessions can be shaped. The
+ * CVS process gets one end of a UNIX socket pair instead of the client socket
+ * and the relay thread splices the data through a pipe in each direction, so
+ * the bytes are never copied to the user space. Kernels which can not splice
+ * a UNIX socket get a plain copy.
+ *
+ * Each session and the relay as a whole have a token bucket, the two
+ * directions share them as they share the air time of the Wi-Fi link. The
+ * sessions are served round-robin, at most RELAY_QUANTUM bytes each per
+ * round, so a big checkout can not starve the small requests of the others.
+ *
+ */
+class CVSRelay {
+public:
+	/**
+	 * Constructor.
+	 *
+	 */
+	CVSRelay();
+	/**
+	 * Destructor, the relayed sessions are closed.
+	 *
+	 */
+	~CVSRelay();
+private:
+	/** Hidden copy constructor. */
+	CVSRelay(const CVSRelay &other);
+	/** Hidden assign operator. */
+	CVSRelay& operator =(const CVSRelay &other);
+public:
+	/**
+	 * Set the bandwidth limits, the running sessions get them at once.
+	 *
+	 * @param	sessionRate	Bytes per second of each session, 0 for no limit.
+	 * @param	totalRate	Bytes per second of all the sessions, 0 for no
+	 * 						limit.
+	 *
+	 */
+	void configure(int sessionRate, int totalRate);
+	/**
+	 * Start relaying a session, the relay thread is started with the first
+	 * one. The sockets and the pipe are owned by the relay then.
+	 *
+	 * @param	client	The client socket.
+	 * @param	peer	The end of the socket pair which is not passed to the
+	 * 					CVS process.
+	 * @param	watch	Write end of the pipe watched by the worker, the byte
+	 * 					counters are written to it when all the bytes have
+	 * 					reached the client, and it is closed then.
+	 * @param	worker	PID of the worker serving the session.
+	 *
+	 * @return			Return true if the session is relayed, otherwise
+	 * 					return false and the descriptors are closed.
+	 *
+	 */
+	bool add(int client, int peer, int watch, pid_t worker);
+	/**
+	 * Collect the byte counters of a session and forget it. The worker
+	 * reports the session after the relay has closed the watched pipe, so
+	 * the counters are final by then.
+	 *
+	 * @param	worker		PID of the worker serving the session.
+	 * @param	bytesIn		Buffer to hold the bytes received from the client.
+	 * @param	bytesOut	Buffer to hold the bytes sent to the client.
+	 *
+	 * @return				Return true if the session is relayed, otherwise
+	 * 						return false.
+	 *
+	 */
+	bool finish(pid_t worker, unsigned long long *bytesIn, unsigned long long *bytesOut);
+	/**
+	 * Stop the relay thread and close the relayed sessions.
+	 *
+	 */
+	void stop(void);
+private:
+	/** One direction of a session. */
+	struct Direction {
+		/** The pipe the bytes are spliced through. */
+		int pipe[2];
+		/** Buffer the bytes are copied through, NULL while splicing. */
+		char *buffer;
+		/** Offset of the pending bytes in the buffer. */
+		int offset;
+		/** Bytes read from the source and not written to the target yet. */
+		int pending;
+		/** Whether the source is at its end. */
+		bool isEof;
+		/** Whether the end is passed to the target. */
+		bool isShut;
+		/** Bytes written to the target. */
+		unsigned long long bytes;
+	};
+	/** A relayed session. */
+	struct Session {
+		/** Whether the slot is used. */
+		bool isUsed;
+		/** Whether the bytes are moving, the counters are final otherwise. */
+		bool isActive;
+		/** Whether the session is collected while it is still active. */
+		bool isOrphan;
+		/** PID of the worker. */
+		pid_t worker;
+		/** The client socket. */
+		int client;
+		/** The relay end of the socket pair. */
+		int peer;
+		/** Write end of the pipe watched by the worker. */
+		int watch;
+		/** Events watched on the client socket and on the peer. */
+		unsigned int clientEvents, peerEvents;
+		/** Tokens of the session in thousandths of a byte. */
+		long long tokens;
+		/** Serial number of the session, the oldest one is evicted first. */
+		unsigned int serial;
+		/** From the client to the CVS process. */
+		Direction up;
+		/** From the CVS process to the client. */
+		Direction down;
+	};
+	/**
+	 * Move the bytes of one direction, at most what the buckets allow.
+	 *
+	 * @param	session	The session.
+	 * @param	dir		The direction.
+	 * @param	src		The socket read from.
+	 * @param	dst		The socket written to.
+	 *
+	 * @return			Return true if anything has changed.
+	 *
+	 */
+	bool pump(Session *session, Direction *dir, int src, int dst);
+	/**
+	 * Pass the ends of the directions on and close the finished session.
+	 *
+	 * @param	session	The session.
+	 * @param	broken	Whether a socket is broken.
+	 *
+	 */
+	void settle(Session *session, bool broken);
+	/**
+	 * Close the sockets and the pipes of a session, its counters are kept
+	 * until it is collected.
+	 *
+	 * @param	session	The session.
+	 *
+	 */
+	void release(Session *session);
+	/**
+	 * Get how many bytes the buckets allow the session to move now.
+	 *
+	 * @param	session	The session.
+	 *
+	 * @return			The bytes, at most RELAY_QUANTUM.
+	 *
+	 */
+	int allowance(Session *session);
+	/**
+	 * Add the tokens earned since the last refill.
+	 *
+	 */
+	void refill(void);
+	/**
+	 * Watch the events the session is waiting for, and get how long it has to
+	 * wait for the tokens.
+	 *
+	 * @param	session	The session.
+	 *
+	 * @return			Milliseconds to wait for the tokens, -1 if the
+	 * 					session is not waiting for them.
+	 *
+	 */
+	int watch(Session *session);
+	/** Relay thread function. */
+	static void* relayThreadFunc(void *param);
+private:
+	/** The sessions. */
+	Session m_sessions[MAX_RELAYS];
+	/** Serial number of the next session. */
+	unsigned int m_serial;
+	/** Session served first by the next round. */
+	int m_cursor;
+	/** Bytes per second of each session, 0 for no limit. */
+	int m_sessionRate;
+	/** Bytes per second of all the sessions, 0 for no limit. */
+	int m_totalRate;
+	/** Tokens of all the sessions in thousandths of a byte. */
+	long long m_tokens;
+	/** Monotonic time of the last refill in milliseconds. */
+	unsigned long long m_refilled;
+	/** The epoll instance of the relay thread. */
+	int m_epoll;
+	/** Pipe used to wake up the relay thread. */
+	int m_wakePipe[2];
+	/** Mutex to protect the sessions. */
+	pthread_mutex_t m_mutex;
+	/** The relay thread. */
+	pthread_t m_thread;
+	/** Whether the relay thread is running. */
+	bool m_isRunning;
+	/** Whether the relay thread should exit. */
+	volatile bool m_isStopping;
+};
+
+#endif//__CVSRELAY_H__
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	jni/cvsroot.cpp
+ * @author	Eric.Tsai
+ *
+ */
+
+#include "cvsroot.h"
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <errno.h>
+#include <unistd.h>
+#include <sys/stat.h>
+#include <sys/wait.h>
+
+/**
+ * Check whether the specified path is a directory.
+ *
+ * @param	path	The path.
+ *
+ * @return			1 if it is a directory, 0 if it does not exist, -1 if it
+ * 					is something else or cannot be checked.
+ *
+ */
+static int __isDirectory(const char *path)
+{
+	struct stat statbuf;
+	if (stat(path, &statbuf) < 0)
+		return errno == ENOENT ? 0 : -1;
+	return S_ISDIR(statbuf.st_mode) ? 1 : -1;
+}
+
+/**
+ * Make the directory unless it exists.
+ *
+ * @param	path	The path.
+ *
+ * @return			Return true if the directory exists now.
+ *
+ */
+static bool __makeDirectory(const char *path)
+{
+	return (mkdir(path, 0700) == 0 || errno == EEXIST) && __isDirectory(path) > 0;
+}
+
+/**
+ * Initial the root and the CVS repository.
+ */
+CVSRoot::CVSRoot(const char *repoPath, const char *tempPath, const char *execPath)
+{
+	strncpy(m_repoPath, repoPath, sizeof(m_repoPath) - 1);
+	m_repoPath[sizeof(m_repoPath) - 1] = 0;
+	for (int length = strlen(m_repoPath); length > 1 && m_repoPath[length - 1] == '/';)
+		m_repoPath[--length] = 0;
+
+	m_isInitialized = false;
+	m_isCreated = false;
+	m_isRetired = false;
+	m_maxSessions = 0;
+	m_activeCount = 0;
+	m_queuedCount = 0;
+
+	m_auth.setRepository(m_repoPath);
+	m_index.setRepository(m_repoPath);
+
+	// The sessions get their temporary files here, with no quota by default.
+	m_temp.configure(tempPath, 0);
+
+	// Load the users, there are none if the repository is not initialized.
+	m_users.load(m_repoPath);
+
+	// Check repository status.
+	char cvsroot[MAX_TEMP_PATH + 16];
+	snprintf(cvsroot, sizeof(cvsroot), "%s/CVSROOT", m_repoPath);
+	int status = __isDirectory(m_repoPath);
+	if (status > 0)
+		status = __isDirectory(cvsroot);
+	if (status < 0)
+		return;
+	if (status > 0) {
+		m_isInitialized = true;
+		return;
+	}
+
+	// Invoke "cvs -d <repo> init" command.
+	pid_t pid = fork();
+	if (pid == 0) {
+		execl(execPath, "cvs", "-d", m_repoPath, "init", NULL);
+		exit(1);
+	}
+	if (pid < 0)
+		return;
+
+	// The SIGCHLD reaper of a running daemon may get the exit status first,
+	// the CVSROOT directory tells the result then.
+	int exitStatus = 0;
+	if (waitpid(pid, &exitStatus, 0) < 0) {
+		if (errno != ECHILD || __isDirectory(cvsroot) <= 0)
+			return;
+	} else if (exitStatus != 0) {
+		return;
+	}
+	m_isInitialized = true;
+	m_isCreated = true;
+}
+
+/**
+ * The sweeper thread of the temporary area is stopped by its destructor.
+ */
+CVSRoot::~CVSRoot()
+{
+}
+
+/**
+ * Just return the flag.
+ */
+bool CVSRoot::isInitialized(void)
+{
+	return m_isInitialized;
+}
+
+/**
+ * Just return the flag.
+ */
+bool CVSRoot::isCreated(void)
+{
+	return m_isCreated;
+}
+
+/**
+ * Compare the paths without the trailing slashes.
+ */
+bool CVSRoot::matches(const char *repoPath)
+{
+	int length = strlen(repoPath);
+	while (length > 1 && repoPath[length - 1] == '/')
+		--length;
+	return (int)strlen(m_repoPath) == length && strncmp(m_repoPath, repoPath, length) == 0;
+}
+
+/**
+ * Just save the cap, it is read by the daemon thread.
+ */
+void CVSRoot::setMaxSessions(int maxSessions)
+{
+	m_maxSessions = maxSessions < 0 ? 0 : maxSessions > MAX_WORKERS ? MAX_WORKERS : maxSessions;
+}
+
+/**
+ * Called by the daemon thread only.
+ */
+bool CVSRoot::hasFreeSlot(void)
+{
+	return m_maxSessions <= 0 || m_activeCount < m_maxSessions;
+}
+
+/**
+ * The other lines of the config file are kept, the file is only rewritten if
+ * the LockDir changes, and is replaced the way CVSUserStore replaces passwd.
+ * CVS reads the config file at the start of each session.
+ */
+bool CVSRoot::setLockDir(const char *lockPath)
+{
+	if (!m_isInitialized)
+		return false;
+
+	// The locks of each repository get their own directory.
+	char lockDir[MAX_TEMP_PATH + 16] = "";
+	if (lockPath[0] != 0) {
+		unsigned int hash = 5381;
+		for (const char *p = m_repoPath; *p != 0; ++p)
+			hash = hash * 33 + (unsigned char)*p;
+		snprintf(lockDir, sizeof(lockDir), "%s/%08x", lockPath, hash);
+		if (!__makeDirectory(lockPath) || !__makeDirectory(lockDir))
+			return false;
+	}
+
+	char filename[sizeof(m_repoPath) + 24];
+	char tempname[sizeof(m_repoPath) + 24];
+	snprintf(filename, sizeof(filename), "%s/CVSROOT/config", m_repoPath);
+	snprintf(tempname, sizeof(tempname), "%s/CVSROOT/,config,", m_repoPath);
+
+	// Copy the config without its LockDir lines.
+	FILE *in = fopen(filename, "r");
+	if (in == NULL && errno != ENOENT)
+		return false;
+	FILE *out = fopen(tempname, "w");
+	if (out == NULL) {
+		if (in != NULL)
+			fclose(in);
+		return false;
+	}
+	char line[MAX_TEMP_PATH + 32];
+	char current[MAX_TEMP_PATH + 16] = "";
+	bool isLineEnded = true;
+	while (in != NULL && fgets(line, sizeof(line), in) != NULL) {
+		if (strncmp(line, "LockDir=", 8) != 0) {
+			fputs(line, out);
+			isLineEnded = line[strlen(line) - 1] == '\n';
+			continue;
+		}
+		strncpy(current, line + 8, sizeof(current) - 1);
+		current[strcspn(current, "\r\n")] = 0;
+	}
+	if (in != NULL)
+		fclose(in);
+	if (strcmp(current, lockDir) == 0) {
+		fclose(out);
+		unlink(tempname);
+		return true;
+	}
+	if (lockDir[0] != 0)
+		fprintf(out, "%sLockDir=%s\n", isLineEnded ? "" : "\n", lockDir);
+	bool written = fflush(out) == 0 && fsync(fileno(out)) == 0;
+	if (fclose(out) != 0)
+		written = false;
+	if (!written || rename(tempname, filename) < 0) {
+		unlink(tempname);
+		return false;
+	}
+	return true;
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	jni/cvsroot.h
+ * @author	Eric.Tsai
+ *
+ */
+
+#ifndef __CVSROOT_H__
+#define __CVSROOT_H__
+
+#include "cvsstat.h"
+#include "cvsauth.h"
+#include "cvsuser.h"
+#include "cvsindex.h"
+#include "cvstemp.h"
+
+/** Max count of repositories served by one daemon. */
+#define MAX_ROOTS	8
+
+/**
+ * \struct CVSRootInfo
+ *
+ * A repository served by the CVS daemon and its counters.
+ *
+ */
+struct CVSRootInfo {
+	/** CVS repository path. */
+	char path[MAX_TEMP_PATH];
+	/** Max count of concurrent sessions, 0 for no cap of its own. */
+	int maxSessions;
+	/** Counters of the sessions of the repository, indexed by STAT_*. */
+	unsigned long long counters[STAT_COUNT];
+};
+
+/**
+ * \class CVSRoot
+ *
+ * CVSRoot is one repository served by the CVS daemon. It has its own users,
+ * authenticator, head revision index, temporary area, session cap and
+ * counters, so the teams working in different repositories share nothing but
+ * the listener and the worker pool. The CVS locks live in the directories of
+ * the repository, so each root has its own locks as well.
+ *
+ * The roots are owned by CVSService. The admission counts are touched by the
+ * daemon thread only, with the root table of CVSService locked.
+ *
+ */
+class CVSRoot {
+	friend class CVSService;
+public:
+	/**
+	 * Constructor. The repository is initialized with "cvs init" if it does
+	 * not exist.
+	 *
+	 * @param	repoPath	Path of the CVS repository.
+	 * @param	tempPath	Path of the temporary directory.
+	 * @param	execPath	Path of the CVS executable.
+	 *
+	 */
+	CVSRoot(const char *repoPath, const char *tempPath, const char *execPath);
+	/**
+	 * Destructor.
+	 *
+	 */
+	~CVSRoot();
+private:
+	/** Hidden copy constructor. */
+	CVSRoot(const CVSRoot &other);
+	/** Hidden assign operator. */
+	CVSRoot& operator =(const CVSRoot &other);
+public:
+	/**
+	 * Check whether the repository is usable.
+	 *
+	 * @return		Return true if the repository is initialized, otherwise
+	 * 				return false.
+	 *
+	 */
+	bool isInitialized(void);
+	/**
+	 * Check whether the repository has just been created by the constructor,
+	 * so it has no users yet.
+	 *
+	 * @return		Return true if the repository is new.
+	 *
+	 */
+	bool isCreated(void);
+	/**
+	 * Check whether the root is the specified repository.
+	 *
+	 * @param	repoPath	Path of a CVS repository, trailing slashes are
+	 * 						ignored.
+	 *
+	 * @return				Return true if the paths are the same.
+	 *
+	 */
+	bool matches(const char *repoPath);
+	/**
+	 * Set the max count of concurrent sessions of the root, 0 for no cap but
+	 * the one of the daemon.
+	 *
+	 * @param	maxSessions	The cap.
+	 *
+	 */
+	void setMaxSessions(int maxSessions);
+	/**
+	 * Check whether another session of the root may be started.
+	 *
+	 * @return		Return true if the root is under its cap.
+	 *
+	 */
+	bool hasFreeSlot(void);
+	/**
+	 * Move the lock files of the sessions out of the repository, with the
+	 * LockDir option of CVSROOT/config. The locks of the repository go to a
+	 * subdirectory of the lock area named by the hash of its path, as CVS
+	 * mirrors the directories of the repository under the LockDir.
+	 *
+	 * @param	lockPath	Path of the lock area, an empty string to keep the
+	 * 						locks in the repository.
+	 *
+	 * @return				Return true if success, otherwise return false.
+	 *
+	 */
+	bool setLockDir(const char *lockPath);
+private:
+	/** CVS repository path, without trailing slashes. */
+	char m_repoPath[MAX_TEMP_PATH];
+	/** Flag to indicate whether the repository is initialized. */
+	bool m_isInitialized;
+	/** Flag to indicate whether the repository is created by the constructor. */
+	bool m_isCreated;
+	/** Flag to indicate whether the root is removed and waits to be deleted. */
+	bool m_isRetired;
+	/** Max count of concurrent sessions, 0 for no cap. */
+	volatile int m_maxSessions;
+	/** Count of sessions being served. */
+	int m_activeCount;
+	/** Count of clients waiting for a session slot. */
+	int m_queuedCount;
+	/** Head revisions of the RCS files of the repository. */
+	CVSHeadIndex m_index;
+	/** Temporary area of the CVS processes. */
+	CVSTempArea m_temp;
+	/** Users of the repository. */
+	CVSUserStore m_users;
+	/** Checker of the pserver authentication preamble. */
+	CVSAuthenticator m_auth;
+	/** Counters of the sessions of the repository. */
+	CVSStats m_stats;
+};
+
+#endif//__CVSROOT_H__
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	jni/cvssess.cpp
+ * @author	Eric.Tsai
+ *
+ */
+
+#include "cvssess.h"
+
+#include <string.h>
+#include <signal.h>
+
+/**
+ * Clear the table.
+ */
+CVSSessionTable::CVSSessionTable()
+{
+	memset(m_sessions, 0, sizeof(m_sessions));
+	m_next = m_count = 0;
+	pthread_mutex_init(&m_mutex, NULL);
+}
+
+/**
+ * Destroy the mutex.
+ */
+CVSSessionTable::~CVSSessionTable()
+{
+	pthread_mutex_destroy(&m_mutex);
+}
+
+/**
+ * Take the next slot of the ring buffer. An active session is never
+ * overwritten, if all slots are active the session is not recorded.
+ */
+void CVSSessionTable::onDispatched(pid_t worker, const char *address)
+{
+	pthread_mutex_lock(&m_mutex);
+	for (int i = 0; i < MAX_SESSIONS; ++i) {
+		CVSSession &session = m_sessions[m_next];
+		m_next = (m_next + 1) % MAX_SESSIONS;
+		if (session.active)
+			continue;
+		memset(&session, 0, sizeof(session));
+		session.worker = worker;
+		strncpy(session.address, address, MAX_ADDRESS - 1);
+		session.started = time(NULL);
+		session.active = true;
+		session.status = -1;
+		if (m_count < MAX_SESSIONS)
+			++m_count;
+		break;
+	}
+	pthread_mutex_unlock(&m_mutex);
+}
+
+/**
+ * Save the PID of a started session, or the resource usage of a finished one.
+ */
+void CVSSessionTable::onReport(const CVSReport *report)
+{
+	pthread_mutex_lock(&m_mutex);
+	CVSSession *session = findActive(report->worker);
+	if (session != NULL) {
+		switch (report->type) {
+		case REPORT_STARTED:
+			session->pid = report->pid;
+			break;
+		case REPORT_DONE:
+			session->pid = report->pid;
+			session->active = false;
+			session->status = report->status;
+			session->duration = report->duration;
+			session->userTime = report->userTime;
+			session->systemTime = report->systemTime;
+			session->maxRss = report->maxRss;
+			session->inBlocks = report->inBlocks;
+			session->outBlocks = report->outBlocks;
+			break;
+		default:
+			break;
+		}
+	}
+	pthread_mutex_unlock(&m_mutex);
+}
+
+/**
+ * Mark the session of the exited worker finished with unknown status.
+ */
+void CVSSessionTable::onWorkerExited(pid_t worker)
+{
+	pthread_mutex_lock(&m_mutex);
+	CVSSession *session;
+	while ((session = findActive(worker)) != NULL)
+		session->active = false;
+	pthread_mutex_unlock(&m_mutex);
+}
+
+/**
+ * Walk the ring buffer backward from the last used slot.
+ */
+int CVSSessionTable::snapshot(CVSSession *sessions, int max)
+{
+	pthread_mutex_lock(&m_mutex);
+	int count = m_count < max ? m_count : max;
+	for (int i = 0; i < count; ++i)
+		sessions[i] = m_sessions[(m_next - 1 - i + MAX_SESSIONS * 2) % MAX_SESSIONS];
+	pthread_mutex_unlock(&m_mutex);
+	return count;
+}
+
+/**
+ * Only the CVS processes of active sessions may be killed, so a stale PID
+ * never hits an unrelated process.
+ */
+bool CVSSessionTable::kill(pid_t pid)
+{
+	bool result = false;
+	pthread_mutex_lock(&m_mutex);
+	for (int i = 0; i < MAX_SESSIONS && pid > 0; ++i) {
+		if (!m_sessions[i].active || m_sessions[i].pid != pid)
+			continue;
+		result = ::kill(pid, SIGKILL) == 0;
+		break;
+	}
+	pthread_mutex_unlock(&m_mutex);
+	return result;
+}
+
+/**
+ * Linear search, the table is small.
+ */
+CVSSession* CVSSessionTable::findActive(pid_t worker)
+{
+	for (int i = 0; i < MAX_SESSIONS; ++i) {
+		if (m_sessions[i].active && m_sessions[i].worker == worker)
+			return &m_sessions[i];
+	}
+	return NULL;
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	jni/cvssess.h
+ * @author	Eric.Tsai
+ *
+ */
+
+#ifndef __CVSSESSIONTABLE_H__
+#define __CVSSESSIONTABLE_H__
+
+#include <sys/types.h>
+#include <time.h>
+#include <pthread.h>
+
+#include "cvspool.h"
+
+/** Max count of sessions kept by a CVSSessionTable. */
+#define MAX_SESSIONS	64
+
+/** Max length of a client address string. */
+#define MAX_ADDRESS		64
+
+/**
+ * \struct CVSSession
+ *
+ * Resource usage of an active or recently finished CVS session.
+ *
+ */
+struct CVSSession {
+	/** PID of the worker serving the session. */
+	pid_t worker;
+	/** PID of the CVS process, 0 if it is not started yet. */
+	pid_t pid;
+	/** Address of the client. */
+	char address[MAX_ADDRESS];
+	/** Wall clock time when the session is dispatched. */
+	time_t started;
+	/** Whether the session is still running. */
+	bool active;
+	/** Exit status of the CVS process. */
+	int status;
+	/** Duration of the session in milliseconds. */
+	unsigned int duration;
+	/** User CPU time in milliseconds. */
+	unsigned int userTime;
+	/** System CPU time in milliseconds. */
+	unsigned int systemTime;
+	/** Max resident set size in kilobytes. */
+	unsigned int maxRss;
+	/** Count of block input operations. */
+	unsigned int inBlocks;
+	/** Count of block output operations. */
+	unsigned int outBlocks;
+};
+
+/**
+ * \class CVSSessionTable
+ *
+ * CVSSessionTable keeps all active sessions and a bounded history of the
+ * finished ones. It is updated by the daemon thread and can be read or used to
+ * kill a session from other threads.
+ *
+ */
+class CVSSessionTable {
+public:
+	/**
+	 * Constructor.
+	 *
+	 */
+	CVSSessionTable();
+	/**
+	 * Destructor.
+	 *
+	 */
+	~CVSSessionTable();
+private:
+	/** Hidden copy constructor. */
+	CVSSessionTable(const CVSSessionTable &other);
+	/** Hidden assign operator. */
+	CVSSessionTable& operator =(const CVSSessionTable &other);
+public:
+	/**
+	 * Called when a client is dispatched to a worker.
+	 *
+	 * @param	worker	PID of the worker.
+	 * @param	address	Address of the client.
+	 *
+	 */
+	void onDispatched(pid_t worker, const char *address);
+	/**
+	 * Called when a worker reports the start or the end of a session.
+	 *
+	 * @param	report	The report of the worker.
+	 *
+	 */
+	void onReport(const CVSReport *report);
+	/**
+	 * Called when a worker exits. Its session, if any, is marked finished.
+	 *
+	 * @param	worker	PID of the worker.
+	 *
+	 */
+	void onWorkerExited(pid_t worker);
+	/**
+	 * Copy the sessions, the most recent one first.
+	 *
+	 * @param	sessions	Buffer to hold the sessions.
+	 * @param	max			Max count of sessions to copy.
+	 *
+	 * @return				Count of sessions copied.
+	 *
+	 */
+	int snapshot(CVSSession *sessions, int max);
+	/**
+	 * Kill the CVS process of an active session.
+	 *
+	 * @param	pid		PID of the CVS process.
+	 *
+	 * @return			Return true if the session is found and the signal is
+	 * 					sent, otherwise return false.
+	 *
+	 */
+	bool kill(pid_t pid);
+private:
+	/**
+	 * Find the active session served by the specified worker.
+	 *
+	 * @param	worker	PID of the worker.
+	 *
+	 * @return			The session, or NULL if not found.
+	 *
+	 */
+	CVSSession* findActive(pid_t worker);
+private:
+	/** Ring buffer of sessions. */
+	CVSSession m_sessions[MAX_SESSIONS];
+	/** Index of the next slot to use. */
+	int m_next;
+	/** Count of used slots. */
+	int m_count;
+	/** Mutex to protect the sessions. */
+	pthread_mutex_t m_mutex;
+};
+
+#endif//__CVSSESSIONTABLE_H__
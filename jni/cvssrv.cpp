@@ -31,39 +31,118 @@
 #include <sys/stat.h>
 #include <errno.h>
 #include <time.h>
-#include <ctype.h>
+#include <sys/time.h>
 #include <sys/wait.h>
-#include <pwd.h>
 #include <pthread.h>
 #include <signal.h>
-#include <sys/select.h>
+#include <fcntl.h>
+#include <sys/epoll.h>
 #include <sys/socket.h>
 #include <arpa/inet.h>
 
-/** External crypt function.*/
-extern "C" char* crypt (const char *__key, const char *__salt);
+/** Max count of events handled in one round of the daemon loop. */
+#define MAX_EVENTS	16
+
+/** Max count of clients accepted in one round of the daemon loop. */
+#define MAX_ACCEPTS	64
+
+/** Seconds a client has to send its authentication preamble. */
+#define AUTH_TIMEOUT	30
+
+#ifndef EPOLLRDHUP
+#define EPOLLRDHUP	0x2000
+#endif
+
+/** Write end of the reap pipe, used by the SIGCHLD handler. */
+static volatile int s_reapFd = -1;
 
 /**
- * Encrypt the specified key with a random salt.
+ * Format the specified socket address as "address:port".
  *
- * @param	key	The key which will be encrypted.
+ * @param	addr	The socket address.
+ * @param	buffer	Buffer to hold the string.
+ * @param	size	Size of the buffer.
  *
- * @return		The encrypted string.
+ * @return			The buffer.
  *
  */
-char* __crypt(const char *key)
+static char* __formatAddress(const struct sockaddr_storage *addr, char *buffer, int size)
 {
-	char salt[3] = { 0, 0, 0};
+	char host[INET6_ADDRSTRLEN];
+	int port = 0;
+	host[0] = 0;
+	if (addr->ss_family == AF_INET) {
+		const struct sockaddr_in *in = (const struct sockaddr_in *)addr;
+		inet_ntop(AF_INET, &in->sin_addr, host, sizeof(host));
+		port = ntohs(in->sin_port);
+	} else if (addr->ss_family == AF_INET6) {
+		const struct sockaddr_in6 *in6 = (const struct sockaddr_in6 *)addr;
+		inet_ntop(AF_INET6, &in6->sin6_addr, host, sizeof(host));
+		port = ntohs(in6->sin6_port);
+	}
+	snprintf(buffer, size, "%s:%d", host, port);
+	return buffer;
+}
 
-	srand(time(NULL));
+/**
+ * Get the monotonic time in seconds.
+ *
+ * @return		Seconds since an unspecified point.
+ *
+ */
+static long __uptimeSeconds(void)
+{
+	struct timespec now;
+	clock_gettime(CLOCK_MONOTONIC, &now);
+	return now.tv_sec;
+}
 
-	for (int i = 0; i < 2; ++i) {
-		if (isalnum(salt[i] = rand() %128) || salt[i] == '.' || salt[i] == '/')
-			continue;
-		--i;
-	}
+/**
+ * Copy a file, the copy gets the mode of the original.
+ *
+ * @param	from	Path of the original file.
+ * @param	to		Path of the copy.
+ *
+ * @return			Return true if success, otherwise return false.
+ *
+ */
+static bool __copyFile(const char *from, const char *to)
+{
+	int in = open(from, O_RDONLY);
+	if (in < 0)
+		return false;
+	struct stat statbuf;
+	int out = fstat(in, &statbuf) < 0 ? -1 : open(to, O_WRONLY | O_CREAT | O_TRUNC, statbuf.st_mode & 0777);
+	bool result = out >= 0;
+	char buffer[4096];
+	ssize_t size;
+	while (result && (size = read(in, buffer, sizeof(buffer))) > 0)
+		result = write(out, buffer, size) == size;
+	close(in);
+	if (out >= 0 && close(out) < 0)
+		result = false;
+	return result;
+}
 
-	return crypt(key, salt);
+/**
+ * Check a path given for a repository, it is saved one per line and passed
+ * to "cvs init", so it must be absolute, fit in the buffers of CVSRoot and
+ * have no control characters.
+ *
+ * @param	path	The path.
+ *
+ * @return			Return true if the path can be used.
+ *
+ */
+static bool __isValidRootPath(const char *path)
+{
+	if (path[0] != '/' || strlen(path) >= MAX_TEMP_PATH)
+		return false;
+	for (const char *p = path; *p != 0; ++p) {
+		if ((unsigned char)*p < 0x20 || *p == 0x7f)
+			return false;
+	}
+	return true;
 }
 
 /**
@@ -76,59 +155,67 @@ CVSService::CVSService(const char *repoPath, const char *tempPath, const char *e
 	assert(NULL != execPath);
 
 	// Fill up object fields.
-	strncpy(m_repoPath, repoPath, MAX_PATH);
-	strncpy(m_tempPath, tempPath, MAX_PATH);
 	strncpy(m_execPath, execPath, MAX_PATH);
+	m_lockPath[0] = 0;
 
 	// Set up flags.
 	m_isRepoInitialized = false;
 	m_isDaemonRunning = false;
 
-	// Initial semaphores.
-	sem_init(&m_exitThread, 0, 0);
-	sem_init(&m_syncThread, 0, 0);
+	// Set up admission control.
+	m_maxSessions = 8;
+	m_maxQueue = 16;
+	m_backlog = 16;
+	m_queueCount = 0;
+	m_assignmentCount = 0;
 
-	struct stat statbuf;
-	char cvsroot[MAX_PATH + 16];
+	// Compress as the clients ask by default.
+	m_minLevel = 0;
+	m_maxLevel = 9;
+	m_isAdaptive = false;
 
-	// Check repository status.
-	if (stat(m_repoPath, &statbuf) < 0) {
-		if (ENOENT != errno)
-			return;
-	} else if (!S_ISDIR(statbuf.st_mode)) {
-		return;
-	} else if (stat(strcat(strcpy(cvsroot, m_repoPath), "/CVSROOT"), &statbuf) < 0) {
-		if (ENOENT != errno)
-			return;
-	} else if (!S_ISDIR(statbuf.st_mode)) {
-		return;
-	} else {
-		m_isRepoInitialized = true;
-	}
+	// The sessions own their client sockets by default.
+	m_isRelayed = false;
 
-	// Initial CVS repository if it is not initialized.
-	if (!m_isRepoInitialized) {
-		pid_t pid = fork();
+	// No access log until one is opened.
+	m_pool.setAccessLog(&m_log);
 
-		// Invoke "cvs -d <repo> init" command.
-		if (pid == 0) {
-			execl(m_execPath, "cvs", "-d", m_repoPath, "init", NULL);
-			exit(1);
-		}
+	// The daemon is idle until it is started.
+	m_busyCount = 0;
+	m_isActivityCancelled = false;
+	pthread_mutex_init(&m_activityMutex, NULL);
+	pthread_cond_init(&m_activityCond, NULL);
 
-		// Wait for process exit and check the result.
-		int status = 0;
-		if (pid < 0 || waitpid(pid, &status, 0) < 0 || status != 0)
-			return;
+	// Set up authentication.
+	m_pendingCount = 0;
+	m_epoll = -1;
 
-		// Set repository initialized flag.
-		m_isRepoInitialized = true;
+	// More repositories may be added by addRoot().
+	m_rootCount = 0;
+	m_retiredCount = 0;
+	m_isServing = false;
+	pthread_mutex_init(&m_rootLock, NULL);
 
-		// Set default user name and password.
-		if (!setUserPassword("User", "Ab-123456"))
-			return;
+	// Initial semaphore and exit pipe.
+	sem_init(&m_syncThread, 0, 0);
+	m_listenCount = 0;
+	if (pipe(m_exitPipe) < 0)
+		m_exitPipe[0] = m_exitPipe[1] = -1;
+
+	// The SIGCHLD handler must never block.
+	if (pipe(m_reapPipe) < 0) {
+		m_reapPipe[0] = m_reapPipe[1] = -1;
+	} else {
+		fcntl(m_reapPipe[0], F_SETFL, O_NONBLOCK);
+		fcntl(m_reapPipe[1], F_SETFL, O_NONBLOCK);
 	}
 
+	// The first repository is initialized with "cvs init" if it does not
+	// exist, and gets the default user name and password then.
+	m_roots[m_rootCount++] = new CVSRoot(repoPath, tempPath, m_execPath);
+	m_isRepoInitialized = m_roots[0]->isInitialized();
+	if (m_roots[0]->isCreated())
+		setUserPassword("User", "Ab-123456");
 }
 
 /**
@@ -137,80 +224,848 @@ CVSService::CVSService(const char *repoPath, const char *tempPath, const char *e
 CVSService::~CVSService()
 {
 	stopDaemon();
+	m_relay.stop();
+	signal(SIGCHLD, SIG_DFL);
+	s_reapFd = -1;
+	close(m_exitPipe[0]);
+	close(m_exitPipe[1]);
+	close(m_reapPipe[0]);
+	close(m_reapPipe[1]);
+	for (int i = 0; i < m_rootCount; ++i)
+		delete m_roots[i];
+	for (int i = 0; i < m_retiredCount; ++i)
+		delete m_retired[i];
+	pthread_mutex_destroy(&m_rootLock);
+	pthread_cond_destroy(&m_activityCond);
+	pthread_mutex_destroy(&m_activityMutex);
 }
 
 /**
- * Fork a new process and duplicate the client socket to it stdin stdout and
- * stderr file descriptor.
+ * Pack the CVS pserver command line and the compression policy, and send the
+ * client socket to a worker. The worker duplicates the socket to the stdin,
+ * stdout and stderr of the CVS process.
  *
  */
-pid_t CVSService::serveForClient(int client)
+bool CVSService::serveForClient(int client, CVSRoot *root, const char *user)
 {
 	assert(client >= 0);
 
-	// Fork process.
-	pid_t pid = fork();
+	char args[MAX_ARGS_SIZE];
+	char tempPath[MAX_TEMP_PATH];
+	root->m_temp.getPath(tempPath);
+	int size = snprintf(
+		args, sizeof(args),
+		"%s%c" "cvs%c" "-f%c" "-T%c" "%s%c" "--allow-root=%s%c" "pserver%c" "%c"
+		"CVS_GZIP_POLICY=%d %d %d%c",
+		m_execPath, 0, 0, 0, 0, tempPath, 0, root->m_repoPath, 0, 0, 0,
+		m_minLevel, m_maxLevel, m_isAdaptive ? 1 : 0, 0
+		);
+	if (size < 0 || size >= (int)sizeof(args)) {
+		close(client);
+		return false;
+	}
+	args[size++] = 0;
 
-	// Child side.
-	if (0 == pid) {
-		// The parent do not care about the SIGCHID signal, but the child may
-		// need fork and wait child process for some CVS request. Set SIGCHILD
-		// signal handler to default.
-		signal(SIGCHLD, SIG_DFL);
+	// The address must be got before the socket is closed by dispatch().
+	struct sockaddr_storage addr;
+	socklen_t socklen = sizeof(addr);
+	char address[MAX_ADDRESS];
+	memset(&addr, 0, sizeof(addr));
+	getpeername(client, (struct sockaddr *)&addr, &socklen);
+	__formatAddress(&addr, address, sizeof(address));
 
-		// Duplicate socket file descriptor.
-		dup2(client, STDIN_FILENO);
+	// The fields of the access log record written by the worker follow, they
+	// are left out if they do not fit.
+	int fields = snprintf(
+		args + size, sizeof(args) - size, "%s%c" "%s%c" "%s%c",
+		address, 0, user, 0, root->m_repoPath, 0
+		);
+	if (fields > 0 && fields < (int)sizeof(args) - size)
+		size += fields;
+
+	// A relayed session gets one end of a socket pair, the relay keeps the
+	// client socket and the other end. The worker waits for the relay to
+	// close the pipe before it reports the session.
+	int pair[2] = { -1, -1 }, watch[2] = { -1, -1 };
+	if (m_isRelayed && socketpair(AF_UNIX, SOCK_STREAM, 0, pair) == 0 && pipe(watch) < 0) {
+		close(pair[0]);
+		close(pair[1]);
+		pair[0] = pair[1] = -1;
+	}
+
+	pid_t worker = pair[1] >= 0 ?
+		m_pool.dispatch(pair[1], watch[0], args, size) :
+		m_pool.dispatch(client, -1, args, size);
+	if (worker < 0) {
+		if (pair[0] >= 0) {
+			for (int i = 0; i < 2; ++i) {
+				close(pair[i]);
+				close(watch[i]);
+			}
+		}
+		logClient(client, ACCESS_REJECTED, user, root);
+		rejectClient(client, "No CVS process can be started, please try again later.");
+		m_stats.onRejected();
+		root->m_stats.onRejected();
+		return false;
+	}
+	if (pair[0] >= 0)
+		m_relay.add(client, pair[0], watch[1], worker);
+	m_stats.onSessionStarted();
+	m_sessions.onDispatched(worker, address);
+	root->m_stats.onSessionStarted();
+	++root->m_activeCount;
+	if (m_assignmentCount < MAX_WORKERS) {
+		m_assignments[m_assignmentCount].worker = worker;
+		m_assignments[m_assignmentCount++].root = root;
+	}
+	return true;
+}
+
+/**
+ * The client is watched edge triggered, the preamble is only peeked so it is
+ * still there for the CVS process, and a level triggered watch would report
+ * the same bytes again and again.
+ */
+void CVSService::authenticateClient(int client)
+{
+	if (m_pendingCount >= MAX_PENDING) {
+		rejectClient(client, "Too many connections, please try again later.");
+		m_stats.onRejected();
+		return;
+	}
+	struct epoll_event event;
+	memset(&event, 0, sizeof(event));
+	event.events = EPOLLIN | EPOLLET | EPOLLRDHUP;
+	event.data.fd = client;
+	if (epoll_ctl(m_epoll, EPOLL_CTL_ADD, client, &event) < 0) {
+		close(client);
+		return;
+	}
+	m_pending[m_pendingCount].fd = client;
+	m_pending[m_pendingCount].deadline = __uptimeSeconds() + AUTH_TIMEOUT;
+	++m_pendingCount;
+}
+
+/**
+ * Peek the received data and let the authenticator judge it. Nothing is
+ * forked for a client until its credentials are verified. The root line of
+ * the preamble picks the repository, each authenticator answers AUTH_BAD_ROOT
+ * for the ones it does not serve.
+ */
+bool CVSService::checkClient(int fd, unsigned int events)
+{
+	int index = 0;
+	while (index < m_pendingCount && m_pending[index].fd != fd)
+		++index;
+	if (index >= m_pendingCount)
+		return false;
+
+	char data[MAX_PREAMBLE];
+	char reply[256];
+	char user[MAX_USERNAME] = "";
+	int size = recv(fd, data, sizeof(data), MSG_PEEK | MSG_DONTWAIT);
+	int result = AUTH_INCOMPLETE;
+	CVSRoot *root = NULL;
+	for (int i = 0; size > 0 && i < m_rootCount; ++i) {
+		result = m_roots[i]->m_auth.check(data, size, reply, sizeof(reply), user);
+		if (result != AUTH_BAD_ROOT) {
+			root = m_roots[i];
+			break;
+		}
+	}
+	if (size < 0 && (errno == EAGAIN || errno == EWOULDBLOCK || errno == EINTR))
+		size = 1;
+
+	// Wait for more data unless the client has given up.
+	if (size > 0 && result == AUTH_INCOMPLETE && !(events & (EPOLLRDHUP | EPOLLHUP | EPOLLERR)))
+		return true;
+
+	forgetClient(index);
+	if (result == AUTH_OK) {
+		root->m_stats.onAccepted();
+		admitClient(fd, root, user);
+		return true;
+	}
+	if (result == AUTH_FAILED)
+		root->m_stats.onAuthFailed();
+	logClient(fd, result == AUTH_FAILED ? ACCESS_AUTH_FAILED : ACCESS_BAD_REQUEST, user, root);
+	if (result != AUTH_INCOMPLETE)
+		send(fd, reply, strlen(reply), MSG_DONTWAIT | MSG_NOSIGNAL);
+	shutdown(fd, SHUT_WR);
+	close(fd);
+	m_stats.onAuthFailed();
+	return true;
+}
+
+/**
+ * The clients are closed without a reply, like CVS does when its read of the
+ * preamble fails.
+ */
+void CVSService::expireClients(void)
+{
+	long now = __uptimeSeconds();
+	for (int i = m_pendingCount - 1; i >= 0; --i) {
+		if (m_pending[i].deadline > now)
+			continue;
+		int client = forgetClient(i);
+		logClient(client, ACCESS_BAD_REQUEST, "", NULL);
 		close(client);
-		dup2(STDIN_FILENO, STDOUT_FILENO);
-		dup2(STDIN_FILENO, STDERR_FILENO);
+		m_stats.onAuthFailed();
+	}
+}
+
+/**
+ * Remove the client from the epoll instance and fill its slot with the last
+ * one.
+ */
+int CVSService::forgetClient(int index)
+{
+	int client = m_pending[index].fd;
+	epoll_ctl(m_epoll, EPOLL_CTL_DEL, client, NULL);
+	m_pending[index] = m_pending[--m_pendingCount];
+	return client;
+}
 
-		// Execute CVS on pserver mode.
-		char temp[256];
-		execl(
-			m_execPath,
-			"cvs", "-f", "-T", m_tempPath,
-			strcat(strcpy(temp, "--allow-root="), m_repoPath),
-			"pserver",
-			(char *)(0)
-			);
+/**
+ * Dispatch the client if the count of busy workers is under the limit. Queue
+ * or reject it otherwise. A session may write a lot of temporary files, so
+ * none is started while the temporary area is over its quota.
+ */
+void CVSService::admitClient(int client, CVSRoot *root, const char *user)
+{
+	if (root->m_temp.isOverQuota()) {
+		logClient(client, ACCESS_REJECTED, user, root);
+		rejectClient(client, "Temporary space is full, please try again later.");
+		m_stats.onRejected();
+		root->m_stats.onRejected();
+		root->m_temp.poke();
+		return;
+	}
+	if (root->m_queuedCount == 0 && root->hasFreeSlot() && m_pool.busyCount() < m_maxSessions) {
+		serveForClient(client, root, user);
+		return;
+	}
+	if (m_queueCount >= m_maxQueue) {
+		logClient(client, ACCESS_REJECTED, user, root);
+		rejectClient(client, "Too many concurrent sessions, please try again later.");
+		m_stats.onRejected();
+		root->m_stats.onRejected();
+		return;
+	}
+	m_queue[m_queueCount].fd = client;
+	m_queue[m_queueCount].root = root;
+	strcpy(m_queue[m_queueCount++].user, user);
+	m_stats.onQueueChanged(m_queueCount);
+	root->m_stats.onQueueChanged(++root->m_queuedCount);
+}
 
-		// We hope this line never be executed.
-		exit(1);
+/**
+ * Serve the waiting clients in FIFO order, the ones of a repository at its
+ * cap keep their places.
+ */
+void CVSService::drainQueue(void)
+{
+	int kept = 0;
+	for (int i = 0; i < m_queueCount; ++i) {
+		QueuedClient waiting = m_queue[i];
+		if (m_pool.busyCount() >= m_maxSessions || !waiting.root->hasFreeSlot()) {
+			m_queue[kept++] = waiting;
+			continue;
+		}
+		waiting.root->m_stats.onQueueChanged(--waiting.root->m_queuedCount);
+		serveForClient(waiting.fd, waiting.root, waiting.user);
 	}
+	if (kept == m_queueCount)
+		return;
+	m_queueCount = kept;
+	m_stats.onQueueChanged(m_queueCount);
+}
 
-	// Return the PID on parent side.
-	return pid;
+/**
+ * Compare the paths with the ones in the root table.
+ */
+int CVSService::findRoot(const char *repoPath)
+{
+	for (int i = 0; i < m_rootCount; ++i) {
+		if (m_roots[i]->matches(repoPath))
+			return i;
+	}
+	return -1;
 }
 
+/**
+ * Fill the slot of the worker with the last one.
+ */
+CVSRoot* CVSService::releaseWorker(pid_t worker)
+{
+	for (int i = 0; i < m_assignmentCount; ++i) {
+		if (m_assignments[i].worker != worker)
+			continue;
+		CVSRoot *root = m_assignments[i].root;
+		m_assignments[i] = m_assignments[--m_assignmentCount];
+		--root->m_activeCount;
+		return root;
+	}
+	return NULL;
+}
+
+/**
+ * Called with the root table locked.
+ */
+void CVSService::collectRoots(void)
+{
+	int kept = 0;
+	for (int i = 0; i < m_retiredCount; ++i) {
+		CVSRoot *root = m_retired[i];
+		if (root->m_activeCount > 0 || root->m_queuedCount > 0)
+			m_retired[kept++] = root;
+		else
+			delete root;
+	}
+	m_retiredCount = kept;
+}
+
+/**
+ * Only the clients turned away are logged here, so the sessions cost nothing
+ * on the daemon thread. The sessions are logged by the workers.
+ */
+void CVSService::logClient(int client, int type, const char *user, CVSRoot *root)
+{
+	CVSAccessRecord record;
+	memset(&record, 0, sizeof(record));
+	record.type = type;
+	struct timeval now;
+	gettimeofday(&now, NULL);
+	record.time = (unsigned long long)now.tv_sec * 1000 + now.tv_usec / 1000;
+	record.status = -1;
+
+	struct sockaddr_storage addr;
+	socklen_t socklen = sizeof(addr);
+	memset(&addr, 0, sizeof(addr));
+	getpeername(client, (struct sockaddr *)&addr, &socklen);
+	__formatAddress(&addr, record.address, sizeof(record.address));
+	strncpy(record.user, user, sizeof(record.user) - 1);
+	if (root != NULL)
+		strncpy(record.root, root->m_repoPath, sizeof(record.root) - 1);
+	m_log.append(&record);
+}
+
+/**
+ * The count is kept up to date, but the waiting threads are only woken up
+ * when the daemon turns from idle to busy or back.
+ */
+void CVSService::updateActivity(int busy)
+{
+	pthread_mutex_lock(&m_activityMutex);
+	if ((busy > 0) != (m_busyCount > 0)) {
+		pthread_cond_broadcast(&m_activityCond);
+		m_housekeeper.setBusy(busy > 0);
+		m_verifier.setBusy(busy > 0);
+	}
+	m_busyCount = busy;
+	pthread_mutex_unlock(&m_activityMutex);
+}
+
+/**
+ * The client is waiting for the reply of the authentication request, an 'E'
+ * line and an 'error' line make it print the reason and give up.
+ */
+void CVSService::rejectClient(int client, const char *reason)
+{
+	char reply[256];
+	int size = snprintf(reply, sizeof(reply), "E %s\nerror 0 %s\n", reason, reason);
+	if (size > (int)sizeof(reply) - 1)
+		size = sizeof(reply) - 1;
+	send(client, reply, size, MSG_DONTWAIT | MSG_NOSIGNAL);
+	shutdown(client, SHUT_WR);
+	close(client);
+}
+
+/**
+ * Reports of the started and finished sessions go to the session table, the
+ * finished ones are also counted.
+ */
+void CVSService::onReport(const CVSReport *report)
+{
+	switch (report->type) {
+	case REPORT_STARTED:
+		m_sessions.onReport(report);
+		break;
+	case REPORT_DONE: {
+		// The worker only sees the socket pair of a relayed session, the
+		// bytes of the client are counted by the relay.
+		CVSReport done = *report;
+		m_relay.finish(done.worker, &done.bytesIn, &done.bytesOut);
+		report = &done;
+		m_stats.onSessionFinished(report);
+		m_sessions.onReport(report);
+		// The session may have committed, and may have left its temporary
+		// directory behind if it was killed.
+		CVSRoot *root = releaseWorker(report->worker);
+		if (root == NULL)
+			root = m_roots[0];
+		root->m_stats.onSessionFinished(report);
+		root->m_index.invalidate();
+		root->m_temp.poke();
+		collectRoots();
+		break;
+	}
+	case REPORT_EXITED: {
+		unsigned long long bytesIn, bytesOut;
+		m_sessions.onWorkerExited(report->worker);
+		m_relay.finish(report->worker, &bytesIn, &bytesOut);
+		// The session is lost if the worker has died in it.
+		releaseWorker(report->worker);
+		collectRoots();
+		break;
+	}
+	default:
+		break;
+	}
+}
+
+/**
+ * The only children of the service process are the workers, so anything
+ * exited can be reaped.
+ */
+void CVSService::reapChildren(void)
+{
+	int status;
+	while (waitpid(-1, &status, WNOHANG) > 0)
+		continue;
+}
+
+/**
+ * Write a byte to the reap pipe, the daemon thread does the real work.
+ */
+void CVSService::onChildSignal(int signo)
+{
+	int saved = errno;
+	if (s_reapFd >= 0)
+		write(s_reapFd, "c", 1);
+	errno = saved;
+}
+
+/**
+ * The only user replaces all existing ones, the same as before there is more
+ * than one user.
+ */
 bool CVSService::setUserPassword(const char *username, const char *password)
 {
 	// Repository is not initialized, just return false.
 	if (!m_isRepoInitialized)
 		return false;
 
-	char filename[MAX_PATH + 24];
-	FILE *fp;
+	CVSUserUpdate update = { username, password, ROLE_READ | ROLE_WRITE };
+	bool result = m_roots[0]->m_users.replace(&update, 1) == 1;
+
+	// The daemon thread loads the new password by the next authentication.
+	m_roots[0]->m_auth.invalidate();
+	return result;
+}
+
+/**
+ * Apply the changes to the user store and make the authenticator load them.
+ */
+int CVSService::updateUsers(const CVSUserUpdate *updates, int count)
+{
+	if (!m_isRepoInitialized)
+		return -1;
+	int result = m_roots[0]->m_users.apply(updates, count);
+	m_roots[0]->m_auth.invalidate();
+	return result;
+}
+
+/**
+ * Just copy the users from the user store.
+ */
+int CVSService::getUsers(char (*usernames)[MAX_USERNAME], int *roles, int max)
+{
+	return m_roots[0]->m_users.list(usernames, roles, max);
+}
+
+/**
+ * Just pass the configuration to the worker pool.
+ */
+void CVSService::setWorkerPool(int poolSize, int idleTimeout, int maxSessions)
+{
+	m_pool.configure(poolSize, idleTimeout, maxSessions);
+}
+
+/**
+ * Just save the limits, they are read by the daemon thread.
+ */
+void CVSService::setSessionLimits(int maxSessions, int maxQueue, int backlog)
+{
+	m_maxSessions = maxSessions < 1 ? 1 : maxSessions > MAX_WORKERS ? MAX_WORKERS : maxSessions;
+	m_maxQueue = maxQueue < 0 ? 0 : maxQueue > MAX_QUEUE ? MAX_QUEUE : maxQueue;
+	m_backlog = backlog < 1 ? 1 : backlog;
+}
+
+/**
+ * Just save the policy, it is passed to the CVS processes in the
+ * CVS_GZIP_POLICY environment variable and applied by gzpolicy.c.
+ */
+void CVSService::setCompression(int minLevel, int maxLevel, bool adaptive)
+{
+	m_minLevel = minLevel < 0 ? 0 : minLevel > 9 ? 9 : minLevel;
+	m_maxLevel = maxLevel < m_minLevel ? m_minLevel : maxLevel > 9 ? 9 : maxLevel;
+	m_isAdaptive = adaptive;
+}
+
+/**
+ * The relay thread is started with the first relayed session.
+ */
+void CVSService::setRelay(bool enabled, int sessionRate, int totalRate)
+{
+	m_relay.configure(sessionRate, totalRate);
+	m_isRelayed = enabled;
+}
+
+/**
+ * Just pass the configuration to the listener.
+ */
+bool CVSService::setListeners(const char *addresses, int threads, bool noDelay, int keepAlive, int receiveBuffer, int sendBuffer)
+{
+	return m_listener.configure(addresses, threads, noDelay, keepAlive, receiveBuffer, sendBuffer);
+}
+
+/**
+ * Just copy the counts from the listener.
+ */
+void CVSService::getListenerState(int *addresses, int *threads)
+{
+	m_listener.getState(addresses, threads);
+}
+
+/**
+ * Just copy the counters from the CVSStats object.
+ */
+void CVSService::getStats(unsigned long long *counters, int count)
+{
+	m_stats.snapshot(counters, count);
+}
+
+/**
+ * The condition is signaled only when the daemon turns from idle to busy or
+ * back, so the waiting thread sleeps through the sessions in between.
+ */
+int CVSService::waitActivity(bool isBusy, int timeout)
+{
+	struct timespec deadline;
+	if (timeout >= 0) {
+		struct timeval now;
+		gettimeofday(&now, NULL);
+		long long nsec = (long long)now.tv_usec * 1000 + (long long)(timeout % 1000) * 1000000;
+		deadline.tv_sec = now.tv_sec + timeout / 1000 + (time_t)(nsec / 1000000000);
+		deadline.tv_nsec = (long)(nsec % 1000000000);
+	}
+	pthread_mutex_lock(&m_activityMutex);
+	while (!m_isActivityCancelled && (m_busyCount > 0) == isBusy) {
+		if (timeout < 0)
+			pthread_cond_wait(&m_activityCond, &m_activityMutex);
+		else if (pthread_cond_timedwait(&m_activityCond, &m_activityMutex, &deadline) == ETIMEDOUT)
+			break;
+	}
+	int busy = m_isActivityCancelled ? -1 : m_busyCount;
+	pthread_mutex_unlock(&m_activityMutex);
+	return busy;
+}
+
+/**
+ * Set the flag and wake up all the waiting threads.
+ */
+void CVSService::cancelActivity(void)
+{
+	pthread_mutex_lock(&m_activityMutex);
+	m_isActivityCancelled = true;
+	pthread_cond_broadcast(&m_activityCond);
+	pthread_mutex_unlock(&m_activityMutex);
+}
+
+/**
+ * Just copy the sessions from the session table.
+ */
+int CVSService::getSessions(CVSSession *sessions, int max)
+{
+	return m_sessions.snapshot(sessions, max);
+}
+
+/**
+ * The session table makes sure only a running CVS process is killed.
+ */
+bool CVSService::killSession(pid_t pid)
+{
+	return m_sessions.kill(pid);
+}
+
+/**
+ * Just query the head revision index.
+ */
+void CVSService::getModuleState(const char *module, CVSModuleState *state)
+{
+	m_roots[0]->m_index.getModuleState(module, state);
+}
+
+/**
+ * Just query the head revision index.
+ */
+int CVSService::getHeads(const char *module, CVSHeadEntry *entries, int max)
+{
+	return m_roots[0]->m_index.getHeads(module, entries, max);
+}
+
+/**
+ * The sweeper thread measures the new directory at once. The other
+ * repositories keep their directories and get the same quota.
+ */
+bool CVSService::setTempArea(const char *path, unsigned long long quota)
+{
+	pthread_mutex_lock(&m_rootLock);
+	bool result = m_roots[0]->m_temp.configure(path, quota);
+	for (int i = 1; i < m_rootCount; ++i) {
+		char tempPath[MAX_TEMP_PATH];
+		m_roots[i]->m_temp.getPath(tempPath);
+		m_roots[i]->m_temp.configure(tempPath, quota);
+	}
+	pthread_mutex_unlock(&m_rootLock);
+	return result;
+}
+
+/**
+ * Just return what the last sweep has measured.
+ */
+void CVSService::getTempUsage(CVSTempUsage *usage)
+{
+	m_roots[0]->m_temp.getUsage(usage);
+}
+
+/**
+ * The daemon thread never touches the lock area, the roots are changed with
+ * the root table locked so none is added or removed under the loop.
+ */
+bool CVSService::setLockArea(const char *path)
+{
+	if (m_isDaemonRunning || strlen(path) >= sizeof(m_lockPath))
+		return false;
+	pthread_mutex_lock(&m_rootLock);
+	strcpy(m_lockPath, path);
+	bool result = true;
+	for (int i = 0; i < m_rootCount; ++i) {
+		if (!m_roots[i]->setLockDir(m_lockPath))
+			result = false;
+	}
+	pthread_mutex_unlock(&m_rootLock);
+	return result;
+}
+
+/**
+ * The workers are forked from the daemon thread, they get the mapping of the
+ * log as they are started.
+ */
+bool CVSService::openAccessLog(const char *path, int capacity)
+{
+	if (m_isDaemonRunning)
+		return false;
+	return m_log.open(path, capacity);
+}
 
-	// Write user name password to 'passwd' file.
-	if ((fp = fopen(strcat(strcpy(filename, m_repoPath), "/CVSROOT/passwd"), "w")) == NULL)
+/**
+ * The repository is created outside the lock, "cvs init" takes a while and
+ * the daemon thread must not wait for it. A removed repository which still
+ * has sessions is served again as it is.
+ */
+bool CVSService::addRoot(const char *repoPath, const char *tempPath, int maxSessions)
+{
+	if (!m_isRepoInitialized || !__isValidRootPath(repoPath) || !__isValidRootPath(tempPath))
+		return false;
+	pthread_mutex_lock(&m_rootLock);
+	int index = findRoot(repoPath);
+	if (index >= 0)
+		m_roots[index]->setMaxSessions(maxSessions);
+	for (int i = 0; index < 0 && i < m_retiredCount; ++i) {
+		if (!m_retired[i]->matches(repoPath) || m_rootCount >= MAX_ROOTS)
+			continue;
+		m_roots[index = m_rootCount++] = m_retired[i];
+		m_retired[i] = m_retired[--m_retiredCount];
+		m_roots[index]->m_isRetired = false;
+		m_roots[index]->setMaxSessions(maxSessions);
+	}
+	bool isFull = m_rootCount >= MAX_ROOTS;
+	pthread_mutex_unlock(&m_rootLock);
+	if (index >= 0)
+		return true;
+	if (isFull)
 		return false;
-	fprintf(fp, "%s:%s:%s\n", username, __crypt(password), getpwuid(getuid())->pw_name);
-	fclose(fp);
 
-	// Write user name to 'reader' file.
-	if ((fp = fopen(strcat(strcpy(filename, m_repoPath), "/CVSROOT/reader"), "w")) == NULL)
+	CVSRoot *root = new CVSRoot(repoPath, tempPath, m_execPath);
+	if (!root->isInitialized()) {
+		delete root;
 		return false;
-	fprintf(fp, "%s\n", username);
-	fclose(fp);
+	}
 
-	// Write user name to 'writer' file.
-	if ((fp = fopen(strcat(strcpy(filename, m_repoPath), "/CVSROOT/writer"), "w")) == NULL)
+	// A new repository gets the users of the first one.
+	if (root->isCreated()) {
+		static const char *FILES[] = { "passwd", "readers", "writers" };
+		for (unsigned i = 0; i < sizeof(FILES) / sizeof(FILES[0]); ++i) {
+			char from[MAX_TEMP_PATH + 32], to[MAX_TEMP_PATH + 32];
+			snprintf(from, sizeof(from), "%s/CVSROOT/%s", m_roots[0]->m_repoPath, FILES[i]);
+			snprintf(to, sizeof(to), "%s/CVSROOT/%s", root->m_repoPath, FILES[i]);
+			__copyFile(from, to);
+		}
+		root->m_users.load(root->m_repoPath);
+		root->m_auth.invalidate();
+	}
+	CVSTempUsage usage;
+	m_roots[0]->m_temp.getUsage(&usage);
+	root->m_temp.configure(tempPath, usage.quota);
+	root->setMaxSessions(maxSessions);
+	if (!root->setLockDir(m_lockPath)) {
+		delete root;
 		return false;
-	fprintf(fp, "%s\n", username);
-	fclose(fp);
+	}
 
-	// Return true.
-	return true;
+	pthread_mutex_lock(&m_rootLock);
+	bool result = m_rootCount < MAX_ROOTS && findRoot(repoPath) < 0;
+	if (result) {
+		m_roots[m_rootCount++] = root;
+		if (m_isServing)
+			root->m_temp.start();
+	}
+	pthread_mutex_unlock(&m_rootLock);
+	if (!result)
+		delete root;
+	return result;
+}
+
+/**
+ * The repository is kept until its last session is finished, the daemon
+ * thread deletes it then.
+ */
+bool CVSService::removeRoot(const char *repoPath)
+{
+	pthread_mutex_lock(&m_rootLock);
+	int index = findRoot(repoPath);
+	bool result = index > 0 && m_retiredCount < MAX_ROOTS;
+	if (result) {
+		CVSRoot *root = m_roots[index];
+		memmove(&m_roots[index], &m_roots[index + 1], (m_rootCount - index - 1) * sizeof(CVSRoot *));
+		--m_rootCount;
+		root->m_isRetired = true;
+		m_retired[m_retiredCount++] = root;
+		collectRoots();
+	}
+	pthread_mutex_unlock(&m_rootLock);
+	return result;
+}
+
+/**
+ * Copy the paths, the caps and the counters of the served repositories.
+ */
+int CVSService::getRoots(CVSRootInfo *roots, int max)
+{
+	pthread_mutex_lock(&m_rootLock);
+	int count = 0;
+	for (; count < m_rootCount && count < max; ++count) {
+		CVSRoot *root = m_roots[count];
+		strcpy(roots[count].path, root->m_repoPath);
+		roots[count].maxSessions = root->m_maxSessions;
+		root->m_stats.snapshot(roots[count].counters, STAT_COUNT);
+	}
+	pthread_mutex_unlock(&m_rootLock);
+	return count;
+}
+
+/**
+ * The paths are copied with the root table locked, the backup thread never
+ * touches the roots.
+ */
+bool CVSService::startBackup(const char *destPath)
+{
+	char repoPaths[MAX_ROOTS][MAX_TEMP_PATH];
+	pthread_mutex_lock(&m_rootLock);
+	int count = m_rootCount;
+	for (int i = 0; i < count; ++i)
+		strcpy(repoPaths[i], m_roots[i]->m_repoPath);
+	pthread_mutex_unlock(&m_rootLock);
+	return m_isRepoInitialized && m_backup.start(destPath, repoPaths, count);
+}
+
+/**
+ * Just return what the backup thread has published.
+ */
+void CVSService::getBackupStatus(CVSBackupStatus *status)
+{
+	m_backup.getStatus(status);
+}
+
+/**
+ * The lock area is verified as one more tree, the locks of all the
+ * repositories are under it when it is set.
+ */
+bool CVSService::startVerify(bool repair)
+{
+	char paths[MAX_VERIFY_TREES][MAX_TEMP_PATH];
+	pthread_mutex_lock(&m_rootLock);
+	int count = m_rootCount;
+	for (int i = 0; i < count; ++i)
+		strcpy(paths[i], m_roots[i]->m_repoPath);
+	if (m_lockPath[0] != 0)
+		strcpy(paths[count++], m_lockPath);
+	pthread_mutex_unlock(&m_rootLock);
+	return m_isRepoInitialized && m_verifier.start(paths, count, repair, false);
+}
+
+/**
+ * Just return what the verifier threads have published.
+ */
+void CVSService::getVerifyStatus(CVSVerifyStatus *status)
+{
+	m_verifier.getStatus(status);
+}
+
+/**
+ * Just copy the issues kept by the verifier.
+ */
+int CVSService::getVerifyIssues(CVSVerifyIssue *issues, int max)
+{
+	return m_verifier.getIssues(issues, max);
+}
+
+/**
+ * The paths are copied with the root table locked, the housekeeping thread
+ * never touches the roots.
+ */
+bool CVSService::startHousekeeping(long long rotateSize, int generations)
+{
+	char repoPaths[MAX_ROOTS][MAX_TEMP_PATH], tempPaths[MAX_ROOTS][MAX_TEMP_PATH];
+	char lockPath[MAX_TEMP_PATH];
+	pthread_mutex_lock(&m_rootLock);
+	int count = m_rootCount;
+	for (int i = 0; i < count; ++i) {
+		strcpy(repoPaths[i], m_roots[i]->m_repoPath);
+		m_roots[i]->m_temp.getPath(tempPaths[i]);
+	}
+	strcpy(lockPath, m_lockPath);
+	pthread_mutex_unlock(&m_rootLock);
+	return m_isRepoInitialized && m_housekeeper.start(repoPaths, tempPaths, count, lockPath, rotateSize, generations);
+}
+
+/**
+ * Just return what the housekeeping thread has published.
+ */
+void CVSService::getHousekeepingStatus(CVSHousekeepingStatus *status)
+{
+	m_housekeeper.getStatus(status);
+}
+
+/**
+ * Just return the flag.
+ */
+bool CVSService::isInitialized(void)
+{
+	return m_isRepoInitialized;
 }
 
 /**
@@ -218,7 +1073,7 @@ bool CVSService::setUserPassword(const char *username, const char *password)
  */
 bool CVSService::startDaemon(void)
 {
-	if (!m_isRepoInitialized)
+	if (!m_isRepoInitialized || m_exitPipe[0] < 0 || m_reapPipe[0] < 0)
 		return false;
 	if (m_isDaemonRunning)
 		return true;
@@ -226,6 +1081,10 @@ bool CVSService::startDaemon(void)
 	if (pthread_create(&thread, NULL, daemonThreadFunc, this) < 0)
 		return false;
 	sem_wait(&m_syncThread);
+	if (m_listenCount <= 0) {
+		pthread_join(thread, NULL);
+		return false;
+	}
 	m_isDaemonRunning = true;
 	return true;
 }
@@ -239,7 +1098,7 @@ bool CVSService::isDaemonRunning(void)
 }
 
 /**
- * Post semaphore to notify the daemon thread to exit.
+ * Write a byte to the exit pipe to wake up the daemon thread at once.
  */
 bool CVSService::stopDaemon(void)
 {
@@ -247,68 +1106,173 @@ bool CVSService::stopDaemon(void)
 		return false;
 	if (!m_isDaemonRunning)
 		return true;
-	sem_post(&m_exitThread);
+	write(m_exitPipe[1], "x", 1);
 	sem_wait(&m_syncThread);
 	m_isDaemonRunning = false;
 	return true;
 }
 
 /**
- * Listen on port 2401 and call CVSService's serveForClient() method for all
- * connected client.
+ * Listen on the configured addresses and call CVSService's serveForClient()
+ * method for all connected client. The listening sockets, or the hand-off pipe
+ * of the accept threads, the exit pipe and the channels of the worker
+ * processes are all waited with epoll, so the thread sleeps until something
+ * really happens.
  *
  */
 void* CVSService::daemonThreadFunc(void *param)
 {
 	CVSService *cvssrv = (CVSService *)param;
 
-	// Notify the main thread that the daemon thread is started.
+	// Notify the main thread whether anything is listened on, the daemon is
+	// not running with no socket.
+	int epfd = epoll_create(MAX_EVENTS);
+	cvssrv->m_listenCount = epfd < 0 ? 0 : cvssrv->m_listener.start(epfd, cvssrv->m_backlog);
+	if (cvssrv->m_listenCount <= 0) {
+		cvssrv->m_listener.stop();
+		if (epfd >= 0)
+			close(epfd);
+		sem_post(&cvssrv->m_syncThread);
+		return NULL;
+	}
 	sem_post(&cvssrv->m_syncThread);
 
-	// Create socket and listen on port 2401.
-	int server = socket(AF_INET, SOCK_STREAM, 0);
-	int option = 1;
-	setsockopt(server, SOL_SOCKET, SO_REUSEADDR, (char *)&option, sizeof(int));
-	struct sockaddr_in saddr;
-	memset(&saddr, 0, sizeof(saddr));
-	saddr.sin_family = AF_INET;
-	saddr.sin_addr.s_addr = INADDR_ANY;
-	saddr.sin_port = htons(2401);
-	bind(server, (struct sockaddr *)&saddr, sizeof(saddr));
-	listen(server, 5);
-
-	// We do not care about any of our child process.
-	signal(SIGCHLD, SIG_IGN);
-
-	// Loop until the exit semaphore is posted.
-	while (sem_trywait(&cvssrv->m_exitThread) < 0 && errno == EAGAIN) {
-		fd_set fdset;
-		struct timeval tv = { 0, 1000000 };
-
-		struct sockaddr_in iaddr;
-		memset(&iaddr, 0, sizeof(iaddr));
-		socklen_t socklen = sizeof(iaddr);
-
-		FD_ZERO(&fdset);
-		FD_SET(server, &fdset);
-
-		// Select server socket.
-		if (select(server + 1, &fdset, NULL, NULL, &tv) <= 0)
-			continue;
+	// Wait for the listener and the exit pipe.
+	struct epoll_event event;
+	memset(&event, 0, sizeof(event));
+	event.events = EPOLLIN;
+	event.data.fd = cvssrv->m_exitPipe[0];
+	epoll_ctl(epfd, EPOLL_CTL_ADD, cvssrv->m_exitPipe[0], &event);
+	event.data.fd = cvssrv->m_reapPipe[0];
+	epoll_ctl(epfd, EPOLL_CTL_ADD, cvssrv->m_reapPipe[0], &event);
 
-		// Accept a client.
-		int client = accept(server, (struct sockaddr *)&iaddr, &socklen);
+	// Exited workers are reaped by the daemon thread, the CVS processes are
+	// reaped by the workers with their resource usage.
+	s_reapFd = cvssrv->m_reapPipe[1];
+	struct sigaction action;
+	memset(&action, 0, sizeof(action));
+	action.sa_handler = onChildSignal;
+	action.sa_flags = SA_RESTART | SA_NOCLDSTOP;
+	sigaction(SIGCHLD, &action, NULL);
+	reapChildren();
 
-		// Invalid client socket, continue loop.
-		if (client < 0)
-			continue;
+	// Sweep what the sessions of the last run have left behind.
+	pthread_mutex_lock(&cvssrv->m_rootLock);
+	for (int i = 0; i < cvssrv->m_rootCount; ++i)
+		cvssrv->m_roots[i]->m_temp.start();
+	cvssrv->m_isServing = true;
+	pthread_mutex_unlock(&cvssrv->m_rootLock);
+
+	// Get the idle workers ready before the first client comes.
+	cvssrv->m_epoll = epfd;
+	cvssrv->m_pool.attach(epfd);
+	cvssrv->m_pool.fill();
+
+	// Loop until a byte is written to the exit pipe.
+	for (bool exiting = false; !exiting;) {
+		struct epoll_event events[MAX_EVENTS];
+		int timeout = cvssrv->m_pendingCount > 0 ? 1000 : -1;
+		int count = epoll_wait(epfd, events, MAX_EVENTS, timeout);
+		if (count < 0 && errno != EINTR)
+			break;
+		cvssrv->expireClients();
+
+		for (int i = 0; i < count; ++i) {
+			int fd = events[i].data.fd;
+
+			// Exit request from stopDaemon().
+			if (fd == cvssrv->m_exitPipe[0]) {
+				char byte;
+				read(fd, &byte, 1);
+				exiting = true;
+				continue;
+			}
+
+			// Some workers have exited.
+			if (fd == cvssrv->m_reapPipe[0]) {
+				char bytes[16];
+				while (read(fd, bytes, sizeof(bytes)) > 0)
+					continue;
+				reapChildren();
+				continue;
+			}
 
-		// Call serveForClient() to process request.
-		cvssrv->serveForClient(client);
+			// Accept all pending clients, but leave the rest of a huge burst
+			// to the next round so the workers' reports are not starved.
+			if (cvssrv->m_listener.owns(fd)) {
+				int clients[MAX_ACCEPTS];
+				int accepted = cvssrv->m_listener.accept(fd, clients, MAX_ACCEPTS);
+				for (int j = 0; j < accepted; ++j) {
+					cvssrv->m_stats.onAccepted();
+
+					// Check the credentials before anything is forked for it.
+					cvssrv->authenticateClient(clients[j]);
+				}
+
+				// Replace the workers which have just been taken.
+				cvssrv->m_pool.fill();
+				continue;
+			}
+
+			// More of the authentication preamble of a client. The root
+			// table must not change under the checks and the admissions.
+			pthread_mutex_lock(&cvssrv->m_rootLock);
+			bool checked = cvssrv->checkClient(fd, events[i].events);
+			pthread_mutex_unlock(&cvssrv->m_rootLock);
+			if (checked)
+				continue;
+
+			// Reports of the workers, a finished session frees a slot for
+			// the waiting clients.
+			CVSReport report;
+			cvssrv->m_pool.process(fd, &report);
+			pthread_mutex_lock(&cvssrv->m_rootLock);
+			cvssrv->onReport(&report);
+			cvssrv->drainQueue();
+			pthread_mutex_unlock(&cvssrv->m_rootLock);
+		}
+
+		// The clients being authenticated count too, the first round trips
+		// of a session are as slow as the rest on a dozing Wi-Fi link.
+		cvssrv->updateActivity(cvssrv->m_pendingCount + cvssrv->m_queueCount + cvssrv->m_pool.busyCount());
 	}
 
-	// Close server socket.
-	close(server);
+	// Close the listening sockets, the clients handed off by the accept
+	// threads but not taken yet are dropped.
+	cvssrv->m_listener.stop();
+
+	// Drop the clients which are not authenticated yet.
+	while (cvssrv->m_pendingCount > 0)
+		close(cvssrv->forgetClient(cvssrv->m_pendingCount - 1));
+
+	// Nobody is going to serve the waiting clients.
+	pthread_mutex_lock(&cvssrv->m_rootLock);
+	for (int i = 0; i < cvssrv->m_queueCount; ++i) {
+		rejectClient(cvssrv->m_queue[i].fd, "CVS service is stopped.");
+		CVSRoot *root = cvssrv->m_queue[i].root;
+		root->m_stats.onQueueChanged(--root->m_queuedCount);
+	}
+	cvssrv->m_queueCount = 0;
+	cvssrv->m_stats.onQueueChanged(0);
+	cvssrv->updateActivity(0);
+
+	// Let the workers exit after their current sessions.
+	cvssrv->m_pool.shutdown();
+	cvssrv->m_pool.attach(-1);
+	cvssrv->m_epoll = -1;
+	close(epfd);
+
+	// The busy workers are reaped when the daemon is started again, or by the
+	// system when the process exits. Their sessions are not reported any
+	// more, so the removed repositories can go now.
+	reapChildren();
+	while (cvssrv->m_assignmentCount > 0)
+		cvssrv->releaseWorker(cvssrv->m_assignments[0].worker);
+	cvssrv->collectRoots();
+	for (int i = 0; i < cvssrv->m_rootCount; ++i)
+		cvssrv->m_roots[i]->m_temp.stop();
+	cvssrv->m_isServing = false;
+	pthread_mutex_unlock(&cvssrv->m_rootLock);
 
 	// Notify the main thread that the daemon thread is stopped.
 	sem_post(&cvssrv->m_syncThread);
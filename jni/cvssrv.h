@@ -26,14 +26,33 @@
 
 #define MAX_PATH	256
 
+/** Max count of clients waiting for a free session slot. */
+#define MAX_QUEUE	64
+
+/** Max count of clients whose authentication preamble is not received yet. */
+#define MAX_PENDING	64
+
 #include <sys/types.h>
 #include <semaphore.h>
+#include <pthread.h>
+
+#include "cvspool.h"
+#include "cvsstat.h"
+#include "cvssess.h"
+#include "cvsroot.h"
+#include "cvsbackup.h"
+#include "cvsrelay.h"
+#include "cvslisten.h"
+#include "cvsverify.h"
+#include "cvshouse.h"
 
 /**
  * \class CVSService
  *
  * CVSService maintains a repository and starts a thread listen and process all
- * CVS request.
+ * CVS request. More repositories can be served by the same thread with
+ * addRoot(), the users, the head revision index and the temporary area of the
+ * methods below are the ones of the first repository.
  *
  */
 class CVSService {
@@ -59,7 +78,8 @@ private:
 	CVSService& operator =(const CVSService &other);
 public:
 	/**
-	 * Set user name and password for the CVSService.
+	 * Set user name and password for the CVSService. All other users are
+	 * removed, use updateUsers() to keep more than one user.
 	 *
 	 * @param	username	New user name.
 	 * @param	password	New password.
@@ -70,11 +90,347 @@ public:
 	 */
 	bool setUserPassword(const char *username, const char *password);
 	/**
-	 * Start the CVS daemon thread.
+	 * Add, update or remove a batch of users. The CVSROOT files are published
+	 * once for the whole batch.
+	 *
+	 * @param	updates		The changes.
+	 * @param	count		Count of the changes.
+	 *
+	 * @return				Count of changes applied, or -1 if the CVSROOT
+	 * 						files cannot be written.
+	 *
+	 */
+	int updateUsers(const CVSUserUpdate *updates, int count);
+	/**
+	 * Get the names and the roles of all users.
+	 *
+	 * @param	usernames	Buffer to hold the user names.
+	 * @param	roles		Buffer to hold the roles.
+	 * @param	max			Max count of users to get.
+	 *
+	 * @return				Count of users got.
+	 *
+	 */
+	int getUsers(char (*usernames)[MAX_USERNAME], int *roles, int max);
+	/**
+	 * Configure the pool of pre-forked CVS worker processes.
+	 *
+	 * @param	poolSize	Count of idle workers kept ready, 0 to disable
+	 * 						pre-forking.
+	 * @param	idleTimeout	Seconds an idle worker waits before it exits.
+	 * @param	maxSessions	Count of sessions served by a worker before it is
+	 * 						replaced.
+	 *
+	 */
+	void setWorkerPool(int poolSize, int idleTimeout, int maxSessions);
+	/**
+	 * Configure the admission control of the CVS daemon. Clients exceed the
+	 * session limit wait in a FIFO queue, and are rejected with a pserver
+	 * error line if the queue is full.
+	 *
+	 * @param	maxSessions	Max count of concurrent sessions.
+	 * @param	maxQueue	Max count of clients waiting for a session slot,
+	 * 						0 to reject them at once.
+	 * @param	backlog		Backlog of the listening socket, it takes effect
+	 * 						when the daemon is started next time.
+	 *
+	 */
+	void setSessionLimits(int maxSessions, int maxQueue, int backlog);
+	/**
+	 * Configure the gzip-stream compression of the sessions. The level asked
+	 * by a client with -z is clamped to [minLevel, maxLevel], a client asks
+	 * for no compression is never compressed. It takes effect on new
+	 * sessions.
+	 *
+	 * @param	minLevel	Lowest level, 0 to 9.
+	 * @param	maxLevel	Highest level, 0 to 9, equal to minLevel to force
+	 * 						a level.
+	 * @param	adaptive	Whether the level of a session is moved within
+	 * 						the range by its CPU load.
+	 *
+	 */
+	void setCompression(int minLevel, int maxLevel, bool adaptive);
+	/**
+	 * Configure the relay of the sessions. A relayed session is served
+	 * through a socket pair, and the relay thread shapes its bandwidth. It
+	 * takes effect on new sessions, the limits apply to the running relayed
+	 * sessions at once.
+	 *
+	 * @param	enabled		Whether to relay the new sessions.
+	 * @param	sessionRate	Bytes per second of each session, 0 for no limit.
+	 * @param	totalRate	Bytes per second of all the sessions, 0 for no
+	 * 						limit.
+	 *
+	 */
+	void setRelay(bool enabled, int sessionRate, int totalRate);
+	/**
+	 * Configure the listening sockets of the CVS daemon, it takes effect when
+	 * the daemon is started next time.
+	 *
+	 * @param	addresses		Addresses separated by spaces or commas, see
+	 * 							CVSListener::configure().
+	 * @param	threads			Count of accept threads sharing the ports by
+	 * 							SO_REUSEPORT, 0 to accept on the daemon
+	 * 							thread.
+	 * @param	noDelay			Whether to set TCP_NODELAY.
+	 * @param	keepAlive		Idle seconds before the keep-alive probes, 0
+	 * 							for no keep-alive.
+	 * @param	receiveBuffer	SO_RCVBUF in bytes, 0 for the system default.
+	 * @param	sendBuffer		SO_SNDBUF in bytes, 0 for the system default.
+	 *
+	 * @return					Return true if the addresses are valid,
+	 * 							otherwise return false.
+	 *
+	 */
+	bool setListeners(const char *addresses, int threads, bool noDelay, int keepAlive, int receiveBuffer, int sendBuffer);
+	/**
+	 * Get the count of addresses the running daemon listens on and of its
+	 * accept threads, both 0 if it is not running.
+	 *
+	 * @param	addresses	Buffer to hold the count of addresses.
+	 * @param	threads		Buffer to hold the count of accept threads.
+	 *
+	 */
+	void getListenerState(int *addresses, int *threads);
+	/**
+	 * Get a snapshot of the counters of the CVS daemon. This method does not
+	 * block the daemon thread.
+	 *
+	 * @param	counters	Buffer to hold the counters, indexed by STAT_*.
+	 * @param	count		Count of counters to get, at most STAT_COUNT.
+	 *
+	 */
+	void getStats(unsigned long long *counters, int count);
+	/**
+	 * Wait until the CVS daemon becomes busy or idle. The daemon is busy while
+	 * any client is being authenticated, is waiting for a session slot or is
+	 * being served.
+	 *
+	 * @param	isBusy	Whether the daemon is known to be busy, the call
+	 * 					returns at once if it is not the case any more.
+	 * @param	timeout	Milliseconds to wait, -1 to wait for ever.
+	 *
+	 * @return			Count of the busy clients, or -1 if the waiting is
+	 * 					cancelled.
+	 *
+	 */
+	int waitActivity(bool isBusy, int timeout);
+	/**
+	 * Wake up the threads in waitActivity(), the later calls return at once.
+	 *
+	 */
+	void cancelActivity(void);
+	/**
+	 * Get the active sessions and the recently finished ones.
+	 *
+	 * @param	sessions	Buffer to hold the sessions.
+	 * @param	max			Max count of sessions to get.
+	 *
+	 * @return				Count of sessions got.
+	 *
+	 */
+	int getSessions(CVSSession *sessions, int max);
+	/**
+	 * Kill the CVS process of an active session.
+	 *
+	 * @param	pid		PID of the CVS process.
+	 *
+	 * @return			Return true if the session is killed, otherwise return
+	 * 					false.
+	 *
+	 */
+	bool killSession(pid_t pid);
+	/**
+	 * Get the summary of the RCS files of a module from the head revision
+	 * index. Nothing but the directories is touched if no session has
+	 * finished since the last query.
+	 *
+	 * @param	module	Path of the module relative to the repository, an
+	 * 					empty string for the whole repository.
+	 * @param	state	Buffer to hold the summary.
+	 *
+	 */
+	void getModuleState(const char *module, CVSModuleState *state);
+	/**
+	 * Get the head revisions of the RCS files of a module.
+	 *
+	 * @param	module	Path of the module relative to the repository, an
+	 * 					empty string for the whole repository.
+	 * @param	entries	Buffer to hold the head revisions, sorted by path.
+	 * @param	max		Max count of entries to get.
+	 *
+	 * @return			Count of entries got.
+	 *
+	 */
+	int getHeads(const char *module, CVSHeadEntry *entries, int max);
+	/**
+	 * Move the temporary area of the CVS processes and set its quota. The
+	 * running sessions keep their old directory.
+	 *
+	 * @param	path	Path of the temporary directory.
+	 * @param	quota	Quota in bytes, 0 for no quota.
+	 *
+	 * @return			Return true if the directory is usable, otherwise
+	 * 					return false.
+	 *
+	 */
+	bool setTempArea(const char *path, unsigned long long quota);
+	/**
+	 * Get the space used by the temporary area.
+	 *
+	 * @param	usage	Buffer to hold the usage.
+	 *
+	 */
+	void getTempUsage(CVSTempUsage *usage);
+	/**
+	 * Move the lock files of the sessions of all the repositories out of the
+	 * repositories, so the read locks of the sessions are not written to the
+	 * SD card. It must be called while the daemon is stopped, so no session
+	 * takes its locks in the old place.
+	 *
+	 * @param	path	Path of the lock area, an empty string to keep the
+	 * 					locks in the repositories.
+	 *
+	 * @return			Return true if success, otherwise return false.
+	 *
+	 */
+	bool setLockArea(const char *path);
+	/**
+	 * Open the access log, the clients turned away and the finished sessions
+	 * are recorded to it. It must be called while the daemon is stopped, so
+	 * the workers started later write to it.
+	 *
+	 * @param	path		Path of the log file.
+	 * @param	capacity	Count of records kept, the oldest ones are
+	 * 						overwritten.
+	 *
+	 * @return				Return true if success, otherwise return false.
+	 *
+	 */
+	bool openAccessLog(const char *path, int capacity);
+	/**
+	 * Serve one more repository, or change the cap of one already served. It
+	 * can be called while the daemon is running. A new repository is
+	 * initialized with the users of the first repository. The paths must be
+	 * absolute and shorter than MAX_TEMP_PATH, with no control characters.
+	 *
+	 * @param	repoPath	Path of the CVS repository.
+	 * @param	tempPath	Path of the temporary directory of its sessions.
+	 * @param	maxSessions	Max count of its concurrent sessions, 0 for no cap
+	 * 						but the one of the daemon.
+	 *
+	 * @return				Return true if the repository is served, otherwise
+	 * 						return false.
+	 *
+	 */
+	bool addRoot(const char *repoPath, const char *tempPath, int maxSessions);
+	/**
+	 * Stop serving a repository added by addRoot(). No more clients of it are
+	 * admitted, the running sessions and the waiting clients are served to
+	 * the end.
+	 *
+	 * @param	repoPath	Path of the CVS repository.
+	 *
+	 * @return				Return true if the repository is removed, otherwise
+	 * 						return false.
+	 *
+	 */
+	bool removeRoot(const char *repoPath);
+	/**
+	 * Get the served repositories and their counters, the first repository
+	 * comes first.
+	 *
+	 * @param	roots	Buffer to hold the repositories.
+	 * @param	max		Max count of repositories to get.
+	 *
+	 * @return			Count of repositories got.
+	 *
+	 */
+	int getRoots(CVSRootInfo *roots, int max);
+	/**
+	 * Start an incremental backup of the served repositories into a mirror
+	 * directory. It runs on a thread of its own, beside the sessions.
+	 *
+	 * @param	destPath	Path of the backup directory.
+	 *
+	 * @return				Return true if the backup is started, otherwise
+	 * 						return false.
+	 *
+	 */
+	bool startBackup(const char *destPath);
+	/**
+	 * Get the progress of the running backup or the result of the last one.
+	 *
+	 * @param	status	Buffer to hold the status.
+	 *
+	 */
+	void getBackupStatus(CVSBackupStatus *status);
+	/**
+	 * Start a verification of the served repositories and the lock area, on
+	 * a pool of threads beside the sessions.
+	 *
+	 * @param	repair	Whether to remove the stale locks and temporary files,
+	 * 					they are only reported while the daemon is busy.
+	 *
+	 * @return			Return true if the verification is started, otherwise
+	 * 					return false.
+	 *
+	 */
+	bool startVerify(bool repair);
+	/**
+	 * Get the progress of the running verification or the result of the last
+	 * one.
+	 *
+	 * @param	status	Buffer to hold the status.
+	 *
+	 */
+	void getVerifyStatus(CVSVerifyStatus *status);
+	/**
+	 * Get the issues found by the running verification or the last one.
+	 *
+	 * @param	issues	Buffer to hold the issues.
+	 * @param	max		Max count of issues to get.
+	 *
+	 * @return			Count of issues got.
+	 *
+	 */
+	int getVerifyIssues(CVSVerifyIssue *issues, int max);
+	/**
+	 * Start the housekeeping of the served repositories, on a thread of its
+	 * own. It stops as soon as the daemon becomes busy.
+	 *
+	 * @param	rotateSize	Size in bytes over which CVSROOT/history and
+	 * 						CVSROOT/val-tags are rotated.
+	 * @param	generations	Count of compressed generations kept.
+	 *
+	 * @return				Return true if the housekeeping is started,
+	 * 						otherwise return false.
+	 *
+	 */
+	bool startHousekeeping(long long rotateSize, int generations);
+	/**
+	 * Get the progress of the running housekeeping or the result of the last
+	 * one.
+	 *
+	 * @param	status	Buffer to hold the status.
+	 *
+	 */
+	void getHousekeepingStatus(CVSHousekeepingStatus *status);
+	/**
+	 * Check whether the first repository is usable, the object is no use
+	 * otherwise.
+	 *
+	 * @return		Return true if the repository has been found or created by
+	 * 				the constructor, otherwise return false.
+	 *
+	 */
+	bool isInitialized(void);
+	/**
+	 * Start the CVS daemon thread, and wait for it to listen.
 	 *
 	 * @return		Return true if the CVS daemon thread started successfully or
 	 * 				the daemon thread has already been started, otherwise return
-	 * 				false.
+	 * 				false, none of the addresses can be listened on.
 	 *
 	 */
 	bool startDaemon(void);
@@ -97,32 +453,242 @@ public:
 	bool stopDaemon(void);
 private:
 	/**
-	 * Start a new process the serve for the specified CVS client.
+	 * Hand the specified CVS client to a worker process of the pool. If no
+	 * worker can take it, the client is rejected, counted and logged.
+	 *
+	 * @param	client	The socket of the CVS client.
+	 * @param	root	The repository the client has asked for.
+	 * @param	user	The user name sent by the client.
+	 *
+	 * @return			Return true if the client is dispatched successfully,
+	 * 					otherwise return false.
+	 */
+	bool serveForClient(int client, CVSRoot *root, const char *user);
+	/**
+	 * Wait for the authentication preamble of the specified client.
 	 *
 	 * @param	client	The socket of the CVS client.
 	 *
-	 * @return			Return the PID of the created process if success,
-	 * 					otherwise return -1;
 	 */
-	pid_t serveForClient(int client);
+	void authenticateClient(int client);
+	/**
+	 * Check the authentication preamble of a client when more data of it
+	 * arrives. An authenticated client is admitted, a failed one is sent the
+	 * reason and closed.
+	 *
+	 * @param	fd		The readable file descriptor returned by epoll.
+	 * @param	events	The epoll events of the file descriptor.
+	 *
+	 * @return			Return true if the file descriptor is a client being
+	 * 					authenticated, otherwise return false.
+	 *
+	 */
+	bool checkClient(int fd, unsigned int events);
+	/**
+	 * Close the clients which do not finish the authentication in time.
+	 *
+	 */
+	void expireClients(void);
+	/**
+	 * Stop waiting for the authentication preamble of a client.
+	 *
+	 * @param	index	Index of the client in the pending list.
+	 *
+	 * @return			The socket of the client.
+	 *
+	 */
+	int forgetClient(int index);
+	/**
+	 * Serve the specified client at once if there is a free session slot,
+	 * otherwise put it to the wait queue or reject it.
+	 *
+	 * @param	client	The socket of the CVS client.
+	 * @param	root	The repository the client has asked for.
+	 * @param	user	The user name sent by the client.
+	 *
+	 */
+	void admitClient(int client, CVSRoot *root, const char *user);
+	/**
+	 * Serve waiting clients until the queue is empty or all session slots are
+	 * taken. A client whose repository is at its cap is skipped.
+	 *
+	 */
+	void drainQueue(void);
+	/**
+	 * Find a served repository.
+	 *
+	 * @param	repoPath	Path of the CVS repository.
+	 *
+	 * @return				Index of the repository in the root table, or -1 if
+	 * 						it is not served.
+	 *
+	 */
+	int findRoot(const char *repoPath);
+	/**
+	 * Forget the repository of the session of a worker, the session is
+	 * finished or the worker has exited.
+	 *
+	 * @param	worker	PID of the worker.
+	 *
+	 * @return			The repository of the session, or NULL if the worker
+	 * 					is not serving a session.
+	 *
+	 */
+	CVSRoot* releaseWorker(pid_t worker);
+	/**
+	 * Delete the removed repositories which have no session and no waiting
+	 * client any more.
+	 *
+	 */
+	void collectRoots(void);
+	/**
+	 * Write the record of a client turned away to the access log.
+	 *
+	 * @param	client	The socket of the CVS client.
+	 * @param	type	One of the ACCESS_* record types.
+	 * @param	user	The user name sent by the client, empty if unknown.
+	 * @param	root	The repository the client has asked for, NULL if
+	 * 					unknown.
+	 *
+	 */
+	void logClient(int client, int type, const char *user, CVSRoot *root);
+	/**
+	 * Wake up the threads in waitActivity() if the daemon has become busy or
+	 * idle. Called by the daemon thread after each round of events.
+	 *
+	 * @param	busy	Count of the busy clients.
+	 *
+	 */
+	void updateActivity(int busy);
+	/**
+	 * Send a pserver error to the specified client and close it.
+	 *
+	 * @param	client	The socket of the CVS client.
+	 * @param	reason	Text of the error.
+	 *
+	 */
+	static void rejectClient(int client, const char *reason);
+	/**
+	 * Update the counters and the session table with a report of a worker.
+	 *
+	 * @param	report	The report of the worker.
+	 *
+	 */
+	void onReport(const CVSReport *report);
+	/**
+	 * Reap all exited worker processes.
+	 *
+	 */
+	static void reapChildren(void);
+	/** SIGCHLD handler, it wakes up the daemon thread to reap children. */
+	static void onChildSignal(int signo);
 private:
 	/** CVS Daemon thread function. */
 	static void* daemonThreadFunc(void *param);
 private:
-	/** CVS repository path. */
-	char m_repoPath[MAX_PATH];
-	/** CVS temporary path. */
-	char m_tempPath[MAX_PATH];
 	/** CVS executable path. */
 	char m_execPath[MAX_PATH];
+	/** Lock area of the repositories, empty to keep the locks in them. */
+	char m_lockPath[MAX_TEMP_PATH];
 	/** Flag to indicate whether the CVS repository is initialized. */
 	bool m_isRepoInitialized;
 	/** Flag to indicate whether the CVS daemon is running. */
 	bool m_isDaemonRunning;
-	/** Semaphore used to handler the exit event of CVS daemon thread. */
-	sem_t m_exitThread;
+	/** Pipe used to wake up the CVS daemon thread and make it exit. */
+	int m_exitPipe[2];
+	/** Pipe written by the SIGCHLD handler. */
+	int m_reapPipe[2];
 	/** Semaphore used to sync the thread status. */
 	sem_t m_syncThread;
+	/** Count of addresses listened on, passed from the daemon thread with m_syncThread. */
+	int m_listenCount;
+	/** Pool of pre-forked CVS worker processes. */
+	CVSWorkerPool m_pool;
+	/** Max count of concurrent sessions. */
+	volatile int m_maxSessions;
+	/** Max count of clients waiting for a session slot. */
+	volatile int m_maxQueue;
+	/** Backlog of the listening sockets. */
+	volatile int m_backlog;
+	/** Listening sockets and accept threads of the daemon. */
+	CVSListener m_listener;
+	/** Lowest and highest gzip-stream level of the sessions. */
+	volatile int m_minLevel, m_maxLevel;
+	/** Whether the gzip-stream level of a session is adaptive. */
+	volatile bool m_isAdaptive;
+	/** A client waiting for a session slot. */
+	struct QueuedClient {
+		/** The socket of the client. */
+		int fd;
+		/** The repository the client has asked for. */
+		CVSRoot *root;
+		/** The user name sent by the client. */
+		char user[MAX_USERNAME];
+	};
+	/** Clients waiting for a session slot, in FIFO order. */
+	QueuedClient m_queue[MAX_QUEUE];
+	/** Count of waiting clients. */
+	int m_queueCount;
+	/** The repository of the session of a busy worker. */
+	struct Assignment {
+		/** PID of the worker. */
+		pid_t worker;
+		/** The repository. */
+		CVSRoot *root;
+	};
+	/** Repositories of the sessions of the busy workers. */
+	Assignment m_assignments[MAX_WORKERS];
+	/** Count of busy workers. */
+	int m_assignmentCount;
+	/** Served repositories, the first one is never removed. */
+	CVSRoot *m_roots[MAX_ROOTS];
+	/** Count of served repositories. */
+	int m_rootCount;
+	/** Removed repositories which still have sessions or waiting clients. */
+	CVSRoot *m_retired[MAX_ROOTS];
+	/** Count of removed repositories not deleted yet. */
+	int m_retiredCount;
+	/** Flag to indicate whether the daemon loop is running. */
+	bool m_isServing;
+	/** Mutex to protect the root table against the daemon thread. */
+	pthread_mutex_t m_rootLock;
+	/** Incremental backup of the repositories. */
+	CVSBackup m_backup;
+	/** Verification of the repositories. */
+	CVSVerifier m_verifier;
+	/** Housekeeping of the repositories. */
+	CVSHousekeeper m_housekeeper;
+	/** Access log of the clients and the sessions. */
+	CVSAccessLog m_log;
+	/** Bandwidth shaping relay of the sessions. */
+	CVSRelay m_relay;
+	/** Whether the new sessions are relayed. */
+	volatile bool m_isRelayed;
+	/** A client whose authentication preamble is not received yet. */
+	struct PendingClient {
+		/** The socket of the client. */
+		int fd;
+		/** Monotonic time in seconds when the client is dropped. */
+		long deadline;
+	};
+	/** Clients whose authentication preamble is not received yet. */
+	PendingClient m_pending[MAX_PENDING];
+	/** Count of pending clients. */
+	int m_pendingCount;
+	/** The epoll instance of the daemon loop. */
+	int m_epoll;
+	/** Counters of the CVS daemon. */
+	CVSStats m_stats;
+	/** Active and recently finished sessions. */
+	CVSSessionTable m_sessions;
+	/** Count of the busy clients last seen by the daemon thread. */
+	int m_busyCount;
+	/** Whether waitActivity() is cancelled. */
+	bool m_isActivityCancelled;
+	/** Mutex to protect the busy count. */
+	pthread_mutex_t m_activityMutex;
+	/** Condition signaled when the daemon becomes busy or idle. */
+	pthread_cond_t m_activityCond;
 };
 
 #endif//__CVSSERVICE_H__
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	jni/cvsstat.cpp
+ * @author	Eric.Tsai
+ *
+ */
+
+#include "cvsstat.h"
+
+#include <sys/wait.h>
+
+/** Upper bounds of the session duration histogram in milliseconds. */
+static const unsigned int DURATION_BOUNDS[] = {
+	100, 1000, 10000, 60000, 600000
+};
+
+/**
+ * Clear all counters.
+ */
+CVSStats::CVSStats()
+{
+	m_sequence = 0;
+	for (int i = 0; i < STAT_COUNT; ++i)
+		m_counters[i] = 0;
+}
+
+/**
+ * The sequence is made odd before the counters are touched.
+ */
+inline void CVSStats::beginUpdate(void)
+{
+	++m_sequence;
+	__sync_synchronize();
+}
+
+/**
+ * The sequence is made even after the counters are written.
+ */
+inline void CVSStats::endUpdate(void)
+{
+	__sync_synchronize();
+	++m_sequence;
+}
+
+/**
+ * Increase the accepted counter.
+ */
+void CVSStats::onAccepted(void)
+{
+	beginUpdate();
+	++m_counters[STAT_ACCEPTED];
+	endUpdate();
+}
+
+/**
+ * Increase the rejected counter.
+ */
+void CVSStats::onRejected(void)
+{
+	beginUpdate();
+	++m_counters[STAT_REJECTED];
+	endUpdate();
+}
+
+/**
+ * Increase the authentication failure counter.
+ */
+void CVSStats::onAuthFailed(void)
+{
+	beginUpdate();
+	++m_counters[STAT_AUTH_FAILED];
+	endUpdate();
+}
+
+/**
+ * Increase the active counter.
+ */
+void CVSStats::onSessionStarted(void)
+{
+	beginUpdate();
+	++m_counters[STAT_ACTIVE];
+	endUpdate();
+}
+
+/**
+ * Just save the count.
+ */
+void CVSStats::onQueueChanged(int waiting)
+{
+	beginUpdate();
+	m_counters[STAT_WAITING] = waiting;
+	endUpdate();
+}
+
+/**
+ * Account the bytes, the exit status and the duration of the session.
+ */
+void CVSStats::onSessionFinished(const CVSReport *report)
+{
+	int bucket = 0;
+	while (bucket < (int)(sizeof(DURATION_BOUNDS) / sizeof(DURATION_BOUNDS[0])) &&
+		report->duration >= DURATION_BOUNDS[bucket])
+		++bucket;
+
+	beginUpdate();
+	if (m_counters[STAT_ACTIVE] > 0)
+		--m_counters[STAT_ACTIVE];
+	++m_counters[STAT_FINISHED];
+	m_counters[STAT_BYTES_IN] += report->bytesIn;
+	m_counters[STAT_BYTES_OUT] += report->bytesOut;
+	if (report->status != -1 && WIFSIGNALED(report->status))
+		++m_counters[STAT_EXIT_SIGNALED];
+	else if (report->status != -1 && WEXITSTATUS(report->status) == 0)
+		++m_counters[STAT_EXIT_OK];
+	else
+		++m_counters[STAT_EXIT_ERROR];
+	++m_counters[STAT_DURATION_100MS + bucket];
+	endUpdate();
+}
+
+/**
+ * Copy the counters and retry if an update is in progress or happened during
+ * the copy.
+ */
+void CVSStats::snapshot(unsigned long long *counters, int count)
+{
+	if (count > STAT_COUNT)
+		count = STAT_COUNT;
+
+	unsigned int sequence;
+	do {
+		while ((sequence = m_sequence) & 1)
+			continue;
+		__sync_synchronize();
+		for (int i = 0; i < count; ++i)
+			counters[i] = m_counters[i];
+		__sync_synchronize();
+	} while (sequence != m_sequence);
+}
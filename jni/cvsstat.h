@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	jni/cvsstat.h
+ * @author	Eric.Tsai
+ *
+ */
+
+#ifndef __CVSSTATS_H__
+#define __CVSSTATS_H__
+
+#include "cvspool.h"
+
+/**
+ * Indexes of the counters kept by CVSStats. The order must be the same with
+ * the STAT_* constants of the com.iwares.app.pocketcvs.CVSService class.
+ *
+ */
+enum {
+	/** Count of accepted connections. */
+	STAT_ACCEPTED = 0,
+	/** Count of connections rejected by the admission control. */
+	STAT_REJECTED,
+	/** Count of sessions being served. */
+	STAT_ACTIVE,
+	/** Count of clients waiting for a session slot. */
+	STAT_WAITING,
+	/** Count of finished sessions. */
+	STAT_FINISHED,
+	/** Total bytes received from clients. */
+	STAT_BYTES_IN,
+	/** Total bytes sent to clients. */
+	STAT_BYTES_OUT,
+	/** Count of CVS processes exited with status 0. */
+	STAT_EXIT_OK,
+	/** Count of CVS processes exited with a non-zero status. */
+	STAT_EXIT_ERROR,
+	/** Count of CVS processes killed by a signal. */
+	STAT_EXIT_SIGNALED,
+	/** Count of connections dropped by the authentication of the daemon. */
+	STAT_AUTH_FAILED,
+	/** First bucket of the session duration histogram, < 100ms. */
+	STAT_DURATION_100MS,
+	/** Sessions take < 1s. */
+	STAT_DURATION_1S,
+	/** Sessions take < 10s. */
+	STAT_DURATION_10S,
+	/** Sessions take < 1min. */
+	STAT_DURATION_1MIN,
+	/** Sessions take < 10min. */
+	STAT_DURATION_10MIN,
+	/** Sessions take 10min or longer. */
+	STAT_DURATION_LONGER,
+	/** Count of counters. */
+	STAT_COUNT
+};
+
+/**
+ * \class CVSStats
+ *
+ * CVSStats keeps the counters of the CVS daemon. The counters are only written
+ * by the daemon thread and are protected by a sequence counter, so readers on
+ * other threads get a consistent snapshot without taking any lock.
+ *
+ */
+class CVSStats {
+public:
+	/**
+	 * Constructor.
+	 *
+	 */
+	CVSStats();
+private:
+	/** Hidden copy constructor. */
+	CVSStats(const CVSStats &other);
+	/** Hidden assign operator. */
+	CVSStats& operator =(const CVSStats &other);
+public:
+	/**
+	 * Called when a connection is accepted.
+	 *
+	 */
+	void onAccepted(void);
+	/**
+	 * Called when a connection is rejected by the admission control.
+	 *
+	 */
+	void onRejected(void);
+	/**
+	 * Called when a connection is dropped because its authentication
+	 * preamble is wrong or not received in time.
+	 *
+	 */
+	void onAuthFailed(void);
+	/**
+	 * Called when a client is dispatched to a worker.
+	 *
+	 */
+	void onSessionStarted(void);
+	/**
+	 * Called when the count of waiting clients is changed.
+	 *
+	 * @param	waiting		New count of waiting clients.
+	 *
+	 */
+	void onQueueChanged(int waiting);
+	/**
+	 * Called when a worker reports a finished session.
+	 *
+	 * @param	report		The report of the worker.
+	 *
+	 */
+	void onSessionFinished(const CVSReport *report);
+	/**
+	 * Copy all counters.
+	 *
+	 * @param	counters	Buffer to hold the counters.
+	 * @param	count		Count of counters to copy, at most STAT_COUNT.
+	 *
+	 */
+	void snapshot(unsigned long long *counters, int count);
+private:
+	/** Mark the beginning of an update. */
+	inline void beginUpdate(void);
+	/** Mark the end of an update. */
+	inline void endUpdate(void);
+private:
+	/** Sequence counter, it is odd while an update is in progress. */
+	volatile unsigned int m_sequence;
+	/** The counters. */
+	volatile unsigned long long m_counters[STAT_COUNT];
+};
+
+#endif//__CVSSTATS_H__
@@ -0,0 +1,333 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	jni/cvstemp.cpp
+ * @author	Eric.Tsai
+ *
+ */
+
+#include "cvstemp.h"
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <errno.h>
+#include <signal.h>
+#include <unistd.h>
+#include <dirent.h>
+#include <sys/stat.h>
+#include <limits.h>
+
+/** Prefix of the directory made by a CVS server process. */
+static const char SESSION_PREFIX[] = "cvs-serv";
+
+/**
+ * Create a directory and its missing parents.
+ *
+ * @param	path	Path of the directory.
+ *
+ * @return			Return true if the directory exists, otherwise return
+ * 					false.
+ *
+ */
+static bool __makeDirectories(const char *path)
+{
+	char buffer[MAX_TEMP_PATH];
+	strncpy(buffer, path, sizeof(buffer) - 1);
+	buffer[sizeof(buffer) - 1] = 0;
+	for (char *p = buffer + 1; *p; ++p) {
+		if (*p != '/')
+			continue;
+		*p = 0;
+		mkdir(buffer, 0700);
+		*p = '/';
+	}
+	struct stat statbuf;
+	return (mkdir(buffer, 0700) == 0 || errno == EEXIST) &&
+		stat(buffer, &statbuf) == 0 && S_ISDIR(statbuf.st_mode);
+}
+
+/**
+ * Walk a directory tree, measure the space it uses and optionally remove it.
+ *
+ * @param	path	Path of the file or the directory.
+ * @param	remove	Whether to remove the tree.
+ *
+ * @return			Bytes used by the tree.
+ *
+ */
+static unsigned long long __walkTree(const char *path, bool remove)
+{
+	struct stat statbuf;
+	if (lstat(path, &statbuf) < 0)
+		return 0;
+	unsigned long long used = (unsigned long long)statbuf.st_blocks * 512;
+	if (!S_ISDIR(statbuf.st_mode)) {
+		if (remove)
+			unlink(path);
+		return used;
+	}
+	DIR *dir = opendir(path);
+	if (dir != NULL) {
+		struct dirent *dirent;
+		while ((dirent = readdir(dir)) != NULL) {
+			if (strcmp(dirent->d_name, ".") == 0 || strcmp(dirent->d_name, "..") == 0)
+				continue;
+			char child[PATH_MAX];
+			if (snprintf(child, sizeof(child), "%s/%s", path, dirent->d_name) < (int)sizeof(child))
+				used += __walkTree(child, remove);
+		}
+		closedir(dir);
+	}
+	if (remove)
+		rmdir(path);
+	return used;
+}
+
+/**
+ * Check whether an entry of the temporary area is the directory of a CVS
+ * server process which is gone.
+ *
+ * @param	name	Name of the entry.
+ *
+ * @return			Return true if it is orphaned, otherwise return false.
+ *
+ */
+static bool __isOrphan(const char *name)
+{
+	if (strncmp(name, SESSION_PREFIX, sizeof(SESSION_PREFIX) - 1) != 0)
+		return false;
+	char *end = NULL;
+	long pid = strtol(name + sizeof(SESSION_PREFIX) - 1, &end, 10);
+	return pid > 0 && *end == 0 && kill(pid, 0) < 0 && errno == ESRCH;
+}
+
+/**
+ * Start with no directory and no quota.
+ */
+CVSTempArea::CVSTempArea()
+{
+	m_path[0] = 0;
+	memset(&m_usage, 0, sizeof(m_usage));
+	pthread_mutex_init(&m_mutex, NULL);
+	pthread_cond_init(&m_wakeup, NULL);
+	m_isRunning = false;
+	m_isStopping = false;
+	m_isPoked = false;
+}
+
+/**
+ * Stop the sweeper thread if it is running.
+ */
+CVSTempArea::~CVSTempArea()
+{
+	stop();
+	pthread_cond_destroy(&m_wakeup);
+	pthread_mutex_destroy(&m_mutex);
+}
+
+/**
+ * The usage is measured again for the new directory by the next sweep.
+ */
+bool CVSTempArea::configure(const char *path, unsigned long long quota)
+{
+	if (!__makeDirectories(path))
+		return false;
+	pthread_mutex_lock(&m_mutex);
+	if (strcmp(m_path, path) != 0) {
+		strncpy(m_path, path, sizeof(m_path) - 1);
+		m_path[sizeof(m_path) - 1] = 0;
+		m_usage.used = 0;
+		m_usage.sessions = 0;
+		m_usage.swept = 0;
+	}
+	m_usage.quota = quota;
+	m_isPoked = true;
+	pthread_cond_signal(&m_wakeup);
+	pthread_mutex_unlock(&m_mutex);
+	return true;
+}
+
+/**
+ * Copy the path while the mutex is held.
+ */
+void CVSTempArea::getPath(char *path)
+{
+	pthread_mutex_lock(&m_mutex);
+	strcpy(path, m_path);
+	pthread_mutex_unlock(&m_mutex);
+}
+
+/**
+ * Copy the usage while the mutex is held.
+ */
+void CVSTempArea::getUsage(CVSTempUsage *usage)
+{
+	pthread_mutex_lock(&m_mutex);
+	*usage = m_usage;
+	pthread_mutex_unlock(&m_mutex);
+}
+
+/**
+ * Compare the last measured usage with the quota.
+ */
+bool CVSTempArea::isOverQuota(void)
+{
+	pthread_mutex_lock(&m_mutex);
+	bool over = m_usage.quota > 0 && m_usage.used >= m_usage.quota;
+	pthread_mutex_unlock(&m_mutex);
+	return over;
+}
+
+/**
+ * Create the sweeper thread, the first sweep removes whatever the sessions of
+ * the last run have left behind.
+ */
+bool CVSTempArea::start(void)
+{
+	pthread_mutex_lock(&m_mutex);
+	if (!m_isRunning) {
+		m_isStopping = false;
+		m_isPoked = true;
+		m_isRunning = pthread_create(&m_thread, NULL, sweeperThreadFunc, this) == 0;
+	}
+	bool running = m_isRunning;
+	pthread_mutex_unlock(&m_mutex);
+	return running;
+}
+
+/**
+ * Just set the flag and wake up the sweeper thread.
+ */
+void CVSTempArea::poke(void)
+{
+	pthread_mutex_lock(&m_mutex);
+	m_isPoked = true;
+	pthread_cond_signal(&m_wakeup);
+	pthread_mutex_unlock(&m_mutex);
+}
+
+/**
+ * Wake up the sweeper thread and wait for it. A sweep in progress is finished
+ * first.
+ */
+void CVSTempArea::stop(void)
+{
+	pthread_mutex_lock(&m_mutex);
+	bool running = m_isRunning;
+	m_isStopping = true;
+	pthread_cond_signal(&m_wakeup);
+	pthread_mutex_unlock(&m_mutex);
+	if (running)
+		pthread_join(m_thread, NULL);
+	m_isRunning = false;
+}
+
+/**
+ * A cvs-serv<pid> directory belongs to a session as long as the process is
+ * alive. The CVS processes run as the same user as the service, so kill() with
+ * signal 0 tells whether it is. Everything else in the area is only measured.
+ */
+void CVSTempArea::sweep(void)
+{
+	char path[MAX_TEMP_PATH];
+	getPath(path);
+	if (path[0] == 0)
+		return;
+
+	CVSTempUsage usage;
+	memset(&usage, 0, sizeof(usage));
+	DIR *dir = opendir(path);
+	if (dir != NULL) {
+		struct dirent *dirent;
+		while ((dirent = readdir(dir)) != NULL) {
+			const char *name = dirent->d_name;
+			if (strcmp(name, ".") == 0 || strcmp(name, "..") == 0)
+				continue;
+			char child[PATH_MAX];
+			if (snprintf(child, sizeof(child), "%s/%s", path, name) >= (int)sizeof(child))
+				continue;
+			if (__isOrphan(name)) {
+				__walkTree(child, true);
+				++usage.removed;
+				continue;
+			}
+			if (strncmp(name, SESSION_PREFIX, sizeof(SESSION_PREFIX) - 1) == 0)
+				++usage.sessions;
+			usage.used += __walkTree(child, false);
+		}
+		closedir(dir);
+	}
+
+	pthread_mutex_lock(&m_mutex);
+	if (strcmp(path, m_path) == 0) {
+		m_usage.used = usage.used;
+		m_usage.sessions = usage.sessions;
+		m_usage.swept = time(NULL);
+	}
+	m_usage.removed += usage.removed;
+	pthread_mutex_unlock(&m_mutex);
+}
+
+/**
+ * Only the orphaned directories are walked, the rest of the area is not
+ * measured.
+ */
+int CVSTempArea::removeOrphans(const char *path)
+{
+	int removed = 0;
+	DIR *dir = opendir(path);
+	if (dir == NULL)
+		return 0;
+	struct dirent *dirent;
+	while ((dirent = readdir(dir)) != NULL) {
+		char child[PATH_MAX];
+		if (!__isOrphan(dirent->d_name) ||
+			snprintf(child, sizeof(child), "%s/%s", path, dirent->d_name) >= (int)sizeof(child))
+			continue;
+		__walkTree(child, true);
+		++removed;
+	}
+	closedir(dir);
+	return removed;
+}
+
+/**
+ * Sweep, then sleep until poked, stopped or the interval is elapsed.
+ */
+void* CVSTempArea::sweeperThreadFunc(void *param)
+{
+	CVSTempArea *area = (CVSTempArea *)param;
+	pthread_mutex_lock(&area->m_mutex);
+	while (!area->m_isStopping) {
+		if (area->m_isPoked) {
+			area->m_isPoked = false;
+			pthread_mutex_unlock(&area->m_mutex);
+			area->sweep();
+			pthread_mutex_lock(&area->m_mutex);
+			continue;
+		}
+		struct timespec deadline;
+		clock_gettime(CLOCK_REALTIME, &deadline);
+		deadline.tv_sec += TEMP_SWEEP_INTERVAL;
+		if (pthread_cond_timedwait(&area->m_wakeup, &area->m_mutex, &deadline) == ETIMEDOUT)
+			area->m_isPoked = true;
+	}
+	pthread_mutex_unlock(&area->m_mutex);
+	return NULL;
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	jni/cvstemp.h
+ * @author	Eric.Tsai
+ *
+ */
+
+#ifndef __CVSTEMPAREA_H__
+#define __CVSTEMPAREA_H__
+
+#include <sys/types.h>
+#include <time.h>
+#include <pthread.h>
+
+/** Max length of the path of the temporary area. */
+#define MAX_TEMP_PATH		256
+
+/** Seconds between two sweeps of the temporary area. */
+#define TEMP_SWEEP_INTERVAL	300
+
+/**
+ * \struct CVSTempUsage
+ *
+ * Space used by the temporary area.
+ *
+ */
+struct CVSTempUsage {
+	/** Bytes used. */
+	unsigned long long used;
+	/** Quota in bytes, 0 for no quota. */
+	unsigned long long quota;
+	/** Count of directories of running CVS processes. */
+	int sessions;
+	/** Count of orphaned directories removed since the area is created. */
+	int removed;
+	/** Wall clock time of the last sweep, 0 if never swept. */
+	time_t swept;
+};
+
+/**
+ * \class CVSTempArea
+ *
+ * CVSTempArea owns the directory passed to the CVS processes with -T. Each CVS
+ * server process creates a cvs-serv<pid> directory in it, and leaves it behind
+ * if it is killed. A sweeper thread removes such directories and measures the
+ * space used, so new sessions can be refused while the quota is exceeded.
+ *
+ */
+class CVSTempArea {
+public:
+	/**
+	 * Constructor.
+	 *
+	 */
+	CVSTempArea();
+	/**
+	 * Destructor.
+	 *
+	 */
+	~CVSTempArea();
+private:
+	/** Hidden copy constructor. */
+	CVSTempArea(const CVSTempArea &other);
+	/** Hidden assign operator. */
+	CVSTempArea& operator =(const CVSTempArea &other);
+public:
+	/**
+	 * Set the directory and the quota of the temporary area. The directory is
+	 * created if it does not exist. Running sessions keep their old directory.
+	 *
+	 * @param	path	Path of the directory.
+	 * @param	quota	Quota in bytes, 0 for no quota.
+	 *
+	 * @return			Return true if the directory is usable, otherwise
+	 * 					return false.
+	 *
+	 */
+	bool configure(const char *path, unsigned long long quota);
+	/**
+	 * Copy the path of the directory.
+	 *
+	 * @param	path	Buffer to hold the path, at least MAX_TEMP_PATH.
+	 *
+	 */
+	void getPath(char *path);
+	/**
+	 * Get the space used by the temporary area, as measured by the last
+	 * sweep.
+	 *
+	 * @param	usage	Buffer to hold the usage.
+	 *
+	 */
+	void getUsage(CVSTempUsage *usage);
+	/**
+	 * Check whether the quota is exceeded, as measured by the last sweep.
+	 *
+	 * @return		Return true if the quota is exceeded, otherwise return
+	 * 				false.
+	 *
+	 */
+	bool isOverQuota(void);
+	/**
+	 * Start the sweeper thread, it sweeps at once and then periodically.
+	 *
+	 * @return		Return true if the thread is running, otherwise return
+	 * 				false.
+	 *
+	 */
+	bool start(void);
+	/**
+	 * Ask the sweeper thread to sweep as soon as possible. It is called when
+	 * a session is finished.
+	 *
+	 */
+	void poke(void);
+	/**
+	 * Stop the sweeper thread and wait for it to exit.
+	 *
+	 */
+	void stop(void);
+	/**
+	 * Remove the orphaned directories of a temporary area at once, on the
+	 * calling thread.
+	 *
+	 * @param	path	Path of the temporary area.
+	 *
+	 * @return			Count of directories removed.
+	 *
+	 */
+	static int removeOrphans(const char *path);
+private:
+	/**
+	 * Remove the orphaned directories and measure the space used.
+	 *
+	 */
+	void sweep(void);
+	/** Sweeper thread function. */
+	static void* sweeperThreadFunc(void *param);
+private:
+	/** Path of the directory. */
+	char m_path[MAX_TEMP_PATH];
+	/** Usage measured by the last sweep. */
+	CVSTempUsage m_usage;
+	/** Mutex to protect the fields. */
+	pthread_mutex_t m_mutex;
+	/** Condition to wake up the sweeper thread. */
+	pthread_cond_t m_wakeup;
+	/** The sweeper thread. */
+	pthread_t m_thread;
+	/** Whether the sweeper thread is running. */
+	bool m_isRunning;
+	/** Whether the sweeper thread should exit. */
+	bool m_isStopping;
+	/** Whether a sweep is requested. */
+	bool m_isPoked;
+};
+
+#endif//__CVSTEMPAREA_H__
@@ -0,0 +1,341 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	jni/cvsuser.cpp
+ * @author	Eric.Tsai
+ *
+ */
+
+#include "cvsuser.h"
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <unistd.h>
+#include <fcntl.h>
+#include <time.h>
+#include <pwd.h>
+
+/** Characters allowed in a crypt() salt. */
+static const char SALT_CHARS[] =
+	"abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789./";
+
+/**
+ * Make a random salt for crypt(). The salts of a batch of users must differ
+ * even if they are made in the same second, so the random source is seeded
+ * only once.
+ *
+ * @param	salt	Buffer to hold the salt, at least 3 characters.
+ *
+ */
+static void __makeSalt(char *salt)
+{
+	static bool seeded = false;
+	unsigned char bytes[2];
+	int fd = open("/dev/urandom", O_RDONLY);
+	if (fd < 0 || read(fd, bytes, sizeof(bytes)) != sizeof(bytes)) {
+		if (!seeded) {
+			srand(time(NULL) ^ getpid());
+			seeded = true;
+		}
+		bytes[0] = rand();
+		bytes[1] = rand();
+	}
+	if (fd >= 0)
+		close(fd);
+	salt[0] = SALT_CHARS[bytes[0] % (sizeof(SALT_CHARS) - 1)];
+	salt[1] = SALT_CHARS[bytes[1] % (sizeof(SALT_CHARS) - 1)];
+	salt[2] = 0;
+}
+
+/**
+ * Read a line from a CVSROOT file and cut it at the first ':' and the line
+ * break.
+ *
+ * @param	fp		The file.
+ * @param	line	Buffer to hold the line.
+ * @param	max		Size of the buffer.
+ * @param	rest	Set to the text after the first ':', or NULL if there is
+ * 					none.
+ *
+ * @return			Return true if a line is read, otherwise return false.
+ *
+ */
+static bool __readLine(FILE *fp, char *line, int max, char **rest)
+{
+	if (fgets(line, max, fp) == NULL)
+		return false;
+	line[strcspn(line, "\r\n")] = 0;
+	*rest = strchr(line, ':');
+	if (*rest != NULL)
+		*(*rest)++ = 0;
+	return true;
+}
+
+/**
+ * Start with no users.
+ */
+CVSUserStore::CVSUserStore()
+{
+	m_repoPath[0] = 0;
+	m_systemUser[0] = 0;
+	m_count = 0;
+	pthread_mutex_init(&m_mutex, NULL);
+}
+
+/**
+ * Destroy the mutex.
+ */
+CVSUserStore::~CVSUserStore()
+{
+	pthread_mutex_destroy(&m_mutex);
+}
+
+/**
+ * Users come from CVSROOT/passwd. Like CVS, a user listed in readers is read
+ * only, and if writers exists a user not listed in it is read only too.
+ */
+void CVSUserStore::load(const char *repoPath)
+{
+	pthread_mutex_lock(&m_mutex);
+
+	strncpy(m_repoPath, repoPath, sizeof(m_repoPath) - 1);
+	m_repoPath[sizeof(m_repoPath) - 1] = 0;
+	struct passwd *pw = getpwuid(getuid());
+	strncpy(m_systemUser, pw != NULL ? pw->pw_name : "nobody", MAX_USERNAME - 1);
+	m_systemUser[MAX_USERNAME - 1] = 0;
+	m_count = 0;
+
+	char filename[sizeof(m_repoPath) + 24];
+	char line[MAX_USERNAME + MAX_HASH + 256];
+	char *rest;
+	FILE *fp;
+
+	snprintf(filename, sizeof(filename), "%s/CVSROOT/passwd", m_repoPath);
+	if ((fp = fopen(filename, "r")) != NULL) {
+		while (m_count < MAX_ACCOUNTS && __readLine(fp, line, sizeof(line), &rest)) {
+			bool found;
+			int index = find(line, &found);
+			if (line[0] == 0 || found || strlen(line) >= MAX_USERNAME)
+				continue;
+			if (rest != NULL)
+				rest[strcspn(rest, ":")] = 0;
+			if (rest != NULL && strlen(rest) >= MAX_HASH)
+				continue;
+			memmove(&m_users[index + 1], &m_users[index], (m_count - index) * sizeof(User));
+			strcpy(m_users[index].username, line);
+			strcpy(m_users[index].hash, rest != NULL ? rest : "");
+			m_users[index].roles = ROLE_READ | ROLE_WRITE;
+			++m_count;
+		}
+		fclose(fp);
+	}
+
+	snprintf(filename, sizeof(filename), "%s/CVSROOT/writers", m_repoPath);
+	if ((fp = fopen(filename, "r")) != NULL) {
+		for (int i = 0; i < m_count; ++i)
+			m_users[i].roles = ROLE_READ;
+		while (__readLine(fp, line, sizeof(line), &rest)) {
+			bool found;
+			int index = find(line, &found);
+			if (found)
+				m_users[index].roles |= ROLE_WRITE;
+		}
+		fclose(fp);
+	}
+
+	snprintf(filename, sizeof(filename), "%s/CVSROOT/readers", m_repoPath);
+	if ((fp = fopen(filename, "r")) != NULL) {
+		while (__readLine(fp, line, sizeof(line), &rest)) {
+			bool found;
+			int index = find(line, &found);
+			if (found)
+				m_users[index].roles = ROLE_READ;
+		}
+		fclose(fp);
+	}
+
+	pthread_mutex_unlock(&m_mutex);
+}
+
+/**
+ * The files are published only once for the whole batch, invalid changes are
+ * skipped.
+ */
+int CVSUserStore::apply(const CVSUserUpdate *updates, int count)
+{
+	pthread_mutex_lock(&m_mutex);
+	int applied = 0;
+	for (int i = 0; i < count; ++i) {
+		if (update(&updates[i]))
+			++applied;
+	}
+	if (applied > 0 && !publish())
+		applied = -1;
+	pthread_mutex_unlock(&m_mutex);
+	return applied;
+}
+
+/**
+ * Drop all users before the changes are applied.
+ */
+int CVSUserStore::replace(const CVSUserUpdate *updates, int count)
+{
+	pthread_mutex_lock(&m_mutex);
+	m_count = 0;
+	int applied = 0;
+	for (int i = 0; i < count; ++i) {
+		if (update(&updates[i]))
+			++applied;
+	}
+	if (!publish())
+		applied = -1;
+	pthread_mutex_unlock(&m_mutex);
+	return applied;
+}
+
+/**
+ * The users are already sorted, just copy them.
+ */
+int CVSUserStore::list(char (*usernames)[MAX_USERNAME], int *roles, int max)
+{
+	pthread_mutex_lock(&m_mutex);
+	int count = m_count < max ? m_count : max;
+	for (int i = 0; i < count; ++i) {
+		strcpy(usernames[i], m_users[i].username);
+		roles[i] = m_users[i].roles;
+	}
+	pthread_mutex_unlock(&m_mutex);
+	return count;
+}
+
+/**
+ * Plain binary search over the sorted names.
+ */
+int CVSUserStore::find(const char *username, bool *found)
+{
+	int low = 0, high = m_count;
+	while (low < high) {
+		int middle = (low + high) / 2;
+		int result = strcmp(m_users[middle].username, username);
+		if (result == 0) {
+			*found = true;
+			return middle;
+		}
+		if (result < 0)
+			low = middle + 1;
+		else
+			high = middle;
+	}
+	*found = false;
+	return low;
+}
+
+/**
+ * A user name must fit in a line of CVSROOT/passwd. A new user must have a
+ * password, an empty one means no password like CVS does. Every user can
+ * read, ROLE_WRITE is the only optional role.
+ */
+bool CVSUserStore::update(const CVSUserUpdate *update)
+{
+	const char *username = update->username;
+	if (username == NULL || username[0] == 0 || strlen(username) >= MAX_USERNAME ||
+		strpbrk(username, ":\r\n") != NULL)
+		return false;
+
+	bool found;
+	int index = find(username, &found);
+
+	if (update->roles == ROLE_REMOVE) {
+		if (!found)
+			return false;
+		memmove(&m_users[index], &m_users[index + 1], (m_count - index - 1) * sizeof(User));
+		--m_count;
+		return true;
+	}
+
+	char hash[MAX_HASH];
+	if (update->password == NULL) {
+		if (!found)
+			return false;
+		strcpy(hash, m_users[index].hash);
+	} else if (update->password[0] == 0) {
+		hash[0] = 0;
+	} else {
+		char salt[3];
+		__makeSalt(salt);
+		if (!CVSAuthenticator::hashPassword(update->password, salt, hash, sizeof(hash)))
+			return false;
+	}
+
+	if (!found) {
+		if (m_count >= MAX_ACCOUNTS)
+			return false;
+		memmove(&m_users[index + 1], &m_users[index], (m_count - index) * sizeof(User));
+		strcpy(m_users[index].username, username);
+		++m_count;
+	}
+	strcpy(m_users[index].hash, hash);
+	m_users[index].roles = ROLE_READ | (update->roles & ROLE_WRITE);
+	return true;
+}
+
+/**
+ * The role files go first and passwd last, so a new user can not log in
+ * before its roles are in place, and a removed user can not log in any more
+ * once passwd is replaced.
+ */
+bool CVSUserStore::publish(void)
+{
+	return publishFile("readers", ROLE_READ) &&
+		publishFile("writers", ROLE_WRITE) &&
+		publishFile("passwd", 0);
+}
+
+/**
+ * The temporary file is named the way CVS names its own, and is synced before
+ * it is renamed so a crash never leaves an empty file behind.
+ */
+bool CVSUserStore::publishFile(const char *name, int kind)
+{
+	char filename[sizeof(m_repoPath) + 24];
+	char tempname[sizeof(m_repoPath) + 24];
+	snprintf(filename, sizeof(filename), "%s/CVSROOT/%s", m_repoPath, name);
+	snprintf(tempname, sizeof(tempname), "%s/CVSROOT/,%s,", m_repoPath, name);
+
+	FILE *fp = fopen(tempname, "w");
+	if (fp == NULL)
+		return false;
+	for (int i = 0; i < m_count; ++i) {
+		const User &user = m_users[i];
+		if (kind == 0)
+			fprintf(fp, "%s:%s:%s\n", user.username, user.hash, m_systemUser);
+		else if (kind == ROLE_READ && !(user.roles & ROLE_WRITE))
+			fprintf(fp, "%s\n", user.username);
+		else if (kind == ROLE_WRITE && (user.roles & ROLE_WRITE))
+			fprintf(fp, "%s\n", user.username);
+	}
+	bool written = fflush(fp) == 0 && fsync(fileno(fp)) == 0;
+	if (fclose(fp) != 0)
+		written = false;
+	if (!written || rename(tempname, filename) < 0) {
+		unlink(tempname);
+		return false;
+	}
+	return true;
+}
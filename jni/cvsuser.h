@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	jni/cvsuser.h
+ * @author	Eric.Tsai
+ *
+ */
+
+#ifndef __CVSUSERSTORE_H__
+#define __CVSUSERSTORE_H__
+
+#include <pthread.h>
+
+#include "cvsauth.h"
+
+/** Role - the user can check out and update. */
+#define ROLE_READ		1
+
+/** Role - the user can also commit, tag and import. */
+#define ROLE_WRITE		2
+
+/** Pseudo role of a user update - remove the user. */
+#define ROLE_REMOVE		-1
+
+/**
+ * \struct CVSUserUpdate
+ *
+ * A change to a user of a CVSUserStore.
+ *
+ */
+struct CVSUserUpdate {
+	/** User name. */
+	const char *username;
+	/** New password, NULL to keep the current one of an existing user. */
+	const char *password;
+	/** New roles, ROLE_READ and ROLE_WRITE, or ROLE_REMOVE. */
+	int roles;
+};
+
+/**
+ * \class CVSUserStore
+ *
+ * CVSUserStore keeps the users of a repository sorted by name, and publishes
+ * them to CVSROOT/passwd, readers and writers. Each file is written to a
+ * temporary file and renamed over the old one, so a CVS process always reads
+ * either the old or the new content.
+ *
+ */
+class CVSUserStore {
+public:
+	/**
+	 * Constructor.
+	 *
+	 */
+	CVSUserStore();
+	/**
+	 * Destructor.
+	 *
+	 */
+	~CVSUserStore();
+private:
+	/** Hidden copy constructor. */
+	CVSUserStore(const CVSUserStore &other);
+	/** Hidden assign operator. */
+	CVSUserStore& operator =(const CVSUserStore &other);
+public:
+	/**
+	 * Load the users of the specified repository from its CVSROOT files.
+	 *
+	 * @param	repoPath	Path of the CVS repository.
+	 *
+	 */
+	void load(const char *repoPath);
+	/**
+	 * Apply a batch of changes and publish the result once.
+	 *
+	 * @param	updates		The changes.
+	 * @param	count		Count of the changes.
+	 *
+	 * @return				Count of changes applied, or -1 if the CVSROOT
+	 * 						files cannot be written.
+	 *
+	 */
+	int apply(const CVSUserUpdate *updates, int count);
+	/**
+	 * Drop all users, apply a batch of changes and publish the result once.
+	 *
+	 * @param	updates		The changes.
+	 * @param	count		Count of the changes.
+	 *
+	 * @return				Count of changes applied, or -1 if the CVSROOT
+	 * 						files cannot be written.
+	 *
+	 */
+	int replace(const CVSUserUpdate *updates, int count);
+	/**
+	 * Copy the names and the roles of the users.
+	 *
+	 * @param	usernames	Buffer to hold the user names.
+	 * @param	roles		Buffer to hold the roles.
+	 * @param	max			Max count of users to copy.
+	 *
+	 * @return				Count of users copied.
+	 *
+	 */
+	int list(char (*usernames)[MAX_USERNAME], int *roles, int max);
+private:
+	/**
+	 * Find a user with binary search.
+	 *
+	 * @param	username	The user name.
+	 * @param	found		Set to true if the user exists.
+	 *
+	 * @return				Index of the user, or the index it should be
+	 * 						inserted at.
+	 *
+	 */
+	int find(const char *username, bool *found);
+	/**
+	 * Apply a change without publishing it.
+	 *
+	 * @param	update		The change.
+	 *
+	 * @return				Return true if the change is valid, otherwise
+	 * 						return false.
+	 *
+	 */
+	bool update(const CVSUserUpdate *update);
+	/**
+	 * Write the users to CVSROOT/readers, writers and passwd.
+	 *
+	 * @return		Return true if all files are written, otherwise return
+	 * 				false.
+	 *
+	 */
+	bool publish(void);
+	/**
+	 * Write a CVSROOT file through a temporary file and rename().
+	 *
+	 * @param	name	Name of the file under CVSROOT.
+	 * @param	kind	0 for passwd, ROLE_READ for readers and ROLE_WRITE for
+	 * 					writers.
+	 *
+	 * @return			Return true if success, otherwise return false.
+	 *
+	 */
+	bool publishFile(const char *name, int kind);
+private:
+	/** A user of the repository. */
+	struct User {
+		/** User name. */
+		char username[MAX_USERNAME];
+		/** Password hash made by crypt(), empty for no password. */
+		char hash[MAX_HASH];
+		/** ROLE_READ and ROLE_WRITE. */
+		int roles;
+	};
+	/** Path of the CVS repository. */
+	char m_repoPath[256];
+	/** System user the CVS processes run as. */
+	char m_systemUser[MAX_USERNAME];
+	/** Users sorted by name. */
+	User m_users[MAX_ACCOUNTS];
+	/** Count of users. */
+	int m_count;
+	/** Mutex to protect the users. */
+	pthread_mutex_t m_mutex;
+};
+
+#endif//__CVSUSERSTORE_H__
@@ -0,0 +1,797 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	jni/cvsverify.cpp
+ * @author	Eric.Tsai
+ *
+ */
+
+#include "cvsverify.h"
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <ctype.h>
+#include <errno.h>
+#include <fcntl.h>
+#include <unistd.h>
+#include <dirent.h>
+#include <signal.h>
+#include <limits.h>
+#include <sys/stat.h>
+#include <sys/time.h>
+
+/** Seconds after which a lock not named after a process is stale. */
+#define LOCK_STALE_AGE		300
+
+/** Seconds after which a temporary RCS file is stale. */
+#define TEMP_STALE_AGE		300
+
+/** Count of tasks between two additions to the shared progress. */
+#define PUBLISH_INTERVAL	32
+
+/** Milliseconds an idle worker waits before it looks for a task again. */
+#define IDLE_WAIT			10
+
+/** Token type - end of file. */
+#define TOKEN_EOF		0
+
+/** Token type - an id, a number or a keyword. */
+#define TOKEN_WORD		'w'
+
+/** Token type - a string, its content is skipped. */
+#define TOKEN_STRING	'@'
+
+/** Token type - a string not terminated, or a read error. */
+#define TOKEN_BAD		'!'
+
+/** Reads an RCS file through the buffer of a worker. */
+struct RCSReader {
+	/** The file. */
+	int fd;
+	/** The buffer. */
+	char *buffer;
+	/** Offset of the next byte and count of bytes in the buffer. */
+	int offset, length;
+	/** Whether the file could not be read. */
+	bool isFailed;
+	/** Bytes read. */
+	unsigned long long bytes;
+};
+
+/**
+ * Refill the buffer of a reader.
+ *
+ * @param	reader	The reader.
+ *
+ * @return			Return true if some bytes are read, otherwise return false
+ * 					at the end of the file or on an error.
+ *
+ */
+static bool __fill(RCSReader *reader)
+{
+	ssize_t size;
+	do {
+		size = read(reader->fd, reader->buffer, VERIFY_BUFFER_SIZE);
+	} while (size < 0 && errno == EINTR);
+	if (size < 0)
+		reader->isFailed = true;
+	if (size <= 0)
+		return false;
+	reader->offset = 0;
+	reader->length = size;
+	reader->bytes += size;
+	return true;
+}
+
+/**
+ * Read a byte.
+ *
+ * @param	reader	The reader.
+ *
+ * @return			The byte, or EOF.
+ *
+ */
+static inline int __readChar(RCSReader *reader)
+{
+	if (reader->offset == reader->length && !__fill(reader))
+		return EOF;
+	return (unsigned char)reader->buffer[reader->offset++];
+}
+
+/**
+ * Read the next token of an RCS file, like the one of the head index but the
+ * strings are skipped a buffer at a time and have to be terminated.
+ *
+ * @param	reader	The reader.
+ * @param	word	Buffer to hold the word, truncated if it is too long.
+ * @param	max		Size of the buffer.
+ *
+ * @return			TOKEN_EOF, TOKEN_WORD, TOKEN_STRING, TOKEN_BAD, ';' or
+ * 					':'.
+ *
+ */
+static int __nextToken(RCSReader *reader, char *word, int max)
+{
+	int c;
+	while ((c = __readChar(reader)) != EOF && isspace(c))
+		continue;
+	if (c == EOF)
+		return reader->isFailed ? TOKEN_BAD : TOKEN_EOF;
+	if (c == ';' || c == ':')
+		return c;
+	if (c == '@') {
+		// "@@" inside a string is an escaped '@'.
+		for (;;) {
+			if (reader->offset == reader->length && !__fill(reader))
+				return TOKEN_BAD;
+			char *p = reader->buffer + reader->offset;
+			char *at = (char *)memchr(p, '@', reader->length - reader->offset);
+			if (at == NULL) {
+				reader->offset = reader->length;
+				continue;
+			}
+			reader->offset += at - p + 1;
+			if ((c = __readChar(reader)) != '@') {
+				if (c != EOF)
+					--reader->offset;
+				return reader->isFailed ? TOKEN_BAD : TOKEN_STRING;
+			}
+		}
+	}
+	int length = 0;
+	do {
+		if (length < max - 1)
+			word[length++] = c;
+	} while ((c = __readChar(reader)) != EOF && !isspace(c) && c != ';' && c != ':' && c != '@');
+	if (c != EOF)
+		--reader->offset;
+	word[length] = 0;
+	return TOKEN_WORD;
+}
+
+/**
+ * Skip the values of a phrase up to its ';'.
+ *
+ * @param	reader	The reader.
+ *
+ * @return			Return true if the ';' is found, otherwise return false.
+ *
+ */
+static bool __skipPhrase(RCSReader *reader)
+{
+	char word[MAX_REVISION];
+	int token;
+	while ((token = __nextToken(reader, word, sizeof(word))) != ';') {
+		if (token == TOKEN_EOF || token == TOKEN_BAD)
+			return false;
+	}
+	return true;
+}
+
+/**
+ * Check whether a word is a revision number.
+ *
+ * @param	word	The word.
+ *
+ * @return			Return true if it is made of digits and dots.
+ *
+ */
+static bool __isRevision(const char *word)
+{
+	if (!isdigit((unsigned char)*word))
+		return false;
+	for (; *word; ++word) {
+		if (!isdigit((unsigned char)*word) && *word != '.')
+			return false;
+	}
+	return true;
+}
+
+/**
+ * Compare two revision numbers, or a revision number and a revision, whose
+ * number comes first.
+ */
+static int __compareRevisions(const void *a, const void *b)
+{
+	return strcmp((const char *)a, (const char *)b);
+}
+
+/**
+ * Get the process of a lock, from the ".<pid>" CVS puts at the end of the
+ * name of a read or write lock.
+ *
+ * @param	name	Name of the lock.
+ *
+ * @return			The process, 0 if the name has none.
+ *
+ */
+static pid_t __lockOwner(const char *name)
+{
+	const char *dot = strrchr(name, '.');
+	if (dot == NULL || dot[1] == 0)
+		return 0;
+	char *end;
+	long pid = strtol(dot + 1, &end, 10);
+	return *end == 0 && pid > 0 ? (pid_t)pid : 0;
+}
+
+CVSVerifier::CVSVerifier()
+{
+	m_workerCount = 0;
+	m_threadCount = 0;
+	m_pending = 0;
+	m_running = 0;
+	m_idleCount = 0;
+	pthread_mutex_init(&m_idleMutex, NULL);
+	pthread_cond_init(&m_idleCond, NULL);
+	m_isRepairing = false;
+	m_isLocksOnly = false;
+	memset(&m_status, 0, sizeof(m_status));
+	m_issueCount = 0;
+	pthread_mutex_init(&m_mutex, NULL);
+	m_isJoinable = false;
+	m_isCancelled = false;
+	m_isBusy = false;
+}
+
+/**
+ * Cancel the verification before the fields go away.
+ */
+CVSVerifier::~CVSVerifier()
+{
+	cancel();
+	pthread_mutex_destroy(&m_mutex);
+	pthread_cond_destroy(&m_idleCond);
+	pthread_mutex_destroy(&m_idleMutex);
+}
+
+/**
+ * The threads of the last verification are joined first, they have exited
+ * already if the status says it is not running. The trees are dealt to the
+ * workers round robin, the stealing evens out the rest.
+ */
+bool CVSVerifier::start(const char (*paths)[MAX_TEMP_PATH], int count, bool repair, bool locksOnly)
+{
+	pthread_mutex_lock(&m_mutex);
+	bool running = m_status.isRunning;
+	pthread_mutex_unlock(&m_mutex);
+	if (running || count <= 0)
+		return false;
+	cancel();
+
+	long cores = sysconf(_SC_NPROCESSORS_ONLN);
+	int threads = cores < 1 ? 1 : cores > MAX_VERIFY_THREADS ? MAX_VERIFY_THREADS : (int)cores;
+	for (m_workerCount = 0; m_workerCount < threads; ++m_workerCount) {
+		Worker *worker = new Worker;
+		memset(worker, 0, sizeof(*worker));
+		worker->owner = this;
+		worker->index = m_workerCount;
+		pthread_mutex_init(&worker->mutex, NULL);
+		m_workers[m_workerCount] = worker;
+	}
+
+	m_isRepairing = repair;
+	m_isLocksOnly = locksOnly;
+	m_isCancelled = false;
+	m_pending = 0;
+	m_idleCount = 0;
+	pthread_mutex_lock(&m_mutex);
+	memset(&m_status, 0, sizeof(m_status));
+	m_status.isRunning = true;
+	m_status.started = time(NULL);
+	m_status.threads = threads;
+	m_issueCount = 0;
+	pthread_mutex_unlock(&m_mutex);
+
+	if (count > MAX_VERIFY_TREES)
+		count = MAX_VERIFY_TREES;
+	for (int i = 0; i < count; ++i) {
+		int length = strlen(paths[i]);
+		char *task = (char *)malloc(length + 2);
+		if (task == NULL)
+			continue;
+		strcpy(task, paths[i]);
+		if (length == 0 || task[length - 1] != '/')
+			strcpy(task + length, "/");
+		push(m_workers[i % threads], task);
+	}
+
+	m_running = threads;
+	for (m_threadCount = 0; m_threadCount < threads; ++m_threadCount) {
+		Worker *worker = m_workers[m_threadCount];
+		if (pthread_create(&worker->thread, NULL, verifyThreadFunc, worker) != 0)
+			break;
+	}
+	m_isJoinable = m_threadCount > 0;
+	if (m_threadCount < threads && __sync_sub_and_fetch(&m_running, threads - m_threadCount) == 0) {
+		// No thread at all. Had some started, they would steal the tasks of
+		// the workers without one.
+		pthread_mutex_lock(&m_mutex);
+		m_status.isRunning = false;
+		m_status.isFailed = true;
+		m_status.finished = time(NULL);
+		pthread_mutex_unlock(&m_mutex);
+	}
+	return m_isJoinable;
+}
+
+/**
+ * Just copy the published status.
+ */
+void CVSVerifier::getStatus(CVSVerifyStatus *status)
+{
+	pthread_mutex_lock(&m_mutex);
+	*status = m_status;
+	pthread_mutex_unlock(&m_mutex);
+}
+
+/**
+ * Just copy the issues kept.
+ */
+int CVSVerifier::getIssues(CVSVerifyIssue *issues, int max)
+{
+	pthread_mutex_lock(&m_mutex);
+	int count = m_issueCount < max ? m_issueCount : max;
+	memcpy(issues, m_issues, count * sizeof(m_issues[0]));
+	pthread_mutex_unlock(&m_mutex);
+	return count;
+}
+
+/**
+ * Just set the flag, the workers check it before each removal.
+ */
+void CVSVerifier::setBusy(bool busy)
+{
+	m_isBusy = busy;
+}
+
+/**
+ * The workers check the flag between two tasks and two directory entries.
+ */
+void CVSVerifier::cancel(void)
+{
+	m_isCancelled = true;
+	if (m_isJoinable) {
+		pthread_mutex_lock(&m_idleMutex);
+		pthread_cond_broadcast(&m_idleCond);
+		pthread_mutex_unlock(&m_idleMutex);
+		for (int i = 0; i < m_threadCount; ++i)
+			pthread_join(m_workers[i]->thread, NULL);
+	}
+	m_isJoinable = false;
+	m_threadCount = 0;
+	release();
+}
+
+/**
+ * The task is counted before it can be seen, so the count never drops to 0
+ * while a thief is still working on it. The deque is compacted before it
+ * grows, the thieves leave a gap at its head.
+ */
+void CVSVerifier::push(Worker *worker, char *path)
+{
+	__sync_add_and_fetch(&m_pending, 1);
+	pthread_mutex_lock(&worker->mutex);
+	if (worker->tail == worker->capacity && worker->head > 0) {
+		memmove(worker->tasks, worker->tasks + worker->head, (worker->tail - worker->head) * sizeof(char *));
+		worker->tail -= worker->head;
+		worker->head = 0;
+	}
+	if (worker->tail == worker->capacity) {
+		int capacity = worker->capacity > 0 ? worker->capacity * 2 : 64;
+		char **tasks = (char **)realloc(worker->tasks, capacity * sizeof(char *));
+		if (tasks == NULL) {
+			pthread_mutex_unlock(&worker->mutex);
+			free(path);
+			__sync_sub_and_fetch(&m_pending, 1);
+			return;
+		}
+		worker->tasks = tasks;
+		worker->capacity = capacity;
+	}
+	worker->tasks[worker->tail++] = path;
+	pthread_mutex_unlock(&worker->mutex);
+
+	if (m_idleCount > 0) {
+		pthread_mutex_lock(&m_idleMutex);
+		pthread_cond_signal(&m_idleCond);
+		pthread_mutex_unlock(&m_idleMutex);
+	}
+}
+
+/**
+ * The owner takes the newest task, which is likely under a directory just
+ * read, and a thief the oldest one, which is likely a whole subtree.
+ */
+char* CVSVerifier::take(Worker *worker)
+{
+	char *task = NULL;
+	pthread_mutex_lock(&worker->mutex);
+	if (worker->tail > worker->head) {
+		task = worker->tasks[--worker->tail];
+		if (worker->tail == worker->head)
+			worker->head = worker->tail = 0;
+	}
+	pthread_mutex_unlock(&worker->mutex);
+
+	for (int i = 1; task == NULL && i < m_workerCount; ++i) {
+		Worker *victim = m_workers[(worker->index + i) % m_workerCount];
+		pthread_mutex_lock(&victim->mutex);
+		if (victim->tail > victim->head)
+			task = victim->tasks[victim->head++];
+		pthread_mutex_unlock(&victim->mutex);
+	}
+	return task;
+}
+
+/**
+ * Only the subdirectories, the RCS files unless only the locks are checked,
+ * the locks and the temporary files become tasks. The locks of CVS are
+ * checked as a whole, never walked into.
+ */
+void CVSVerifier::scanDirectory(Worker *worker, const char *path)
+{
+	DIR *dir = opendir(path);
+	if (dir == NULL)
+		return;
+	++worker->local.directories;
+
+	int length = strlen(path);
+	char entryPath[PATH_MAX];
+	struct dirent *dirent;
+	while (!m_isCancelled && (dirent = readdir(dir)) != NULL) {
+		const char *name = dirent->d_name;
+		if (strcmp(name, ".") == 0 || strcmp(name, "..") == 0)
+			continue;
+		int nameLength = strlen(name);
+		if (length + nameLength + 2 > (int)sizeof(entryPath))
+			continue;
+		memcpy(entryPath, path, length);
+		strcpy(entryPath + length, name);
+
+		bool isLock = strncmp(name, "#cvs.", 5) == 0;
+		bool isDirectory = dirent->d_type == DT_DIR;
+		if (dirent->d_type == DT_UNKNOWN) {
+			struct stat statbuf;
+			isDirectory = lstat(entryPath, &statbuf) == 0 && S_ISDIR(statbuf.st_mode);
+		}
+		if (isLock) {
+			isDirectory = false;
+		} else if (!isDirectory && name[0] != ',' && (m_isLocksOnly ||
+			nameLength < 2 || strcmp(name + nameLength - 2, ",v") != 0)) {
+			continue;
+		}
+		if (isDirectory)
+			strcpy(entryPath + length + nameLength, "/");
+
+		char *task = strdup(entryPath);
+		if (task != NULL)
+			push(worker, task);
+	}
+	closedir(dir);
+}
+
+/**
+ * A lock named after a process is stale once the process is gone, which
+ * kill() tells without a signal sent. A process of another user is taken as
+ * alive. The others, like the "#cvs.lock" directory, are stale once they are
+ * older than the longest commit is expected to take.
+ */
+void CVSVerifier::checkFile(Worker *worker, const char *path)
+{
+	const char *name = strrchr(path, '/');
+	name = name != NULL ? name + 1 : path;
+	int length = strlen(name);
+	bool isLock = strncmp(name, "#cvs.", 5) == 0;
+	bool isTemp = name[0] == ',';
+	if (!isLock && !isTemp) {
+		++worker->local.files;
+		if (!parse(worker, path))
+			report(worker, path, ISSUE_CORRUPT);
+		return;
+	}
+
+	struct stat statbuf;
+	if (lstat(path, &statbuf) < 0)
+		return;
+	time_t now = time(NULL);
+	if (isLock) {
+		pid_t pid = __lockOwner(name);
+		bool stale = pid > 0 ?
+			kill(pid, 0) < 0 && errno == ESRCH :
+			statbuf.st_mtime < now - LOCK_STALE_AGE;
+		if (stale)
+			report(worker, path, ISSUE_STALE_LOCK);
+	} else if (length > 1 && name[length - 1] == ',' && statbuf.st_mtime < now - TEMP_STALE_AGE) {
+		report(worker, path, ISSUE_STALE_TEMP);
+	}
+}
+
+/**
+ * The grammar is the one of rcsfile(5): the administrative phrases up to the
+ * first delta, the deltas, the description and a delta text for each delta,
+ * nothing else. The newer phrases CVS and RCS have added are skipped. A file
+ * gone meanwhile is not corrupt, it has been committed over.
+ */
+bool CVSVerifier::parse(Worker *worker, const char *path)
+{
+	RCSReader reader;
+	reader.fd = open(path, O_RDONLY);
+	if (reader.fd < 0)
+		return errno == ENOENT;
+	reader.buffer = worker->buffer;
+	reader.offset = reader.length = 0;
+	reader.isFailed = false;
+	reader.bytes = 0;
+	worker->deltaCount = worker->refCount = 0;
+
+	// The administrative part, "head" first. The word buffer is larger than a
+	// revision, so a revision too long is found rather than cut.
+	char word[MAX_REVISION * 2];
+	int token = __nextToken(&reader, word, sizeof(word));
+	bool result = token == TOKEN_WORD && strcmp(word, "head") == 0;
+	if (result && (token = __nextToken(&reader, word, sizeof(word))) == TOKEN_WORD) {
+		result = __isRevision(word) &&
+			addRevision(&worker->refs, &worker->refCount, &worker->refCapacity, word);
+		token = __nextToken(&reader, word, sizeof(word));
+	}
+	result = result && token == ';';
+	int phrases = 0;
+	while (result) {
+		if (__nextToken(&reader, word, sizeof(word)) != TOKEN_WORD) {
+			result = false;
+			break;
+		}
+		if (__isRevision(word) || strcmp(word, "desc") == 0)
+			break;
+		if (strcmp(word, "access") == 0)
+			phrases |= 1;
+		else if (strcmp(word, "symbols") == 0)
+			phrases |= 2;
+		else if (strcmp(word, "locks") == 0)
+			phrases |= 4;
+		result = __skipPhrase(&reader);
+	}
+	result = result && phrases == 7;
+
+	// The deltas, the revisions of their "branches" and "next" are kept.
+	while (result && __isRevision(word)) {
+		result = addRevision(&worker->deltas, &worker->deltaCount, &worker->deltaCapacity, word);
+		phrases = 0;
+		while (result) {
+			if (__nextToken(&reader, word, sizeof(word)) != TOKEN_WORD) {
+				result = false;
+				break;
+			}
+			if (__isRevision(word) || strcmp(word, "desc") == 0)
+				break;
+			bool isReference = false;
+			if (strcmp(word, "date") == 0) {
+				phrases |= 1;
+			} else if (strcmp(word, "author") == 0) {
+				phrases |= 2;
+			} else if (strcmp(word, "state") == 0) {
+				phrases |= 4;
+			} else if (strcmp(word, "branches") == 0) {
+				phrases |= 8;
+				isReference = true;
+			} else if (strcmp(word, "next") == 0) {
+				phrases |= 16;
+				isReference = true;
+			}
+			if (!isReference) {
+				result = __skipPhrase(&reader);
+				continue;
+			}
+			while (result && (token = __nextToken(&reader, word, sizeof(word))) != ';') {
+				result = token == TOKEN_WORD && __isRevision(word) &&
+					addRevision(&worker->refs, &worker->refCount, &worker->refCapacity, word);
+			}
+		}
+		result = result && phrases == 31;
+	}
+	result = result && strcmp(word, "desc") == 0 && __nextToken(&reader, word, sizeof(word)) == TOKEN_STRING;
+
+	// The delta texts, one for each delta.
+	Revision *deltas = worker->deltas;
+	int deltaCount = worker->deltaCount;
+	qsort(deltas, deltaCount, sizeof(Revision), __compareRevisions);
+	for (int i = 1; result && i < deltaCount; ++i)
+		result = strcmp(deltas[i - 1].number, deltas[i].number) != 0;
+	while (result) {
+		token = __nextToken(&reader, word, sizeof(word));
+		if (token == TOKEN_EOF)
+			break;
+		Revision *delta = NULL;
+		if (token == TOKEN_WORD)
+			delta = (Revision *)bsearch(word, deltas, deltaCount, sizeof(Revision), __compareRevisions);
+		if (delta == NULL || delta->hasText) {
+			result = false;
+			break;
+		}
+		delta->hasText = true;
+		result = __nextToken(&reader, word, sizeof(word)) == TOKEN_WORD && strcmp(word, "log") == 0 &&
+			__nextToken(&reader, word, sizeof(word)) == TOKEN_STRING;
+		while (result) {
+			if (__nextToken(&reader, word, sizeof(word)) != TOKEN_WORD) {
+				result = false;
+				break;
+			}
+			if (strcmp(word, "text") == 0)
+				break;
+			result = __skipPhrase(&reader);
+		}
+		result = result && __nextToken(&reader, word, sizeof(word)) == TOKEN_STRING;
+	}
+	close(reader.fd);
+	worker->local.bytes += reader.bytes;
+
+	for (int i = 0; result && i < deltaCount; ++i)
+		result = deltas[i].hasText;
+	for (int i = 0; result && i < worker->refCount; ++i)
+		result = bsearch(worker->refs[i].number, deltas, deltaCount, sizeof(Revision), __compareRevisions) != NULL;
+	return result;
+}
+
+/**
+ * The array grows by doubling, it is kept by the worker for the next file.
+ */
+bool CVSVerifier::addRevision(Revision **revisions, int *count, int *capacity, const char *number)
+{
+	if (strlen(number) >= MAX_REVISION)
+		return false;
+	if (*count == *capacity) {
+		int newCapacity = *capacity > 0 ? *capacity * 2 : 64;
+		Revision *newRevisions = (Revision *)realloc(*revisions, newCapacity * sizeof(Revision));
+		if (newRevisions == NULL)
+			return false;
+		*revisions = newRevisions;
+		*capacity = newCapacity;
+	}
+	Revision *revision = *revisions + (*count)++;
+	strcpy(revision->number, number);
+	revision->hasText = false;
+	return true;
+}
+
+/**
+ * unlink() refuses a directory, with EISDIR on Linux but EPERM by POSIX, the
+ * lock directory is removed by rmdir() then. A lock directory still holding
+ * a lock file is left alone.
+ */
+void CVSVerifier::report(Worker *worker, const char *path, int kind)
+{
+	bool repaired = false;
+	if (m_isRepairing && !m_isBusy && kind != ISSUE_CORRUPT) {
+		repaired = unlink(path) == 0 ||
+			((errno == EISDIR || errno == EPERM) && rmdir(path) == 0);
+	}
+	if (kind == ISSUE_CORRUPT)
+		++worker->local.corrupt;
+	else if (kind == ISSUE_STALE_LOCK)
+		++worker->local.locks;
+	else
+		++worker->local.temps;
+	if (repaired)
+		++worker->local.repaired;
+
+	pthread_mutex_lock(&m_mutex);
+	if (m_issueCount < MAX_VERIFY_ISSUES) {
+		CVSVerifyIssue *issue = m_issues + m_issueCount++;
+		strncpy(issue->path, path, sizeof(issue->path) - 1);
+		issue->path[sizeof(issue->path) - 1] = 0;
+		issue->kind = kind;
+		issue->isRepaired = repaired;
+	}
+	pthread_mutex_unlock(&m_mutex);
+}
+
+/**
+ * The counters are added in batches, the shared mutex is not taken for each
+ * file.
+ */
+void CVSVerifier::publish(Worker *worker)
+{
+	CVSVerifyStatus *local = &worker->local;
+	pthread_mutex_lock(&m_mutex);
+	m_status.directories += local->directories;
+	m_status.files += local->files;
+	m_status.corrupt += local->corrupt;
+	m_status.locks += local->locks;
+	m_status.temps += local->temps;
+	m_status.repaired += local->repaired;
+	m_status.bytes += local->bytes;
+	pthread_mutex_unlock(&m_mutex);
+	memset(local, 0, sizeof(*local));
+	worker->unpublished = 0;
+}
+
+/**
+ * Called with no worker thread running.
+ */
+void CVSVerifier::release(void)
+{
+	for (int i = 0; i < m_workerCount; ++i) {
+		Worker *worker = m_workers[i];
+		for (int j = worker->head; j < worker->tail; ++j)
+			free(worker->tasks[j]);
+		free(worker->tasks);
+		free(worker->deltas);
+		free(worker->refs);
+		pthread_mutex_destroy(&worker->mutex);
+		delete worker;
+	}
+	m_workerCount = 0;
+}
+
+/**
+ * A worker with no task waits as long as some are pending, one of them may
+ * still push more. The last task finished wakes them all to exit, and the
+ * last worker to exit finishes the status.
+ */
+void* CVSVerifier::verifyThreadFunc(void *param)
+{
+	Worker *worker = (Worker *)param;
+	CVSVerifier *verifier = worker->owner;
+	for (;;) {
+		char *task = verifier->take(worker);
+		if (task != NULL) {
+			if (!verifier->m_isCancelled) {
+				if (task[strlen(task) - 1] == '/')
+					verifier->scanDirectory(worker, task);
+				else
+					verifier->checkFile(worker, task);
+			}
+			free(task);
+			if (++worker->unpublished >= PUBLISH_INTERVAL)
+				verifier->publish(worker);
+			if (__sync_sub_and_fetch(&verifier->m_pending, 1) == 0) {
+				pthread_mutex_lock(&verifier->m_idleMutex);
+				pthread_cond_broadcast(&verifier->m_idleCond);
+				pthread_mutex_unlock(&verifier->m_idleMutex);
+			}
+			continue;
+		}
+		if (verifier->m_pending == 0 || verifier->m_isCancelled)
+			break;
+
+		struct timeval now;
+		gettimeofday(&now, NULL);
+		long nsec = now.tv_usec * 1000L + IDLE_WAIT * 1000000L;
+		struct timespec deadline;
+		deadline.tv_sec = now.tv_sec + nsec / 1000000000L;
+		deadline.tv_nsec = nsec % 1000000000L;
+		pthread_mutex_lock(&verifier->m_idleMutex);
+		++verifier->m_idleCount;
+		if (verifier->m_pending > 0 && !verifier->m_isCancelled)
+			pthread_cond_timedwait(&verifier->m_idleCond, &verifier->m_idleMutex, &deadline);
+		--verifier->m_idleCount;
+		pthread_mutex_unlock(&verifier->m_idleMutex);
+	}
+	verifier->publish(worker);
+
+	if (__sync_sub_and_fetch(&verifier->m_running, 1) == 0) {
+		pthread_mutex_lock(&verifier->m_mutex);
+		verifier->m_status.isRunning = false;
+		verifier->m_status.isFailed = verifier->m_isCancelled;
+		verifier->m_status.finished = time(NULL);
+		pthread_mutex_unlock(&verifier->m_mutex);
+	}
+	return NULL;
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	jni/cvsverify.h
+ * @author	Eric.Tsai
+ *
+ */
+
+#ifndef __CVSVERIFIER_H__
+#define __CVSVERIFIER_H__
+
+#include <sys/types.h>
+#include <time.h>
+#include <pthread.h>
+
+#include "cvstemp.h"
+#include "cvsindex.h"
+
+/** Max count of directory trees checked by one run, the repositories and the lock area. */
+#define MAX_VERIFY_TREES	9
+
+/** Max count of verifier threads. */
+#define MAX_VERIFY_THREADS	8
+
+/** Max count of issues kept, the rest are only counted. */
+#define MAX_VERIFY_ISSUES	64
+
+/** Max length of the path of an issue. */
+#define MAX_VERIFY_PATH		512
+
+/** Size of the buffer each thread reads the RCS files through. */
+#define VERIFY_BUFFER_SIZE	32768
+
+/** Issue - an RCS file which can not be parsed or is inconsistent. */
+#define ISSUE_CORRUPT		1
+
+/** Issue - a lock whose owner is gone. */
+#define ISSUE_STALE_LOCK	2
+
+/** Issue - a temporary RCS file left by an interrupted commit. */
+#define ISSUE_STALE_TEMP	3
+
+/**
+ * \struct CVSVerifyStatus
+ *
+ * Progress of the running verification, or the result of the last one.
+ *
+ */
+struct CVSVerifyStatus {
+	/** Whether a verification is running. */
+	bool isRunning;
+	/** Whether the last verification has been cancelled. */
+	bool isFailed;
+	/** Wall clock time the last verification is started, 0 if never. */
+	time_t started;
+	/** Wall clock time the last verification is finished, 0 if running. */
+	time_t finished;
+	/** Count of threads of the verification. */
+	int threads;
+	/** Count of directories scanned. */
+	unsigned int directories;
+	/** Count of RCS files parsed. */
+	unsigned int files;
+	/** Count of corrupt RCS files. */
+	unsigned int corrupt;
+	/** Count of stale locks. */
+	unsigned int locks;
+	/** Count of stale temporary RCS files. */
+	unsigned int temps;
+	/** Count of stale locks and temporary files removed. */
+	unsigned int repaired;
+	/** Bytes of the RCS files read. */
+	unsigned long long bytes;
+};
+
+/**
+ * \struct CVSVerifyIssue
+ *
+ * A problem found by the verification.
+ *
+ */
+struct CVSVerifyIssue {
+	/** Path of the file or the directory. */
+	char path[MAX_VERIFY_PATH];
+	/** One of the ISSUE_* kinds. */
+	int kind;
+	/** Whether it has been removed. */
+	bool isRepaired;
+};
+
+/**
+ * \class CVSVerifier
+ *
+ * CVSVerifier checks the repositories after the storage has been pulled out
+ * or the process has been killed in the middle of a commit. Each RCS file is
+ * parsed as a whole: the administrative part, the deltas, the description
+ * and the delta texts, and the revisions the head, the "next" and the
+ * "branches" fields name must all have a delta and a delta text. The locks
+ * of CVS whose processes are gone, and the temporary RCS files of the
+ * interrupted commits, are reported and optionally removed. A corrupt RCS
+ * file is only reported, its copy in the backup mirror can replace it.
+ *
+ * The trees are walked by a thread per core. Each thread keeps a deque of the
+ * directories and files it has found, works from its tail and, once it is
+ * empty, steals from the heads of the others, so a huge directory is shared
+ * by all the threads. The files are read with plain reads into a buffer of
+ * each thread, the delta texts are skipped, never kept.
+ *
+ * CVS never rewrites an RCS file in place, so a verification can run beside
+ * the sessions. A lock named after a living process is never stale. A lock
+ * with no process in its name, such as the master lock directory, is judged
+ * on its age only, so nothing is removed while the daemon is busy, a long
+ * commit may still hold it.
+ *
+ */
+class CVSVerifier {
+public:
+	/**
+	 * Constructor.
+	 *
+	 */
+	CVSVerifier();
+	/**
+	 * Destructor, a running verification is cancelled.
+	 *
+	 */
+	~CVSVerifier();
+private:
+	/** Hidden copy constructor. */
+	CVSVerifier(const CVSVerifier &other);
+	/** Hidden assign operator. */
+	CVSVerifier& operator =(const CVSVerifier &other);
+public:
+	/**
+	 * Start a verification of some directory trees, the repositories and the
+	 * lock area.
+	 *
+	 * @param	paths	Paths of the trees.
+	 * @param	count	Count of the trees.
+	 * @param	repair		Whether to remove the stale locks and temporary
+	 * 						files.
+	 * @param	locksOnly	Whether to skip the RCS files, only the locks and
+	 * 						the temporary files are checked.
+	 *
+	 * @return				Return true if the verification is started,
+	 * 						otherwise return false, one is running already.
+	 *
+	 */
+	bool start(const char (*paths)[MAX_TEMP_PATH], int count, bool repair, bool locksOnly);
+	/**
+	 * Get the progress of the running verification or the result of the
+	 * last one.
+	 *
+	 * @param	status	Buffer to hold the status.
+	 *
+	 */
+	void getStatus(CVSVerifyStatus *status);
+	/**
+	 * Get the issues found so far, in the order they are found.
+	 *
+	 * @param	issues	Buffer to hold the issues.
+	 * @param	max		Max count of issues to get.
+	 *
+	 * @return			Count of issues got.
+	 *
+	 */
+	int getIssues(CVSVerifyIssue *issues, int max);
+	/**
+	 * Tell whether the daemon is busy, the stale files are only reported
+	 * then. Called by the daemon thread.
+	 *
+	 * @param	busy	Whether any client is being served.
+	 *
+	 */
+	void setBusy(bool busy);
+	/**
+	 * Cancel the running verification and wait for its threads to exit.
+	 *
+	 */
+	void cancel(void);
+private:
+	/** A revision named by an RCS file. */
+	struct Revision {
+		/** The revision number, it must come first for the comparisons. */
+		char number[MAX_REVISION];
+		/** Whether its delta text is found. */
+		bool hasText;
+	};
+	/** A verifier thread and its deque of tasks. */
+	struct Worker {
+		/** The verifier. */
+		CVSVerifier *owner;
+		/** Index of the worker, the steals start from the next one. */
+		int index;
+		/** The thread. */
+		pthread_t thread;
+		/** Mutex to protect the deque against the thieves. */
+		pthread_mutex_t mutex;
+		/**
+		 * Paths of the tasks, a directory ends with '/'. The owner works
+		 * at the tail, the thieves take from the head.
+		 */
+		char **tasks;
+		/** Head, tail and capacity of the deque. */
+		int head, tail, capacity;
+		/** Revisions of the deltas of the file being parsed, sorted. */
+		Revision *deltas;
+		/** Count and capacity of the deltas. */
+		int deltaCount, deltaCapacity;
+		/** Revisions named by the head, next and branches fields. */
+		Revision *refs;
+		/** Count and capacity of the references. */
+		int refCount, refCapacity;
+		/** Counters not yet added to the shared progress. */
+		CVSVerifyStatus local;
+		/** Count of tasks since the counters are added. */
+		int unpublished;
+		/** Buffer the RCS files are read through. */
+		char buffer[VERIFY_BUFFER_SIZE];
+	};
+	/**
+	 * Add a task to the tail of a worker's deque.
+	 *
+	 * @param	worker	The worker.
+	 * @param	path	Path of the task, taken over.
+	 *
+	 */
+	void push(Worker *worker, char *path);
+	/**
+	 * Take a task from the tail of a worker's deque, or steal one from the
+	 * head of another's.
+	 *
+	 * @param	worker	The worker.
+	 *
+	 * @return			Path of the task, NULL if all the deques are empty.
+	 *
+	 */
+	char* take(Worker *worker);
+	/**
+	 * List a directory, its entries are pushed as tasks.
+	 *
+	 * @param	worker	The worker.
+	 * @param	path	Path of the directory, ending with '/'.
+	 *
+	 */
+	void scanDirectory(Worker *worker, const char *path);
+	/**
+	 * Check a file, or a lock directory.
+	 *
+	 * @param	worker	The worker.
+	 * @param	path	Path of the file.
+	 *
+	 */
+	void checkFile(Worker *worker, const char *path);
+	/**
+	 * Parse an RCS file and check its revisions.
+	 *
+	 * @param	worker	The worker.
+	 * @param	path	Path of the RCS file.
+	 *
+	 * @return			Return true if the file is intact, otherwise return
+	 * 					false.
+	 *
+	 */
+	bool parse(Worker *worker, const char *path);
+	/**
+	 * Append a revision to a growing array.
+	 *
+	 * @param	revisions	The array, moved when it grows.
+	 * @param	count		Count of the revisions, updated.
+	 * @param	capacity	Capacity of the array, updated.
+	 * @param	number		The revision number.
+	 *
+	 * @return				Return true if success, otherwise return false.
+	 *
+	 */
+	static bool addRevision(Revision **revisions, int *count, int *capacity, const char *number);
+	/**
+	 * Keep an issue, and remove the file if it is to be repaired.
+	 *
+	 * @param	worker	The worker.
+	 * @param	path	Path of the file or the directory.
+	 * @param	kind	One of the ISSUE_* kinds.
+	 *
+	 */
+	void report(Worker *worker, const char *path, int kind);
+	/**
+	 * Add the counters of a worker to the shared progress.
+	 *
+	 * @param	worker	The worker.
+	 *
+	 */
+	void publish(Worker *worker);
+	/**
+	 * Free the tasks left in the deques and the buffers of the workers.
+	 *
+	 */
+	void release(void);
+	/** Verifier thread function. */
+	static void* verifyThreadFunc(void *param);
+private:
+	/** The workers. */
+	Worker *m_workers[MAX_VERIFY_THREADS];
+	/** Count of the workers. */
+	int m_workerCount;
+	/** Count of the worker threads started. */
+	int m_threadCount;
+	/** Count of the tasks pushed and not finished yet. */
+	volatile int m_pending;
+	/** Count of the workers still running. */
+	volatile int m_running;
+	/** Count of the workers waiting for a task. */
+	volatile int m_idleCount;
+	/** Mutex the idle workers wait with. */
+	pthread_mutex_t m_idleMutex;
+	/** Condition signaled when a task is pushed. */
+	pthread_cond_t m_idleCond;
+	/** Whether the stale files are removed. */
+	bool m_isRepairing;
+	/** Whether the RCS files are skipped. */
+	bool m_isLocksOnly;
+	/** Status read by the other threads. */
+	CVSVerifyStatus m_status;
+	/** Issues found. */
+	CVSVerifyIssue m_issues[MAX_VERIFY_ISSUES];
+	/** Count of the issues kept. */
+	int m_issueCount;
+	/** Mutex to protect the status and the issues. */
+	pthread_mutex_t m_mutex;
+	/** Whether the worker threads have to be joined. */
+	bool m_isJoinable;
+	/** Whether the worker threads should exit. */
+	volatile bool m_isCancelled;
+	/** Whether the daemon is busy. */
+	volatile bool m_isBusy;
+};
+
+#endif//__CVSVERIFIER_H__
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	jni/gzpolicy.c
+ * @author	Eric.Tsai
+ *
+ * The CVS server compresses with whatever level the client asks for with -z.
+ * The daemon passes its own policy in the CVS_GZIP_POLICY environment variable
+ * as "<min> <max> <adaptive>", and the deflate functions of the bundled zlib
+ * are wrapped (-Wl,--wrap) to apply it: the requested level is clamped to
+ * [min, max], so min == max forces a level. In adaptive mode the level of the
+ * gzip stream is moved within the range once a second, down when the session
+ * keeps the CPU busy and up when it mostly waits for the network.
+ *
+ */
+#include <stdio.h>
+#include <stdlib.h>
+#include <unistd.h>
+#include <time.h>
+#include <sys/time.h>
+#include <sys/resource.h>
+
+#include "zlib.h"
+
+int __real_deflateInit_(z_streamp strm, int level, const char *version, int stream_size);
+int __real_deflateInit2_(z_streamp strm, int level, int method, int windowBits,
+	int memLevel, int strategy, const char *version, int stream_size);
+int __real_deflate(z_streamp strm, int flush);
+int __real_deflateEnd(z_streamp strm);
+
+/* Milliseconds between two adjustments of the level. */
+static const long long ADJUST_INTERVAL = 1000;
+
+/* Share of the wall time spent on the CPU above which the level goes down. */
+static const double CPU_BOUND = 0.75;
+
+/* Share of the wall time spent on the CPU below which the level goes up. */
+static const double NETWORK_BOUND = 0.25;
+
+/* The policy, loaded from the environment once. */
+static int s_loaded = 0, s_minLevel = 0, s_maxLevel = 9, s_adaptive = 0;
+
+/* The adaptive stream, its level and the current measuring window. */
+static z_streamp s_stream = NULL;
+static int s_level = 0;
+static long long s_windowStart = 0, s_windowCpu = 0, s_lastCall = 0;
+
+static void __loadPolicy(void)
+{
+	if (s_loaded)
+		return;
+	s_loaded = 1;
+	const char *policy = getenv("CVS_GZIP_POLICY");
+	if (policy == NULL || sscanf(policy, "%d %d %d", &s_minLevel, &s_maxLevel, &s_adaptive) != 3) {
+		s_minLevel = 0;
+		s_maxLevel = 9;
+		s_adaptive = 0;
+		return;
+	}
+	s_minLevel = s_minLevel < 0 ? 0 : s_minLevel > 9 ? 9 : s_minLevel;
+	s_maxLevel = s_maxLevel < s_minLevel ? s_minLevel : s_maxLevel > 9 ? 9 : s_maxLevel;
+}
+
+static int __clampLevel(int level)
+{
+	if (level == Z_DEFAULT_COMPRESSION)
+		level = 6;
+	return level < s_minLevel ? s_minLevel : level > s_maxLevel ? s_maxLevel : level;
+}
+
+static long long __wallMillis(void)
+{
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return (long long)ts.tv_sec * 1000 + ts.tv_nsec / 1000000;
+}
+
+static long long __cpuMillis(void)
+{
+	struct rusage usage;
+	if (getrusage(RUSAGE_SELF, &usage) < 0)
+		return 0;
+	return (long long)(usage.ru_utime.tv_sec + usage.ru_stime.tv_sec) * 1000 +
+		(usage.ru_utime.tv_usec + usage.ru_stime.tv_usec) / 1000;
+}
+
+/* The system is busy if the 1 minute load average is not below the count of
+ * online CPUs, an adaptive stream starts at the lowest level then. */
+static int __isSystemBusy(void)
+{
+	FILE *file = fopen("/proc/loadavg", "r");
+	if (file == NULL)
+		return 0;
+	double load = 0;
+	int scanned = fscanf(file, "%lf", &load);
+	fclose(file);
+	long cpus = sysconf(_SC_NPROCESSORS_ONLN);
+	return scanned == 1 && load >= (cpus > 0 ? cpus : 1);
+}
+
+/* The gzip stream of the protocol, the level of the client is clamped and
+ * it may be adjusted later. */
+int __wrap_deflateInit_(z_streamp strm, int level, const char *version, int stream_size)
+{
+	__loadPolicy();
+	level = __clampLevel(level);
+	if (s_adaptive && __isSystemBusy())
+		level = s_minLevel;
+	int result = __real_deflateInit_(strm, level, version, stream_size);
+	if (result == Z_OK && s_adaptive && s_minLevel < s_maxLevel) {
+		s_stream = strm;
+		s_level = level;
+		s_windowStart = s_lastCall = __wallMillis();
+		s_windowCpu = __cpuMillis();
+	}
+	return result;
+}
+
+/* The gzipped file contents of old clients, the level is only clamped. */
+int __wrap_deflateInit2_(z_streamp strm, int level, int method, int windowBits,
+	int memLevel, int strategy, const char *version, int stream_size)
+{
+	__loadPolicy();
+	return __real_deflateInit2_(strm, __clampLevel(level), method, windowBits,
+		memLevel, strategy, version, stream_size);
+}
+
+/* A pause longer than the interval is an idle session, not a slow network,
+ * so the window is started again instead of being measured. A change of the
+ * compression function makes deflateParams() flush into the output buffer,
+ * if that fills it the caller drains it and calls again, deflate() would
+ * return Z_BUF_ERROR which cvs takes as fatal. */
+int __wrap_deflate(z_streamp strm, int flush)
+{
+	if (strm != s_stream || strm->avail_out == 0)
+		return __real_deflate(strm, flush);
+
+	long long now = __wallMillis();
+	if (now - s_lastCall > ADJUST_INTERVAL) {
+		s_windowStart = now;
+		s_windowCpu = __cpuMillis();
+	} else if (now - s_windowStart >= ADJUST_INTERVAL) {
+		long long cpu = __cpuMillis();
+		double share = (double)(cpu - s_windowCpu) / (double)(now - s_windowStart);
+		int level = s_level;
+		if (share > CPU_BOUND && level > s_minLevel)
+			--level;
+		else if (share < NETWORK_BOUND && level < s_maxLevel)
+			++level;
+		if (level != s_level && deflateParams(strm, level, Z_DEFAULT_STRATEGY) == Z_OK)
+			s_level = level;
+		s_windowStart = now;
+		s_windowCpu = cpu;
+	}
+	s_lastCall = now;
+	if (strm->avail_out == 0)
+		return Z_OK;
+	return __real_deflate(strm, flush);
+}
+
+int __wrap_deflateEnd(z_streamp strm)
+{
+	if (strm == s_stream)
+		s_stream = NULL;
+	return __real_deflateEnd(strm);
+}
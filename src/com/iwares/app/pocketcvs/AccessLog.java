@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2011 iWARES Solution Provider
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+/**
+ * @file	src/com/iwares/app/pocketcvs/AccessLog.java
+ * @author	Eric.Tsai
+ *
+ */
+
+package com.iwares.app.pocketcvs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * AccessLog reads the access log written by the native daemon and its
+ * workers, see jni/cvsalog.h. The log file is mapped read only, so the
+ * records are read straight from the pages the daemon writes, from any
+ * process of the application, and reading never blocks the daemon.
+ *
+ * The log is a ring of numbered records. A reader keeps the sequence number
+ * of the next record it wants, and reads up to getHead(). A record which is
+ * being written, or has been overwritten by a newer one, is not read.
+ *
+ * @author Eric.Tsai
+ *
+ */
+public class AccessLog {
+
+	/** Record type - a session is finished. */
+	public static final int TYPE_SESSION = 1;
+
+	/** Record type - the user name or the password is wrong. */
+	public static final int TYPE_AUTH_FAILED = 2;
+
+	/** Record type - the client is turned away by the admission control. */
+	public static final int TYPE_REJECTED = 3;
+
+	/** Record type - the client does not speak pserver, asks for a repository
+	 * not served or does not finish its preamble in time. */
+	public static final int TYPE_BAD_REQUEST = 4;
+
+	/** Magic number of the log file, "CVAL". */
+	protected static final int MAGIC = 0x4c415643;
+
+	/** Layout version of the log file. */
+	protected static final int VERSION = 1;
+
+	/** Size of the header. */
+	protected static final int HEADER_SIZE = 64;
+
+	/** Size of a record. */
+	protected static final int RECORD_SIZE = 256;
+
+	/** Offsets of the header fields. */
+	protected static final int OFFSET_VERSION = 4, OFFSET_RECORD_SIZE = 8, OFFSET_CAPACITY = 12, OFFSET_HEAD = 16;
+
+	/** Offsets of the record fields. */
+	protected static final int OFFSET_SEQ = 0, OFFSET_TYPE = 4, OFFSET_TIME = 8, OFFSET_BYTES_IN = 16,
+		OFFSET_BYTES_OUT = 24, OFFSET_DURATION = 32, OFFSET_STATUS = 36, OFFSET_PID = 40,
+		OFFSET_ADDRESS = 48, OFFSET_USER = 112, OFFSET_ROOT = 176;
+
+	/** Sizes of the string fields of a record. */
+	protected static final int ADDRESS_SIZE = 64, USER_SIZE = 64, ROOT_SIZE = 80;
+
+	/**
+	 * A record read from the log.
+	 *
+	 * @author Eric.Tsai
+	 *
+	 */
+	public static class Entry {
+		/** Sequence number of the record. */
+		public int sequence;
+		/** One of the TYPE_* record types. */
+		public int type;
+		/** Wall clock time in milliseconds when the session is started or
+		 * the client is turned away. */
+		public long time;
+		/** Bytes received from the client, 0 if unknown. */
+		public long bytesIn;
+		/** Bytes sent to the client, 0 if unknown. */
+		public long bytesOut;
+		/** Duration of the session in milliseconds. */
+		public int duration;
+		/** Exit status of the CVS process, -1 if there is none. */
+		public int status;
+		/** PID of the CVS process, 0 if there is none. */
+		public int pid;
+		/** Address of the client. */
+		public String address;
+		/** User name sent by the client, empty if unknown. */
+		public String user;
+		/** Repository asked for by the client, empty if unknown. */
+		public String root;
+	}
+
+	/** The mapped log file. */
+	protected final ByteBuffer mBuffer;
+
+	/** Count of records in the ring. */
+	protected final int mCapacity;
+
+	/** Buffer the string fields are copied through. */
+	protected final byte[] mBytes = new byte[ROOT_SIZE];
+
+	/**
+	 * Map an access log file.
+	 *
+	 * @param file	The log file, see CVSService.getAccessLogFile().
+	 *
+	 * @return		The access log.
+	 *
+	 * @throws IOException	The file can not be mapped, or is not an access
+	 *						log.
+	 */
+	public static AccessLog open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			// The mapping stays valid after the file is closed.
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			if (size < HEADER_SIZE)
+				throw new IOException("Not an access log: " + file);
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			buffer.order(ByteOrder.nativeOrder());
+			int capacity = buffer.getInt(OFFSET_CAPACITY);
+			if (buffer.getInt(0) != MAGIC || buffer.getInt(OFFSET_VERSION) != VERSION ||
+				buffer.getInt(OFFSET_RECORD_SIZE) != RECORD_SIZE || capacity <= 0 ||
+				size != HEADER_SIZE + (long)capacity * RECORD_SIZE)
+				throw new IOException("Not an access log: " + file);
+			return new AccessLog(buffer, capacity);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param buffer	The mapped log file.
+	 * @param capacity	Count of records in the ring.
+	 */
+	protected AccessLog(ByteBuffer buffer, int capacity) {
+		mBuffer = buffer;
+		mCapacity = capacity;
+	}
+
+	/**
+	 * Get the mapped log file, for the readers which parse the records by
+	 * themselves. The fields are in the byte order of the device, the buffer
+	 * is set to it.
+	 *
+	 * @return	A read only direct buffer of the whole file.
+	 */
+	public ByteBuffer getBuffer() {
+		return mBuffer.duplicate().order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Get the count of records in the ring.
+	 *
+	 * @return	The capacity of the log.
+	 */
+	public int getCapacity() {
+		return mCapacity;
+	}
+
+	/**
+	 * Get the sequence number of the next record to be written.
+	 *
+	 * @return	The sequence number, it wraps around as an unsigned integer.
+	 */
+	public int getHead() {
+		return mBuffer.getInt(OFFSET_HEAD);
+	}
+
+	/**
+	 * Get the sequence number of the oldest record still in the ring.
+	 *
+	 * @return	The sequence number.
+	 */
+	public int getOldest() {
+		int head = getHead();
+		return head >= 0 && head < mCapacity ? 0 : head - mCapacity;
+	}
+
+	/**
+	 * Get the offset of a record in the buffer returned by getBuffer().
+	 *
+	 * @param sequence	Sequence number of the record.
+	 *
+	 * @return			Offset of the record.
+	 */
+	public int getOffset(int sequence) {
+		return HEADER_SIZE + (int)((sequence & 0xFFFFFFFFL) % mCapacity) * RECORD_SIZE;
+	}
+
+	/**
+	 * Read a record. The strings are decoded, the rest is read as it is.
+	 *
+	 * @param sequence	Sequence number of the record.
+	 * @param entry		The entry to fill.
+	 *
+	 * @return			Return true if the record is read, otherwise return
+	 *					false, it is being written or has been overwritten.
+	 */
+	public synchronized boolean read(int sequence, Entry entry) {
+		int offset = getOffset(sequence);
+		if (mBuffer.getInt(offset + OFFSET_SEQ) != sequence + 1)
+			return false;
+		entry.sequence = sequence;
+		entry.type = mBuffer.getInt(offset + OFFSET_TYPE);
+		entry.time = mBuffer.getLong(offset + OFFSET_TIME);
+		entry.bytesIn = mBuffer.getLong(offset + OFFSET_BYTES_IN);
+		entry.bytesOut = mBuffer.getLong(offset + OFFSET_BYTES_OUT);
+		entry.duration = mBuffer.getInt(offset + OFFSET_DURATION);
+		entry.status = mBuffer.getInt(offset + OFFSET_STATUS);
+		entry.pid = mBuffer.getInt(offset + OFFSET_PID);
+		entry.address = readString(offset + OFFSET_ADDRESS, ADDRESS_SIZE);
+		entry.user = readString(offset + OFFSET_USER, USER_SIZE);
+		entry.root = readString(offset + OFFSET_ROOT, ROOT_SIZE);
+		return mBuffer.getInt(offset + OFFSET_SEQ) == sequence + 1;
+	}
+
+	/**
+	 * Read a '\0' terminated UTF-8 string field.
+	 *
+	 * @param offset	Offset of the field.
+	 * @param size		Size of the field.
+	 *
+	 * @return			The string.
+	 */
+	protected String readString(int offset, int size) {
+		int length = 0;
+		for (; length < size; ++length) {
+			byte b = mBuffer.get(offset + length);
+			if (b == 0)
+				break;
+			mBytes[length] = b;
+		}
+		try {
+			return new String(mBytes, 0, length, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			return new String(mBytes, 0, length);
+		}
+	}
+
+}
@@ -23,6 +23,8 @@
 
 package com.iwares.app.pocketcvs;
 
+import java.util.Arrays;
+
 import android.content.ComponentName;
 import android.content.ServiceConnection;
 import android.os.Bundle;
@@ -68,6 +70,291 @@ public class CVSAgent extends Handler implements ServiceConnection {
 		 *
 		 */
 		public abstract void onUserPasswordChanged(boolean changed);
+		/**
+		 * Called when the session limits request returned.
+		 *
+		 * @param limits		Current session limits, with "maxSessions",
+		 *						"maxQueue" and "backlog" integer values.
+		 *
+		 */
+		public abstract void onSessionLimitsReceived(Bundle limits);
+		/**
+		 * Called when the compression policy request returned.
+		 *
+		 * @param policy		Current compression policy, with "minLevel"
+		 *						and "maxLevel" integer values and "adaptive"
+		 *						boolean value.
+		 *
+		 */
+		public abstract void onCompressionReceived(Bundle policy);
+		/**
+		 * Called when the statistics request returned.
+		 *
+		 * @param stats			Counters of the CVS daemon, see
+		 *						CVSService.MSG_GET_STATS. It is null if the
+		 *						counters are not available.
+		 *
+		 */
+		public abstract void onStatsReceived(Bundle stats);
+		/**
+		 * Called when the session table request returned.
+		 *
+		 * @param sessions		Active and recently finished sessions, see
+		 *						CVSService.MSG_GET_SESSIONS.
+		 *
+		 */
+		public abstract void onSessionsReceived(Bundle sessions);
+		/**
+		 * Called when the user list or batch user update request returned.
+		 *
+		 * @param users		The "usernames" and "roles" arrays of all users.
+		 *					The reply of a batch update also has the count of
+		 *					changes applied as "updated", -1 if failed.
+		 *
+		 */
+		public abstract void onUsersReceived(Bundle users);
+		/**
+		 * Called when the module state request returned.
+		 *
+		 * @param state		State of the module, see
+		 *					CVSService.loadModuleState().
+		 *
+		 */
+		public abstract void onModuleStateReceived(Bundle state);
+
+		/**
+		 * Called when the temporary area configuration and usage is
+		 * received.
+		 *
+		 * @param usage	Bundle with "location", "path", "quota", "used",
+		 *				"overQuota", "sessions", "removed" and "swept", or null
+		 *				if the usage is not available.
+		 *
+		 */
+		public abstract void onTempUsageReceived(Bundle usage);
+
+		/**
+		 * Called when the repository table is received, after each add or
+		 * remove repository request too.
+		 *
+		 * @param roots		Repositories being served, see
+		 *					CVSService.loadRoots().
+		 *
+		 */
+		public abstract void onRootsReceived(Bundle roots);
+
+		/**
+		 * Called when the lock area change request returned.
+		 *
+		 * @param changed	Whether the lock area is moved, it is not while
+		 *					the daemon is running.
+		 *
+		 */
+		public abstract void onLockAreaChanged(boolean changed);
+
+		/**
+		 * Called when the backup status is received, after each backup
+		 * request too.
+		 *
+		 * @param status	Status of the backup, see
+		 *					CVSService.loadBackupStatus(), or null if the
+		 *					status is not available.
+		 *
+		 */
+		public abstract void onBackupStatusReceived(Bundle status);
+
+		/**
+		 * Called when the relay configuration request returned.
+		 *
+		 * @param config	Current relay configuration, with "enabled"
+		 *					boolean value and "sessionRate" and "totalRate"
+		 *					integer values in KB/s.
+		 *
+		 */
+		public abstract void onRelayReceived(Bundle config);
+
+		/**
+		 * Called when the power mode request returned.
+		 *
+		 * @param mode	Current power mode, with "enabled" and "held"
+		 *				boolean values and "gracePeriod" integer value in
+		 *				seconds.
+		 *
+		 */
+		public abstract void onPowerModeReceived(Bundle mode);
+
+		/**
+		 * Called when the listeners configuration request returned.
+		 *
+		 * @param config	Current listeners configuration, see
+		 *					CVSService.MSG_SET_LISTENERS.
+		 *
+		 */
+		public abstract void onListenersReceived(Bundle config);
+
+		/**
+		 * Called when the verification status is received, after each
+		 * verification request too.
+		 *
+		 * @param status	Status of the verification, see
+		 *					CVSService.loadVerifyStatus(), or null if the
+		 *					status is not available.
+		 *
+		 */
+		public abstract void onVerifyStatusReceived(Bundle status);
+
+		/**
+		 * Called when the housekeeping request returned.
+		 *
+		 * @param status	Housekeeping configuration and status, see
+		 *					CVSService.loadHousekeeping(), or null if the
+		 *					status is not available.
+		 *
+		 */
+		public abstract void onHousekeepingReceived(Bundle status);
+
+		/**
+		 * Called when the initialization state of the CVSService is received.
+		 * The other requests are answered once it is CVSService.INIT_READY or
+		 * CVSService.INIT_FAILED.
+		 *
+		 * @param state	One of the CVSService.INIT_* states.
+		 *
+		 */
+		public abstract void onInitStateChanged(int state);
+	}
+
+	/**
+	 * Callback with empty bodies, a client extends it and overrides only the
+	 * methods it needs, so a new reply does not change every client.
+	 *
+	 */
+	public static class SimpleCallback implements Callback {
+		/* (non-Javadoc)
+		 * @see com.iwares.app.pocketcvs.CVSAgent.Callback#onDaemonStatusChanged(int)
+		 */
+		public void onDaemonStatusChanged(int newStatus) {
+			// Do nothing.
+		}
+
+		/* (non-Javadoc)
+		 * @see com.iwares.app.pocketcvs.CVSAgent.Callback#onUserPasswordChanged(boolean)
+		 */
+		public void onUserPasswordChanged(boolean changed) {
+			// Do nothing.
+		}
+
+		/* (non-Javadoc)
+		 * @see com.iwares.app.pocketcvs.CVSAgent.Callback#onSessionLimitsReceived(android.os.Bundle)
+		 */
+		public void onSessionLimitsReceived(Bundle limits) {
+			// Do nothing.
+		}
+
+		/* (non-Javadoc)
+		 * @see com.iwares.app.pocketcvs.CVSAgent.Callback#onCompressionReceived(android.os.Bundle)
+		 */
+		public void onCompressionReceived(Bundle policy) {
+			// Do nothing.
+		}
+
+		/* (non-Javadoc)
+		 * @see com.iwares.app.pocketcvs.CVSAgent.Callback#onStatsReceived(android.os.Bundle)
+		 */
+		public void onStatsReceived(Bundle stats) {
+			// Do nothing.
+		}
+
+		/* (non-Javadoc)
+		 * @see com.iwares.app.pocketcvs.CVSAgent.Callback#onSessionsReceived(android.os.Bundle)
+		 */
+		public void onSessionsReceived(Bundle sessions) {
+			// Do nothing.
+		}
+
+		/* (non-Javadoc)
+		 * @see com.iwares.app.pocketcvs.CVSAgent.Callback#onUsersReceived(android.os.Bundle)
+		 */
+		public void onUsersReceived(Bundle users) {
+			// Do nothing.
+		}
+
+		/* (non-Javadoc)
+		 * @see com.iwares.app.pocketcvs.CVSAgent.Callback#onModuleStateReceived(android.os.Bundle)
+		 */
+		public void onModuleStateReceived(Bundle state) {
+			// Do nothing.
+		}
+
+		/* (non-Javadoc)
+		 * @see com.iwares.app.pocketcvs.CVSAgent.Callback#onTempUsageReceived(android.os.Bundle)
+		 */
+		public void onTempUsageReceived(Bundle usage) {
+			// Do nothing.
+		}
+
+		/* (non-Javadoc)
+		 * @see com.iwares.app.pocketcvs.CVSAgent.Callback#onRootsReceived(android.os.Bundle)
+		 */
+		public void onRootsReceived(Bundle roots) {
+			// Do nothing.
+		}
+
+		/* (non-Javadoc)
+		 * @see com.iwares.app.pocketcvs.CVSAgent.Callback#onLockAreaChanged(boolean)
+		 */
+		public void onLockAreaChanged(boolean changed) {
+			// Do nothing.
+		}
+
+		/* (non-Javadoc)
+		 * @see com.iwares.app.pocketcvs.CVSAgent.Callback#onBackupStatusReceived(android.os.Bundle)
+		 */
+		public void onBackupStatusReceived(Bundle status) {
+			// Do nothing.
+		}
+
+		/* (non-Javadoc)
+		 * @see com.iwares.app.pocketcvs.CVSAgent.Callback#onRelayReceived(android.os.Bundle)
+		 */
+		public void onRelayReceived(Bundle config) {
+			// Do nothing.
+		}
+
+		/* (non-Javadoc)
+		 * @see com.iwares.app.pocketcvs.CVSAgent.Callback#onPowerModeReceived(android.os.Bundle)
+		 */
+		public void onPowerModeReceived(Bundle mode) {
+			// Do nothing.
+		}
+
+		/* (non-Javadoc)
+		 * @see com.iwares.app.pocketcvs.CVSAgent.Callback#onListenersReceived(android.os.Bundle)
+		 */
+		public void onListenersReceived(Bundle config) {
+			// Do nothing.
+		}
+
+		/* (non-Javadoc)
+		 * @see com.iwares.app.pocketcvs.CVSAgent.Callback#onVerifyStatusReceived(android.os.Bundle)
+		 */
+		public void onVerifyStatusReceived(Bundle status) {
+			// Do nothing.
+		}
+
+		/* (non-Javadoc)
+		 * @see com.iwares.app.pocketcvs.CVSAgent.Callback#onHousekeepingReceived(android.os.Bundle)
+		 */
+		public void onHousekeepingReceived(Bundle status) {
+			// Do nothing.
+		}
+
+		/* (non-Javadoc)
+		 * @see com.iwares.app.pocketcvs.CVSAgent.Callback#onInitStateChanged(int)
+		 */
+		public void onInitStateChanged(int state) {
+			// Do nothing.
+		}
 	}
 
 	/** Current callback interface of this CVSAgent object. */
@@ -116,7 +403,8 @@ public class CVSAgent extends Handler implements ServiceConnection {
 	public void onServiceConnected(ComponentName name, IBinder service) {
 		mMessenger = new Messenger(this);
 		mService = new Messenger(service);
-		postMessage(CVSService.MSG_DAEMON_STATUS, 0, 0, null);
+		requstInitState();
+		requstSubscribe(false);
 	}
 
 	/* (non-Javadoc)
@@ -127,6 +415,43 @@ public class CVSAgent extends Handler implements ServiceConnection {
 		// Do nothing.
 	}
 
+	/**
+	 * Subscribe to the CVSService, every change of the CVS daemon status is
+	 * then reported by onDaemonStatusChanged() without polling. The agent
+	 * subscribes for the status when it is connected.
+	 *
+	 * @param stats	Also report the counters by onStatsReceived() every
+	 *				CVSService.STATS_PUSH_INTERVAL while the daemon runs.
+	 *
+	 * @return		Return true if the request is post successfully, otherwise
+	 * 				return false.
+	 */
+	public boolean requstSubscribe(boolean stats) {
+		return postMessage(CVSService.MSG_SUBSCRIBE, stats ? 1 : 0, 0, null);
+	}
+
+	/**
+	 * Request the CVSService to report its initialization state, and each
+	 * later state until it is finished. The agent asks for it when it is
+	 * connected.
+	 *
+	 * @return	Return true if the request is post successfully, otherwise
+	 * 			return false.
+	 */
+	public boolean requstInitState() {
+		return postMessage(CVSService.MSG_INIT_STATE, 0, 0, null);
+	}
+
+	/**
+	 * Unsubscribe from the CVSService, should be called before unbinding.
+	 *
+	 * @return	Return true if the request is post successfully, otherwise
+	 * 			return false.
+	 */
+	public boolean requstUnsubscribe() {
+		return postMessage(CVSService.MSG_UNSUBSCRIBE, 0, 0, null);
+	}
+
 	/**
 	 * Request the CVSService to start the CVS daemon thread.
 	 *
@@ -162,6 +487,446 @@ public class CVSAgent extends Handler implements ServiceConnection {
 		return postMessage(CVSService.MSG_SET_USER_PASSWORD, 0, 0, (Object)bundle);
 	}
 
+	/**
+	 * Request the CVSService to add, update or remove a batch of users in one
+	 * round trip. The CVSROOT files are rewritten once for the whole batch.
+	 * @param usernames	User names.
+	 * @param passwords	New passwords, a null element keeps the password of an
+	 *					existing user.
+	 * @param roles		New roles, CVSService.ROLE_WRITE or 0 for a read only
+	 *					user, or CVSService.ROLE_REMOVE to remove the user.
+	 *
+	 * @return	Return true if the request is post successfully, otherwise
+	 * 			return false.
+	 */
+	public boolean requstUpdateUsers(String[] usernames, String[] passwords, int[] roles) {
+		Bundle bundle = new Bundle();
+		bundle.putStringArray("usernames", usernames);
+		bundle.putStringArray("passwords", passwords);
+		bundle.putIntArray("roles", roles);
+		return postMessage(CVSService.MSG_UPDATE_USERS, 0, 0, (Object)bundle);
+	}
+
+	/**
+	 * Request the CVSService to remove a batch of users.
+	 * @param usernames	User names.
+	 *
+	 * @return	Return true if the request is post successfully, otherwise
+	 * 			return false.
+	 */
+	public boolean requstRemoveUsers(String[] usernames) {
+		int[] roles = new int[usernames.length];
+		Arrays.fill(roles, CVSService.ROLE_REMOVE);
+		return requstUpdateUsers(usernames, new String[usernames.length], roles);
+	}
+
+	/**
+	 * Request the CVSService to report its users and their roles.
+	 *
+	 * @return	Return true if the request is post successfully, otherwise
+	 * 			return false.
+	 */
+	public boolean requstUsers() {
+		return postMessage(CVSService.MSG_GET_USERS, 0, 0, null);
+	}
+
+	/**
+	 * Request the CVSService to check whether a module has changed, without
+	 * running CVS or reading any RCS file that is not changed.
+	 * @param module	Path of the module relative to the repository, an
+	 *					empty string for the whole repository.
+	 * @param since		Digest of an earlier reply, or 0 if there is none.
+	 * @param heads		Whether the head revisions of the RCS files are
+	 *					wanted.
+	 *
+	 * @return	Return true if the request is post successfully, otherwise
+	 * 			return false.
+	 */
+	public boolean requstModuleState(String module, long since, boolean heads) {
+		Bundle bundle = new Bundle();
+		bundle.putString("module", module);
+		if (since != 0)
+			bundle.putLong("since", since);
+		bundle.putBoolean("heads", heads);
+		return postMessage(CVSService.MSG_GET_MODULE_STATE, 0, 0, (Object)bundle);
+	}
+
+	/**
+	 * Request the CVSService to move the temporary area of the CVS processes
+	 * and set its quota.
+	 * @param location	CVSService.TEMP_INTERNAL, TEMP_CACHE or TEMP_EXTERNAL.
+	 * @param quota		Quota in MB, 0 for no quota.
+	 *
+	 * @return	Return true if the request is post successfully, otherwise
+	 * 			return false.
+	 */
+	public boolean requstSetTempArea(int location, int quota) {
+		Bundle bundle = new Bundle();
+		bundle.putInt("location", location);
+		bundle.putInt("quota", quota);
+		return postMessage(CVSService.MSG_SET_TEMP_AREA, 0, 0, (Object)bundle);
+	}
+
+	/**
+	 * Request the CVSService to report the temporary area usage.
+	 *
+	 * @return	Return true if the request is post successfully, otherwise
+	 * 			return false.
+	 */
+	public boolean requstTempUsage() {
+		return postMessage(CVSService.MSG_GET_TEMP_USAGE, 0, 0, null);
+	}
+
+	/**
+	 * Request the CVSService to move the lock files of the CVS processes. The
+	 * daemon must be stopped.
+	 * @param location	CVSService.LOCK_INTERNAL or LOCK_REPOSITORY.
+	 *
+	 * @return	Return true if the request is post successfully, otherwise
+	 * 			return false.
+	 */
+	public boolean requstSetLockArea(int location) {
+		return postMessage(CVSService.MSG_SET_LOCK_AREA, location, 0, null);
+	}
+
+	/**
+	 * Request the CVSService to start an incremental backup of the
+	 * repositories.
+	 * @param path	Path of the backup directory, or null for the one of the
+	 *				last backup.
+	 *
+	 * @return	Return true if the request is post successfully, otherwise
+	 * 			return false.
+	 */
+	public boolean requstStartBackup(String path) {
+		Bundle bundle = new Bundle();
+		if (path != null)
+			bundle.putString("path", path);
+		return postMessage(CVSService.MSG_START_BACKUP, 0, 0, (Object)bundle);
+	}
+
+	/**
+	 * Request the CVSService to report the progress of the running backup or
+	 * the result of the last one.
+	 *
+	 * @return	Return true if the request is post successfully, otherwise
+	 * 			return false.
+	 */
+	public boolean requstBackupStatus() {
+		return postMessage(CVSService.MSG_GET_BACKUP_STATUS, 0, 0, null);
+	}
+
+	/**
+	 * Request the CVSService to serve one more repository, or to change the
+	 * session cap of one being served.
+	 * @param path			Path of the repository.
+	 * @param maxSessions	Max concurrent sessions of the repository, 0 for
+	 *						no cap.
+	 *
+	 * @return	Return true if the request is post successfully, otherwise
+	 * 			return false.
+	 */
+	public boolean requstAddRoot(String path, int maxSessions) {
+		Bundle bundle = new Bundle();
+		bundle.putString("path", path);
+		bundle.putInt("maxSessions", maxSessions);
+		return postMessage(CVSService.MSG_ADD_ROOT, 0, 0, (Object)bundle);
+	}
+
+	/**
+	 * Request the CVSService to stop serving a repository.
+	 * @param path	Path of the repository.
+	 *
+	 * @return	Return true if the request is post successfully, otherwise
+	 * 			return false.
+	 */
+	public boolean requstRemoveRoot(String path) {
+		Bundle bundle = new Bundle();
+		bundle.putString("path", path);
+		return postMessage(CVSService.MSG_REMOVE_ROOT, 0, 0, (Object)bundle);
+	}
+
+	/**
+	 * Request the CVSService to report the repositories being served.
+	 *
+	 * @return	Return true if the request is post successfully, otherwise
+	 * 			return false.
+	 */
+	public boolean requstRoots() {
+		return postMessage(CVSService.MSG_GET_ROOTS, 0, 0, null);
+	}
+
+	/**
+	 * Request the CVSService to change the session limits.
+	 * @param maxSessions	Max count of concurrent sessions.
+	 * @param maxQueue		Max count of clients waiting for a session slot, 0
+	 *						to reject them at once.
+	 * @param backlog		Backlog of the listening socket.
+	 *
+	 * @return	Return true if the request is post successfully, otherwise
+	 * 			return false.
+	 */
+	public boolean requstSetSessionLimits(int maxSessions, int maxQueue, int backlog) {
+		Bundle bundle = new Bundle();
+		bundle.putInt("maxSessions", maxSessions);
+		bundle.putInt("maxQueue", maxQueue);
+		bundle.putInt("backlog", backlog);
+		return postMessage(CVSService.MSG_SET_SESSION_LIMITS, 0, 0, (Object)bundle);
+	}
+
+	/**
+	 * Request the CVSService to report the current session limits.
+	 *
+	 * @return	Return true if the request is post successfully, otherwise
+	 * 			return false.
+	 */
+	public boolean requstSessionLimits() {
+		return postMessage(CVSService.MSG_GET_SESSION_LIMITS, 0, 0, null);
+	}
+
+	/**
+	 * Request the CVSService to change the gzip-stream compression policy.
+	 * The level a client asks for with -z is clamped to the range, a client
+	 * asks for no compression is not compressed.
+	 * @param minLevel	Lowest level, 0 to 9.
+	 * @param maxLevel	Highest level, 0 to 9, equal to minLevel to force a
+	 *					level.
+	 * @param adaptive	Whether the level of a session is moved within the
+	 *					range, down when it is CPU bound and up when it is
+	 *					network bound.
+	 *
+	 * @return	Return true if the request is post successfully, otherwise
+	 * 			return false.
+	 */
+	public boolean requstSetCompression(int minLevel, int maxLevel, boolean adaptive) {
+		Bundle bundle = new Bundle();
+		bundle.putInt("minLevel", minLevel);
+		bundle.putInt("maxLevel", maxLevel);
+		bundle.putBoolean("adaptive", adaptive);
+		return postMessage(CVSService.MSG_SET_COMPRESSION, 0, 0, (Object)bundle);
+	}
+
+	/**
+	 * Request the CVSService to report the current compression policy.
+	 *
+	 * @return	Return true if the request is post successfully, otherwise
+	 * 			return false.
+	 */
+	public boolean requstCompression() {
+		return postMessage(CVSService.MSG_GET_COMPRESSION, 0, 0, null);
+	}
+
+	/**
+	 * Request the CVSService to relay the sessions and shape their bandwidth.
+	 *
+	 * @param enabled		Whether to relay the new sessions.
+	 * @param sessionRate	KB/s of each session, 0 for no limit.
+	 * @param totalRate		KB/s of all the sessions, 0 for no limit.
+	 *
+	 * @return	Return true if the request is post successfully, otherwise
+	 * 			return false.
+	 */
+	public boolean requstSetRelay(boolean enabled, int sessionRate, int totalRate) {
+		Bundle bundle = new Bundle();
+		bundle.putBoolean("enabled", enabled);
+		bundle.putInt("sessionRate", sessionRate);
+		bundle.putInt("totalRate", totalRate);
+		return postMessage(CVSService.MSG_SET_RELAY, 0, 0, (Object)bundle);
+	}
+
+	/**
+	 * Request the CVSService to report the current relay configuration.
+	 *
+	 * @return	Return true if the request is post successfully, otherwise
+	 * 			return false.
+	 */
+	public boolean requstRelay() {
+		return postMessage(CVSService.MSG_GET_RELAY, 0, 0, null);
+	}
+
+	/**
+	 * Request the CVSService to hold a high performance WifiLock and a
+	 * partial WakeLock while the CVS daemon has sessions.
+	 *
+	 * @param enabled		Whether to hold the locks.
+	 * @param gracePeriod	Seconds the locks are kept after the last session.
+	 *
+	 * @return	Return true if the request is post successfully, otherwise
+	 * 			return false.
+	 */
+	public boolean requstSetPowerMode(boolean enabled, int gracePeriod) {
+		Bundle bundle = new Bundle();
+		bundle.putBoolean("enabled", enabled);
+		bundle.putInt("gracePeriod", gracePeriod);
+		return postMessage(CVSService.MSG_SET_POWER_MODE, 0, 0, (Object)bundle);
+	}
+
+	/**
+	 * Request the CVSService to report the current power mode.
+	 *
+	 * @return	Return true if the request is post successfully, otherwise
+	 * 			return false.
+	 */
+	public boolean requstPowerMode() {
+		return postMessage(CVSService.MSG_GET_POWER_MODE, 0, 0, null);
+	}
+
+	/**
+	 * Request the CVSService to change the listening sockets of the CVS
+	 * daemon, it takes effect when the daemon is started next time.
+	 *
+	 * @param addresses		Listening addresses, see
+	 *						CVSService.MSG_SET_LISTENERS.
+	 * @param acceptThreads	Count of accept threads, 0 to accept on the
+	 *						daemon thread.
+	 * @param noDelay		Whether to set TCP_NODELAY.
+	 * @param keepAlive		Idle seconds before the keep-alive probes, 0 for
+	 *						no keep-alive.
+	 * @param receiveBuffer	Receive buffer in KB, 0 for the system default.
+	 * @param sendBuffer	Send buffer in KB, 0 for the system default.
+	 *
+	 * @return	Return true if the request is post successfully, otherwise
+	 * 			return false.
+	 */
+	public boolean requstSetListeners(String addresses, int acceptThreads, boolean noDelay, int keepAlive,
+		int receiveBuffer, int sendBuffer) {
+		Bundle bundle = new Bundle();
+		bundle.putString("addresses", addresses);
+		bundle.putInt("acceptThreads", acceptThreads);
+		bundle.putBoolean("noDelay", noDelay);
+		bundle.putInt("keepAlive", keepAlive);
+		bundle.putInt("receiveBuffer", receiveBuffer);
+		bundle.putInt("sendBuffer", sendBuffer);
+		return postMessage(CVSService.MSG_SET_LISTENERS, 0, 0, (Object)bundle);
+	}
+
+	/**
+	 * Request the CVSService to report the current listeners configuration.
+	 *
+	 * @return	Return true if the request is post successfully, otherwise
+	 * 			return false.
+	 */
+	public boolean requstListeners() {
+		return postMessage(CVSService.MSG_GET_LISTENERS, 0, 0, null);
+	}
+
+	/**
+	 * Request the CVSService to verify the repositories, on a pool of
+	 * threads beside the sessions.
+	 * @param repair	Whether to remove the stale locks and the temporary
+	 *					files left by the interrupted commits.
+	 *
+	 * @return	Return true if the request is post successfully, otherwise
+	 * 			return false.
+	 */
+	public boolean requstStartVerify(boolean repair) {
+		Bundle bundle = new Bundle();
+		bundle.putBoolean("repair", repair);
+		return postMessage(CVSService.MSG_START_VERIFY, 0, 0, (Object)bundle);
+	}
+
+	/**
+	 * Request the CVSService to report the progress of the running
+	 * verification or the result of the last one.
+	 *
+	 * @return	Return true if the request is post successfully, otherwise
+	 * 			return false.
+	 */
+	public boolean requstVerifyStatus() {
+		return postMessage(CVSService.MSG_GET_VERIFY_STATUS, 0, 0, null);
+	}
+
+	/**
+	 * Request the CVSService to change the housekeeping.
+	 * @param interval		Hours between two housekeepings, 0 for none.
+	 * @param rotateSize	Size in KB over which CVSROOT/history and
+	 *						CVSROOT/val-tags are rotated.
+	 * @param generations	Count of compressed generations kept.
+	 *
+	 * @return	Return true if the request is post successfully, otherwise
+	 * 			return false.
+	 */
+	public boolean requstSetHousekeeping(int interval, int rotateSize, int generations) {
+		Bundle bundle = new Bundle();
+		bundle.putInt("interval", interval);
+		bundle.putInt("rotateSize", rotateSize);
+		bundle.putInt("generations", generations);
+		return postMessage(CVSService.MSG_SET_HOUSEKEEPING, 0, 0, (Object)bundle);
+	}
+
+	/**
+	 * Request the CVSService to report the housekeeping configuration and
+	 * the timing of its tasks.
+	 *
+	 * @return	Return true if the request is post successfully, otherwise
+	 * 			return false.
+	 */
+	public boolean requstHousekeeping() {
+		return postMessage(CVSService.MSG_GET_HOUSEKEEPING, 0, 0, null);
+	}
+
+	/**
+	 * Request the CVSService to start the housekeeping now, unless the CVS
+	 * daemon is busy.
+	 *
+	 * @return	Return true if the request is post successfully, otherwise
+	 * 			return false.
+	 */
+	public boolean requstStartHousekeeping() {
+		return postMessage(CVSService.MSG_START_HOUSEKEEPING, 0, 0, null);
+	}
+
+	/**
+	 * Request the CVSService to report the counters of the CVS daemon.
+	 *
+	 * @return	Return true if the request is post successfully, otherwise
+	 * 			return false.
+	 */
+	public boolean requstStats() {
+		return postMessage(CVSService.MSG_GET_STATS, 0, 0, null);
+	}
+
+	/**
+	 * Request the CVSService to report the active and recently finished
+	 * sessions with their resource usage.
+	 *
+	 * @return	Return true if the request is post successfully, otherwise
+	 * 			return false.
+	 */
+	public boolean requstSessions() {
+		return postMessage(CVSService.MSG_GET_SESSIONS, 0, 0, null);
+	}
+
+	/**
+	 * Request the CVSService to kill the CVS process of an active session.
+	 * @param pid	PID of the CVS process.
+	 *
+	 * @return	Return true if the request is post successfully, otherwise
+	 * 			return false.
+	 */
+	public boolean requstKillSession(int pid) {
+		return postMessage(CVSService.MSG_KILL_SESSION, pid, 0, null);
+	}
+
+	/**
+	 * Request the CVSService to configure the pool of CVS worker processes.
+	 * @param poolSize		Count of idle workers kept ready, 0 to disable
+	 *						pre-forking.
+	 * @param idleTimeout	Seconds an idle worker waits before it exits.
+	 * @param maxSessions	Count of sessions served by a worker before it is
+	 *						replaced.
+	 *
+	 * @return	Return true if the request is post successfully, otherwise
+	 * 			return false.
+	 */
+	public boolean requstSetWorkerPool(int poolSize, int idleTimeout, int maxSessions) {
+		Bundle bundle = new Bundle();
+		bundle.putInt("poolSize", poolSize);
+		bundle.putInt("idleTimeout", idleTimeout);
+		bundle.putInt("maxSessions", maxSessions);
+		return postMessage(CVSService.MSG_SET_WORKER_POOL, 0, 0, (Object)bundle);
+	}
+
 	/* (non-Javadoc)
 	 * @see android.os.Handler#handleMessage(android.os.Message)
 	 */
@@ -170,6 +935,7 @@ public class CVSAgent extends Handler implements ServiceConnection {
 		Log.d("CVSAgent", msg.toString());
 		switch (msg.what) {
 		case CVSService.MSG_DAEMON_STATUS:
+		case CVSService.MSG_SUBSCRIBE:
 			mStatus = msg.arg1 == 1 ? STATUS_RUNNING : STATUS_STOPPED;
 			mCallback.onDaemonStatusChanged(mStatus);
 			break;
@@ -184,6 +950,67 @@ public class CVSAgent extends Handler implements ServiceConnection {
 		case CVSService.MSG_SET_USER_PASSWORD:
 			mCallback.onUserPasswordChanged(msg.arg1 == 1);
 			break;
+		case CVSService.MSG_SET_SESSION_LIMITS:
+		case CVSService.MSG_GET_SESSION_LIMITS:
+			mCallback.onSessionLimitsReceived((Bundle)msg.obj);
+			break;
+		case CVSService.MSG_SET_COMPRESSION:
+		case CVSService.MSG_GET_COMPRESSION:
+			mCallback.onCompressionReceived((Bundle)msg.obj);
+			break;
+		case CVSService.MSG_SET_RELAY:
+		case CVSService.MSG_GET_RELAY:
+			mCallback.onRelayReceived((Bundle)msg.obj);
+			break;
+		case CVSService.MSG_SET_POWER_MODE:
+		case CVSService.MSG_GET_POWER_MODE:
+			mCallback.onPowerModeReceived((Bundle)msg.obj);
+			break;
+		case CVSService.MSG_SET_LISTENERS:
+		case CVSService.MSG_GET_LISTENERS:
+			mCallback.onListenersReceived((Bundle)msg.obj);
+			break;
+		case CVSService.MSG_START_VERIFY:
+		case CVSService.MSG_GET_VERIFY_STATUS:
+			mCallback.onVerifyStatusReceived((Bundle)msg.obj);
+			break;
+		case CVSService.MSG_SET_HOUSEKEEPING:
+		case CVSService.MSG_GET_HOUSEKEEPING:
+		case CVSService.MSG_START_HOUSEKEEPING:
+			mCallback.onHousekeepingReceived((Bundle)msg.obj);
+			break;
+		case CVSService.MSG_INIT_STATE:
+			mCallback.onInitStateChanged(msg.arg1);
+			break;
+		case CVSService.MSG_GET_STATS:
+			mCallback.onStatsReceived((Bundle)msg.obj);
+			break;
+		case CVSService.MSG_GET_SESSIONS:
+			mCallback.onSessionsReceived((Bundle)msg.obj);
+			break;
+		case CVSService.MSG_UPDATE_USERS:
+		case CVSService.MSG_GET_USERS:
+			mCallback.onUsersReceived((Bundle)msg.obj);
+			break;
+		case CVSService.MSG_GET_MODULE_STATE:
+			mCallback.onModuleStateReceived((Bundle)msg.obj);
+			break;
+		case CVSService.MSG_SET_TEMP_AREA:
+		case CVSService.MSG_GET_TEMP_USAGE:
+			mCallback.onTempUsageReceived((Bundle)msg.obj);
+			break;
+		case CVSService.MSG_ADD_ROOT:
+		case CVSService.MSG_REMOVE_ROOT:
+		case CVSService.MSG_GET_ROOTS:
+			mCallback.onRootsReceived((Bundle)msg.obj);
+			break;
+		case CVSService.MSG_START_BACKUP:
+		case CVSService.MSG_GET_BACKUP_STATUS:
+			mCallback.onBackupStatusReceived((Bundle)msg.obj);
+			break;
+		case CVSService.MSG_SET_LOCK_AREA:
+			mCallback.onLockAreaChanged(msg.arg1 == 1);
+			break;
 		default:
 			super.handleMessage(msg);
 			break;
@@ -23,7 +23,9 @@
 
 package com.iwares.app.pocketcvs;
 
+import java.io.File;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 
 import android.app.Service;
 import android.content.ComponentName;
@@ -31,12 +33,17 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.content.SharedPreferences;
+import android.net.wifi.WifiManager;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.Message;
 import android.os.Messenger;
+import android.os.PowerManager;
 import android.util.Log;
 
 /**
@@ -50,21 +57,201 @@ public class CVSService extends Service {
 	/** Repository path of CVS service. */
 	public static final String REPOSITORY_PATH = Environment.getExternalStorageDirectory().getAbsolutePath() + "/.cvsrepo";
 
-	/** Temporary path of CVS service. */
+	/** Temporary path of CVS service on the external storage. */
 	public static final String TEMPORARY_PATH = Environment.getExternalStorageDirectory().getAbsolutePath() + "/.cvstemp";
 
+	/** Default backup path of CVS service. */
+	public static final String BACKUP_PATH = Environment.getExternalStorageDirectory().getAbsolutePath() + "/.cvsbackup";
+
 	/** Intent action of the CVSService. */
 	private static final String ACTION_CVS_DAEMON = "com.iwares.intent.action.CVS_DAEMON_SERVICE";
 
 	/** Key of start up extra of CVSService intent. */
 	private static final String KEY_RESTORE = "com.iwares.app.pocketcvs.RESOTRE";
 
+	/** Key of verify extra of CVSService intent. */
+	private static final String KEY_VERIFY = "com.iwares.app.pocketcvs.VERIFY";
+
+	/** Milliseconds onDestroy() waits for each of the request and init threads. */
+	private static final long DESTROY_TIMEOUT = 1000;
+
 	/** Name of the preferences file name. */
 	private static final String SHARED_PREFENCES_NAME = "cvsdaemon.prefs";
 
 	/** Key used to access daemon status (boolean) in cvsdaemon.prefs */
 	private static final String KEY_DAEMON_STATUS = "Daemon Status";
 
+	/** Key used to access worker pool size (int) in cvsdaemon.prefs */
+	private static final String KEY_WORKER_POOL_SIZE = "Worker Pool Size";
+
+	/** Key used to access worker idle timeout (int) in cvsdaemon.prefs */
+	private static final String KEY_WORKER_IDLE_TIMEOUT = "Worker Idle Timeout";
+
+	/** Key used to access max sessions per worker (int) in cvsdaemon.prefs */
+	private static final String KEY_WORKER_MAX_SESSIONS = "Worker Max Sessions";
+
+	/** Key used to access max concurrent sessions (int) in cvsdaemon.prefs */
+	private static final String KEY_MAX_SESSIONS = "Max Sessions";
+
+	/** Key used to access max waiting clients (int) in cvsdaemon.prefs */
+	private static final String KEY_MAX_QUEUE = "Max Queue";
+
+	/** Key used to access listen backlog (int) in cvsdaemon.prefs */
+	private static final String KEY_LISTEN_BACKLOG = "Listen Backlog";
+
+	/** Key used to access temporary area location (int) in cvsdaemon.prefs */
+	private static final String KEY_TEMP_LOCATION = "Temp Location";
+
+	/** Key used to access temporary area quota in MB (int) in cvsdaemon.prefs */
+	private static final String KEY_TEMP_QUOTA = "Temp Quota";
+
+	/** Key used to access lowest gzip-stream level (int) in cvsdaemon.prefs */
+	private static final String KEY_MIN_COMPRESSION = "Min Compression";
+
+	/** Key used to access highest gzip-stream level (int) in cvsdaemon.prefs */
+	private static final String KEY_MAX_COMPRESSION = "Max Compression";
+
+	/** Key used to access adaptive gzip-stream level (boolean) in cvsdaemon.prefs */
+	private static final String KEY_ADAPTIVE_COMPRESSION = "Adaptive Compression";
+
+	/** Key used to access extra repositories, "<maxSessions> <path>" lines (String) in cvsdaemon.prefs */
+	private static final String KEY_EXTRA_ROOTS = "Extra Roots";
+
+	/** Key used to access lock area location (int) in cvsdaemon.prefs */
+	private static final String KEY_LOCK_LOCATION = "Lock Location";
+
+	/** Key used to access the path of the last backup (String) in cvsdaemon.prefs */
+	private static final String KEY_BACKUP_PATH = "Backup Path";
+
+	/** Key used to access relay mode (boolean) in cvsdaemon.prefs */
+	private static final String KEY_RELAY_MODE = "Relay Mode";
+
+	/** Key used to access bandwidth of each session in KB/s (int) in cvsdaemon.prefs */
+	private static final String KEY_SESSION_BANDWIDTH = "Session Bandwidth";
+
+	/** Key used to access bandwidth of all the sessions in KB/s (int) in cvsdaemon.prefs */
+	private static final String KEY_TOTAL_BANDWIDTH = "Total Bandwidth";
+
+	/** Key used to access high performance mode (boolean) in cvsdaemon.prefs */
+	private static final String KEY_POWER_MODE = "High Performance Mode";
+
+	/** Key used to access seconds the power locks are kept after the last session (int) in cvsdaemon.prefs */
+	private static final String KEY_IDLE_GRACE = "Idle Grace Period";
+
+	/** Key used to access listening addresses (String) in cvsdaemon.prefs */
+	private static final String KEY_LISTEN_ADDRESSES = "Listen Addresses";
+
+	/** Key used to access count of accept threads (int) in cvsdaemon.prefs */
+	private static final String KEY_ACCEPT_THREADS = "Accept Threads";
+
+	/** Key used to access TCP_NODELAY of the client sockets (boolean) in cvsdaemon.prefs */
+	private static final String KEY_TCP_NO_DELAY = "TCP No Delay";
+
+	/** Key used to access keep-alive idle seconds of the client sockets (int) in cvsdaemon.prefs */
+	private static final String KEY_TCP_KEEP_ALIVE = "TCP Keep Alive";
+
+	/** Key used to access receive buffer of the client sockets in KB (int) in cvsdaemon.prefs */
+	private static final String KEY_RECEIVE_BUFFER = "Receive Buffer";
+
+	/** Key used to access send buffer of the client sockets in KB (int) in cvsdaemon.prefs */
+	private static final String KEY_SEND_BUFFER = "Send Buffer";
+
+	/** Key used to access hours between two housekeepings (int) in cvsdaemon.prefs */
+	private static final String KEY_HOUSEKEEPING_INTERVAL = "Housekeeping Interval";
+
+	/** Key used to access size in KB over which history and val-tags are rotated (int) in cvsdaemon.prefs */
+	private static final String KEY_ROTATE_SIZE = "Rotate Size";
+
+	/** Key used to access count of compressed generations kept (int) in cvsdaemon.prefs */
+	private static final String KEY_ROTATE_GENERATIONS = "Rotate Generations";
+
+	/** Key used to access time of the last housekeeping finished in milliseconds (long) in cvsdaemon.prefs */
+	private static final String KEY_HOUSEKEEPING_TIME = "Last Housekeeping";
+
+	/** Temporary area location - a private directory on the internal storage. */
+	public static final int TEMP_INTERNAL = 0;
+
+	/** Temporary area location - the application cache directory. */
+	public static final int TEMP_CACHE = 1;
+
+	/** Temporary area location - TEMPORARY_PATH on the external storage. */
+	public static final int TEMP_EXTERNAL = 2;
+
+	/** Default location of the temporary area. */
+	public static final int DEFAULT_TEMP_LOCATION = TEMP_INTERNAL;
+
+	/** Lock area location - a private directory on the internal storage. */
+	public static final int LOCK_INTERNAL = 0;
+
+	/** Lock area location - in the repositories, where CVS puts them by default. */
+	public static final int LOCK_REPOSITORY = 1;
+
+	/**
+	 * Default location of the lock area. The read locks of every directory a
+	 * session visits are not written to the SD card then.
+	 */
+	public static final int DEFAULT_LOCK_LOCATION = LOCK_INTERNAL;
+
+	/** Default quota of the temporary area in MB, 0 for no quota. */
+	public static final int DEFAULT_TEMP_QUOTA = 64;
+
+	/** Default lowest gzip-stream level, the clients may ask for none. */
+	public static final int DEFAULT_MIN_COMPRESSION = 0;
+
+	/** Default highest gzip-stream level. */
+	public static final int DEFAULT_MAX_COMPRESSION = 9;
+
+	/** Default count of idle CVS worker processes kept ready. */
+	public static final int DEFAULT_WORKER_POOL_SIZE = 2;
+
+	/** Default seconds an idle CVS worker process waits before it exits. */
+	public static final int DEFAULT_WORKER_IDLE_TIMEOUT = 300;
+
+	/** Default count of sessions served by a CVS worker before it is replaced. */
+	public static final int DEFAULT_WORKER_MAX_SESSIONS = 16;
+
+	/** Default bandwidth of each relayed session in KB/s, 0 for no limit. */
+	public static final int DEFAULT_SESSION_BANDWIDTH = 0;
+
+	/** Default bandwidth of all the relayed sessions in KB/s, 0 for no limit. */
+	public static final int DEFAULT_TOTAL_BANDWIDTH = 0;
+
+	/** Default seconds the power locks are kept after the last session. */
+	public static final int DEFAULT_IDLE_GRACE = 30;
+
+	/** Count of records kept by the access log, 1MB of records. */
+	public static final int ACCESS_LOG_CAPACITY = 4096;
+
+	/** Default max count of concurrent CVS sessions. */
+	public static final int DEFAULT_MAX_SESSIONS = 8;
+
+	/** Default max count of clients waiting for a session slot. */
+	public static final int DEFAULT_MAX_QUEUE = 16;
+
+	/** Default backlog of the listening socket. */
+	public static final int DEFAULT_LISTEN_BACKLOG = 16;
+
+	/** Default listening addresses, port 2401 of every IPv4 and IPv6 address. */
+	public static final String DEFAULT_LISTEN_ADDRESSES = "*:2401";
+
+	/** Default count of accept threads, 0 to accept on the daemon thread. */
+	public static final int DEFAULT_ACCEPT_THREADS = 0;
+
+	/** Default keep-alive idle seconds of the client sockets, 0 for no keep-alive. */
+	public static final int DEFAULT_TCP_KEEP_ALIVE = 0;
+
+	/** Default socket buffers in KB, 0 for the system default. */
+	public static final int DEFAULT_SOCKET_BUFFER = 0;
+
+	/** Default hours between two housekeepings, 0 for no housekeeping. */
+	public static final int DEFAULT_HOUSEKEEPING_INTERVAL = 24;
+
+	/** Default size in KB over which history and val-tags are rotated. */
+	public static final int DEFAULT_ROTATE_SIZE = 1024;
+
+	/** Default count of compressed generations kept. */
+	public static final int DEFAULT_ROTATE_GENERATIONS = 4;
+
 	/**
 	 * Start CVSService.
 	 *
@@ -77,8 +264,27 @@ public class CVSService extends Service {
 	 *					returned.
 	 */
 	public static final ComponentName startService(Context context, boolean restore) {
+		return startService(context, restore, false);
+	}
+
+	/**
+	 * Start CVSService, and verify the repositories if it keeps running.
+	 *
+	 * @param context	Context.
+	 * @param restore	If restore is true, The CVSService will stop if the saved
+	 *					CVS daemon status is stopped.
+	 * @param verify	If verify is true, the repositories are verified and the
+	 *					stale locks are removed, as after the media has been
+	 *					remounted.
+	 * @return			If the service is being started or is already running, the
+	 *					ComponentName of the actual service that was started is
+	 *					returned; else if the service does not exist null is
+	 *					returned.
+	 */
+	public static final ComponentName startService(Context context, boolean restore, boolean verify) {
 		Intent intent = new Intent(ACTION_CVS_DAEMON)
 			.putExtra(KEY_RESTORE, restore)
+			.putExtra(KEY_VERIFY, verify)
 			;
 		return context.startService(intent);
 	}
@@ -96,6 +302,17 @@ public class CVSService extends Service {
 		return context.stopService(intent);
 	}
 
+	/**
+	 * Get the access log file of CVSService, it can be read by AccessLog from
+	 * any process of the application.
+	 *
+	 * @param context	Context.
+	 * @return			The access log file.
+	 */
+	public static final File getAccessLogFile(Context context) {
+		return new File(context.getDir("cvslog", MODE_PRIVATE), "access.log");
+	}
+
 	/**
 	 * Bind CVSService.
 	 *
@@ -113,7 +330,9 @@ public class CVSService extends Service {
 	}
 
 	/**
-	 * Message handler used to handle request from CVSAgent.
+	 * Message handler used to handle request from CVSAgent. It runs on the
+	 * request thread, so the blocking native calls never stall the main
+	 * thread of the application.
 	 *
 	 * @author Eric.Tsai
 	 *
@@ -122,12 +341,21 @@ public class CVSService extends Service {
 
 		private final WeakReference<CVSService> mCVSServiceRef;
 
-		public RequestHandler(CVSService cvsService) {
+		/** Whether the internal messages are accepted, false for the messenger. */
+		private final boolean mIsInternal;
+
+		public RequestHandler(CVSService cvsService, Looper looper, boolean internal) {
+			super(looper);
 			mCVSServiceRef = new WeakReference<CVSService>(cvsService);
+			mIsInternal = internal;
 		}
 
 		@Override
 		public void handleMessage(Message msg) {
+			if (!mIsInternal && isInternalMessage(msg.what)) {
+				Log.w("CVSService", "Internal message " + msg.what + " from a client is dropped.");
+				return;
+			}
 			CVSService cvsService = mCVSServiceRef.get();
 			if (cvsService != null && cvsService.onRequestMessage(msg))
 				return;
@@ -136,8 +364,71 @@ public class CVSService extends Service {
 
 	}
 
+	/** Thread on which the requests are handled one by one. */
+	private HandlerThread mRequestThread = null;
+
+	/** Handler of the request thread, behind the messenger of the clients. */
+	private Handler mRequestHandler = null;
+
+	/**
+	 * Handler of the request thread for the internal messages, which are
+	 * never taken from the messenger.
+	 */
+	private Handler mEventHandler = null;
+
 	/** Messenger used to communicate with CVSAgent. */
-	private final Messenger mServiceMessenger = new Messenger(new RequestHandler(this));
+	private Messenger mServiceMessenger = null;
+
+	/** Clients waiting for the daemon status, used by the request thread only. */
+	private final ArrayList<Messenger> mStatusWaiters = new ArrayList<Messenger>();
+
+	/** Clients subscribed to the daemon status, used by the request thread only. */
+	private final ArrayList<Messenger> mSubscribers = new ArrayList<Messenger>();
+
+	/** Subscribed clients which also receive the stats snapshots. */
+	private final ArrayList<Messenger> mStatsSubscribers = new ArrayList<Messenger>();
+
+	/** Thread which creates and configures the native object. */
+	private Thread mInitThread = null;
+
+	/** Initialization state, one of INIT_*, used by the request thread only. */
+	private int mInitState = INIT_CHECKING;
+
+	/** Requests received before the initialization is finished. */
+	private final ArrayList<Message> mDeferredRequests = new ArrayList<Message>();
+
+	/** Clients waiting for the end of the initialization. */
+	private final ArrayList<Messenger> mInitWaiters = new ArrayList<Messenger>();
+
+	/** Thread which holds the power locks while the CVS daemon is busy. */
+	private Thread mActivityThread = null;
+
+	/** Whether onDestroy() has been called, set on the main thread. */
+	private volatile boolean mIsDestroyed = false;
+
+	/**
+	 * Holds on the native object, one each for the main, request and init
+	 * threads. The last one released deletes the native object.
+	 */
+	private int mNativeHolds = 0;
+
+	/** High performance WifiLock, held while the CVS daemon is busy. */
+	private WifiManager.WifiLock mWifiLock = null;
+
+	/** Partial WakeLock, held while the CVS daemon is busy. */
+	private PowerManager.WakeLock mWakeLock = null;
+
+	/** Whether the CVS daemon is busy, or has been within the grace period. */
+	private volatile boolean mIsBusy = false;
+
+	/** Whether the power locks are held while the CVS daemon is busy. */
+	private volatile boolean mIsPowerModeEnabled = true;
+
+	/** Milliseconds the power locks are kept after the last session. */
+	private volatile int mIdleGracePeriod = DEFAULT_IDLE_GRACE * 1000;
+
+	/** Daemon status last pushed to the subscribers. */
+	private boolean mPublishedStatus = false;
 
 	/* (non-Javadoc)
 	 * @see android.app.Service#onBind(android.content.Intent)
@@ -155,15 +446,23 @@ public class CVSService extends Service {
 	 */
 	@Override
 	public int onStartCommand(Intent intent, int flags, int startId) {
+		// The intent is null when the system restarts a killed service, which
+		// is a restore.
 		if (mPreferences.getBoolean(KEY_DAEMON_STATUS, false)) {
 			Log.i("CVSService", "Saved CVS daemon status is 'started', start CVS daemon.");
-			startDaemon();
-		} else if (intent.getBooleanExtra(KEY_RESTORE, true)) {
+			mEventHandler.sendEmptyMessage(MSG_RESTORE_DAEMON);
+		} else if (intent == null || intent.getBooleanExtra(KEY_RESTORE, true)) {
 			Log.i("CVSService", "Saved CVS daemon status is 'stopped', stop CVSService.");
 			stopSelf();
 		} else {
 			Log.i("CVSService", "CVSService is ready for serve.");
 		}
+		if (intent != null && intent.getBooleanExtra(KEY_VERIFY, false)) {
+			Log.i("CVSService", "Media remounted, verify the repositories.");
+			Bundle verify = new Bundle();
+			verify.putBoolean("repair", true);
+			mRequestHandler.sendMessage(Message.obtain(null, MSG_START_VERIFY, 0, 0, verify));
+		}
 		return START_STICKY;
 	}
 
@@ -174,7 +473,141 @@ public class CVSService extends Service {
 	public void onCreate() {
 		super.onCreate();
 		mPreferences = getSharedPreferences(SHARED_PREFENCES_NAME, MODE_PRIVATE);
-		nativeOnCreate(REPOSITORY_PATH, TEMPORARY_PATH);
+		mNativeHolds = 3;
+		mRequestThread = new HandlerThread("CVSService") {
+			@Override
+			public void run() {
+				super.run();
+				releaseNative();
+			}
+		};
+		mRequestThread.start();
+		mRequestHandler = new RequestHandler(this, mRequestThread.getLooper(), false);
+		mEventHandler = new RequestHandler(this, mRequestThread.getLooper(), true);
+		mServiceMessenger = new Messenger(mRequestHandler);
+
+		// Wi-Fi power save adds hundreds of milliseconds to each round trip
+		// while the screen is off, the locks keep the sessions at full speed.
+		WifiManager wifiManager = (WifiManager)getSystemService(WIFI_SERVICE);
+		mWifiLock = wifiManager.createWifiLock(
+			Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR1 ?
+				WifiManager.WIFI_MODE_FULL_HIGH_PERF : WifiManager.WIFI_MODE_FULL,
+			"CVSService"
+			);
+		mWifiLock.setReferenceCounted(false);
+		PowerManager powerManager = (PowerManager)getSystemService(POWER_SERVICE);
+		mWakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "CVSService");
+		mWakeLock.setReferenceCounted(false);
+		applyPowerMode();
+
+		// The repository is checked, and created if it does not exist, on a
+		// thread of its own, so the service answers at once however slow the
+		// SD card is. The requests wait on the request thread until it is done.
+		mInitThread = new Thread(new Runnable() {
+			public void run() {
+				initialize();
+				releaseNative();
+			}
+		}, "CVSInit");
+		mInitThread.start();
+	}
+
+	/**
+	 * Create the native object, which creates the repository with "cvs init"
+	 * if it does not exist, and configure it from the shared preferences.
+	 * Runs on the init thread, the progress is reported to the request thread.
+	 */
+	protected void initialize() {
+		// INIT_FAILED is reported whatever goes wrong, the deferred requests
+		// are answered then and the service stays alive.
+		boolean ready = false;
+		try {
+			if (!new File(REPOSITORY_PATH, "CVSROOT").isDirectory())
+				reportInitState(INIT_CREATING);
+			int location = mPreferences.getInt(KEY_TEMP_LOCATION, DEFAULT_TEMP_LOCATION);
+			if (!nativeOnCreate(REPOSITORY_PATH, getTempPath(location)))
+				return;
+			setTempArea(
+				getTempPath(location),
+				mPreferences.getInt(KEY_TEMP_QUOTA, DEFAULT_TEMP_QUOTA) * 1024L * 1024L
+				);
+			setWorkerPool(
+				mPreferences.getInt(KEY_WORKER_POOL_SIZE, DEFAULT_WORKER_POOL_SIZE),
+				mPreferences.getInt(KEY_WORKER_IDLE_TIMEOUT, DEFAULT_WORKER_IDLE_TIMEOUT),
+				mPreferences.getInt(KEY_WORKER_MAX_SESSIONS, DEFAULT_WORKER_MAX_SESSIONS)
+				);
+			setSessionLimits(
+				mPreferences.getInt(KEY_MAX_SESSIONS, DEFAULT_MAX_SESSIONS),
+				mPreferences.getInt(KEY_MAX_QUEUE, DEFAULT_MAX_QUEUE),
+				mPreferences.getInt(KEY_LISTEN_BACKLOG, DEFAULT_LISTEN_BACKLOG)
+				);
+			setCompression(
+				mPreferences.getInt(KEY_MIN_COMPRESSION, DEFAULT_MIN_COMPRESSION),
+				mPreferences.getInt(KEY_MAX_COMPRESSION, DEFAULT_MAX_COMPRESSION),
+				mPreferences.getBoolean(KEY_ADAPTIVE_COMPRESSION, false)
+				);
+			setRelay(
+				mPreferences.getBoolean(KEY_RELAY_MODE, false),
+				mPreferences.getInt(KEY_SESSION_BANDWIDTH, DEFAULT_SESSION_BANDWIDTH) * 1024,
+				mPreferences.getInt(KEY_TOTAL_BANDWIDTH, DEFAULT_TOTAL_BANDWIDTH) * 1024
+				);
+			setLockArea(getLockPath(mPreferences.getInt(KEY_LOCK_LOCATION, DEFAULT_LOCK_LOCATION)));
+			setListeners(
+				mPreferences.getString(KEY_LISTEN_ADDRESSES, DEFAULT_LISTEN_ADDRESSES),
+				mPreferences.getInt(KEY_ACCEPT_THREADS, DEFAULT_ACCEPT_THREADS),
+				mPreferences.getBoolean(KEY_TCP_NO_DELAY, false),
+				mPreferences.getInt(KEY_TCP_KEEP_ALIVE, DEFAULT_TCP_KEEP_ALIVE),
+				mPreferences.getInt(KEY_RECEIVE_BUFFER, DEFAULT_SOCKET_BUFFER) * 1024,
+				mPreferences.getInt(KEY_SEND_BUFFER, DEFAULT_SOCKET_BUFFER) * 1024
+				);
+			openAccessLog(getAccessLogFile(this).getAbsolutePath(), ACCESS_LOG_CAPACITY);
+			for (String line : mPreferences.getString(KEY_EXTRA_ROOTS, "").split("\n")) {
+				// A malformed line is skipped, it must never stop the service.
+				int separator = line.indexOf(' ');
+				if (separator <= 0)
+					continue;
+				String path = line.substring(separator + 1);
+				int maxSessions;
+				try {
+					maxSessions = Integer.parseInt(line.substring(0, separator));
+				} catch (NumberFormatException e) {
+					Log.w("CVSService", "Malformed extra root '" + line + "' is skipped.");
+					continue;
+				}
+				if (isValidRootPath(path))
+					addRoot(path, getRootTempPath(location, path), maxSessions);
+			}
+
+			// Nobody would cancel the activity thread once the service is
+			// destroyed.
+			if (mIsDestroyed)
+				return;
+
+			// The activity thread waits in the native object from now on.
+			mActivityThread = new Thread(new Runnable() {
+				public void run() {
+					watchActivity();
+				}
+			}, "CVSActivity");
+			mActivityThread.start();
+			mEventHandler.sendEmptyMessage(MSG_HOUSEKEEPING);
+			ready = isInitialized();
+		} catch (RuntimeException e) {
+			Log.w("CVSService", "Initialization failed: " + e);
+		} finally {
+			reportInitState(ready ? INIT_READY : INIT_FAILED);
+		}
+	}
+
+	/**
+	 * Pass a new initialization state from the init thread to the request
+	 * thread.
+	 *
+	 * @param state	One of the INIT_* states.
+	 */
+	protected void reportInitState(int state) {
+		Log.i("CVSService", "Initialization state is " + state + ".");
+		mEventHandler.sendMessage(mEventHandler.obtainMessage(MSG_REPORT_INIT_STATE, state, 0, null));
 	}
 
 	/* (non-Javadoc)
@@ -182,9 +615,41 @@ public class CVSService extends Service {
 	 */
 	@Override
 	public void onDestroy() {
+		// The native object must not be deleted under a running request, or
+		// under the threads using it. The main thread waits for them a short
+		// while only, a "cvs init" on a slow SD card may take much longer, and
+		// the last of them to finish deletes the native object then.
+		mIsDestroyed = true;
+		mRequestThread.quit();
+		try {
+			mRequestThread.join(DESTROY_TIMEOUT);
+			mInitThread.join(DESTROY_TIMEOUT);
+		} catch (InterruptedException e) {
+			Log.w("CVSService", "Interrupted while waiting for the request thread.");
+		}
+		releaseNative();
+		super.onDestroy();
+	}
+
+	/**
+	 * Release a hold on the native object, and delete it with the activity
+	 * thread if it was the last hold.
+	 */
+	private void releaseNative() {
+		synchronized (this) {
+			if (--mNativeHolds > 0)
+				return;
+		}
+		if (mActivityThread != null) {
+			cancelActivity();
+			try {
+				mActivityThread.join();
+			} catch (InterruptedException e) {
+				Log.w("CVSService", "Interrupted while waiting for the activity thread.");
+			}
+		}
 		nativeOnDestroy();
 		mPreferences = null;
-		super.onDestroy();
 	}
 
 	/** Message ID used by CVS daemon status. */
@@ -196,103 +661,1789 @@ public class CVSService extends Service {
 	/** Message ID used by stop daemon request and response. */
 	public static final int MSG_STOP_DAEMON = 0x00001002;
 
-	/** Message ID used by change user name password request and response. */
-	public static final int MSG_SET_USER_PASSWORD = 0x00001003;
+	/** Message ID used by change session limits request and response. */
+	public static final int MSG_SET_SESSION_LIMITS = 0x00001005;
 
-	/**
-	 * Reply message to the specified messenger.
-	 *
-	 * @param messenger	Messenger to reply.
-	 * @param what		Message ID.
-	 * @param arg1		Message argument.
-	 *
-	 * @return			Return true if the message is replied successfully,
-	 * 					otherwise return false.
-	 *
+	/** Message ID used by query session limits request and response. */
+	public static final int MSG_GET_SESSION_LIMITS = 0x00001006;
+
+	/** Message ID used by daemon statistics request and response. */
+	public static final int MSG_GET_STATS = 0x00001007;
+
+	/*
+	 * Indexes of the native counters, the order must be the same with the
+	 * STAT_* enumeration in jni/cvsstat.h.
 	 */
-	protected boolean replyMessage(Messenger messenger, int what, int arg1) {
-		Message msg = Message.obtain(null, what, arg1, 0, null);
-		try { messenger.send(msg); } catch (Exception e) { return false; }
-		return true;
-	}
+
+	/** Count of accepted connections. */
+	private static final int STAT_ACCEPTED = 0;
+
+	/** Count of connections rejected by the admission control. */
+	private static final int STAT_REJECTED = 1;
+
+	/** Count of sessions being served. */
+	private static final int STAT_ACTIVE = 2;
+
+	/** Count of clients waiting for a session slot. */
+	private static final int STAT_WAITING = 3;
+
+	/** Count of finished sessions. */
+	private static final int STAT_FINISHED = 4;
+
+	/** Total bytes received from clients. */
+	private static final int STAT_BYTES_IN = 5;
+
+	/** Total bytes sent to clients. */
+	private static final int STAT_BYTES_OUT = 6;
+
+	/** Count of CVS processes exited with status 0. */
+	private static final int STAT_EXIT_OK = 7;
+
+	/** Count of CVS processes exited with a non-zero status. */
+	private static final int STAT_EXIT_ERROR = 8;
+
+	/** Count of CVS processes killed by a signal. */
+	private static final int STAT_EXIT_SIGNALED = 9;
+
+	/** Count of connections dropped by the authentication of the daemon. */
+	private static final int STAT_AUTH_FAILED = 10;
+
+	/** First bucket of the session duration histogram. */
+	private static final int STAT_DURATIONS = 11;
+
+	/** Count of native counters. */
+	private static final int STAT_COUNT = 17;
+
+	/** Count of values of each repository got by getRoots(), the cap and the counters. */
+	private static final int ROOT_FIELD_COUNT = 1 + STAT_COUNT;
+
+	/** Message ID used by session table request and response. */
+	public static final int MSG_GET_SESSIONS = 0x00001008;
+
+	/** Message ID used by kill session request and response. */
+	public static final int MSG_KILL_SESSION = 0x00001009;
+
+	/*
+	 * Numeric fields of a session returned by getSessions(), the order must be
+	 * the same with the array built in jni/cvsjni.cpp.
+	 */
+
+	/** PID of the CVS process. */
+	private static final int SESSION_PID = 0;
+
+	/** Start time in milliseconds since epoch. */
+	private static final int SESSION_STARTED = 1;
+
+	/** 1 if the session is running, otherwise 0. */
+	private static final int SESSION_ACTIVE = 2;
+
+	/** Raw exit status of the CVS process. */
+	private static final int SESSION_STATUS = 3;
+
+	/** Duration in milliseconds. */
+	private static final int SESSION_DURATION = 4;
+
+	/** User CPU time in milliseconds. */
+	private static final int SESSION_USER_TIME = 5;
+
+	/** System CPU time in milliseconds. */
+	private static final int SESSION_SYSTEM_TIME = 6;
+
+	/** Max resident set size in kilobytes. */
+	private static final int SESSION_MAX_RSS = 7;
+
+	/** Count of block input operations. */
+	private static final int SESSION_IN_BLOCKS = 8;
+
+	/** Count of block output operations. */
+	private static final int SESSION_OUT_BLOCKS = 9;
+
+	/** Count of numeric fields of a session. */
+	private static final int SESSION_FIELD_COUNT = 10;
+
+	/** Max count of sessions kept by the native session table. */
+	private static final int MAX_SESSIONS = 64;
 
 	/**
-	 * Called when the CVSService received a message from CVSAgent.
-	 *
-	 * @param msg	Received message object.
-	 *
-	 * @return		Return true if the message is processed, otherwise return
-	 * 				false.
-	 *
+	 * Upper bounds in milliseconds of the buckets of the "durations" histogram
+	 * in the MSG_GET_STATS reply. The last bucket has no upper bound.
 	 */
-	protected boolean onRequestMessage(Message msg) {
-		Log.d("CVSService", msg.toString());
-		boolean result = false;
-		switch (msg.what) {
-		case MSG_DAEMON_STATUS:
-			result = isDaemonRunning();
-			saveDaemonStatus(result);
-			replyMessage(msg.replyTo, msg.what, result ? 1 : 0);
-			return true;
-		case MSG_START_DAEMON:
-			result = startDaemon();
-			saveDaemonStatus(isDaemonRunning());
-			replyMessage(msg.replyTo, msg.what, result ? 1 : 0);
-			return true;
-		case MSG_STOP_DAEMON:
-			result = stopDaemon();
-			saveDaemonStatus(isDaemonRunning());
-			replyMessage(msg.replyTo, msg.what, result ? 1 : 0);
-			return true;
-		case MSG_SET_USER_PASSWORD:
-			result = setUserPassword(
-				((Bundle)msg.obj).getString("username"),
-				((Bundle)msg.obj).getString("password")
-				);
-			replyMessage(msg.replyTo, msg.what, result ? 1 : 0);
-			return true;
-		default:
-			return false;
-		}
-	}
+	public static final long[] DURATION_BOUNDS = { 100, 1000, 10000, 60000, 600000 };
 
-	/** Save current CVS daemon status to shared preferences. */
-	protected void saveDaemonStatus(boolean isRunning) {
-		boolean status = mPreferences.getBoolean(KEY_DAEMON_STATUS, false);
-		if (status == isRunning)
-			return;
-		mPreferences.edit().putBoolean(KEY_DAEMON_STATUS, isRunning).commit();
-	}
+	/** Message ID used by change user name password request and response. */
+	public static final int MSG_SET_USER_PASSWORD = 0x00001003;
 
-	/** Load libcvsdsrv.so for CVSDaemonService.*/
-	static { System.loadLibrary("cvsdsrv"); }
+	/** Message ID used by configure worker pool request and response. */
+	public static final int MSG_SET_WORKER_POOL = 0x00001004;
+
+	/** Message ID used by batch user update request and response. */
+	public static final int MSG_UPDATE_USERS = 0x0000100A;
+
+	/** Message ID used by user list request and response. */
+	public static final int MSG_GET_USERS = 0x0000100B;
+
+	/** User role, the user can check out and update. Every user has it. */
+	public static final int ROLE_READ = 1;
+
+	/** User role, the user can also commit, tag and import. */
+	public static final int ROLE_WRITE = 2;
+
+	/** Pseudo role used in MSG_UPDATE_USERS to remove a user. */
+	public static final int ROLE_REMOVE = -1;
+
+	/** Max count of users of the repository. */
+	private static final int MAX_USERS = 256;
+
+	/** Message ID used by module state request and response. */
+	public static final int MSG_GET_MODULE_STATE = 0x0000100C;
+
+	/** Max count of RCS files reported by MSG_GET_MODULE_STATE. */
+	private static final int MAX_HEADS = 512;
+
+	/** Message ID used by temporary area change request and response. */
+	public static final int MSG_SET_TEMP_AREA = 0x0000100D;
+
+	/** Message ID used by temporary area usage request and response. */
+	public static final int MSG_GET_TEMP_USAGE = 0x0000100E;
+
+	/** Message ID used by compression policy change request and response. */
+	public static final int MSG_SET_COMPRESSION = 0x0000100F;
 
-	/** Integer value to hold the native CVSService object. */
-	protected int mNativePtr = 0;
+	/** Message ID used by compression policy request and response. */
+	public static final int MSG_GET_COMPRESSION = 0x00001010;
 
 	/**
-	 * Initial native CVSService object.
-	 *
+	 * Message ID used by subscribe request and response. The subscriber gets
+	 * every change of the daemon status as a MSG_DAEMON_STATUS message, and if
+	 * arg1 is 1, a MSG_GET_STATS message every STATS_PUSH_INTERVAL while the
+	 * daemon is running. The response carries the current status in arg1.
 	 */
-	private native boolean nativeOnCreate(String repoPath, String tempPath);
+	public static final int MSG_SUBSCRIBE = 0x00001011;
+
+	/** Message ID used by unsubscribe request and response. */
+	public static final int MSG_UNSUBSCRIBE = 0x00001012;
 
 	/**
-	 * Native method to change user name and password.
-	 * @param username	New user name.
-	 * @param password	New password.
-	 *
-	 * @return	Return true if success, otherwise return false.
-	 *
+	 * Message ID used by add repository request and response. The request
+	 * carries the "path" and the "maxSessions" of the repository, 0 for no
+	 * cap, it is created if it does not exist and gets the users of the
+	 * primary repository then. Adding a served repository changes its cap.
 	 */
-	private native boolean setUserPassword(String username, String password);
+	public static final int MSG_ADD_ROOT = 0x00001013;
 
 	/**
-	 * Native method to start the CVS daemon thread.
-	 *
-	 * @return	Return true if success, otherwise return false.
-	 *
+	 * Message ID used by remove repository request and response. The sessions
+	 * of the repository are not dropped, the primary repository can not be
+	 * removed.
 	 */
-	private native boolean startDaemon();
+	public static final int MSG_REMOVE_ROOT = 0x00001014;
+
+	/** Message ID used by repository table request and response. */
+	public static final int MSG_GET_ROOTS = 0x00001015;
+
+	/**
+	 * Message ID used by lock area change request and response. The request
+	 * carries the location in arg1, it is refused while the daemon is
+	 * running.
+	 */
+	public static final int MSG_SET_LOCK_AREA = 0x00001016;
+
+	/**
+	 * Message ID used by backup request and response. The request may carry
+	 * the "path" of the backup directory, the one of the last backup is used
+	 * otherwise. Only the files changed since the last backup into the same
+	 * directory are copied. The response carries the status of the backup.
+	 */
+	public static final int MSG_START_BACKUP = 0x00001017;
+
+	/** Message ID used by backup status request and response. */
+	public static final int MSG_GET_BACKUP_STATUS = 0x00001018;
+
+	/**
+	 * Message ID used by relay change request and response. The request
+	 * carries whether the new sessions are "enabled" to be relayed, and the
+	 * "sessionRate" and the "totalRate" in KB/s, 0 for no limit. The relayed
+	 * sessions are served round-robin within the limits, the new limits apply
+	 * to them at once.
+	 */
+	public static final int MSG_SET_RELAY = 0x00001019;
+
+	/** Message ID used by relay configuration request and response. */
+	public static final int MSG_GET_RELAY = 0x0000101A;
+
+	/**
+	 * Message ID used by change power mode request and response. The bundle
+	 * carries whether the high performance mode is "enabled" and the
+	 * "gracePeriod" in seconds. While it is enabled, a high performance
+	 * WifiLock and a partial WakeLock are held as long as the daemon has
+	 * sessions, and for the grace period after the last one.
+	 */
+	public static final int MSG_SET_POWER_MODE = 0x0000101B;
+
+	/** Message ID used by query power mode request and response. */
+	public static final int MSG_GET_POWER_MODE = 0x0000101C;
+
+	/**
+	 * Message ID used by initialization state request and response, arg1 is
+	 * one of the INIT_* states. A client asking before the initialization is
+	 * finished gets each later state too. The other requests are answered once
+	 * the initialization is finished, in the order they are received.
+	 */
+	public static final int MSG_INIT_STATE = 0x0000101D;
+
+	/**
+	 * Message ID used by change listeners request and response. The request
+	 * carries the listening "addresses", separated by spaces or commas, each
+	 * one "a.b.c.d:port", "[ipv6]:port", or "*:port" for every address, the
+	 * count of "acceptThreads" sharing the ports, 0 to accept on the daemon
+	 * thread, and the socket options "noDelay", "keepAlive" in idle seconds,
+	 * "receiveBuffer" and "sendBuffer" in KB, 0 for the system default. It
+	 * takes effect when the daemon is started next time. The response also
+	 * carries the count of addresses the daemon is "listening" on and the
+	 * "runningThreads", both 0 if it is not running.
+	 */
+	public static final int MSG_SET_LISTENERS = 0x0000101E;
+
+	/** Message ID used by query listeners request and response. */
+	public static final int MSG_GET_LISTENERS = 0x0000101F;
+
+	/**
+	 * Message ID used by verification request and response. The request may
+	 * carry whether to "repair", that is to remove the stale locks and the
+	 * temporary files left by the interrupted commits, which is only done
+	 * while the daemon is idle. The corrupt RCS files are only reported.
+	 * The repositories are verified on a thread per core, beside the
+	 * sessions. The response carries the status of the verification.
+	 */
+	public static final int MSG_START_VERIFY = 0x00001020;
+
+	/** Message ID used by verification status request and response. */
+	public static final int MSG_GET_VERIFY_STATUS = 0x00001021;
+
+	/** Verification issue - an RCS file is corrupt. */
+	public static final int ISSUE_CORRUPT = 1;
+
+	/** Verification issue - a lock whose process is gone. */
+	public static final int ISSUE_STALE_LOCK = 2;
+
+	/** Verification issue - a temporary RCS file left by a commit. */
+	public static final int ISSUE_STALE_TEMP = 3;
+
+	/**
+	 * Message ID used by change housekeeping request and response. The
+	 * request carries the "interval" in hours between two housekeepings, 0
+	 * for none, the "rotateSize" in KB over which CVSROOT/history and
+	 * CVSROOT/val-tags are rotated, and the count of compressed "generations"
+	 * kept. A housekeeping runs once the CVS daemon has been idle for the
+	 * grace period, and stops as soon as it is busy again. The response
+	 * carries the status of the housekeeping too.
+	 */
+	public static final int MSG_SET_HOUSEKEEPING = 0x00001022;
+
+	/** Message ID used by query housekeeping request and response. */
+	public static final int MSG_GET_HOUSEKEEPING = 0x00001023;
+
+	/**
+	 * Message ID used by start housekeeping request and response. The
+	 * housekeeping starts at once unless the CVS daemon is busy, the response
+	 * carries its status.
+	 */
+	public static final int MSG_START_HOUSEKEEPING = 0x00001024;
+
+	/** Housekeeping task - rotate CVSROOT/history. */
+	public static final int HOUSEKEEPING_HISTORY = 0;
+
+	/** Housekeeping task - rotate CVSROOT/val-tags. */
+	public static final int HOUSEKEEPING_VAL_TAGS = 1;
+
+	/** Housekeeping task - remove the stale locks and temporary RCS files. */
+	public static final int HOUSEKEEPING_LOCKS = 2;
+
+	/** Housekeeping task - remove the orphaned cvs-serv directories. */
+	public static final int HOUSEKEEPING_TEMPS = 3;
+
+	/** Count of the housekeeping tasks. */
+	public static final int HOUSEKEEPING_TASKS = 4;
+
+	/** Initialization state - checking the repository. */
+	public static final int INIT_CHECKING = 0;
+
+	/** Initialization state - creating the repository with "cvs init". */
+	public static final int INIT_CREATING = 1;
+
+	/** Initialization state - the service is ready. */
+	public static final int INIT_READY = 2;
+
+	/** Initialization state - the repository cannot be used. */
+	public static final int INIT_FAILED = 3;
+
+	/** Max count of repositories served by the native daemon. */
+	private static final int MAX_ROOTS = 8;
+
+	/** Max length of the path of a repository, MAX_TEMP_PATH - 1 in jni/cvstemp.h. */
+	private static final int MAX_ROOT_PATH = 255;
+
+	/** Milliseconds between two stats snapshots pushed to the subscribers. */
+	public static final int STATS_PUSH_INTERVAL = 2000;
+
+	/**
+	 * First message ID used internally, the IDs from it up to
+	 * MSG_INTERNAL_LAST are sent through mEventHandler only.
+	 */
+	private static final int MSG_INTERNAL_FIRST = 0x00001100;
+
+	/** Last message ID reserved for the internal messages. */
+	private static final int MSG_INTERNAL_LAST = 0x000011FF;
+
+	/** Message ID used internally to answer the pending status requests. */
+	private static final int MSG_REPLY_DAEMON_STATUS = 0x00001100;
+
+	/** Message ID used internally to push the stats to the subscribers. */
+	private static final int MSG_PUSH_STATS = 0x00001101;
+
+	/** Message ID used internally to pass the initialization state. */
+	private static final int MSG_REPORT_INIT_STATE = 0x00001102;
+
+	/** Message ID used internally to start the daemon saved as running. */
+	private static final int MSG_RESTORE_DAEMON = 0x00001103;
+
+	/** Message ID used internally to start the housekeeping when it is due. */
+	private static final int MSG_HOUSEKEEPING = 0x00001104;
+
+	/** Milliseconds between two looks at a running housekeeping. */
+	private static final int HOUSEKEEPING_POLL_INTERVAL = 5000;
+
+	/** Milliseconds before a housekeeping which could not start is retried. */
+	private static final int HOUSEKEEPING_RETRY_INTERVAL = 60000;
+
+	/** Index of the bytes used in the array filled by getTempUsage(). */
+	private static final int TEMP_USED = 0;
+
+	/** Index of the count of session directories. */
+	private static final int TEMP_SESSIONS = 2;
+
+	/** Index of the count of orphaned directories removed. */
+	private static final int TEMP_REMOVED = 3;
+
+	/** Index of the time of the last sweep in milliseconds. */
+	private static final int TEMP_SWEPT = 4;
+
+	/** Count of values filled by getTempUsage(). */
+	private static final int TEMP_FIELD_COUNT = 5;
+
+	/** Count of values filled by getBackupStatus(). */
+	private static final int BACKUP_FIELD_COUNT = 10;
+
+	/** Count of values filled by getVerifyStatus(). */
+	private static final int VERIFY_FIELD_COUNT = 12;
+
+	/** Max count of issues kept by the native verifier. */
+	private static final int MAX_VERIFY_ISSUES = 64;
+
+	/** Count of values filled by getHousekeepingStatus(). */
+	private static final int HOUSEKEEPING_FIELD_COUNT = 5 + HOUSEKEEPING_TASKS * 4;
+
+	/**
+	 * Check whether a message ID is used internally.
+	 *
+	 * @param what	Message ID.
+	 *
+	 * @return		Return true if it is an internal message ID, otherwise
+	 * 				return false.
+	 *
+	 */
+	private static boolean isInternalMessage(int what) {
+		return what >= MSG_INTERNAL_FIRST && what <= MSG_INTERNAL_LAST;
+	}
+
+	/**
+	 * Reply message to the specified messenger.
+	 *
+	 * @param messenger	Messenger to reply.
+	 * @param what		Message ID.
+	 * @param arg1		Message argument.
+	 *
+	 * @return			Return true if the message is replied successfully,
+	 * 					otherwise return false.
+	 *
+	 */
+	protected boolean replyMessage(Messenger messenger, int what, int arg1) {
+		return replyMessage(messenger, what, arg1, null);
+	}
+
+	/**
+	 * Reply message with a data bundle to the specified messenger.
+	 *
+	 * @param messenger	Messenger to reply.
+	 * @param what		Message ID.
+	 * @param arg1		Message argument.
+	 * @param data		Data bundle of the message.
+	 *
+	 * @return			Return true if the message is replied successfully,
+	 * 					otherwise return false.
+	 *
+	 */
+	protected boolean replyMessage(Messenger messenger, int what, int arg1, Bundle data) {
+		Message msg = Message.obtain(null, what, arg1, 0, data);
+		try { messenger.send(msg); } catch (Exception e) { return false; }
+		return true;
+	}
+
+	/**
+	 * Called when the CVSService received a message from CVSAgent.
+	 *
+	 * @param msg	Received message object.
+	 *
+	 * @return		Return true if the message is processed, otherwise return
+	 * 				false.
+	 *
+	 */
+	protected boolean onRequestMessage(Message msg) {
+		Log.d("CVSService", msg.toString());
+		boolean result = false;
+		if (mInitState < INIT_READY && msg.what != MSG_INIT_STATE && msg.what != MSG_REPORT_INIT_STATE) {
+			// The message is recycled once it is handled, keep a copy.
+			mDeferredRequests.add(Message.obtain(msg));
+			return true;
+		}
+		if (mInitState == INIT_FAILED && msg.what != MSG_INIT_STATE && msg.what != MSG_REPORT_INIT_STATE) {
+			// Nothing reaches the native object once the initialization has
+			// failed, it may not even exist.
+			if (msg.replyTo != null)
+				replyMessage(msg.replyTo, msg.what, 0);
+			return true;
+		}
+		switch (msg.what) {
+		case MSG_INIT_STATE:
+			if (mInitState < INIT_READY && msg.replyTo != null && !mInitWaiters.contains(msg.replyTo))
+				mInitWaiters.add(msg.replyTo);
+			replyMessage(msg.replyTo, msg.what, mInitState);
+			return true;
+		case MSG_REPORT_INIT_STATE:
+			mInitState = msg.arg1;
+			for (Messenger waiter : mInitWaiters)
+				replyMessage(waiter, MSG_INIT_STATE, mInitState);
+			if (mInitState < INIT_READY)
+				return true;
+			mInitWaiters.clear();
+			ArrayList<Message> deferred = new ArrayList<Message>(mDeferredRequests);
+			mDeferredRequests.clear();
+			for (Message request : deferred)
+				onRequestMessage(request);
+			return true;
+		case MSG_RESTORE_DAEMON:
+			startDaemon();
+			publishDaemonStatus();
+			return true;
+		case MSG_HOUSEKEEPING:
+			scheduleHousekeeping();
+			return true;
+		case MSG_DAEMON_STATUS:
+			// Status requests queued in a burst are answered together.
+			if (msg.replyTo != null && !mStatusWaiters.contains(msg.replyTo))
+				mStatusWaiters.add(msg.replyTo);
+			if (!mEventHandler.hasMessages(MSG_REPLY_DAEMON_STATUS))
+				mEventHandler.sendEmptyMessage(MSG_REPLY_DAEMON_STATUS);
+			return true;
+		case MSG_REPLY_DAEMON_STATUS:
+			result = publishDaemonStatus();
+			for (Messenger waiter : mStatusWaiters)
+				replyMessage(waiter, MSG_DAEMON_STATUS, result ? 1 : 0);
+			mStatusWaiters.clear();
+			return true;
+		case MSG_SUBSCRIBE:
+			if (msg.replyTo == null)
+				return true;
+			if (!mSubscribers.contains(msg.replyTo))
+				mSubscribers.add(msg.replyTo);
+			if (msg.arg1 == 1 && !mStatsSubscribers.contains(msg.replyTo))
+				mStatsSubscribers.add(msg.replyTo);
+			if (!mStatsSubscribers.isEmpty() && !mEventHandler.hasMessages(MSG_PUSH_STATS))
+				mEventHandler.sendEmptyMessage(MSG_PUSH_STATS);
+			replyMessage(msg.replyTo, msg.what, publishDaemonStatus() ? 1 : 0);
+			return true;
+		case MSG_UNSUBSCRIBE:
+			result = mSubscribers.remove(msg.replyTo);
+			mStatsSubscribers.remove(msg.replyTo);
+			replyMessage(msg.replyTo, msg.what, result ? 1 : 0);
+			return true;
+		case MSG_PUSH_STATS:
+			if (mStatsSubscribers.isEmpty())
+				return true;
+			if (publishDaemonStatus())
+				broadcastMessage(mStatsSubscribers, MSG_GET_STATS, 1, loadStats());
+			mEventHandler.sendEmptyMessageDelayed(MSG_PUSH_STATS, STATS_PUSH_INTERVAL);
+			return true;
+		case MSG_START_DAEMON:
+			result = startDaemon();
+			publishDaemonStatus();
+			replyMessage(msg.replyTo, msg.what, result ? 1 : 0);
+			return true;
+		case MSG_STOP_DAEMON:
+			result = stopDaemon();
+			publishDaemonStatus();
+			replyMessage(msg.replyTo, msg.what, result ? 1 : 0);
+			return true;
+		case MSG_SET_USER_PASSWORD:
+			result = setUserPassword(
+				((Bundle)msg.obj).getString("username"),
+				((Bundle)msg.obj).getString("password")
+				);
+			replyMessage(msg.replyTo, msg.what, result ? 1 : 0);
+			return true;
+		case MSG_UPDATE_USERS:
+			int updated = updateUsers(
+				((Bundle)msg.obj).getStringArray("usernames"),
+				((Bundle)msg.obj).getStringArray("passwords"),
+				((Bundle)msg.obj).getIntArray("roles")
+				);
+			Bundle users = loadUsers();
+			users.putInt("updated", updated);
+			replyMessage(msg.replyTo, msg.what, updated >= 0 ? 1 : 0, users);
+			return true;
+		case MSG_GET_USERS:
+			replyMessage(msg.replyTo, msg.what, 1, loadUsers());
+			return true;
+		case MSG_GET_MODULE_STATE:
+			Bundle state = loadModuleState((Bundle)msg.obj);
+			replyMessage(msg.replyTo, msg.what, state != null ? 1 : 0, state);
+			return true;
+		case MSG_SET_TEMP_AREA:
+			int location = ((Bundle)msg.obj).getInt("location", DEFAULT_TEMP_LOCATION);
+			int quota = ((Bundle)msg.obj).getInt("quota", DEFAULT_TEMP_QUOTA);
+			result = setTempArea(getTempPath(location), quota * 1024L * 1024L);
+			if (result)
+				saveTempArea((Bundle)msg.obj);
+			replyMessage(msg.replyTo, msg.what, result ? 1 : 0, loadTempUsage());
+			return true;
+		case MSG_GET_TEMP_USAGE:
+			Bundle usage = loadTempUsage();
+			replyMessage(msg.replyTo, msg.what, usage != null ? 1 : 0, usage);
+			return true;
+		case MSG_SET_COMPRESSION:
+			result = setCompression(
+				((Bundle)msg.obj).getInt("minLevel", DEFAULT_MIN_COMPRESSION),
+				((Bundle)msg.obj).getInt("maxLevel", DEFAULT_MAX_COMPRESSION),
+				((Bundle)msg.obj).getBoolean("adaptive", false)
+				);
+			if (result)
+				saveCompression((Bundle)msg.obj);
+			replyMessage(msg.replyTo, msg.what, result ? 1 : 0, loadCompression());
+			return true;
+		case MSG_GET_COMPRESSION:
+			replyMessage(msg.replyTo, msg.what, 1, loadCompression());
+			return true;
+		case MSG_SET_RELAY:
+			result = setRelay(
+				((Bundle)msg.obj).getBoolean("enabled", false),
+				((Bundle)msg.obj).getInt("sessionRate", DEFAULT_SESSION_BANDWIDTH) * 1024,
+				((Bundle)msg.obj).getInt("totalRate", DEFAULT_TOTAL_BANDWIDTH) * 1024
+				);
+			if (result)
+				saveRelay((Bundle)msg.obj);
+			replyMessage(msg.replyTo, msg.what, result ? 1 : 0, loadRelay());
+			return true;
+		case MSG_GET_RELAY:
+			replyMessage(msg.replyTo, msg.what, 1, loadRelay());
+			return true;
+		case MSG_SET_LISTENERS:
+			String addresses = ((Bundle)msg.obj).getString("addresses");
+			result = addresses != null && setListeners(
+				addresses,
+				((Bundle)msg.obj).getInt("acceptThreads", DEFAULT_ACCEPT_THREADS),
+				((Bundle)msg.obj).getBoolean("noDelay", false),
+				((Bundle)msg.obj).getInt("keepAlive", DEFAULT_TCP_KEEP_ALIVE),
+				((Bundle)msg.obj).getInt("receiveBuffer", DEFAULT_SOCKET_BUFFER) * 1024,
+				((Bundle)msg.obj).getInt("sendBuffer", DEFAULT_SOCKET_BUFFER) * 1024
+				);
+			if (result)
+				saveListeners((Bundle)msg.obj);
+			replyMessage(msg.replyTo, msg.what, result ? 1 : 0, loadListeners());
+			return true;
+		case MSG_GET_LISTENERS:
+			replyMessage(msg.replyTo, msg.what, 1, loadListeners());
+			return true;
+		case MSG_SET_POWER_MODE:
+			savePowerMode((Bundle)msg.obj);
+			applyPowerMode();
+			replyMessage(msg.replyTo, msg.what, 1, loadPowerMode());
+			return true;
+		case MSG_GET_POWER_MODE:
+			replyMessage(msg.replyTo, msg.what, 1, loadPowerMode());
+			return true;
+		case MSG_SET_SESSION_LIMITS:
+			result = setSessionLimits(
+				((Bundle)msg.obj).getInt("maxSessions", DEFAULT_MAX_SESSIONS),
+				((Bundle)msg.obj).getInt("maxQueue", DEFAULT_MAX_QUEUE),
+				((Bundle)msg.obj).getInt("backlog", DEFAULT_LISTEN_BACKLOG)
+				);
+			if (result)
+				saveSessionLimits((Bundle)msg.obj);
+			replyMessage(msg.replyTo, msg.what, result ? 1 : 0, loadSessionLimits());
+			return true;
+		case MSG_GET_SESSION_LIMITS:
+			replyMessage(msg.replyTo, msg.what, 1, loadSessionLimits());
+			return true;
+		case MSG_GET_STATS:
+			Bundle stats = loadStats();
+			replyMessage(msg.replyTo, msg.what, stats != null ? 1 : 0, stats);
+			return true;
+		case MSG_GET_SESSIONS:
+			replyMessage(msg.replyTo, msg.what, 1, loadSessions());
+			return true;
+		case MSG_KILL_SESSION:
+			result = killSession(msg.arg1);
+			replyMessage(msg.replyTo, msg.what, result ? 1 : 0);
+			return true;
+		case MSG_ADD_ROOT:
+			String path = ((Bundle)msg.obj).getString("path");
+			int maxSessions = ((Bundle)msg.obj).getInt("maxSessions", 0);
+			location = mPreferences.getInt(KEY_TEMP_LOCATION, DEFAULT_TEMP_LOCATION);
+			result = isValidRootPath(path) && addRoot(path, getRootTempPath(location, path), maxSessions);
+			if (result)
+				saveExtraRoots();
+			replyMessage(msg.replyTo, msg.what, result ? 1 : 0, loadRoots());
+			return true;
+		case MSG_REMOVE_ROOT:
+			path = ((Bundle)msg.obj).getString("path");
+			result = path != null && removeRoot(path);
+			if (result)
+				saveExtraRoots();
+			replyMessage(msg.replyTo, msg.what, result ? 1 : 0, loadRoots());
+			return true;
+		case MSG_GET_ROOTS:
+			replyMessage(msg.replyTo, msg.what, 1, loadRoots());
+			return true;
+		case MSG_SET_LOCK_AREA:
+			result = setLockArea(getLockPath(msg.arg1));
+			if (result)
+				applyPreferences(mPreferences.edit().putInt(KEY_LOCK_LOCATION, msg.arg1));
+			replyMessage(msg.replyTo, msg.what, result ? 1 : 0);
+			return true;
+		case MSG_START_BACKUP:
+			path = msg.obj != null ? ((Bundle)msg.obj).getString("path") : null;
+			if (path == null)
+				path = mPreferences.getString(KEY_BACKUP_PATH, BACKUP_PATH);
+			result = startBackup(path);
+			if (result)
+				applyPreferences(mPreferences.edit().putString(KEY_BACKUP_PATH, path));
+			replyMessage(msg.replyTo, msg.what, result ? 1 : 0, loadBackupStatus());
+			return true;
+		case MSG_GET_BACKUP_STATUS:
+			Bundle backup = loadBackupStatus();
+			replyMessage(msg.replyTo, msg.what, backup != null ? 1 : 0, backup);
+			return true;
+		case MSG_START_VERIFY:
+			result = startVerify(msg.obj != null && ((Bundle)msg.obj).getBoolean("repair"));
+			replyMessage(msg.replyTo, msg.what, result ? 1 : 0, loadVerifyStatus());
+			return true;
+		case MSG_GET_VERIFY_STATUS:
+			Bundle verify = loadVerifyStatus();
+			replyMessage(msg.replyTo, msg.what, verify != null ? 1 : 0, verify);
+			return true;
+		case MSG_SET_HOUSEKEEPING:
+			saveHousekeeping((Bundle)msg.obj);
+			scheduleHousekeeping();
+			replyMessage(msg.replyTo, msg.what, 1, loadHousekeeping());
+			return true;
+		case MSG_GET_HOUSEKEEPING:
+			Bundle housekeeping = loadHousekeeping();
+			replyMessage(msg.replyTo, msg.what, housekeeping != null ? 1 : 0, housekeeping);
+			return true;
+		case MSG_START_HOUSEKEEPING:
+			result = !mIsBusy && startHousekeeping();
+			if (result)
+				mEventHandler.sendEmptyMessageDelayed(MSG_HOUSEKEEPING, HOUSEKEEPING_POLL_INTERVAL);
+			replyMessage(msg.replyTo, msg.what, result ? 1 : 0, loadHousekeeping());
+			return true;
+		case MSG_SET_WORKER_POOL:
+			result = setWorkerPool(
+				((Bundle)msg.obj).getInt("poolSize", DEFAULT_WORKER_POOL_SIZE),
+				((Bundle)msg.obj).getInt("idleTimeout", DEFAULT_WORKER_IDLE_TIMEOUT),
+				((Bundle)msg.obj).getInt("maxSessions", DEFAULT_WORKER_MAX_SESSIONS)
+				);
+			if (result)
+				saveWorkerPool((Bundle)msg.obj);
+			replyMessage(msg.replyTo, msg.what, result ? 1 : 0);
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Save the current CVS daemon status and push it to the subscribers if it
+	 * has changed since the last push. Called on the request thread only.
+	 *
+	 * @return	Return true if the CVS daemon is running.
+	 */
+	protected boolean publishDaemonStatus() {
+		boolean isRunning = isDaemonRunning();
+		saveDaemonStatus(isRunning);
+		if (isRunning != mPublishedStatus) {
+			mPublishedStatus = isRunning;
+			broadcastMessage(mSubscribers, MSG_DAEMON_STATUS, isRunning ? 1 : 0, null);
+		}
+		return isRunning;
+	}
+
+	/**
+	 * Send a message to each of the clients. The clients which cannot be
+	 * reached any more are unsubscribed.
+	 *
+	 * @param clients	The subscribers to send to.
+	 * @param what		Message ID.
+	 * @param arg1		Argument 1.
+	 * @param data		Bundle data, shared by all the messages.
+	 */
+	protected void broadcastMessage(ArrayList<Messenger> clients, int what, int arg1, Bundle data) {
+		for (int i = clients.size() - 1; i >= 0; --i) {
+			Messenger client = clients.get(i);
+			if (replyMessage(client, what, arg1, data))
+				continue;
+			Log.i("CVSService", "Subscriber is gone, unsubscribe it.");
+			mSubscribers.remove(client);
+			mStatsSubscribers.remove(client);
+		}
+	}
+
+	/** Save current CVS daemon status to shared preferences. */
+	protected void saveDaemonStatus(boolean isRunning) {
+		boolean status = mPreferences.getBoolean(KEY_DAEMON_STATUS, false);
+		if (status == isRunning)
+			return;
+		applyPreferences(mPreferences.edit().putBoolean(KEY_DAEMON_STATUS, isRunning));
+	}
+
+	/**
+	 * Write the changes to shared preferences in background where it is
+	 * supported, otherwise commit them on the calling thread.
+	 *
+	 * @param editor	Editor holding the changes.
+	 */
+	protected static void applyPreferences(SharedPreferences.Editor editor) {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD)
+			editor.apply();
+		else
+			editor.commit();
+	}
+
+	/** Save worker pool configuration to shared preferences. */
+	protected void saveWorkerPool(Bundle config) {
+		applyPreferences(mPreferences.edit()
+			.putInt(KEY_WORKER_POOL_SIZE, config.getInt("poolSize", DEFAULT_WORKER_POOL_SIZE))
+			.putInt(KEY_WORKER_IDLE_TIMEOUT, config.getInt("idleTimeout", DEFAULT_WORKER_IDLE_TIMEOUT))
+			.putInt(KEY_WORKER_MAX_SESSIONS, config.getInt("maxSessions", DEFAULT_WORKER_MAX_SESSIONS))
+			);
+	}
+
+	/** Save session limits to shared preferences. */
+	protected void saveSessionLimits(Bundle limits) {
+		applyPreferences(mPreferences.edit()
+			.putInt(KEY_MAX_SESSIONS, limits.getInt("maxSessions", DEFAULT_MAX_SESSIONS))
+			.putInt(KEY_MAX_QUEUE, limits.getInt("maxQueue", DEFAULT_MAX_QUEUE))
+			.putInt(KEY_LISTEN_BACKLOG, limits.getInt("backlog", DEFAULT_LISTEN_BACKLOG))
+			);
+	}
+
+	/** Save compression policy to shared preferences. */
+	protected void saveCompression(Bundle policy) {
+		applyPreferences(mPreferences.edit()
+			.putInt(KEY_MIN_COMPRESSION, policy.getInt("minLevel", DEFAULT_MIN_COMPRESSION))
+			.putInt(KEY_MAX_COMPRESSION, policy.getInt("maxLevel", DEFAULT_MAX_COMPRESSION))
+			.putBoolean(KEY_ADAPTIVE_COMPRESSION, policy.getBoolean("adaptive", false))
+			);
+	}
+
+	/** Load compression policy from shared preferences. */
+	protected Bundle loadCompression() {
+		Bundle policy = new Bundle();
+		policy.putInt("minLevel", mPreferences.getInt(KEY_MIN_COMPRESSION, DEFAULT_MIN_COMPRESSION));
+		policy.putInt("maxLevel", mPreferences.getInt(KEY_MAX_COMPRESSION, DEFAULT_MAX_COMPRESSION));
+		policy.putBoolean("adaptive", mPreferences.getBoolean(KEY_ADAPTIVE_COMPRESSION, false));
+		return policy;
+	}
+
+	/** Save relay configuration to shared preferences. */
+	protected void saveRelay(Bundle config) {
+		applyPreferences(mPreferences.edit()
+			.putBoolean(KEY_RELAY_MODE, config.getBoolean("enabled", false))
+			.putInt(KEY_SESSION_BANDWIDTH, config.getInt("sessionRate", DEFAULT_SESSION_BANDWIDTH))
+			.putInt(KEY_TOTAL_BANDWIDTH, config.getInt("totalRate", DEFAULT_TOTAL_BANDWIDTH))
+			);
+	}
+
+	/** Load relay configuration from shared preferences. */
+	protected Bundle loadRelay() {
+		Bundle config = new Bundle();
+		config.putBoolean("enabled", mPreferences.getBoolean(KEY_RELAY_MODE, false));
+		config.putInt("sessionRate", mPreferences.getInt(KEY_SESSION_BANDWIDTH, DEFAULT_SESSION_BANDWIDTH));
+		config.putInt("totalRate", mPreferences.getInt(KEY_TOTAL_BANDWIDTH, DEFAULT_TOTAL_BANDWIDTH));
+		return config;
+	}
+
+	/** Save listeners configuration to shared preferences. */
+	protected void saveListeners(Bundle config) {
+		applyPreferences(mPreferences.edit()
+			.putString(KEY_LISTEN_ADDRESSES, config.getString("addresses"))
+			.putInt(KEY_ACCEPT_THREADS, config.getInt("acceptThreads", DEFAULT_ACCEPT_THREADS))
+			.putBoolean(KEY_TCP_NO_DELAY, config.getBoolean("noDelay", false))
+			.putInt(KEY_TCP_KEEP_ALIVE, config.getInt("keepAlive", DEFAULT_TCP_KEEP_ALIVE))
+			.putInt(KEY_RECEIVE_BUFFER, config.getInt("receiveBuffer", DEFAULT_SOCKET_BUFFER))
+			.putInt(KEY_SEND_BUFFER, config.getInt("sendBuffer", DEFAULT_SOCKET_BUFFER))
+			);
+	}
+
+	/**
+	 * Load listeners configuration from shared preferences.
+	 *
+	 * @return	A bundle with the configuration, and the count of addresses
+	 *			the daemon is "listening" on and its "runningThreads".
+	 */
+	protected Bundle loadListeners() {
+		Bundle config = new Bundle();
+		config.putString("addresses", mPreferences.getString(KEY_LISTEN_ADDRESSES, DEFAULT_LISTEN_ADDRESSES));
+		config.putInt("acceptThreads", mPreferences.getInt(KEY_ACCEPT_THREADS, DEFAULT_ACCEPT_THREADS));
+		config.putBoolean("noDelay", mPreferences.getBoolean(KEY_TCP_NO_DELAY, false));
+		config.putInt("keepAlive", mPreferences.getInt(KEY_TCP_KEEP_ALIVE, DEFAULT_TCP_KEEP_ALIVE));
+		config.putInt("receiveBuffer", mPreferences.getInt(KEY_RECEIVE_BUFFER, DEFAULT_SOCKET_BUFFER));
+		config.putInt("sendBuffer", mPreferences.getInt(KEY_SEND_BUFFER, DEFAULT_SOCKET_BUFFER));
+		int[] state = new int[2];
+		getListenerState(state);
+		config.putInt("listening", state[0]);
+		config.putInt("runningThreads", state[1]);
+		return config;
+	}
+
+	/** Save housekeeping configuration to shared preferences. */
+	protected void saveHousekeeping(Bundle config) {
+		applyPreferences(mPreferences.edit()
+			.putInt(KEY_HOUSEKEEPING_INTERVAL, Math.max(0, config.getInt("interval", DEFAULT_HOUSEKEEPING_INTERVAL)))
+			.putInt(KEY_ROTATE_SIZE, Math.max(1, config.getInt("rotateSize", DEFAULT_ROTATE_SIZE)))
+			.putInt(KEY_ROTATE_GENERATIONS, Math.max(0, config.getInt("generations", DEFAULT_ROTATE_GENERATIONS)))
+			);
+	}
+
+	/**
+	 * Load housekeeping configuration from shared preferences, and the status
+	 * of the running housekeeping or of the last one.
+	 *
+	 * @return	A bundle with the configuration, the time the "last"
+	 *			housekeeping is finished, whether one is "running", whether
+	 *			the last one has been "deferred" for the sessions, the time it
+	 *			is "started" and "finished", the "bytes" saved by the
+	 *			compression, and for each of the HOUSEKEEPING_* tasks the
+	 *			count of "taskRuns", the "taskItems" handled by the last run,
+	 *			the "taskMillis" of the last run and the "taskTotalMillis" of
+	 *			all the runs. Return null if the status is not available.
+	 */
+	protected Bundle loadHousekeeping() {
+		long[] values = new long[HOUSEKEEPING_FIELD_COUNT];
+		if (!getHousekeepingStatus(values))
+			return null;
+		Bundle status = new Bundle();
+		status.putInt("interval", mPreferences.getInt(KEY_HOUSEKEEPING_INTERVAL, DEFAULT_HOUSEKEEPING_INTERVAL));
+		status.putInt("rotateSize", mPreferences.getInt(KEY_ROTATE_SIZE, DEFAULT_ROTATE_SIZE));
+		status.putInt("generations", mPreferences.getInt(KEY_ROTATE_GENERATIONS, DEFAULT_ROTATE_GENERATIONS));
+		status.putLong("last", mPreferences.getLong(KEY_HOUSEKEEPING_TIME, 0));
+		status.putBoolean("running", values[0] != 0);
+		status.putBoolean("deferred", values[1] != 0);
+		status.putLong("started", values[2]);
+		status.putLong("finished", values[3]);
+		status.putLong("bytes", values[4]);
+		int[] runs = new int[HOUSEKEEPING_TASKS], items = new int[HOUSEKEEPING_TASKS];
+		long[] millis = new long[HOUSEKEEPING_TASKS], totalMillis = new long[HOUSEKEEPING_TASKS];
+		for (int i = 0; i < HOUSEKEEPING_TASKS; ++i) {
+			runs[i] = (int)values[5 + i * 4];
+			items[i] = (int)values[6 + i * 4];
+			millis[i] = values[7 + i * 4];
+			totalMillis[i] = values[8 + i * 4];
+		}
+		status.putIntArray("taskRuns", runs);
+		status.putIntArray("taskItems", items);
+		status.putLongArray("taskMillis", millis);
+		status.putLongArray("taskTotalMillis", totalMillis);
+		return status;
+	}
+
+	/** Start the housekeeping with the rotation saved in shared preferences. */
+	protected boolean startHousekeeping() {
+		return startHousekeeping(
+			mPreferences.getInt(KEY_ROTATE_SIZE, DEFAULT_ROTATE_SIZE) * 1024L,
+			mPreferences.getInt(KEY_ROTATE_GENERATIONS, DEFAULT_ROTATE_GENERATIONS)
+			);
+	}
+
+	/**
+	 * Start the housekeeping if it is due and the CVS daemon is idle, and
+	 * schedule the next look at it. A housekeeping finished is recorded, a
+	 * deferred one starts over when the activity thread finds the daemon idle
+	 * again. Runs on the request thread.
+	 */
+	protected void scheduleHousekeeping() {
+		mEventHandler.removeMessages(MSG_HOUSEKEEPING);
+		long[] values = new long[HOUSEKEEPING_FIELD_COUNT];
+		if (!isInitialized() || !getHousekeepingStatus(values))
+			return;
+		if (values[0] != 0) {
+			mEventHandler.sendEmptyMessageDelayed(MSG_HOUSEKEEPING, HOUSEKEEPING_POLL_INTERVAL);
+			return;
+		}
+		long last = mPreferences.getLong(KEY_HOUSEKEEPING_TIME, 0);
+		if (values[1] == 0 && values[3] > last) {
+			last = values[3];
+			applyPreferences(mPreferences.edit().putLong(KEY_HOUSEKEEPING_TIME, last));
+		}
+		long interval = mPreferences.getInt(KEY_HOUSEKEEPING_INTERVAL, DEFAULT_HOUSEKEEPING_INTERVAL) * 3600000L;
+		if (interval <= 0)
+			return;
+		long delay = Math.min(last + interval - System.currentTimeMillis(), interval);
+		if (delay > 0) {
+			mEventHandler.sendEmptyMessageDelayed(MSG_HOUSEKEEPING, delay);
+		} else if (!mIsBusy) {
+			boolean started = startHousekeeping();
+			if (started)
+				Log.i("CVSService", "CVS daemon is idle, start the housekeeping.");
+			mEventHandler.sendEmptyMessageDelayed(MSG_HOUSEKEEPING,
+				started ? HOUSEKEEPING_POLL_INTERVAL : HOUSEKEEPING_RETRY_INTERVAL);
+		}
+	}
+
+	/** Save power mode to shared preferences. */
+	protected void savePowerMode(Bundle mode) {
+		applyPreferences(mPreferences.edit()
+			.putBoolean(KEY_POWER_MODE, mode.getBoolean("enabled", true))
+			.putInt(KEY_IDLE_GRACE, Math.max(0, mode.getInt("gracePeriod", DEFAULT_IDLE_GRACE)))
+			);
+	}
+
+	/**
+	 * Load power mode from shared preferences.
+	 *
+	 * @return	A bundle with "enabled" and the "gracePeriod" in seconds, and
+	 *			whether the power locks are "held" now.
+	 */
+	protected Bundle loadPowerMode() {
+		Bundle mode = new Bundle();
+		mode.putBoolean("enabled", mPreferences.getBoolean(KEY_POWER_MODE, true));
+		mode.putInt("gracePeriod", mPreferences.getInt(KEY_IDLE_GRACE, DEFAULT_IDLE_GRACE));
+		mode.putBoolean("held", mWakeLock.isHeld());
+		return mode;
+	}
+
+	/** Apply the power mode saved in shared preferences. */
+	protected void applyPowerMode() {
+		mIsPowerModeEnabled = mPreferences.getBoolean(KEY_POWER_MODE, true);
+		mIdleGracePeriod = mPreferences.getInt(KEY_IDLE_GRACE, DEFAULT_IDLE_GRACE) * 1000;
+		updatePowerLocks();
+	}
+
+	/**
+	 * Hold the power locks if the CVS daemon is busy and the high performance
+	 * mode is enabled, otherwise release them. Called by the request thread
+	 * and the activity thread.
+	 */
+	protected synchronized void updatePowerLocks() {
+		boolean hold = mIsBusy && mIsPowerModeEnabled;
+		if (hold == mWakeLock.isHeld())
+			return;
+		if (hold) {
+			Log.i("CVSService", "CVS daemon is busy, acquire the power locks.");
+			mWakeLock.acquire();
+			mWifiLock.acquire();
+		} else {
+			Log.i("CVSService", "CVS daemon is idle, release the power locks.");
+			mWifiLock.release();
+			mWakeLock.release();
+		}
+	}
+
+	/**
+	 * Follow the CVS daemon between busy and idle until cancelActivity() is
+	 * called. The locks are kept for the grace period after the last session,
+	 * a client usually sends its next command a moment later. Runs on the
+	 * activity thread, which sleeps in the native daemon in between.
+	 */
+	protected void watchActivity() {
+		for (int busy = 0; busy >= 0;) {
+			if (!mIsBusy) {
+				busy = waitActivity(false, -1);
+				if (busy > 0) {
+					mIsBusy = true;
+					updatePowerLocks();
+				}
+				continue;
+			}
+			busy = waitActivity(true, -1);
+			if (busy != 0)
+				continue;
+			busy = waitActivity(false, mIdleGracePeriod);
+			if (busy == 0) {
+				mIsBusy = false;
+				updatePowerLocks();
+				mEventHandler.sendEmptyMessage(MSG_HOUSEKEEPING);
+			}
+		}
+		mIsBusy = false;
+		updatePowerLocks();
+	}
+
+	/** Save temporary area configuration to shared preferences. */
+	protected void saveTempArea(Bundle config) {
+		applyPreferences(mPreferences.edit()
+			.putInt(KEY_TEMP_LOCATION, config.getInt("location", DEFAULT_TEMP_LOCATION))
+			.putInt(KEY_TEMP_QUOTA, config.getInt("quota", DEFAULT_TEMP_QUOTA))
+			);
+	}
+
+	/**
+	 * Get the path of the temporary area at the specified location. The
+	 * internal storage is preferred because it is usually much faster than
+	 * the SD card, and it is always mounted.
+	 *
+	 * @param location	TEMP_INTERNAL, TEMP_CACHE or TEMP_EXTERNAL.
+	 *
+	 * @return			Path of the temporary directory.
+	 */
+	protected String getTempPath(int location) {
+		switch (location) {
+		case TEMP_CACHE:
+			return new File(getCacheDir(), "cvstemp").getAbsolutePath();
+		case TEMP_EXTERNAL:
+			return TEMPORARY_PATH;
+		default:
+			return getDir("cvstemp", MODE_PRIVATE).getAbsolutePath();
+		}
+	}
+
+	/**
+	 * Get the path of the lock area at the specified location.
+	 *
+	 * @param location	LOCK_INTERNAL or LOCK_REPOSITORY.
+	 *
+	 * @return			Path of the lock directory, an empty string for the
+	 *					repositories.
+	 */
+	protected String getLockPath(int location) {
+		if (location == LOCK_REPOSITORY)
+			return "";
+		return getDir("cvslock", MODE_PRIVATE).getAbsolutePath();
+	}
+
+	/**
+	 * Get the path of the temporary area of an extra repository, next to the
+	 * one of the primary repository.
+	 *
+	 * @param location	TEMP_INTERNAL, TEMP_CACHE or TEMP_EXTERNAL.
+	 * @param path		Path of the repository.
+	 *
+	 * @return			Path of the temporary directory.
+	 */
+	protected String getRootTempPath(int location, String path) {
+		return getTempPath(location) + "-" + Integer.toHexString(path.hashCode());
+	}
+
+	/**
+	 * Check a path given for a repository. It is saved one per line, so it
+	 * must be absolute and short enough for the native buffers, with no
+	 * control characters.
+	 *
+	 * @param path	Path of the repository.
+	 *
+	 * @return		Return true if the path can be used, otherwise return
+	 * 				false.
+	 */
+	protected static boolean isValidRootPath(String path) {
+		if (path == null || !path.startsWith("/") || path.length() > MAX_ROOT_PATH)
+			return false;
+		for (int i = 0; i < path.length(); ++i) {
+			char c = path.charAt(i);
+			if (c < 0x20 || c >= 0x7f)
+				return false;
+		}
+		return true;
+	}
+
+	/** Save the extra repositories being served to shared preferences. */
+	protected void saveExtraRoots() {
+		String[] paths = new String[MAX_ROOTS];
+		long[] values = new long[MAX_ROOTS * ROOT_FIELD_COUNT];
+		int count = getRoots(paths, values);
+		StringBuilder roots = new StringBuilder();
+		for (int i = 1; i < count; ++i)
+			roots.append(values[i * ROOT_FIELD_COUNT]).append(' ').append(paths[i]).append('\n');
+		applyPreferences(mPreferences.edit().putString(KEY_EXTRA_ROOTS, roots.toString()));
+	}
+
+	/**
+	 * Load the repositories being served into a bundle, the primary one first.
+	 *
+	 * @return	A bundle with the "paths" and "maxSessions" arrays, and an
+	 *			array of each of the "accepted", "rejected", "active",
+	 *			"waiting", "finished", "authFailed", "bytesIn" and "bytesOut"
+	 *			counters of the repositories.
+	 */
+	protected Bundle loadRoots() {
+		String[] paths = new String[MAX_ROOTS];
+		long[] values = new long[MAX_ROOTS * ROOT_FIELD_COUNT];
+		int count = getRoots(paths, values);
+		final int[] indexes = {
+			STAT_ACCEPTED, STAT_REJECTED, STAT_ACTIVE, STAT_WAITING, STAT_FINISHED,
+			STAT_AUTH_FAILED, STAT_BYTES_IN, STAT_BYTES_OUT
+		};
+		final String[] names = {
+			"accepted", "rejected", "active", "waiting", "finished",
+			"authFailed", "bytesIn", "bytesOut"
+		};
+		String[] roots = new String[count];
+		int[] maxSessions = new int[count];
+		long[][] counters = new long[indexes.length][count];
+		for (int i = 0; i < count; ++i) {
+			roots[i] = paths[i];
+			maxSessions[i] = (int)values[i * ROOT_FIELD_COUNT];
+			for (int j = 0; j < indexes.length; ++j)
+				counters[j][i] = values[i * ROOT_FIELD_COUNT + 1 + indexes[j]];
+		}
+		Bundle bundle = new Bundle();
+		bundle.putStringArray("paths", roots);
+		bundle.putIntArray("maxSessions", maxSessions);
+		for (int j = 0; j < indexes.length; ++j)
+			bundle.putLongArray(names[j], counters[j]);
+		return bundle;
+	}
+
+	/**
+	 * Load the temporary area configuration and usage into a bundle.
+	 *
+	 * @return	A bundle with the "location", the "path", the "quota" in MB, the
+	 *			bytes "used", whether it is "overQuota", the count of
+	 *			"sessions" using it, the count of orphans "removed" and the time
+	 *			it is last "swept". Return null if the usage is not available.
+	 */
+	protected Bundle loadTempUsage() {
+		long[] values = new long[TEMP_FIELD_COUNT];
+		if (!getTempUsage(values))
+			return null;
+		int location = mPreferences.getInt(KEY_TEMP_LOCATION, DEFAULT_TEMP_LOCATION);
+		int quota = mPreferences.getInt(KEY_TEMP_QUOTA, DEFAULT_TEMP_QUOTA);
+		Bundle usage = new Bundle();
+		usage.putInt("location", location);
+		usage.putString("path", getTempPath(location));
+		usage.putInt("quota", quota);
+		usage.putLong("used", values[TEMP_USED]);
+		usage.putBoolean("overQuota", quota > 0 && values[TEMP_USED] >= quota * 1024L * 1024L);
+		usage.putInt("sessions", (int)values[TEMP_SESSIONS]);
+		usage.putInt("removed", (int)values[TEMP_REMOVED]);
+		usage.putLong("swept", values[TEMP_SWEPT]);
+		return usage;
+	}
+
+	/**
+	 * Load the status of the running backup or of the last one into a
+	 * bundle.
+	 *
+	 * @return	A bundle with the "path", whether it is "running", whether it
+	 *			has "failed", the time it is "started" and "finished", the
+	 *			count of "directories" scanned and of the unchanged ones
+	 *			"skipped", the count of "files" compared, "copied" and
+	 *			"removed", and the "bytes" copied. Return null if the status is
+	 *			not available.
+	 */
+	protected Bundle loadBackupStatus() {
+		long[] values = new long[BACKUP_FIELD_COUNT];
+		if (!getBackupStatus(values))
+			return null;
+		Bundle status = new Bundle();
+		status.putString("path", mPreferences.getString(KEY_BACKUP_PATH, BACKUP_PATH));
+		status.putBoolean("running", values[0] != 0);
+		status.putBoolean("failed", values[1] != 0);
+		status.putLong("started", values[2]);
+		status.putLong("finished", values[3]);
+		status.putInt("directories", (int)values[4]);
+		status.putInt("skipped", (int)values[5]);
+		status.putInt("files", (int)values[6]);
+		status.putInt("copied", (int)values[7]);
+		status.putInt("removed", (int)values[8]);
+		status.putLong("bytes", values[9]);
+		return status;
+	}
+
+	/**
+	 * Load the status of the running verification or of the last one into a
+	 * bundle.
+	 *
+	 * @return	A bundle with whether it is "running", whether it has "failed"
+	 *			by a cancel, the time it is "started" and "finished", the count
+	 *			of "threads", of "directories" and "files" checked, of
+	 *			"corrupt" files, stale "locks" and "temps", and of the ones
+	 *			"repaired", the "bytes" read, and the issues found so far in
+	 *			"issuePaths", "issueKinds" and "issueRepaired". Return null if
+	 *			the status is not available.
+	 */
+	protected Bundle loadVerifyStatus() {
+		long[] values = new long[VERIFY_FIELD_COUNT];
+		if (!getVerifyStatus(values))
+			return null;
+		Bundle status = new Bundle();
+		status.putBoolean("running", values[0] != 0);
+		status.putBoolean("failed", values[1] != 0);
+		status.putLong("started", values[2]);
+		status.putLong("finished", values[3]);
+		status.putInt("threads", (int)values[4]);
+		status.putInt("directories", (int)values[5]);
+		status.putInt("files", (int)values[6]);
+		status.putInt("corrupt", (int)values[7]);
+		status.putInt("locks", (int)values[8]);
+		status.putInt("temps", (int)values[9]);
+		status.putInt("repaired", (int)values[10]);
+		status.putLong("bytes", values[11]);
+
+		String[] paths = new String[MAX_VERIFY_ISSUES];
+		int[] kinds = new int[MAX_VERIFY_ISSUES];
+		boolean[] repaired = new boolean[MAX_VERIFY_ISSUES];
+		int count = getVerifyIssues(paths, kinds, repaired);
+		String[] issuePaths = new String[count];
+		int[] issueKinds = new int[count];
+		boolean[] issueRepaired = new boolean[count];
+		System.arraycopy(paths, 0, issuePaths, 0, count);
+		System.arraycopy(kinds, 0, issueKinds, 0, count);
+		System.arraycopy(repaired, 0, issueRepaired, 0, count);
+		status.putStringArray("issuePaths", issuePaths);
+		status.putIntArray("issueKinds", issueKinds);
+		status.putBooleanArray("issueRepaired", issueRepaired);
+		return status;
+	}
+
+	/** Load session limits from shared preferences. */
+	protected Bundle loadSessionLimits() {
+		Bundle limits = new Bundle();
+		limits.putInt("maxSessions", mPreferences.getInt(KEY_MAX_SESSIONS, DEFAULT_MAX_SESSIONS));
+		limits.putInt("maxQueue", mPreferences.getInt(KEY_MAX_QUEUE, DEFAULT_MAX_QUEUE));
+		limits.putInt("backlog", mPreferences.getInt(KEY_LISTEN_BACKLOG, DEFAULT_LISTEN_BACKLOG));
+		return limits;
+	}
+
+	/**
+	 * Load the native counters into a bundle.
+	 *
+	 * @return	The counters keyed by name, the "durations" key holds the
+	 *			session duration histogram. Return null if the native counters
+	 *			are not available.
+	 */
+	protected Bundle loadStats() {
+		long[] counters = new long[STAT_COUNT];
+		if (!getStats(counters))
+			return null;
+		long[] durations = new long[STAT_COUNT - STAT_DURATIONS];
+		System.arraycopy(counters, STAT_DURATIONS, durations, 0, durations.length);
+		Bundle stats = new Bundle();
+		stats.putLong("accepted", counters[STAT_ACCEPTED]);
+		stats.putLong("rejected", counters[STAT_REJECTED]);
+		stats.putLong("active", counters[STAT_ACTIVE]);
+		stats.putLong("waiting", counters[STAT_WAITING]);
+		stats.putLong("finished", counters[STAT_FINISHED]);
+		stats.putLong("bytesIn", counters[STAT_BYTES_IN]);
+		stats.putLong("bytesOut", counters[STAT_BYTES_OUT]);
+		stats.putLong("exitOk", counters[STAT_EXIT_OK]);
+		stats.putLong("exitError", counters[STAT_EXIT_ERROR]);
+		stats.putLong("exitSignaled", counters[STAT_EXIT_SIGNALED]);
+		stats.putLong("authFailed", counters[STAT_AUTH_FAILED]);
+		stats.putLongArray("durations", durations);
+		return stats;
+	}
+
+	/**
+	 * Load the users of the repository into a bundle.
+	 *
+	 * @return	A bundle with the "usernames" and "roles" arrays, sorted by
+	 *			user name.
+	 */
+	protected Bundle loadUsers() {
+		String[] usernames = new String[MAX_USERS];
+		int[] roles = new int[MAX_USERS];
+		int count = getUsers(usernames, roles);
+		String[] names = new String[count];
+		int[] values = new int[count];
+		System.arraycopy(usernames, 0, names, 0, count);
+		System.arraycopy(roles, 0, values, 0, count);
+		Bundle users = new Bundle();
+		users.putStringArray("usernames", names);
+		users.putIntArray("roles", values);
+		return users;
+	}
+
+	/**
+	 * Query the head revision index for a module.
+	 *
+	 * @param request	The "module" to query, an empty string for the whole
+	 *					repository. The "since" digest of an earlier reply, and
+	 *					whether the "heads" of each RCS file are wanted.
+	 *
+	 * @return	A bundle with the "module", the count of "files", the latest
+	 *			"modified" time, the "digest" and whether it is "changed" since
+	 *			the given digest. With "heads" it also has the "paths",
+	 *			"revisions" and space separated "branches" of the RCS files.
+	 *			Return null if the index is not available.
+	 */
+	protected Bundle loadModuleState(Bundle request) {
+		String module = request.getString("module");
+		if (module == null)
+			module = "";
+		long[] values = new long[3];
+		if (!getModuleState(module, values))
+			return null;
+		Bundle state = new Bundle();
+		state.putString("module", module);
+		state.putInt("files", (int)values[0]);
+		state.putLong("modified", values[1]);
+		state.putLong("digest", values[2]);
+		state.putBoolean("changed", !request.containsKey("since") || request.getLong("since") != values[2]);
+		if (request.getBoolean("heads", false)) {
+			String[] paths = new String[MAX_HEADS];
+			String[] heads = new String[MAX_HEADS];
+			String[] branches = new String[MAX_HEADS];
+			int count = getHeads(module, paths, heads, branches);
+			String[] files = new String[count];
+			String[] revisions = new String[count];
+			String[] branchHeads = new String[count];
+			System.arraycopy(paths, 0, files, 0, count);
+			System.arraycopy(heads, 0, revisions, 0, count);
+			System.arraycopy(branches, 0, branchHeads, 0, count);
+			state.putStringArray("paths", files);
+			state.putStringArray("revisions", revisions);
+			state.putStringArray("branches", branchHeads);
+		}
+		return state;
+	}
+
+	/**
+	 * Load the native session table into a bundle.
+	 *
+	 * @return	A bundle with one array per field, the most recent session
+	 *			first. The "status" of an active session is -1.
+	 */
+	protected Bundle loadSessions() {
+		long[] values = new long[MAX_SESSIONS * SESSION_FIELD_COUNT];
+		String[] addresses = new String[MAX_SESSIONS];
+		int count = getSessions(values, addresses);
+		int[] pids = new int[count];
+		int[] statuses = new int[count];
+		boolean[] actives = new boolean[count];
+		long[] starteds = new long[count];
+		long[] durations = new long[count];
+		long[] userTimes = new long[count];
+		long[] systemTimes = new long[count];
+		long[] maxRsses = new long[count];
+		long[] inBlocks = new long[count];
+		long[] outBlocks = new long[count];
+		for (int i = 0; i < count; ++i) {
+			int base = i * SESSION_FIELD_COUNT;
+			pids[i] = (int)values[base + SESSION_PID];
+			actives[i] = values[base + SESSION_ACTIVE] != 0;
+			statuses[i] = actives[i] ? -1 : (int)values[base + SESSION_STATUS];
+			starteds[i] = values[base + SESSION_STARTED];
+			durations[i] = values[base + SESSION_DURATION];
+			userTimes[i] = values[base + SESSION_USER_TIME];
+			systemTimes[i] = values[base + SESSION_SYSTEM_TIME];
+			maxRsses[i] = values[base + SESSION_MAX_RSS];
+			inBlocks[i] = values[base + SESSION_IN_BLOCKS];
+			outBlocks[i] = values[base + SESSION_OUT_BLOCKS];
+		}
+		String[] clients = new String[count];
+		System.arraycopy(addresses, 0, clients, 0, count);
+		Bundle sessions = new Bundle();
+		sessions.putIntArray("pid", pids);
+		sessions.putStringArray("address", clients);
+		sessions.putBooleanArray("active", actives);
+		sessions.putIntArray("status", statuses);
+		sessions.putLongArray("started", starteds);
+		sessions.putLongArray("duration", durations);
+		sessions.putLongArray("userTime", userTimes);
+		sessions.putLongArray("systemTime", systemTimes);
+		sessions.putLongArray("maxRss", maxRsses);
+		sessions.putLongArray("inBlocks", inBlocks);
+		sessions.putLongArray("outBlocks", outBlocks);
+		return sessions;
+	}
+
+	/** Load libcvsdsrv.so for CVSDaemonService.*/
+	static { System.loadLibrary("cvsdsrv"); }
+
+	/** Value to hold the native CVSService object, wide enough for 64-bit. */
+	protected long mNativePtr = 0;
+
+	/**
+	 * Initial native CVSService object.
+	 *
+	 */
+	private native boolean nativeOnCreate(String repoPath, String tempPath);
+
+	/**
+	 * Native method to change user name and password.
+	 * @param username	New user name.
+	 * @param password	New password.
+	 *
+	 * @return	Return true if success, otherwise return false.
+	 *
+	 */
+	private native boolean setUserPassword(String username, String password);
+
+	/**
+	 * Native method to add, update or remove a batch of users.
+	 * @param usernames	User names.
+	 * @param passwords	New passwords, a null element keeps the password of an
+	 *					existing user and an empty one means no password.
+	 * @param roles		New roles, ROLE_WRITE or 0 for a read only user, or
+	 *					ROLE_REMOVE to remove the user.
+	 *
+	 * @return	Count of changes applied, or -1 if the CVSROOT files can not be
+	 *			written.
+	 *
+	 */
+	private native int updateUsers(String[] usernames, String[] passwords, int[] roles);
+
+	/**
+	 * Native method to get the users of the repository.
+	 * @param usernames	Array to hold the user names.
+	 * @param roles		Array to hold the roles.
+	 *
+	 * @return	Count of users got.
+	 *
+	 */
+	private native int getUsers(String[] usernames, int[] roles);
+
+	/**
+	 * Native method to configure the pool of pre-forked CVS worker processes.
+	 * @param poolSize		Count of idle workers kept ready, 0 to disable
+	 *						pre-forking.
+	 * @param idleTimeout	Seconds an idle worker waits before it exits.
+	 * @param maxSessions	Count of sessions served by a worker before it is
+	 *						replaced.
+	 *
+	 * @return	Return true if success, otherwise return false.
+	 *
+	 */
+	private native boolean setWorkerPool(int poolSize, int idleTimeout, int maxSessions);
+
+	/**
+	 * Native method to configure the admission control of the CVS daemon.
+	 * @param maxSessions	Max count of concurrent sessions.
+	 * @param maxQueue		Max count of clients waiting for a session slot, 0
+	 *						to reject them at once.
+	 * @param backlog		Backlog of the listening socket, it takes effect
+	 *						when the daemon is started next time.
+	 *
+	 * @return	Return true if success, otherwise return false.
+	 *
+	 */
+	private native boolean setSessionLimits(int maxSessions, int maxQueue, int backlog);
+
+	/**
+	 * Native method to get a snapshot of the counters of the CVS daemon.
+	 * @param stats		Array to hold the counters, indexed by STAT_*.
+	 *
+	 * @return	Return true if success, otherwise return false.
+	 *
+	 */
+	private native boolean getStats(long[] stats);
+
+	/**
+	 * Native method to wait until the CVS daemon becomes busy or idle. The
+	 * daemon is busy while any client is being authenticated, is waiting for
+	 * a session slot or is being served.
+	 * @param isBusy	Whether the daemon is known to be busy.
+	 * @param timeout	Milliseconds to wait, -1 to wait for ever.
+	 *
+	 * @return	Count of the busy clients, or -1 if the waiting is cancelled.
+	 *
+	 */
+	private native int waitActivity(boolean isBusy, int timeout);
+
+	/**
+	 * Native method to wake up the thread in waitActivity(), the later calls
+	 * return -1 at once.
+	 *
+	 */
+	private native void cancelActivity();
+
+	/**
+	 * Native method to get the active and recently finished sessions.
+	 * @param values	Array to hold the numeric fields of the sessions,
+	 *					SESSION_FIELD_COUNT fields per session.
+	 * @param addresses	Array to hold the client addresses.
+	 *
+	 * @return	Count of sessions got.
+	 *
+	 */
+	private native int getSessions(long[] values, String[] addresses);
+
+	/**
+	 * Native method to kill the CVS process of an active session.
+	 * @param pid	PID of the CVS process.
+	 *
+	 * @return	Return true if success, otherwise return false.
+	 *
+	 */
+	private native boolean killSession(int pid);
+
+	/**
+	 * Native method to get the summary of a module from the head revision
+	 * index.
+	 * @param module	Path of the module relative to the repository.
+	 * @param state		Array to hold the count of files, the latest
+	 *					modification time in milliseconds and the digest.
+	 *
+	 * @return	Return true if success, otherwise return false.
+	 *
+	 */
+	private native boolean getModuleState(String module, long[] state);
+
+	/**
+	 * Native method to get the head revisions of the RCS files of a module.
+	 * @param module	Path of the module relative to the repository.
+	 * @param paths		Array to hold the paths of the RCS files.
+	 * @param heads		Array to hold the head revisions.
+	 * @param branches	Array to hold the space separated branch heads.
+	 *
+	 * @return	Count of RCS files got.
+	 *
+	 */
+	private native int getHeads(String module, String[] paths, String[] heads, String[] branches);
+
+	/**
+	 * Native method to configure the gzip-stream compression of the sessions.
+	 * @param minLevel	Lowest level, 0 to 9.
+	 * @param maxLevel	Highest level, 0 to 9, equal to minLevel to force a
+	 *					level.
+	 * @param adaptive	Whether the level of a session is moved within the
+	 *					range by its CPU load.
+	 *
+	 * @return	Return true if success, otherwise return false.
+	 *
+	 */
+	private native boolean setCompression(int minLevel, int maxLevel, boolean adaptive);
+
+	/**
+	 * Native method to configure the relay of the sessions.
+	 * @param enabled		Whether to relay the new sessions.
+	 * @param sessionRate	Bytes per second of each session, 0 for no limit.
+	 * @param totalRate		Bytes per second of all the sessions, 0 for no
+	 *						limit.
+	 *
+	 * @return	Return true if success, otherwise return false.
+	 *
+	 */
+	private native boolean setRelay(boolean enabled, int sessionRate, int totalRate);
+
+	/**
+	 * Native method to configure the listening sockets of the daemon, it
+	 * takes effect when the daemon is started next time.
+	 * @param addresses		Listening addresses separated by spaces or commas.
+	 * @param threads		Count of accept threads, 0 to accept on the daemon
+	 *						thread.
+	 * @param noDelay		Whether to set TCP_NODELAY.
+	 * @param keepAlive		Idle seconds before the keep-alive probes, 0 for
+	 *						no keep-alive.
+	 * @param receiveBuffer	SO_RCVBUF in bytes, 0 for the system default.
+	 * @param sendBuffer	SO_SNDBUF in bytes, 0 for the system default.
+	 *
+	 * @return	Return true if success, otherwise return false.
+	 *
+	 */
+	private native boolean setListeners(String addresses, int threads, boolean noDelay, int keepAlive,
+		int receiveBuffer, int sendBuffer);
+
+	/**
+	 * Native method to get what the running daemon listens with.
+	 * @param state	Array to hold the count of addresses listened on and the
+	 *				count of accept threads.
+	 *
+	 * @return	Return true if success, otherwise return false.
+	 *
+	 */
+	private native boolean getListenerState(int[] state);
+
+	/**
+	 * Native method to move the temporary area and set its quota.
+	 * @param path	Path of the temporary directory.
+	 * @param quota	Quota in bytes, 0 for no quota.
+	 *
+	 * @return	Return true if success, otherwise return false.
+	 *
+	 */
+	private native boolean setTempArea(String path, long quota);
+
+	/**
+	 * Native method to get the usage of the temporary area.
+	 * @param usage	Array to hold the bytes used, the quota in bytes, the count
+	 *				of session directories, the count of orphaned directories
+	 *				removed and the time of the last sweep in milliseconds.
+	 *
+	 * @return	Return true if success, otherwise return false.
+	 *
+	 */
+	private native boolean getTempUsage(long[] usage);
+
+	/**
+	 * Native method to move the lock files of the CVS processes out of the
+	 * repositories, with the LockDir option of CVS.
+	 * @param path	Path of the lock directory, an empty string to keep the
+	 *				locks in the repositories.
+	 *
+	 * @return	Return true if success, otherwise return false.
+	 *
+	 */
+	private native boolean setLockArea(String path);
+
+	/**
+	 * Native method to open the access log, the records of the sessions and
+	 * of the clients turned away are kept in it.
+	 * @param path		Path of the log file.
+	 * @param capacity	Count of records kept, the oldest ones are
+	 *					overwritten.
+	 *
+	 * @return	Return true if success, otherwise return false.
+	 *
+	 */
+	private native boolean openAccessLog(String path, int capacity);
+
+	/**
+	 * Native method to serve one more repository, or change the cap of one
+	 * being served.
+	 * @param path			Path of the repository, created if it does not
+	 *						exist.
+	 * @param tempPath		Path of the temporary directory of the repository.
+	 * @param maxSessions	Max concurrent sessions of the repository, 0 for
+	 *						no cap.
+	 *
+	 * @return	Return true if success, otherwise return false.
+	 *
+	 */
+	private native boolean addRoot(String path, String tempPath, int maxSessions);
+
+	/**
+	 * Native method to stop serving a repository, its running sessions go on.
+	 * @param path	Path of the repository.
+	 *
+	 * @return	Return true if success, otherwise return false.
+	 *
+	 */
+	private native boolean removeRoot(String path);
+
+	/**
+	 * Native method to get the repositories being served.
+	 * @param paths		Array to hold the paths of the repositories.
+	 * @param values	Array to hold ROOT_FIELD_COUNT values of each
+	 *					repository, the cap followed by the native counters.
+	 *
+	 * @return	Count of repositories got.
+	 *
+	 */
+	private native int getRoots(String[] paths, long[] values);
+
+	/**
+	 * Native method to start an incremental backup of the repositories into
+	 * a mirror directory, on a native thread.
+	 * @param path	Path of the backup directory.
+	 *
+	 * @return	Return true if the backup is started, otherwise return false.
+	 *
+	 */
+	private native boolean startBackup(String path);
+
+	/**
+	 * Native method to get the status of the running or the last backup.
+	 * @param status	Array to hold whether a backup is running, whether the
+	 *					last one has failed, the start and finish time in
+	 *					milliseconds, the count of directories scanned and
+	 *					skipped, of files compared, copied and removed, and the
+	 *					bytes copied.
+	 *
+	 * @return	Return true if success, otherwise return false.
+	 *
+	 */
+	private native boolean getBackupStatus(long[] status);
+
+	/**
+	 * Native method to start a verification of the repositories and the lock
+	 * area, on a pool of native threads.
+	 * @param repair	Whether to remove the stale locks and temporary files.
+	 *
+	 * @return	Return true if the verification is started, otherwise return
+	 *			false.
+	 *
+	 */
+	private native boolean startVerify(boolean repair);
+
+	/**
+	 * Native method to get the status of the running or the last verification.
+	 * @param status	Array to hold whether a verification is running,
+	 *					whether the last one has been cancelled, the start and
+	 *					finish time in milliseconds, the count of threads, of
+	 *					directories and files checked, of corrupt files, stale
+	 *					locks, stale temporary files and files removed, and the
+	 *					bytes read.
+	 *
+	 * @return	Return true if success, otherwise return false.
+	 *
+	 */
+	private native boolean getVerifyStatus(long[] status);
+
+	/**
+	 * Native method to get the issues found by the running or the last
+	 * verification.
+	 * @param paths		Array to hold the paths of the files.
+	 * @param kinds		Array to hold the ISSUE_* kinds.
+	 * @param repaired	Array to hold whether the files are removed.
+	 *
+	 * @return	Count of issues got.
+	 *
+	 */
+	private native int getVerifyIssues(String[] paths, int[] kinds, boolean[] repaired);
+
+	/**
+	 * Native method to start the housekeeping of the repositories, on a
+	 * native thread. It stops as soon as the CVS daemon is busy.
+	 * @param rotateSize	Size in bytes over which CVSROOT/history and
+	 *						CVSROOT/val-tags are rotated.
+	 * @param generations	Count of compressed generations kept.
+	 *
+	 * @return	Return true if the housekeeping is started, otherwise return
+	 *			false.
+	 *
+	 */
+	private native boolean startHousekeeping(long rotateSize, int generations);
+
+	/**
+	 * Native method to get the status of the running or the last
+	 * housekeeping.
+	 * @param status	Array to hold whether the housekeeping is running,
+	 *					whether the last one has been deferred, the start and
+	 *					finish time in milliseconds, the bytes saved, and for
+	 *					each task the count of runs, the items of the last run,
+	 *					the milliseconds of the last run and of all the runs.
+	 *
+	 * @return	Return true if success, otherwise return false.
+	 *
+	 */
+	private native boolean getHousekeepingStatus(long[] status);
+
+	/**
+	 * Native method to start the CVS daemon thread.
+	 *
+	 * @return	Return true if success, otherwise return false.
+	 *
+	 */
+	private native boolean startDaemon();
+
+	/**
+	 * Native method to check whether the repository is usable.
+	 *
+	 * @return	Return true if the repository has been found or created,
+	 *			otherwise return false.
+	 *
+	 */
+	private native boolean isInitialized();
 
 	/**
 	 * Native method to get the running status of the CVS daemon thread.
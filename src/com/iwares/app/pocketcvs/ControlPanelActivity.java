@@ -45,13 +45,29 @@ import android.widget.Toast;
  * @author Eric.Tsai
  *
  */
-public class ControlPanelActivity extends Activity implements CVSAgent.Callback, IPAddressMonitor.Callback,
+public class ControlPanelActivity extends Activity implements IPAddressMonitor.Callback,
 	View.OnClickListener, DialogInterface.OnClickListener {
 
 	/** CVS agent used to communicate with the CVS service. */
 	private CVSAgent mCVSAgent;
 
-	/** IP address monitor to monitor WiFi IP address. */
+	/** Callback of the CVS agent, only the daemon status and the replies shown are handled. */
+	private final CVSAgent.Callback mAgentCallback = new CVSAgent.SimpleCallback() {
+		@Override
+		public void onDaemonStatusChanged(int newStatus) {
+			ControlPanelActivity.this.onDaemonStatusChanged(newStatus);
+		}
+		@Override
+		public void onInitStateChanged(int state) {
+			ControlPanelActivity.this.onInitStateChanged(state);
+		}
+		@Override
+		public void onUserPasswordChanged(boolean changed) {
+			ControlPanelActivity.this.onUserPasswordChanged(changed);
+		}
+	};
+
+	/** IP address monitor to monitor the IP addresses. */
 	private IPAddressMonitor mIPAddressMonitor;
 
 	/** Indicate whether allow the activity to be finished currently. */
@@ -60,6 +76,9 @@ public class ControlPanelActivity extends Activity implements CVSAgent.Callback,
 	/** Indicate whether the CVS daemon is running. */
 	private boolean mIsDaemonRunning = false;
 
+	/** Initialization state of the CVSService. */
+	private int mInitState = CVSService.INIT_CHECKING;
+
 	/** Status image widget. */
 	private ImageView mStatusImage;
 
@@ -75,8 +94,8 @@ public class ControlPanelActivity extends Activity implements CVSAgent.Callback,
 	/** Progress widget. */
 	private ProgressBar mProgressRing;
 
-	/** Current WiFi IP address */
-	private String mIPAddress = null;
+	/** Current IP addresses of all the network interfaces. */
+	private String[] mIPAddresses = new String[0];
 
 	/* (non-Javadoc)
 	 * @see android.app.Activity#onCreate(android.os.Bundle)
@@ -85,7 +104,7 @@ public class ControlPanelActivity extends Activity implements CVSAgent.Callback,
 	public void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 		CVSService.startService(this, false);
-		CVSService.bindService(this, mCVSAgent = new CVSAgent(this), 0);
+		CVSService.bindService(this, mCVSAgent = new CVSAgent(mAgentCallback), 0);
 		mIPAddressMonitor = new IPAddressMonitor(this, this);
 		setContentView(R.layout.acvs_control_panel);
 		mStatusImage = (ImageView)findViewById(R.id.StatusImage);
@@ -119,6 +138,7 @@ public class ControlPanelActivity extends Activity implements CVSAgent.Callback,
 	 */
 	@Override
 	public void onDestroy() {
+		mCVSAgent.requstUnsubscribe();
 		unbindService(mCVSAgent);
 		if (!mIsDaemonRunning)
 			CVSService.stopService(this);
@@ -145,12 +165,21 @@ public class ControlPanelActivity extends Activity implements CVSAgent.Callback,
 	}
 
 	public void updateUIStatus() {
-		if (mIsDaemonRunning) {
+		if (mInitState == CVSService.INIT_CHECKING || mInitState == CVSService.INIT_CREATING) {
+			mStatusImage.setBackgroundResource(R.drawable.service_is_initializing);
+			mStatusText.setText(R.string.status_initializing);
+			mDescriptionText.setText(mInitState == CVSService.INIT_CREATING ?
+				R.string.description_creating : R.string.description_initializing);
+		} else if (mInitState == CVSService.INIT_FAILED) {
+			mStatusImage.setBackgroundResource(R.drawable.service_is_stopped);
+			mStatusText.setText(R.string.status_failed);
+			mDescriptionText.setText(R.string.description_failed);
+		} else if (mIsDaemonRunning) {
 			String description = getString(R.string.description_running);
-			if (mIPAddress == null)
+			if (mIPAddresses.length == 0)
 				description += getString(R.string.no_network_available);
-			else
-				description += mIPAddress + ":" + CVSService.REPOSITORY_PATH;
+			for (int i = 0; i < mIPAddresses.length; ++i)
+				description += (i > 0 ? "\n" : "") + mIPAddresses[i] + ":" + CVSService.REPOSITORY_PATH;
 			mStatusImage.setBackgroundResource(R.drawable.service_is_running);
 			mStatusText.setText(R.string.status_running);
 			mDescriptionText.setText(description);
@@ -163,7 +192,8 @@ public class ControlPanelActivity extends Activity implements CVSAgent.Callback,
 		}
 	}
 
-	/* (non-Javadoc)
+	/**
+	 * Called when the CVS daemon status is changed.
 	 * @see com.iwares.app.pocketcvs.CVSAgent.Callback#onDaemonStatusChanged(int)
 	 */
 	public void onDaemonStatusChanged(int newStatus) {
@@ -178,12 +208,22 @@ public class ControlPanelActivity extends Activity implements CVSAgent.Callback,
 			break;
 		}
 		updateUIStatus();
-		mStartStopButton.setVisibility(View.VISIBLE);
+		mStartStopButton.setVisibility(mInitState == CVSService.INIT_FAILED ? View.GONE : View.VISIBLE);
 		mProgressRing.setVisibility(View.GONE);
 		mAllowExit = true;
 	}
 
-	/* (non-Javadoc)
+	/**
+	 * Called when the initialization state of the CVSService is changed.
+	 * @see com.iwares.app.pocketcvs.CVSAgent.Callback#onInitStateChanged(int)
+	 */
+	public void onInitStateChanged(int state) {
+		mInitState = state;
+		updateUIStatus();
+	}
+
+	/**
+	 * Called when the change user name password request returned.
 	 * @see com.iwares.app.pocketcvs.CVSAgent.Callback#onUserPasswordChanged(boolean)
 	 */
 	public void onUserPasswordChanged(final boolean changed) {
@@ -193,10 +233,10 @@ public class ControlPanelActivity extends Activity implements CVSAgent.Callback,
 	}
 
 	/* (non-Javadoc)
-	 * @see com.iwares.app.pocketcvs.IPAddressMonitor.Callback#onIPAddressChanged(java.lang.String)
+	 * @see com.iwares.app.pocketcvs.IPAddressMonitor.Callback#onIPAddressesChanged(java.lang.String[])
 	 */
-	public void onIPAddressChanged(String ipAddress) {
-		mIPAddress = ipAddress;
+	public void onIPAddressesChanged(String[] ipAddresses) {
+		mIPAddresses = ipAddresses;
 		if (!mAllowExit)
 			return;
 		updateUIStatus();
@@ -23,33 +23,65 @@
 
 package com.iwares.app.pocketcvs;
 
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.Enumeration;
+
+import android.content.BroadcastReceiver;
 import android.content.Context;
-import android.net.wifi.WifiInfo;
-import android.net.wifi.WifiManager;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
 import android.os.Handler;
 
 /**
- * IPAddressMonitor is used to monitor WiFi IP address status. If the IP address
- * is changed, a callback will be invoked.
+ * IPAddressMonitor is used to monitor the IP addresses of all the active
+ * network interfaces, Wi-Fi, Ethernet, USB tethering and so on, both IPv4 and
+ * IPv6. The addresses are scanned again only when the connectivity or the
+ * tethering state is changed, and if they are changed, a callback will be
+ * invoked.
  *
  * @author Eric.Tsai
  *
  */
 public class IPAddressMonitor {
 
+	/** Broadcast action of tethering state changes, hidden in the SDK. */
+	protected static final String ACTION_TETHER_STATE_CHANGED = "android.net.conn.TETHER_STATE_CHANGED";
+
+	/**
+	 * Milliseconds to scan again after a change, the addresses, IPv6 ones
+	 * especially, may be configured a bit later than the broadcast.
+	 */
+	protected static final int RESCAN_DELAY = 2000;
+
+	/** Max count of monitored addresses. */
+	protected static final int MAX_ADDRESSES = 16;
+
 	/** Android OS Handler which the Runnable will be post to. */
 	protected final Handler mHanlder = new Handler();
 
 	/** Indicate whether the IP address monitor is running. */
 	protected boolean mRunning = false;
-	
-	/** This Runnable will be executed every 500 MS if monitor is running. */
+
+	/** This Runnable scans the addresses, it is posted on the broadcasts. */
 	protected final Runnable mRunnable = new Runnable() {
 		public void run() {
-			monitorIPAddress();
 			if (!mRunning)
 				return;
-			mHanlder.postDelayed(mRunnable, 500);
+			monitorIPAddress();
+		}
+	};
+
+	/** Receiver of the connectivity and tethering broadcasts. */
+	protected final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			mHanlder.removeCallbacks(mRunnable);
+			mHanlder.post(mRunnable);
+			mHanlder.postDelayed(mRunnable, RESCAN_DELAY);
 		}
 	};
 
@@ -61,23 +93,31 @@ public class IPAddressMonitor {
 	 */
 	public interface Callback {
 		/**
-		 * This method will be called when the IP address is changed.
+		 * This method will be called when the IP addresses are changed.
 		 *
-		 * @param ipAddress	The new IP address, this will be null if there is no
-		 *					available networks.
+		 * @param ipAddresses	The new IP addresses, IPv6 ones are enclosed in
+		 *						brackets. This will be empty if there is no
+		 *						available networks.
 		 *
 		 */
-		public abstract void onIPAddressChanged(String ipAddress);
+		public abstract void onIPAddressesChanged(String[] ipAddresses);
 	}
 
-	/** Android WiFiManager service. */
-	protected WifiManager mWiFiManager = null;
+	/** Context the receiver is registered with. */
+	protected Context mContext = null;
 
 	/** Current callback interface of this IPAddressMonitor object. */
 	protected Callback mCallback = null;
 
-	/** Last IP address. */
-	protected String mLastIPAddress = null;
+	/**
+	 * Raw addresses of the last and of the current scan, 4 ints per address.
+	 * An IPv4 address is kept as ::ffff:a.b.c.d, so it can be compared with
+	 * the IPv6 ones.
+	 */
+	protected int[] mLastAddresses = new int[MAX_ADDRESSES * 4], mAddresses = new int[MAX_ADDRESSES * 4];
+
+	/** Count of addresses in mLastAddresses, -1 before the first scan. */
+	protected int mLastCount = -1;
 
 	/**
 	 * Constructor.
@@ -87,19 +127,24 @@ public class IPAddressMonitor {
 	 *
 	 */
 	public IPAddressMonitor(Context context, Callback callback) {
-		mWiFiManager = (WifiManager)context.getSystemService(Context.WIFI_SERVICE);
+		mContext = context;
 		mCallback = callback;
 	}
 
 	/**
-	 * Start running the IPAddressMonitor.
+	 * Start running the IPAddressMonitor. The callback is invoked with the
+	 * current addresses first.
 	 *
 	 */
 	public void start() {
 		if (mRunning)
 			return;
-		mHanlder.post(mRunnable);
+		IntentFilter filter = new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION);
+		filter.addAction(ACTION_TETHER_STATE_CHANGED);
+		mContext.registerReceiver(mReceiver, filter);
 		mRunning = true;
+		mLastCount = -1;
+		mHanlder.post(mRunnable);
 	}
 
 	/**
@@ -107,31 +152,106 @@ public class IPAddressMonitor {
 	 *
 	 */
 	public void stop() {
+		if (!mRunning)
+			return;
 		mRunning = false;
+		mContext.unregisterReceiver(mReceiver);
 		mHanlder.removeCallbacks(mRunnable);
 	}
 
 	/**
-	 * Get IP address form the WiFiManager, compare with the last IP address, if
-	 * they are different, invoke the callback.
+	 * Scan the addresses of all the network interfaces, compare them with the
+	 * last addresses, if they are different, invoke the callback. The loopback
+	 * and the link-local addresses are not usable by the clients, they are
+	 * skipped. No string is built unless the addresses are changed.
 	 *
 	 */
 	protected void monitorIPAddress() {
-		String IPAddress = null;
-		WifiInfo inf = mWiFiManager.getConnectionInfo();
-		if (inf != null && inf.getIpAddress() != 0) {
-			int iaddr = inf.getIpAddress();
-			IPAddress =
-				((iaddr >>  0) & 0xff) + "." + ((iaddr >>  8) & 0xff) + "." +
-				((iaddr >> 16) & 0xff) + "." + ((iaddr >> 24) & 0xff)
-				;
+		int count = 0;
+		try {
+			Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+			while (interfaces != null && interfaces.hasMoreElements()) {
+				Enumeration<InetAddress> addresses = interfaces.nextElement().getInetAddresses();
+				while (addresses.hasMoreElements() && count < MAX_ADDRESSES) {
+					InetAddress address = addresses.nextElement();
+					if (address.isLoopbackAddress() || address.isLinkLocalAddress() || address.isAnyLocalAddress())
+						continue;
+					packAddress(address.getAddress(), mAddresses, count++ * 4);
+				}
+			}
+		} catch (SocketException e) {
+			count = 0;
 		}
-		if (mLastIPAddress == IPAddress)
-			return;
-		if (mLastIPAddress != null && mLastIPAddress.equals(IPAddress))
+
+		if (count == mLastCount) {
+			int i = 0;
+			while (i < count * 4 && mAddresses[i] == mLastAddresses[i])
+				++i;
+			if (i == count * 4)
+				return;
+		}
+		int[] swap = mLastAddresses;
+		mLastAddresses = mAddresses;
+		mAddresses = swap;
+		mLastCount = count;
+
+		String[] ipAddresses = new String[count];
+		for (int i = 0; i < count; ++i)
+			ipAddresses[i] = formatAddress(mLastAddresses, i * 4);
+		mCallback.onIPAddressesChanged(ipAddresses);
+	}
+
+	/**
+	 * Pack a raw IPv4 or IPv6 address into 4 ints.
+	 *
+	 * @param raw		The address in network byte order.
+	 * @param packed	Buffer to hold the packed address.
+	 * @param offset	Offset of the packed address in the buffer.
+	 *
+	 */
+	protected static void packAddress(byte[] raw, int[] packed, int offset) {
+		if (raw.length == 4) {
+			packed[offset] = packed[offset + 1] = 0;
+			packed[offset + 2] = 0xffff;
+			packed[offset + 3] = toInt(raw, 0);
 			return;
-		mCallback.onIPAddressChanged(IPAddress);
-		mLastIPAddress = IPAddress;
+		}
+		for (int i = 0; i < 4; ++i)
+			packed[offset + i] = toInt(raw, i * 4);
+	}
+
+	/** Get an int from 4 bytes in network byte order. */
+	private static int toInt(byte[] raw, int offset) {
+		return
+			(raw[offset] & 0xff) << 24 | (raw[offset + 1] & 0xff) << 16 |
+			(raw[offset + 2] & 0xff) << 8 | (raw[offset + 3] & 0xff)
+			;
+	}
+
+	/**
+	 * Format a packed address for display.
+	 *
+	 * @param packed	Buffer holding the packed address.
+	 * @param offset	Offset of the packed address in the buffer.
+	 *
+	 * @return			a.b.c.d for an IPv4 address, [x:x::x] for an IPv6 one.
+	 */
+	protected static String formatAddress(int[] packed, int offset) {
+		int iaddr = packed[offset + 3];
+		if (packed[offset] == 0 && packed[offset + 1] == 0 && packed[offset + 2] == 0xffff) {
+			return
+				((iaddr >>> 24) & 0xff) + "." + ((iaddr >> 16) & 0xff) + "." +
+				((iaddr >>  8) & 0xff) + "." + ((iaddr >>  0) & 0xff)
+				;
+		}
+		byte[] raw = new byte[16];
+		for (int i = 0; i < 16; ++i)
+			raw[i] = (byte)(packed[offset + i / 4] >> (24 - i % 4 * 8));
+		try {
+			return "[" + InetAddress.getByAddress(raw).getHostAddress() + "]";
+		} catch (UnknownHostException e) {
+			return null;
+		}
 	}
 
 }
@@ -10,7 +10,7 @@ public class MediaReceiver extends BroadcastReceiver {
 	@Override
 	public void onReceive(Context context, Intent intent) {
 		Log.i("MediaReceiver", "Media mounted, trying to restore CVS service.");
-		CVSService.startService(context, true);
+		CVSService.startService(context, true, true);
 	}
 
 }